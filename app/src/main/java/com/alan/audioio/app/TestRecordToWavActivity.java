@@ -7,15 +7,14 @@ import android.view.View;
 import android.widget.TextView;
 import android.widget.Toast;
 import com.alan.audioio.R;
+import com.alan.audioio.audio.AsyncWavWriter;
 import com.alan.audioio.audio.AudioRecorder;
 import com.alan.audioio.audio.WavFile;
 import com.alan.audioio.audio.common.AudioIOBuilder;
-import com.alan.audioio.audio.common.IDataAvailableListener;
 import com.alan.audioio.audio.common.Type;
 import com.alan.audioio.audio.exception.AudioException;
 import com.alan.audioio.utils.ALog;
 import java.io.IOException;
-import java.nio.ByteBuffer;
 import androidx.appcompat.app.AppCompatActivity;
 
 public class TestRecordToWavActivity extends AppCompatActivity implements View.OnClickListener {
@@ -26,7 +25,7 @@ public class TestRecordToWavActivity extends AppCompatActivity implements View.O
 
     private String mVocalSavePath = "/sdcard/Alan/audio/record_wrapper.wav";
     private AudioRecorder mAudioRecorder;
-    private WavFile mWavFile;
+    private AsyncWavWriter mWavWriter;
     private TextView mBtnCommonTest;
     private boolean mIsStartTest = false;
 
@@ -80,24 +79,16 @@ public class TestRecordToWavActivity extends AppCompatActivity implements View.O
         WavFile.HeadInfo headInfo = WavFile.HeadInfo.build()
                 .setSampleRate(ioBuilder.getSampleRate())
                 .setChannelCount(ioBuilder.getChannelCount())
-                .setBytePerSample(2);
+                .setAudioFormat(ioBuilder.getFormat());
 
         try {
-            mWavFile = new WavFile(mVocalSavePath, headInfo);
+            // 录音线程只把数据拷贝到环形缓冲区，由 AsyncWavWriter 的 IO 线程写文件
+            mWavWriter = new AsyncWavWriter(new WavFile(mVocalSavePath, headInfo));
 
             mAudioRecorder = new AudioRecorder();
 
             mAudioRecorder.init(ioBuilder);
-            mAudioRecorder.setDataAvailableListener(new IDataAvailableListener() {
-                @Override
-                public void onDataAvailable(ByteBuffer byteBuffer) {
-                    try {
-                        mWavFile.write(byteBuffer.array(), byteBuffer.arrayOffset(), byteBuffer.limit());
-                    } catch (IOException e) {
-                        e.printStackTrace();
-                    }
-                }
-            });
+            mAudioRecorder.setDataAvailableListener(mWavWriter);
         } catch (AudioException | IOException e) {
             e.printStackTrace();
             Toast.makeText(this, "init failed.", Toast.LENGTH_SHORT).show();
@@ -109,9 +100,11 @@ public class TestRecordToWavActivity extends AppCompatActivity implements View.O
         if (mAudioRecorder != null) {
             mAudioRecorder.release();
         }
-        if (mWavFile != null) {
+        if (mWavWriter != null) {
+            ALog.d("releaseRecorder()-->> highWaterMark = " + mWavWriter.getHighWaterMark()
+                    + ", droppedBufferCount = " + mWavWriter.getDroppedBufferCount());
             try {
-                mWavFile.close();
+                mWavWriter.close();
             } catch (IOException e) {
                 e.printStackTrace();
             }
@@ -99,7 +99,7 @@ public class TestPlayWavActivity extends AppCompatActivity implements View.OnCli
                 return;
             }
 
-            mWavFile = new WavFile(mPlayWavPath);
+            mWavFile = new WavFile(mPlayWavPath, true);
 
             mAudioPlayer = new AudioPlayer();
             mAudioPlayer.init(ioBuilder);
@@ -108,7 +108,7 @@ public class TestPlayWavActivity extends AppCompatActivity implements View.OnCli
                 public void onDataAvailable(ByteBuffer byteBuffer) {
                     int readLen = -1;
                     try {
-                        readLen = mWavFile.read(byteBuffer.array(), byteBuffer.arrayOffset(), byteBuffer.limit());
+                        readLen = mWavFile.read(byteBuffer);
                     } catch (IOException e) {
                         e.printStackTrace();
                     }
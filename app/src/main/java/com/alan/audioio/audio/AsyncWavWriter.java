@@ -0,0 +1,268 @@
+/*
+ * Copyright (c) 2019-present AlanWang4523 <alanwang4523@gmail.com>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.alan.audioio.audio;
+
+import com.alan.audioio.audio.common.IDataAvailableListener;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * 异步写 WavFile，录音线程只把数据拷贝到预分配的环形缓冲区中，由独立的 IO 线程合并成大块写入文件，
+ * 存储卡卡顿、fsync、GC 等都不会阻塞录音线程的 AudioRecord.read
+ * 环形缓冲区为单生产者单消费者（SPSC）无锁结构：生产者为调用 {@link #write(ByteBuffer)} 的线程，消费者为内部 IO 线程
+ * 环形缓冲区满时丢弃整个 buffer（不会阻塞生产者），可通过 {@link #getDroppedBufferCount()} 获取丢弃的次数
+ *
+ * Author: AlanWang4523.
+ * Date: 2020/11/21 16:12.
+ * Mail: alanwang4523@gmail.com
+ */
+public class AsyncWavWriter implements IDataAvailableListener {
+    private final static String TAG = AsyncWavWriter.class.getSimpleName();
+    private static final int DEFAULT_RING_CAPACITY = 1024 * 1024;
+    private static final int DEFAULT_WRITE_BLOCK_SIZE = 64 * 1024;
+    /**
+     * IO 线程最长的等待时间，数据不足一个写入块时，超时后也会把已有的数据写入文件
+     */
+    private static final long MAX_IDLE_WAIT_NS = TimeUnit.MILLISECONDS.toNanos(100);
+    /**
+     * close 时写入 mWriteIndex 的标记位，之后生产者无法再发布数据
+     */
+    private static final long SEALED_BIT = Long.MIN_VALUE;
+
+    private final WavFile mWavFile;
+    private final ByteBuffer mRingBuffer;
+    private final ByteBuffer mProducerView;
+    private final ByteBuffer mConsumerView;
+    private final int mCapacity;
+    private final int mWriteBlockSize;
+    /**
+     * 生产者已写入的总字节数，只由生产者修改，close 时加上 {@link #SEALED_BIT}
+     */
+    private final AtomicLong mWriteIndex = new AtomicLong(0);
+    /**
+     * 消费者已取走的总字节数，只由消费者修改
+     */
+    private final AtomicLong mReadIndex = new AtomicLong(0);
+    private final Thread mIOThread;
+    private volatile boolean isClosing = false;
+    private volatile IOException mIOException;
+
+    private volatile long mHighWaterMark;
+    private volatile long mDroppedBufferCount;
+    private volatile long mDroppedBytes;
+
+    /**
+     * 构造 AsyncWavWriter，使用 1MB 的环形缓冲区，每次合并 64KB 写入
+     * @param wavFile 以写模式打开的 WavFile，之后不应再直接调用它的 write
+     */
+    public AsyncWavWriter(WavFile wavFile) {
+        this(wavFile, DEFAULT_RING_CAPACITY, DEFAULT_WRITE_BLOCK_SIZE);
+    }
+
+    /**
+     * 构造 AsyncWavWriter
+     * @param wavFile 以写模式打开的 WavFile，之后不应再直接调用它的 write
+     * @param ringCapacity 环形缓冲区的大小，单位：字节，决定了能承受多长时间的存储卡顿
+     * @param writeBlockSize 合并写入的块大小，单位：字节，积累到该大小时唤醒 IO 线程
+     */
+    public AsyncWavWriter(WavFile wavFile, int ringCapacity, int writeBlockSize) {
+        if (ringCapacity <= 0 || writeBlockSize <= 0) {
+            throw new IllegalArgumentException("The ring capacity and write block size must be greater than 0!");
+        }
+        mWavFile = wavFile;
+        mCapacity = ringCapacity;
+        mWriteBlockSize = Math.min(writeBlockSize, ringCapacity);
+        mRingBuffer = ByteBuffer.allocateDirect(ringCapacity);
+        mProducerView = mRingBuffer.duplicate();
+        mConsumerView = mRingBuffer.duplicate();
+        mIOThread = new Thread(null, new IORunnable(), TAG + "-" + System.currentTimeMillis());
+        mIOThread.setDaemon(true);
+        mIOThread.start();
+    }
+
+    @Override
+    public void onDataAvailable(ByteBuffer byteBuffer) {
+        write(byteBuffer);
+    }
+
+    /**
+     * 写 PCM 数据，只做一次（跨越环形缓冲区结尾时为两次）内存拷贝，不会阻塞
+     * 写入 byteBuffer 中 position 到 limit 之间的数据，不改变 byteBuffer 的 position 和 limit
+     * @param byteBuffer 音频数据
+     * @return 是否写入成功，环形缓冲区空间不足或已关闭（包括与 close 并发）时返回 false，该 buffer 被丢弃
+     */
+    public boolean write(ByteBuffer byteBuffer) {
+        if (byteBuffer == null || !byteBuffer.hasRemaining()) {
+            return true;
+        }
+        int len = byteBuffer.remaining();
+        long writeIndex = mWriteIndex.get();
+        long used = writeIndex - mReadIndex.get();
+        if (isClosing || len > mCapacity - used) {
+            mDroppedBufferCount++;
+            mDroppedBytes += len;
+            return false;
+        }
+
+        int oldPosition = byteBuffer.position();
+        int oldLimit = byteBuffer.limit();
+        int ringOffset = (int) (writeIndex % mCapacity);
+        int firstPart = Math.min(len, mCapacity - ringOffset);
+        mProducerView.limit(ringOffset + firstPart).position(ringOffset);
+        byteBuffer.limit(oldPosition + firstPart);
+        mProducerView.put(byteBuffer);
+        if (firstPart < len) {
+            mProducerView.limit(len - firstPart).position(0);
+            byteBuffer.limit(oldLimit);
+            mProducerView.put(byteBuffer);
+        }
+        byteBuffer.limit(oldLimit).position(oldPosition);
+
+        // 发布写入位置，消费者看到新的 writeIndex 时数据一定已经写入
+        // close 已经封闭了写入位置时发布失败，数据不会写入文件，按丢弃统计
+        if (!mWriteIndex.compareAndSet(writeIndex, writeIndex + len)) {
+            mDroppedBufferCount++;
+            mDroppedBytes += len;
+            return false;
+        }
+        used += len;
+        if (used > mHighWaterMark) {
+            mHighWaterMark = used;
+        }
+        if (used >= mWriteBlockSize && used - len < mWriteBlockSize) {
+            LockSupport.unpark(mIOThread);
+        }
+        return true;
+    }
+
+    /**
+     * 停止接收数据，等待 IO 线程把环形缓冲区中剩余的数据写完，然后关闭 WavFile
+     * @throws IOException IO 线程写文件时发生的第一个异常，或关闭文件时的异常
+     */
+    public void close() throws IOException {
+        if (isClosing) {
+            return;
+        }
+        isClosing = true;
+        LockSupport.unpark(mIOThread);
+        boolean isInterrupted = false;
+        while (mIOThread.isAlive()) {
+            try {
+                mIOThread.join();
+            } catch (InterruptedException e) {
+                isInterrupted = true;
+            }
+        }
+        if (isInterrupted) {
+            Thread.currentThread().interrupt();
+        }
+        // 封闭写入位置，已经通过 isClosing 检查的生产者之后发布会失败；
+        // IO 线程最后一次取数据之后才发布的数据由这里写入文件
+        long writeIndex;
+        do {
+            writeIndex = mWriteIndex.get();
+        } while (!mWriteIndex.compareAndSet(writeIndex, writeIndex | SEALED_BIT));
+        long available = writeIndex - mReadIndex.get();
+        if (available > 0) {
+            drain(available);
+        }
+        mWavFile.close();
+        if (mIOException != null) {
+            throw mIOException;
+        }
+    }
+
+    /**
+     * 获取环形缓冲区的最高占用量，接近容量时说明存储速度跟不上，需要加大缓冲区
+     * @return 最高占用量，单位：字节
+     */
+    public long getHighWaterMark() {
+        return mHighWaterMark;
+    }
+
+    /**
+     * 获取因环形缓冲区空间不足而丢弃的 buffer 个数
+     * @return 丢弃的 buffer 个数
+     */
+    public long getDroppedBufferCount() {
+        return mDroppedBufferCount;
+    }
+
+    /**
+     * 获取因环形缓冲区空间不足而丢弃的数据量
+     * @return 丢弃的数据量，单位：字节
+     */
+    public long getDroppedBytes() {
+        return mDroppedBytes;
+    }
+
+    /**
+     * 获取环形缓冲区的容量
+     * @return 容量，单位：字节
+     */
+    public int getCapacity() {
+        return mCapacity;
+    }
+
+    /**
+     * 把环形缓冲区中的数据写入文件，每次写一段连续的内存，跨越结尾时分两次写
+     * @param available 可写入的数据量，单位：字节
+     */
+    private void drain(long available) {
+        long readIndex = mReadIndex.get();
+        while (available > 0) {
+            int ringOffset = (int) (readIndex % mCapacity);
+            int len = (int) Math.min(available, mCapacity - ringOffset);
+            mConsumerView.limit(ringOffset + len).position(ringOffset);
+            if (mIOException == null) {
+                try {
+                    mWavFile.write(mConsumerView);
+                } catch (IOException e) {
+                    // 写失败后继续消费数据，避免录音线程因环形缓冲区满而持续丢数据，异常在 close 时抛出
+                    mIOException = e;
+                }
+            }
+            readIndex += len;
+            available -= len;
+            // 发布读取位置，生产者看到新的 readIndex 时这段空间已经可以复用
+            mReadIndex.lazySet(readIndex);
+        }
+    }
+
+    private class IORunnable implements Runnable {
+
+        @Override
+        public void run() {
+            while (true) {
+                boolean isFinalDrain = isClosing;
+                long available = mWriteIndex.get() - mReadIndex.get();
+                if (available < mWriteBlockSize && !isFinalDrain) {
+                    LockSupport.parkNanos(this, MAX_IDLE_WAIT_NS);
+                    available = mWriteIndex.get() - mReadIndex.get();
+                }
+                if (available > 0) {
+                    drain(available);
+                }
+                if (isFinalDrain && mWriteIndex.get() == mReadIndex.get()) {
+                    break;
+                }
+            }
+        }
+    }
+}
@@ -0,0 +1,213 @@
+/*
+ * Copyright (c) 2019-present AlanWang4523 <alanwang4523@gmail.com>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.alan.audioio.audio;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * 单生产者单消费者（SPSC）无锁环形缓冲区，由 slotCount 个预分配的定长 slot 组成，每个 slot 存放一个 buffer 的数据
+ * 录音时生产者（录音线程）直接把 AudioRecord 的数据读到 slot 中再发布，消费者（回调线程）把 slot 拷贝到自己的 buffer 后交给外层；
+ * 播放预读时生产者（预读线程）通过外层回调把数据填到 slot 中再发布，消费者（播放线程）把 slot 拷贝到播放 buffer 中
+ * 满时的处理由 {@link AudioIOStream.OverflowPolicy} 决定；
+ * DROP_OLDEST 时生产者会通过 CAS 推进读位置，消费者拷贝完成后也通过 CAS 推进读位置，
+ * CAS 失败说明拷贝期间该 slot 已被生产者回收，拷贝的数据作废，因此不会把被覆盖了一半的数据交给外层
+ *
+ * Author: AlanWang4523.
+ * Date: 2020/12/13 15:20.
+ * Mail: alanwang4523@gmail.com
+ */
+final class AudioFrameRing {
+    /**
+     * BLOCK 策略下生产者每次等待的最长时间，消费者腾出空间时会提前唤醒
+     */
+    private static final long BLOCK_WAIT_NS = TimeUnit.MILLISECONDS.toNanos(5);
+
+    private final int mSlotCount;
+    private final @AudioIOStream.OverflowPolicy int mOverflowPolicy;
+    private final ByteBuffer[] mProducerSlots;
+    private final ByteBuffer[] mConsumerSlots;
+    private final int[] mSlotLengths;
+    /**
+     * 生产者已发布的 slot 总数，只由生产者修改
+     */
+    private final AtomicLong mWriteIndex = new AtomicLong(0);
+    /**
+     * 消费者已取走（或 DROP_OLDEST 时被生产者丢弃）的 slot 总数
+     */
+    private final AtomicLong mReadIndex = new AtomicLong(0);
+    private volatile Thread mProducerThread;
+    private volatile Thread mConsumerThread;
+    private volatile boolean isClosed = false;
+
+    private volatile long mDroppedOldestCount;
+    private volatile long mDroppedNewestCount;
+    private volatile long mBlockedCount;
+    private volatile int mHighWaterMark;
+
+    /**
+     * 构造函数
+     * @param slotCount slot 的个数
+     * @param slotSize 每个 slot 的大小，单位：字节
+     * @param overflowPolicy 满时的处理策略
+     */
+    AudioFrameRing(int slotCount, int slotSize, @AudioIOStream.OverflowPolicy int overflowPolicy) {
+        if (slotCount < 2 || slotSize <= 0) {
+            throw new IllegalArgumentException("The slot count must be at least 2 and the slot size must be greater than 0!");
+        }
+        mSlotCount = slotCount;
+        mOverflowPolicy = overflowPolicy;
+        mProducerSlots = new ByteBuffer[slotCount];
+        mConsumerSlots = new ByteBuffer[slotCount];
+        mSlotLengths = new int[slotCount];
+        ByteBuffer memory = ByteBuffer.allocateDirect(slotCount * slotSize);
+        for (int i = 0; i < slotCount; i++) {
+            memory.limit((i + 1) * slotSize).position(i * slotSize);
+            mProducerSlots[i] = memory.slice().order(ByteOrder.LITTLE_ENDIAN);
+            mConsumerSlots[i] = mProducerSlots[i].duplicate();
+        }
+    }
+
+    /**
+     * 设置消费者线程，生产者发布数据后唤醒该线程
+     * @param consumerThread 消费者线程
+     */
+    void setConsumerThread(Thread consumerThread) {
+        mConsumerThread = consumerThread;
+    }
+
+    /**
+     * 生产者获取下一个要写入的 slot，position 为 0，limit 为 capacity
+     * 满时按策略处理：DROP_OLDEST 丢弃最旧的一个 slot；DROP_NEWEST 返回 null，调用者需自行读取并丢弃这次的数据；
+     * BLOCK 等待消费者腾出空间，关闭后不再等待并返回 null
+     * @return 要写入的 slot，不需要写入时返回 null
+     */
+    ByteBuffer acquire() {
+        long writeIndex = mWriteIndex.get();
+        if (writeIndex - mReadIndex.get() >= mSlotCount) {
+            if (mOverflowPolicy == AudioIOStream.OverflowPolicy.DROP_NEWEST) {
+                mDroppedNewestCount++;
+                return null;
+            } else if (mOverflowPolicy == AudioIOStream.OverflowPolicy.BLOCK) {
+                mBlockedCount++;
+                mProducerThread = Thread.currentThread();
+                while (writeIndex - mReadIndex.get() >= mSlotCount) {
+                    if (isClosed) {
+                        return null;
+                    }
+                    LockSupport.parkNanos(this, BLOCK_WAIT_NS);
+                }
+            } else {
+                long readIndex = mReadIndex.get();
+                while (writeIndex - readIndex >= mSlotCount) {
+                    if (mReadIndex.compareAndSet(readIndex, readIndex + 1)) {
+                        mDroppedOldestCount++;
+                        break;
+                    }
+                    readIndex = mReadIndex.get();
+                }
+            }
+        }
+        ByteBuffer slot = mProducerSlots[(int) (writeIndex % mSlotCount)];
+        slot.clear();
+        return slot;
+    }
+
+    /**
+     * 生产者发布 {@link #acquire()} 得到的 slot
+     * @param len slot 中有效数据的长度，单位：字节
+     */
+    void publish(int len) {
+        long writeIndex = mWriteIndex.get();
+        mSlotLengths[(int) (writeIndex % mSlotCount)] = len;
+        // 发布写入位置，消费者看到新的 writeIndex 时数据和长度一定已经写入
+        mWriteIndex.lazySet(writeIndex + 1);
+        int used = (int) (writeIndex + 1 - mReadIndex.get());
+        if (used > mHighWaterMark) {
+            mHighWaterMark = used;
+        }
+        Thread consumerThread = mConsumerThread;
+        if (consumerThread != null) {
+            LockSupport.unpark(consumerThread);
+        }
+    }
+
+    /**
+     * 消费者取出最旧的一个 slot，拷贝到 target 中
+     * @param target 拷贝的目标，拷贝后 position 为 0，limit 为数据长度
+     * @return 没有数据时返回 false
+     */
+    boolean poll(ByteBuffer target) {
+        while (true) {
+            long readIndex = mReadIndex.get();
+            if (mWriteIndex.get() == readIndex) {
+                return false;
+            }
+            int slotIndex = (int) (readIndex % mSlotCount);
+            ByteBuffer slot = mConsumerSlots[slotIndex];
+            slot.limit(mSlotLengths[slotIndex]).position(0);
+            target.clear();
+            target.put(slot);
+            target.flip();
+            // CAS 成功说明拷贝期间该 slot 没有被生产者回收
+            if (mReadIndex.compareAndSet(readIndex, readIndex + 1)) {
+                Thread producerThread = mProducerThread;
+                if (producerThread != null) {
+                    LockSupport.unpark(producerThread);
+                }
+                return true;
+            }
+        }
+    }
+
+    /**
+     * 生产者不再写入数据，BLOCK 策略下正在等待的生产者会返回
+     */
+    void close() {
+        isClosed = true;
+        Thread consumerThread = mConsumerThread;
+        if (consumerThread != null) {
+            LockSupport.unpark(consumerThread);
+        }
+    }
+
+    boolean isClosed() {
+        return isClosed;
+    }
+
+    long getDroppedOldestCount() {
+        return mDroppedOldestCount;
+    }
+
+    long getDroppedNewestCount() {
+        return mDroppedNewestCount;
+    }
+
+    long getBlockedCount() {
+        return mBlockedCount;
+    }
+
+    int getHighWaterMark() {
+        return mHighWaterMark;
+    }
+
+    int getSlotCount() {
+        return mSlotCount;
+    }
+}
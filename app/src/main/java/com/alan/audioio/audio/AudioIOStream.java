@@ -15,14 +15,682 @@
  */
 package com.alan.audioio.audio;
 
+import androidx.annotation.IntDef;
+import com.alan.audioio.audio.backend.AndroidAudioBackend;
+import com.alan.audioio.audio.backend.AudioDeviceBackend;
+import com.alan.audioio.audio.backend.AudioInputDevice;
+import com.alan.audioio.audio.backend.AudioOutputDevice;
 import com.alan.audioio.audio.common.AudioIOBuilder;
+import com.alan.audioio.audio.common.IDataAvailableListener;
+import com.alan.audioio.audio.common.IOStatus;
+import com.alan.audioio.audio.common.Type;
+import com.alan.audioio.audio.exception.AudioException;
+import com.alan.audioio.audio.processor.AudioFader;
+import com.alan.audioio.audio.processor.ProcessorChain;
+import java.lang.annotation.Retention;
+import java.lang.annotation.RetentionPolicy;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.LockSupport;
 
 /**
+ * 统一的音频流引擎，录音和播放共用同一套工作线程、状态机、缓冲区、回调和统计，
+ * 方向由 {@link AudioIOBuilder#getDirection()} 决定，{@link AudioRecorder} 和 {@link AudioPlayer} 为固定方向的子类
+ * 工作线程的每次循环：无锁检查命令 -> 在设备和缓冲区之间传输一个 buffer -> 经过处理链（播放时还有淡入淡出）-> 回调或写入设备
+ *
  * Author: AlanWang4523.
  * Date: 19/6/2 00:59.
  * Mail: alanwang4523@gmail.com
  */
-public abstract class AudioIOStream implements IAudioIO {
+public class AudioIOStream implements IAudioIO {
+    /**
+     * 环形缓冲模式下回调线程最长的等待时间
+     */
+    private static final long MAX_IDLE_WAIT_NS = TimeUnit.MILLISECONDS.toNanos(100);
+
+    /**
+     * 环形缓冲模式下，回调线程处理不及时导致环形缓冲区满时的处理策略
+     */
+    @Retention(RetentionPolicy.SOURCE)
+    @IntDef({OverflowPolicy.DROP_OLDEST, OverflowPolicy.DROP_NEWEST, OverflowPolicy.BLOCK})
+    public @interface OverflowPolicy {
+        /**
+         * 丢弃最旧的还未回调的数据，保证回调的总是最新的数据，适合实时的监听、识别
+         */
+        int DROP_OLDEST = 0;
+
+        /**
+         * 丢弃新采集的数据，保证已缓存的数据连续，适合录制
+         */
+        int DROP_NEWEST = 1;
+
+        /**
+         * 录音线程等待回调线程腾出空间，不丢弃缓冲区中的数据，但等待期间 AudioRecord 内部可能溢出
+         */
+        int BLOCK = 2;
+    }
+
+    private final String mTag = getClass().getSimpleName();
+    /**
+     * 子类固定了方向时忽略 AudioIOBuilder 中的方向
+     */
+    private final boolean isDirectionFixed;
+    private @Type.Direction int mDirection;
+    private IDataAvailableListener mDataAvailableListener;
+    private final ControlMailbox mMailbox = new ControlMailbox();
+    private Thread mWorkThread;
+    private AudioDeviceBackend mDeviceBackend;
+    private AudioInputDevice mInputDevice;
+    private AudioOutputDevice mOutputDevice;
+    private ByteBuffer mDataBuffer;
+    private int mBufferSizePerFrame;
+    private long mBufferDurationNs;
+    private final ProcessorChain mProcessorChain = new ProcessorChain();
+    private @AudioFader.Curve int mFadeCurve = AudioFader.Curve.LINEAR;
+    private int mFadeDurationMs = AudioFader.DEFAULT_DURATION_MS;
+    private AudioFader mFader;
+    private int mRingSlotCount = 0;
+    private @OverflowPolicy int mOverflowPolicy = OverflowPolicy.DROP_NEWEST;
+    private int mPrefetchLookaheadMs = 0;
+    private AudioFrameRing mFrameRing;
+    private ByteBuffer mDeliverBuffer;
+    /**
+     * 环形缓冲区另一端的线程，录音时为回调线程，播放时为预读线程
+     */
+    private Thread mRingThread;
+    /**
+     * 预读线程最近一次从外层取数据时外层没有数据，此时播放线程取不到数据不算欠载
+     */
+    private volatile boolean isSourceEmpty = false;
+    private volatile long mUnderrunCount;
+    private volatile long mProcessedCount;
+    private volatile long mTotalProcessNs;
+    private volatile long mMaxProcessNs;
+
+    /**
+     * 构造函数，方向由 init 时的 AudioIOBuilder 决定
+     */
+    public AudioIOStream() {
+        isDirectionFixed = false;
+    }
+
+    /**
+     * 固定方向的构造函数
+     * @param direction 方向
+     */
+    AudioIOStream(@Type.Direction int direction) {
+        isDirectionFixed = true;
+        mDirection = direction;
+    }
+
+    /**
+     * 设置 IDataAvailableListener
+     * @param dataAvailableListener 录音时用于处理采集到的音频数据，播放时用于获取要播放的数据
+     */
+    public void setDataAvailableListener(IDataAvailableListener dataAvailableListener) {
+        this.mDataAvailableListener = dataAvailableListener;
+    }
+
+    /**
+     * 设置音频设备后端，需要在 init 之前调用，默认为基于 AudioRecord、AudioTrack 的 {@link AndroidAudioBackend}
+     * @param deviceBackend AudioDeviceBackend，如在 JVM 上测试时使用 SimulatedAudioBackend
+     */
+    public void setDeviceBackend(AudioDeviceBackend deviceBackend) {
+        this.mDeviceBackend = deviceBackend;
+    }
+
+    /**
+     * 获取音频处理链，可在运行中增删处理单元
+     * @return ProcessorChain
+     */
+    public ProcessorChain getProcessorChain() {
+        return mProcessorChain;
+    }
+
+    /**
+     * 获取方向，init 之后有效
+     * @return 方向
+     */
+    public @Type.Direction int getDirection() {
+        return mDirection;
+    }
+
+    /**
+     * 设置播放时开始、暂停、恢复、停止的淡入淡出参数，需要在 init 之前调用，录音时无效
+     * @param curve 增益曲线
+     * @param durationMs 淡入淡出的时长，单位：毫秒，默认为 {@link AudioFader#DEFAULT_DURATION_MS}
+     */
+    public void setFadeParams(@AudioFader.Curve int curve, int durationMs) {
+        if (durationMs <= 0) {
+            throw new IllegalArgumentException("The fade duration must be greater than 0!");
+        }
+        mFadeCurve = curve;
+        mFadeDurationMs = durationMs;
+    }
+
+    /**
+     * 设置录音时的环形缓冲模式，需要在 init 之前调用，播放时无效
+     * 默认模式下在录音线程中回调 IDataAvailableListener，回调耗时过长会推迟下一次 AudioRecord.read 导致溢出；
+     * 环形缓冲模式下录音线程只把数据读到预分配的环形缓冲区中，由独立的回调线程处理和回调，
+     * 回调时的 buffer 在回调返回前不会被录音线程覆盖
+     * @param slotCount 环形缓冲区能缓存的 buffer 个数，0 表示使用默认模式，否则至少为 2
+     * @param overflowPolicy 环形缓冲区满时的处理策略
+     */
+    public void setRingCapture(int slotCount, @OverflowPolicy int overflowPolicy) {
+        if (slotCount != 0 && slotCount < 2) {
+            throw new IllegalArgumentException("The slot count must be 0 or at least 2!");
+        }
+        mRingSlotCount = slotCount;
+        mOverflowPolicy = overflowPolicy;
+    }
+
+    /**
+     * 设置播放时的预读，需要在 init 之前调用，录音时无效
+     * 默认在播放线程中回调 IDataAvailableListener 取数据后马上阻塞写入 AudioTrack，取数据（如读文件）的卡顿会直接造成欠载；
+     * 开启预读后由独立的预读线程提前取数据放入环形缓冲区，播放线程只从环形缓冲区拷贝已准备好的数据
+     * 开启预读后 IDataAvailableListener 在预读线程中回调，外层在回调中返回 limit 为 0 的 buffer 表示暂时没有数据
+     * @param lookaheadMs 预读的时长，单位：毫秒，0 表示不预读，至少预读两个 buffer
+     */
+    public void setPrefetch(int lookaheadMs) {
+        if (lookaheadMs < 0) {
+            throw new IllegalArgumentException("The lookahead must not be negative!");
+        }
+        mPrefetchLookaheadMs = lookaheadMs;
+    }
+
+    /**
+     * 获取录音环形缓冲模式下因环形缓冲区满而丢弃的 buffer 个数
+     * @return 丢弃的 buffer 个数，默认模式下为 0
+     */
+    public long getOverrunCount() {
+        AudioFrameRing frameRing = mFrameRing;
+        if (frameRing == null || mDirection != Type.Direction.Input) {
+            return 0;
+        }
+        return frameRing.getDroppedOldestCount() + frameRing.getDroppedNewestCount();
+    }
+
+    /**
+     * 获取录音环形缓冲模式下 BLOCK 策略时录音线程等待的次数
+     * @return 等待的次数，默认模式下为 0
+     */
+    public long getBlockedCount() {
+        AudioFrameRing frameRing = mFrameRing;
+        if (frameRing == null || mDirection != Type.Direction.Input) {
+            return 0;
+        }
+        return frameRing.getBlockedCount();
+    }
+
+    /**
+     * 获取环形缓冲区的最高占用量，录音时接近 slotCount 说明回调线程处理不及时
+     * @return 最高占用的 buffer 个数，没有环形缓冲区时为 0
+     */
+    public int getRingHighWaterMark() {
+        AudioFrameRing frameRing = mFrameRing;
+        return frameRing == null ? 0 : frameRing.getHighWaterMark();
+    }
+
+    /**
+     * 获取播放预读模式下的欠载次数，即播放线程需要数据时预读的数据还没准备好的次数
+     * @return 欠载次数，不预读时为 0
+     */
+    public long getUnderrunCount() {
+        return mUnderrunCount;
+    }
+
+    /**
+     * 获取经过处理链的 buffer 个数
+     * @return buffer 个数
+     */
+    public long getProcessedCount() {
+        return mProcessedCount;
+    }
+
+    /**
+     * 获取单个 buffer 经过处理链（播放时包括淡入淡出）的平均耗时
+     * @return 平均耗时，单位：纳秒
+     */
+    public long getAverageProcessNs() {
+        long processedCount = mProcessedCount;
+        return processedCount == 0 ? 0 : mTotalProcessNs / processedCount;
+    }
+
+    /**
+     * 获取单个 buffer 经过处理链（播放时包括淡入淡出）的最长耗时，接近 buffer 时长时容易出现溢出或欠载
+     * @return 最长耗时，单位：纳秒
+     */
+    public long getMaxProcessNs() {
+        return mMaxProcessNs;
+    }
+
+    /**
+     * 初始化
+     * @param ioBuilder AudioIOBuilder，子类固定了方向时忽略其中的方向
+     * @throws AudioException AudioException
+     */
+    @Override
+    public void init(AudioIOBuilder ioBuilder) throws AudioException {
+        try {
+            if (ioBuilder.getBufferSize() <= 0) {
+                throw new AudioException("The buffer size must be greater than 0!", null);
+            }
+            if (!isDirectionFixed) {
+                mDirection = ioBuilder.getDirection();
+            }
+            int sampleRateInHz = ioBuilder.getSampleRate();
+            int channelCount = ioBuilder.getChannelCount();
+            if (mDeviceBackend == null) {
+                mDeviceBackend = new AndroidAudioBackend();
+            }
+            if (mDirection == Type.Direction.Input) {
+                mInputDevice = mDeviceBackend.openInput(ioBuilder);
+            } else {
+                mOutputDevice = mDeviceBackend.openOutput(ioBuilder);
+            }
+
+            mBufferSizePerFrame = ioBuilder.getBufferSize();
+            mDataBuffer = ByteBuffer.allocateDirect(mBufferSizePerFrame)
+                    .order(ByteOrder.LITTLE_ENDIAN);
+            mProcessorChain.prepare(sampleRateInHz, channelCount,
+                    ioBuilder.getFormat(), mBufferSizePerFrame);
+            int bytePerFrame = channelCount * (ioBuilder.getFormat() == Type.AudioFormat.PCM_Float ? 4 : 2);
+            mBufferDurationNs = 1000000000L * mBufferSizePerFrame / bytePerFrame / sampleRateInHz;
+
+            if (mDirection == Type.Direction.Input) {
+                if (mRingSlotCount > 0) {
+                    mFrameRing = new AudioFrameRing(mRingSlotCount, mBufferSizePerFrame, mOverflowPolicy);
+                    mDeliverBuffer = ByteBuffer.allocateDirect(mBufferSizePerFrame)
+                            .order(ByteOrder.LITTLE_ENDIAN);
+                }
+            } else {
+                if (mPrefetchLookaheadMs > 0) {
+                    long lookaheadBytes = (long) mPrefetchLookaheadMs * sampleRateInHz / 1000 * bytePerFrame;
+                    int slotCount = (int) Math.max(2,
+                            (lookaheadBytes + mBufferSizePerFrame - 1) / mBufferSizePerFrame);
+                    mFrameRing = new AudioFrameRing(slotCount, mBufferSizePerFrame, OverflowPolicy.BLOCK);
+                }
+                mFader = new AudioFader(mFadeCurve, mFadeDurationMs);
+                mFader.prepare(sampleRateInHz, channelCount,
+                        ioBuilder.getFormat(), mBufferSizePerFrame);
+            }
+            mMailbox.reset();
+        } catch (Exception e) {
+            throw new AudioException("Init " + mTag + " Failed!", e);
+        }
+    }
+
+    /**
+     * 开始，暂停状态下调用等同于 resume
+     * 以下控制方法都不会阻塞，返回的 Future 在工作线程执行完命令（如淡入淡出结束）后完成，需要同步等待时调用其 get()
+     * @return 开始的 Future
+     */
+    @Override
+    public Future<Void> start() {
+        Future<Void> future = mMailbox.request(IOStatus.START);
+        if (future != null) {
+            mWorkThread = new Thread(null, new Runnable() {
+                @Override
+                public void run() {
+                    workRun();
+                }
+            }, mTag + "-" + System.currentTimeMillis());
+            mWorkThread.setDaemon(true);
+            mMailbox.setWorkThread(mWorkThread);
+            if (mFrameRing != null) {
+                if (mDirection == Type.Direction.Input) {
+                    mRingThread = new Thread(null, new DeliverRunnable(),
+                            mTag + "-Deliver-" + System.currentTimeMillis());
+                    mFrameRing.setConsumerThread(mRingThread);
+                } else {
+                    mRingThread = new Thread(null, new PrefetchRunnable(),
+                            mTag + "-Prefetch-" + System.currentTimeMillis());
+                    mFrameRing.setConsumerThread(mWorkThread);
+                }
+                mRingThread.setDaemon(true);
+                mRingThread.start();
+            }
+            mWorkThread.start();
+            return future;
+        }
+        int targetStatus = mMailbox.getTargetStatus();
+        if (targetStatus == IOStatus.PAUSE) {
+            return resume();
+        } else if (targetStatus == IOStatus.RESUME) {
+            return ControlMailbox.DONE;
+        }
+        throw new IllegalStateException();
+    }
+
+    /**
+     * 暂停，录音时读完当前的 buffer 后停止设备，播放时淡出结束后暂停设备
+     * @return 暂停完成的 Future
+     */
+    @Override
+    public Future<Void> pause() {
+        Future<Void> future = mMailbox.request(IOStatus.PAUSE);
+        return future == null ? ControlMailbox.DONE : future;
+    }
+
+    /**
+     * 恢复
+     * @return 恢复完成（播放时为淡入结束）的 Future
+     */
+    @Override
+    public Future<Void> resume() {
+        Future<Void> future = mMailbox.request(IOStatus.RESUME);
+        return future == null ? ControlMailbox.DONE : future;
+    }
+
+    /**
+     * 停止，录音时读完当前的 buffer 后、播放时淡出结束后停止并释放设备
+     * @return 停止完成的 Future
+     */
+    @Override
+    public Future<Void> stop() {
+        Future<Void> future = mMailbox.request(IOStatus.STOP);
+        return future == null ? ControlMailbox.DONE : future;
+    }
+
+    /**
+     * 释放资源，会等待工作线程结束
+     */
+    @Override
+    public void release() {
+        // 如果初始化后还没开始则释放资源，否则统一在工作线程中释放
+        if (mMailbox.releaseIfInitiated()) {
+            releaseDevice();
+        } else {
+            mMailbox.request(IOStatus.STOP);
+        }
+        // 等待工作线程结束
+        if (mWorkThread != null) {
+            try {
+                mWorkThread.join(1000);
+            } catch (InterruptedException e) {
+                e.printStackTrace();
+            }
+        }
+        // 工作线程退出时会关闭环形缓冲区，等待回调线程回调完剩余的数据或预读线程结束
+        if (mRingThread != null) {
+            try {
+                mRingThread.join(1000);
+            } catch (InterruptedException e) {
+                e.printStackTrace();
+            }
+        }
+        this.mDataAvailableListener = null;
+    }
+
+    /**
+     * 工作线程，录音和播放共用同一个循环，只有传输 buffer 的方向不同
+     */
+    void workRun() {
+        mProcessorChain.reset();
+        if (mFader != null) {
+            mFader.reset();
+        }
+        startDevice();
+        @IOStatus int curStatus = IOStatus.INITIATED;
+        // 正在执行的命令，播放时 Fade 可能跨越多个 buffer，Fade 结束后才算执行完
+        ControlMailbox.Command command = null;
+        while (true) {
+            if (command == null) {
+                // 稳定运行时只有这一次无锁的队列检查
+                command = mMailbox.poll();
+                if (command != null) {
+                    curStatus = command.status;
+                    if (curStatus == IOStatus.PAUSE || curStatus == IOStatus.STOP) {
+                        // 暂停后已经静音且设备已暂停，不再淡出，直接停止，不再回调外层或写入已暂停的设备
+                        if (mFader != null && !mFader.isMuted()) {
+                            mFader.startFadeOut();
+                        }
+                    } else {
+                        if (curStatus == IOStatus.RESUME) {
+                            startDevice();
+                        }
+                        if (mFader != null) {
+                            mFader.startFadeIn();
+                        }
+                    }
+                }
+            }
+
+            if (mFader == null || !mFader.isFading()) {
+                if (curStatus == IOStatus.STOP) {
+                    break;
+                }
+                if (command != null) {
+                    if (curStatus == IOStatus.PAUSE) {
+                        pauseDevice();
+                    }
+                    command.complete();
+                    command = null;
+                }
+                if (curStatus == IOStatus.PAUSE) {
+                    // 暂停时等待新的命令
+                    mMailbox.awaitCommand();
+                    continue;
+                }
+            }
+
+            if (mDirection == Type.Direction.Input) {
+                readBuffer();
+            } else {
+                writeBuffer();
+            }
+        }
+        if (mFrameRing != null) {
+            mFrameRing.close();
+        }
+        releaseDevice();
+        if (command != null) {
+            command.complete();
+        }
+        mMailbox.completeAll();
+    }
+
+    private void startDevice() {
+        if (mInputDevice != null) {
+            mInputDevice.start();
+        } else {
+            mOutputDevice.play();
+        }
+    }
+
+    private void pauseDevice() {
+        if (mInputDevice != null) {
+            mInputDevice.stop();
+        } else {
+            mOutputDevice.pause();
+        }
+    }
+
+    private void releaseDevice() {
+        if (mInputDevice != null) {
+            mInputDevice.stop();
+            mInputDevice.release();
+        } else {
+            mOutputDevice.stop();
+            mOutputDevice.release();
+        }
+    }
+
+    /**
+     * 录音时从设备读取一个 buffer，经过处理链后回调给外层，环形缓冲模式下只放入环形缓冲区
+     */
+    private void readBuffer() {
+        if (mFrameRing != null) {
+            // 环形缓冲模式：直接读到环形缓冲区的 slot 中，由回调线程处理和回调
+            ByteBuffer slot = mFrameRing.acquire();
+            if (slot != null) {
+                mFrameRing.publish(readFrame(slot));
+            } else {
+                // 环形缓冲区满且丢弃新数据，仍然需要读取，避免设备内部溢出
+                readFrame(mDataBuffer);
+            }
+            return;
+        }
+        ByteBuffer dataBuffer = mDataBuffer;
+        int totalReadLen = readFrame(dataBuffer);
+        // 在交给外层之前先经过处理链原地处理
+        processBuffer(dataBuffer);
+        if (totalReadLen >= 0 && mDataAvailableListener != null) {
+            // 通知外层可以取录音数据
+            mDataAvailableListener.onDataAvailable(dataBuffer);
+        }
+    }
+
+    /**
+     * 播放时从外层或预读的环形缓冲区取一个 buffer，经过处理链和 Fade 后写入设备
+     */
+    private void writeBuffer() {
+        ByteBuffer dataBuffer = mDataBuffer;
+        dataBuffer.clear();
+        if (mFrameRing != null) {
+            // 预读模式：只从环形缓冲区拷贝已准备好的数据，最多等待一个 buffer 的时长
+            if (!mFrameRing.poll(dataBuffer)) {
+                LockSupport.parkNanos(this, mBufferDurationNs);
+                if (!mFrameRing.poll(dataBuffer)) {
+                    if (!isSourceEmpty) {
+                        mUnderrunCount++;
+                    }
+                    dataBuffer.limit(0);
+                }
+            }
+        } else if (mDataAvailableListener != null) {
+            // 外层将需要播放的数据放入 dataBuffer
+            mDataAvailableListener.onDataAvailable(dataBuffer);
+        }
+
+        if (dataBuffer.limit() <= 0) {
+            // 没有数据可播放，直接结束 Fade
+            mFader.finish();
+            return;
+        }
+        dataBuffer.rewind();
+        processBuffer(dataBuffer);
+        dataBuffer.rewind();
+        mOutputDevice.write(dataBuffer, dataBuffer.limit());
+    }
+
+    /**
+     * 原地处理一个 buffer 并统计耗时，播放时在处理链之后 Fade
+     * 只有处理 buffer 的线程写统计值，其他线程只读
+     * @param dataBuffer 需要处理的数据
+     */
+    private void processBuffer(ByteBuffer dataBuffer) {
+        long startNs = System.nanoTime();
+        mProcessorChain.process(dataBuffer);
+        if (mFader != null) {
+            mFader.process(dataBuffer);
+        }
+        long costNs = System.nanoTime() - startNs;
+        mTotalProcessNs += costNs;
+        if (costNs > mMaxProcessNs) {
+            mMaxProcessNs = costNs;
+        }
+        mProcessedCount++;
+    }
+
+    /**
+     * 从设备中读取指定数量（mBufferSizePerFrame）的音频数据
+     * @param dataBuffer 数据存放的位置，读取后 position 为 0，limit 为读取的长度
+     * @return 读取的长度
+     */
+    private int readFrame(ByteBuffer dataBuffer) {
+        int readLen;
+        int totalReadLen = 0;
+        int needReadLen = mBufferSizePerFrame;
+        dataBuffer.position(totalReadLen);
+        do {
+            readLen = readAudioData(dataBuffer, totalReadLen, needReadLen);
+            if (readLen > 0) {
+                needReadLen -= readLen;
+                totalReadLen += readLen;
+            }
+        } while ((needReadLen > 0) && (readLen >= 0));
+
+        dataBuffer.limit(totalReadLen);
+        dataBuffer.rewind();
+        return totalReadLen;
+    }
+
+    /**
+     * 从设备读取数据到 direct buffer 中，不经过中间的 byte 数组
+     * AudioInputDevice.read 总是从 buffer 的起始地址开始写，
+     * 只有出现读取不足需要续读时才创建一个偏移后的 slice
+     * @param dataBuffer 数据存放的位置
+     * @param offset 在 dataBuffer 中的偏移
+     * @param len 需要读取的长度，单位：字节
+     * @return 实际读取的长度，小于 0 表示出错
+     */
+    private int readAudioData(ByteBuffer dataBuffer, int offset, int len) {
+        ByteBuffer targetBuffer = dataBuffer;
+        if (offset > 0) {
+            dataBuffer.limit(dataBuffer.capacity());
+            dataBuffer.position(offset);
+            targetBuffer = dataBuffer.slice();
+            dataBuffer.position(0);
+        }
+        return mInputDevice.read(targetBuffer, len);
+    }
+
+    /**
+     * 录音环形缓冲模式下的回调线程，从环形缓冲区中取出数据，经过处理链后回调给外层
+     */
+    private class DeliverRunnable implements Runnable {
+
+        @Override
+        public void run() {
+            ByteBuffer deliverBuffer = mDeliverBuffer;
+            while (true) {
+                // 先读关闭状态再取数据，关闭前发布的数据一定能在退出前取到
+                boolean isFinalDrain = mFrameRing.isClosed();
+                if (mFrameRing.poll(deliverBuffer)) {
+                    processBuffer(deliverBuffer);
+                    IDataAvailableListener listener = mDataAvailableListener;
+                    if (listener != null) {
+                        listener.onDataAvailable(deliverBuffer);
+                    }
+                    continue;
+                }
+                if (isFinalDrain) {
+                    break;
+                }
+                LockSupport.parkNanos(this, MAX_IDLE_WAIT_NS);
+            }
+        }
+    }
+
+    /**
+     * 播放预读线程，提前从外层取数据放入环形缓冲区，环形缓冲区满时等待播放线程取走数据
+     */
+    private class PrefetchRunnable implements Runnable {
 
-    abstract void workRun();
+        @Override
+        public void run() {
+            while (!mFrameRing.isClosed()) {
+                ByteBuffer slot = mFrameRing.acquire();
+                if (slot == null) {
+                    break;
+                }
+                IDataAvailableListener listener = mDataAvailableListener;
+                if (listener != null) {
+                    // 外层将需要播放的数据放入 slot
+                    listener.onDataAvailable(slot);
+                }
+                if (listener == null || slot.limit() <= 0) {
+                    // 外层暂时没有数据，稍后再取，slot 没有发布，下次仍然使用同一个 slot
+                    isSourceEmpty = true;
+                    LockSupport.parkNanos(this, mBufferDurationNs);
+                    continue;
+                }
+                isSourceEmpty = false;
+                mFrameRing.publish(slot.limit());
+            }
+        }
+    }
 }
@@ -0,0 +1,177 @@
+/*
+ * Copyright (c) 2019-present AlanWang4523 <alanwang4523@gmail.com>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.alan.audioio.audio;
+
+import com.alan.audioio.audio.common.IOStatus;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.Future;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * AudioPlayer、AudioRecorder 的控制状态机和命令信箱
+ * 控制线程通过 CAS 校验并切换目标状态后把命令放入无锁队列，唤醒工作线程后立即返回一个 Future；
+ * 工作线程在每个 buffer 之间无锁地检查一次队列，执行命令（如 Fade、AudioTrack.pause）后完成对应的 Future
+ * 稳定播放、录制时工作线程不会获取任何锁，暂停时通过 LockSupport.park 等待新的命令
+ *
+ * Author: AlanWang4523.
+ * Date: 2020/12/13 20:05.
+ * Mail: alanwang4523@gmail.com
+ */
+final class ControlMailbox {
+    private static final Runnable NO_OP = new Runnable() {
+        @Override
+        public void run() {
+        }
+    };
+    /**
+     * 不需要工作线程处理的请求（如状态已经是目标状态）直接返回已完成的 Future
+     */
+    static final Future<Void> DONE = newFuture();
+    static {
+        ((FutureTask<Void>) DONE).run();
+    }
+
+    /**
+     * 控制线程看到的最新状态，即最后一个被接受的命令的目标状态
+     */
+    private final AtomicInteger mTargetStatus = new AtomicInteger(IOStatus.UNINITIATED);
+    private final ConcurrentLinkedQueue<Command> mCommands = new ConcurrentLinkedQueue<>();
+    private volatile Thread mWorkThread;
+
+    /**
+     * 一个状态切换命令
+     */
+    static final class Command {
+        final @IOStatus int status;
+        private final FutureTask<Void> mFuture;
+
+        Command(@IOStatus int status) {
+            this.status = status;
+            mFuture = newFuture();
+        }
+
+        /**
+         * 命令执行完成，由工作线程调用
+         */
+        void complete() {
+            mFuture.run();
+        }
+    }
+
+    private static FutureTask<Void> newFuture() {
+        return new FutureTask<>(NO_OP, null);
+    }
+
+    /**
+     * 初始化完成，可以接受 START 命令，丢弃之前未执行的命令
+     */
+    void reset() {
+        completeAll();
+        mTargetStatus.set(IOStatus.INITIATED);
+    }
+
+    /**
+     * 设置工作线程，放入命令后唤醒该线程
+     * @param workThread 工作线程
+     */
+    void setWorkThread(Thread workThread) {
+        mWorkThread = workThread;
+    }
+
+    /**
+     * 获取控制线程看到的最新状态
+     * @return 最后一个被接受的命令的目标状态，工作线程可能还没执行完
+     */
+    @IOStatus int getTargetStatus() {
+        return mTargetStatus.get();
+    }
+
+    /**
+     * 请求切换到 newStatus，可在任意线程中调用，不会阻塞
+     * 允许的切换：INITIATED -> START，START/RESUME -> PAUSE，PAUSE -> RESUME，START/RESUME/PAUSE -> STOP
+     * @param newStatus 目标状态
+     * @return 命令执行完成的 Future；当前状态不允许切换到 newStatus 时返回 null
+     */
+    Future<Void> request(@IOStatus int newStatus) {
+        int oldStatus;
+        do {
+            oldStatus = mTargetStatus.get();
+            if (!isAllowed(oldStatus, newStatus)) {
+                return null;
+            }
+        } while (!mTargetStatus.compareAndSet(oldStatus, newStatus));
+        Command command = new Command(newStatus);
+        mCommands.offer(command);
+        Thread workThread = mWorkThread;
+        if (workThread != null) {
+            LockSupport.unpark(workThread);
+        }
+        return command.mFuture;
+    }
+
+    /**
+     * 切换到 UNINITIATED，用于初始化后还没开始就释放
+     * @return 切换前的状态是 INITIATED 时返回 true
+     */
+    boolean releaseIfInitiated() {
+        return mTargetStatus.compareAndSet(IOStatus.INITIATED, IOStatus.UNINITIATED);
+    }
+
+    private static boolean isAllowed(int oldStatus, int newStatus) {
+        switch (newStatus) {
+            case IOStatus.START:
+                return oldStatus == IOStatus.INITIATED;
+            case IOStatus.PAUSE:
+                return oldStatus == IOStatus.START || oldStatus == IOStatus.RESUME;
+            case IOStatus.RESUME:
+                return oldStatus == IOStatus.PAUSE;
+            case IOStatus.STOP:
+                return oldStatus == IOStatus.START || oldStatus == IOStatus.RESUME
+                        || oldStatus == IOStatus.PAUSE;
+            default:
+                return false;
+        }
+    }
+
+    /**
+     * 工作线程取出下一个命令，没有命令时返回 null，不会阻塞、不分配内存
+     * @return 命令
+     */
+    Command poll() {
+        return mCommands.poll();
+    }
+
+    /**
+     * 工作线程等待新的命令，用于暂停状态
+     */
+    void awaitCommand() {
+        while (mCommands.isEmpty()) {
+            LockSupport.park(this);
+        }
+    }
+
+    /**
+     * 完成所有未执行的命令，工作线程退出时调用，避免等待 Future 的调用者一直阻塞
+     */
+    void completeAll() {
+        Command command;
+        while ((command = mCommands.poll()) != null) {
+            command.complete();
+        }
+    }
+}
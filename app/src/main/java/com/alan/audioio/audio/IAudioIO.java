@@ -17,6 +17,7 @@ package com.alan.audioio.audio;
 
 import com.alan.audioio.audio.common.AudioIOBuilder;
 import com.alan.audioio.audio.exception.AudioException;
+import java.util.concurrent.Future;
 
 /**
  * Author: AlanWang4523.
@@ -27,13 +28,13 @@ public interface IAudioIO {
 
     void init(AudioIOBuilder ioBuilder) throws AudioException;
 
-    void start();
+    Future<Void> start();
 
-    void pause();
+    Future<Void> pause();
 
-    void resume();
+    Future<Void> resume();
 
-    void stop();
+    Future<Void> stop();
 
     void release();
 }
@@ -0,0 +1,377 @@
+/*
+ * Copyright (c) 2019-present AlanWang4523 <alanwang4523@gmail.com>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.alan.audioio.audio;
+
+import com.alan.audioio.audio.common.IDataAvailableListener;
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.Locale;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 分段写 wav 文件，用于长时间连续录音，按固定时长或固定大小把音频数据切分成多个 wav 文件，
+ * 如 prefix_00000.wav、prefix_00001.wav ...
+ * 切分点按帧对齐，一个 buffer 跨越切分点时会被拆开写入前后两个文件，不丢失也不重复任何采样点
+ * 下一个分段文件在后台线程中提前创建，上一个分段在后台线程中关闭，切换分段时不阻塞录音线程；
+ * 如果下一个分段还没有准备好（存储非常慢），当前分段会继续写入直到准备好为止；
+ * 如果下一个分段创建失败，之后不再切分，数据继续写入当前分段，异常在 close 时抛出
+ *
+ * Author: AlanWang4523.
+ * Date: 2020/11/22 10:36.
+ * Mail: alanwang4523@gmail.com
+ */
+public class RotatingWavSink implements IDataAvailableListener {
+    private final static String TAG = RotatingWavSink.class.getSimpleName();
+
+    private final WavFile.HeadInfo mHeadInfo;
+    private final String mDirPath;
+    private final String mFilePrefix;
+    private final long mMaxSegmentBytes;
+    private final int mBlockAlign;
+    private final ExecutorService mExecutor;
+    private OnSegmentListener mOnSegmentListener;
+
+    private Segment mCurrentSegment;
+    /**
+     * 后台准备的下一个分段，创建失败后为 null，不再切分
+     */
+    private Future<Segment> mNextSegment;
+    private int mNextSegmentIndex;
+    private long mTotalFrames;
+    private volatile IOException mIOException;
+    private boolean isClosed;
+
+    /**
+     * 分段完成的回调
+     */
+    public interface OnSegmentListener {
+        /**
+         * 一个分段文件已经写完并关闭，在后台线程中回调
+         * @param segmentInfo 分段信息
+         */
+        void onSegmentFinished(SegmentInfo segmentInfo);
+    }
+
+    /**
+     * 构造 RotatingWavSink，会立即创建第一个分段文件
+     * @param headInfo 所有分段共用的 wav 头信息
+     * @param dirPath 分段文件所在的目录
+     * @param filePrefix 分段文件名的前缀
+     * @param maxSegmentDurationMs 每个分段的最大时长，单位：毫秒，小于等于 0 表示不按时长切分
+     * @param maxSegmentBytes 每个分段的最大音频数据长度，单位：字节，小于等于 0 表示不按大小切分
+     * @throws IOException IOException
+     */
+    public RotatingWavSink(WavFile.HeadInfo headInfo, String dirPath, String filePrefix,
+                           long maxSegmentDurationMs, long maxSegmentBytes) throws IOException {
+        if (maxSegmentDurationMs <= 0 && maxSegmentBytes <= 0) {
+            throw new IllegalArgumentException("The segment duration or size must be greater than 0!");
+        }
+        mHeadInfo = headInfo;
+        mDirPath = dirPath;
+        mFilePrefix = filePrefix;
+        mBlockAlign = headInfo.getPcmFrameSize();
+
+        long maxBytes = Long.MAX_VALUE;
+        if (maxSegmentDurationMs > 0) {
+            maxBytes = maxSegmentDurationMs * headInfo.getSampleRate() / 1000 * mBlockAlign;
+        }
+        if (maxSegmentBytes > 0) {
+            maxBytes = Math.min(maxBytes, maxSegmentBytes);
+        }
+        mMaxSegmentBytes = Math.max(mBlockAlign, maxBytes / mBlockAlign * mBlockAlign);
+
+        mExecutor = Executors.newSingleThreadExecutor(new ThreadFactory() {
+            @Override
+            public Thread newThread(Runnable runnable) {
+                Thread thread = new Thread(runnable, TAG + "-" + System.currentTimeMillis());
+                thread.setDaemon(true);
+                return thread;
+            }
+        });
+        mCurrentSegment = openSegment(mNextSegmentIndex++);
+        prepareNextSegment();
+    }
+
+    /**
+     * 设置分段完成的回调
+     * @param onSegmentListener 分段完成的回调
+     */
+    public void setOnSegmentListener(OnSegmentListener onSegmentListener) {
+        this.mOnSegmentListener = onSegmentListener;
+    }
+
+    @Override
+    public void onDataAvailable(ByteBuffer byteBuffer) {
+        try {
+            write(byteBuffer);
+        } catch (IOException e) {
+            if (mIOException == null) {
+                mIOException = e;
+            }
+        }
+    }
+
+    /**
+     * 写 PCM 数据，写入 byteBuffer 中 position 到 limit 之间的数据，数据长度应为 blockAlign 的整数倍
+     * @param byteBuffer 音频数据
+     * @throws IOException IOException
+     */
+    public void write(ByteBuffer byteBuffer) throws IOException {
+        if (isClosed || byteBuffer == null) {
+            return;
+        }
+        int oldLimit = byteBuffer.limit();
+        while (byteBuffer.hasRemaining()) {
+            // 等待下一个分段准备好期间当前分段可能已经超过最大长度，此时剩余空间为 0，准备好后立即切换
+            long segmentRemaining = Math.max(0, mMaxSegmentBytes - mCurrentSegment.dataLen);
+            int writeLen = byteBuffer.remaining();
+            boolean isNeedRotate = false;
+            if (writeLen >= segmentRemaining && mNextSegment != null && mNextSegment.isDone()) {
+                writeLen = (int) segmentRemaining;
+                isNeedRotate = true;
+            }
+            if (writeLen > 0) {
+                byteBuffer.limit(byteBuffer.position() + writeLen);
+                mCurrentSegment.wavFile.write(byteBuffer);
+                byteBuffer.limit(oldLimit);
+                mCurrentSegment.dataLen += writeLen;
+                mTotalFrames += writeLen / mBlockAlign;
+            }
+            if (isNeedRotate) {
+                rotate();
+            }
+        }
+    }
+
+    /**
+     * 关闭当前分段并等待后台线程完成，提前创建好但未使用的分段文件会被删除
+     * @throws IOException 写文件过程中发生的第一个异常
+     */
+    public void close() throws IOException {
+        if (isClosed) {
+            return;
+        }
+        isClosed = true;
+        final Segment lastSegment = mCurrentSegment;
+        mCurrentSegment = null;
+        if (lastSegment.dataLen == 0 && lastSegment.index > 0) {
+            // 上一个分段刚好写满时切换出来的空分段，直接删除
+            deleteSegment(lastSegment);
+        } else {
+            mExecutor.submit(new Runnable() {
+                @Override
+                public void run() {
+                    finishSegment(lastSegment);
+                }
+            });
+        }
+        if (mNextSegment != null) {
+            Segment unusedSegment = getNextSegment();
+            if (unusedSegment != null) {
+                deleteSegment(unusedSegment);
+            }
+        }
+        mExecutor.shutdown();
+        try {
+            mExecutor.awaitTermination(Long.MAX_VALUE, TimeUnit.MILLISECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        if (mIOException != null) {
+            throw mIOException;
+        }
+    }
+
+    /**
+     * 获取已写入的总帧数
+     * @return 所有分段的帧数之和
+     */
+    public long getTotalFrames() {
+        return mTotalFrames;
+    }
+
+    /**
+     * 切换到下一个分段，上一个分段在后台线程中关闭，并继续在后台准备再下一个分段
+     * 下一个分段创建失败时只记录一次异常并停止切分，当前分段继续写入
+     */
+    private void rotate() {
+        final Segment finishedSegment = mCurrentSegment;
+        Segment nextSegment;
+        try {
+            nextSegment = getNextSegment();
+            if (nextSegment == null) {
+                throw new IOException("Open the next wav segment failed.");
+            }
+        } catch (IOException e) {
+            if (mIOException == null) {
+                mIOException = e;
+            }
+            mNextSegment = null;
+            return;
+        }
+        nextSegment.startFrame = finishedSegment.startFrame + finishedSegment.dataLen / mBlockAlign;
+        mCurrentSegment = nextSegment;
+        mExecutor.submit(new Runnable() {
+            @Override
+            public void run() {
+                finishSegment(finishedSegment);
+            }
+        });
+        prepareNextSegment();
+    }
+
+    private void prepareNextSegment() {
+        final int segmentIndex = mNextSegmentIndex++;
+        mNextSegment = mExecutor.submit(new Callable<Segment>() {
+            @Override
+            public Segment call() throws Exception {
+                return openSegment(segmentIndex);
+            }
+        });
+    }
+
+    private Segment getNextSegment() throws IOException {
+        try {
+            return mNextSegment.get();
+        } catch (ExecutionException e) {
+            Throwable cause = e.getCause();
+            throw cause instanceof IOException ? (IOException) cause : new IOException(cause);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return null;
+        }
+    }
+
+    private Segment openSegment(int segmentIndex) throws IOException {
+        String fileName = String.format(Locale.US, "%s_%05d.wav", mFilePrefix, segmentIndex);
+        String filePath = new File(mDirPath, fileName).getAbsolutePath();
+        return new Segment(segmentIndex, filePath, new WavFile(filePath, mHeadInfo));
+    }
+
+    private void deleteSegment(Segment segment) throws IOException {
+        segment.wavFile.close();
+        new File(segment.filePath).delete();
+    }
+
+    /**
+     * 关闭分段文件并回调，在后台线程中执行
+     * @param segment 写完的分段
+     */
+    private void finishSegment(Segment segment) {
+        try {
+            segment.wavFile.close();
+        } catch (IOException e) {
+            if (mIOException == null) {
+                mIOException = e;
+            }
+            return;
+        }
+        OnSegmentListener onSegmentListener = mOnSegmentListener;
+        if (onSegmentListener != null) {
+            long frameCount = segment.dataLen / mBlockAlign;
+            onSegmentListener.onSegmentFinished(new SegmentInfo(segment.index, segment.filePath,
+                    segment.startFrame, frameCount, frameCount * 1000000L / mHeadInfo.getSampleRate()));
+        }
+    }
+
+    private static class Segment {
+        final int index;
+        final String filePath;
+        final WavFile wavFile;
+        long startFrame;
+        long dataLen;
+
+        Segment(int index, String filePath, WavFile wavFile) {
+            this.index = index;
+            this.filePath = filePath;
+            this.wavFile = wavFile;
+        }
+    }
+
+    public static class SegmentInfo {
+        private final int index;
+        private final String filePath;
+        private final long startFrame;
+        private final long frameCount;
+        private final long durationUs;
+
+        SegmentInfo(int index, String filePath, long startFrame, long frameCount, long durationUs) {
+            this.index = index;
+            this.filePath = filePath;
+            this.startFrame = startFrame;
+            this.frameCount = frameCount;
+            this.durationUs = durationUs;
+        }
+
+        /**
+         * 获取分段序号，从 0 开始
+         * @return 分段序号
+         */
+        public int getIndex() {
+            return index;
+        }
+
+        /**
+         * 获取分段文件路径
+         * @return 文件路径
+         */
+        public String getFilePath() {
+            return filePath;
+        }
+
+        /**
+         * 获取该分段第一帧在整个录音中的位置
+         * @return 起始帧
+         */
+        public long getStartFrame() {
+            return startFrame;
+        }
+
+        /**
+         * 获取该分段的帧数
+         * @return 帧数
+         */
+        public long getFrameCount() {
+            return frameCount;
+        }
+
+        /**
+         * 获取该分段的时长
+         * @return 时长，单位：微秒
+         */
+        public long getDurationUs() {
+            return durationUs;
+        }
+
+        @Override
+        public String toString() {
+            return "SegmentInfo{" +
+                    "index=" + index +
+                    ", filePath='" + filePath + '\'' +
+                    ", startFrame=" + startFrame +
+                    ", frameCount=" + frameCount +
+                    ", durationUs=" + durationUs +
+                    '}';
+        }
+    }
+}
@@ -0,0 +1,725 @@
+/*
+ * Copyright (c) 2019-present AlanWang4523 <alanwang4523@gmail.com>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.alan.audioio.audio;
+
+import android.os.Build;
+import androidx.annotation.RequiresApi;
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
+import java.util.concurrent.RecursiveAction;
+import java.util.concurrent.RecursiveTask;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * wav 文件批量转换，支持转换编码格式、通道数以及峰值归一化，在一个线程数固定的 ForkJoinPool 中执行：
+ * 多个文件同时转换；PCM/浮点格式的大文件再按帧切分为多个块并行转换，每个块通过 FileChannel 的
+ * 定位读写直接写入输出文件中计算好的偏移处，不需要按顺序合并
+ * 压缩格式（G.711、IMA-ADPCM）的输入或输出需要按顺序编解码，整个文件在一个任务中通过 {@link WavFile} 转换
+ * 转换完成后通过 {@link Report} 获取数据量、耗时以及吞吐量（MB/s）
+ *
+ * Author: AlanWang4523.
+ * Date: 2020/12/05 16:42.
+ * Mail: alanwang4523@gmail.com
+ */
+@RequiresApi(Build.VERSION_CODES.LOLLIPOP)
+public class WavBatchConverter {
+    /**
+     * 大文件切分的块大小，单位：帧
+     */
+    private static final int CHUNK_FRAMES = 64 * 1024;
+
+    private final ForkJoinPool mPool;
+    private int mOutputFormatTag;
+    private int mOutputBytePerSample;
+    private int mOutputChannelCount;
+    private float mNormalizePeak;
+    private final ThreadLocal<Scratch> mScratch = new ThreadLocal<Scratch>() {
+        @Override
+        protected Scratch initialValue() {
+            return new Scratch();
+        }
+    };
+
+    /**
+     * 以 CPU 核数作为并行度创建转换器
+     */
+    public WavBatchConverter() {
+        this(Runtime.getRuntime().availableProcessors());
+    }
+
+    /**
+     * @param parallelism 并行度，即转换线程数
+     */
+    public WavBatchConverter(int parallelism) {
+        if (parallelism <= 0) {
+            throw new IllegalArgumentException("The parallelism must be greater than 0!");
+        }
+        mPool = new ForkJoinPool(parallelism);
+    }
+
+    /**
+     * 设置输出的编码格式，默认与输入文件相同
+     * @param formatTag 编码格式，参见 {@link WavFile.FormatTag}，为 0 时与输入文件相同
+     * @param bytePerSample 每个采样点的字节数，只对 PCM（1 ~ 4）和浮点格式（4 或 8）有效
+     * @return this
+     */
+    public WavBatchConverter setOutputFormat(@WavFile.FormatTag int formatTag, int bytePerSample) {
+        boolean isCompressed = formatTag == WavFile.FormatTag.ALAW || formatTag == WavFile.FormatTag.MULAW
+                || formatTag == WavFile.FormatTag.IMA_ADPCM;
+        if (formatTag == WavFile.FormatTag.PCM && (bytePerSample < 1 || bytePerSample > 4)) {
+            throw new IllegalArgumentException("The bytePerSample of pcm is not 1, 2, 3 or 4!");
+        }
+        if (formatTag == WavFile.FormatTag.IEEE_FLOAT && bytePerSample != 4 && bytePerSample != 8) {
+            throw new IllegalArgumentException("The bytePerSample of float is not 4 or 8!");
+        }
+        if (formatTag != 0 && formatTag != WavFile.FormatTag.PCM && formatTag != WavFile.FormatTag.IEEE_FLOAT
+                && !isCompressed) {
+            throw new IllegalArgumentException("Unsupported format tag: " + formatTag);
+        }
+        mOutputFormatTag = formatTag;
+        mOutputBytePerSample = bytePerSample;
+        return this;
+    }
+
+    /**
+     * 设置输出的通道数，默认与输入文件相同：转单声道时各通道取平均，单声道转多声道时复制到每个通道，
+     * 其他情况下按顺序保留前面的通道，多出的通道填静音
+     * @param channelCount 通道数，为 0 时与输入文件相同
+     * @return this
+     */
+    public WavBatchConverter setOutputChannelCount(int channelCount) {
+        if (channelCount < 0) {
+            throw new IllegalArgumentException("The channel count must not be negative!");
+        }
+        mOutputChannelCount = channelCount;
+        return this;
+    }
+
+    /**
+     * 设置峰值归一化，先统计整个文件的峰值，再把所有采样点等比缩放到指定峰值
+     * @param peak 归一化后的峰值，范围 (0, 1]，为 0 时不做归一化
+     * @return this
+     */
+    public WavBatchConverter setNormalizePeak(float peak) {
+        if (peak < 0 || peak > 1) {
+            throw new IllegalArgumentException("The normalize peak must be in [0, 1]!");
+        }
+        mNormalizePeak = peak;
+        return this;
+    }
+
+    /**
+     * 批量转换，阻塞直到所有文件转换完成，单个文件转换失败不影响其他文件
+     * @param inputPaths 输入文件路径
+     * @param outputPaths 输出文件路径，与 inputPaths 一一对应
+     * @return 转换结果
+     */
+    public Report convert(List<String> inputPaths, List<String> outputPaths) {
+        if (inputPaths.size() != outputPaths.size()) {
+            throw new IllegalArgumentException("The input and output paths do not match!");
+        }
+        final Report report = new Report();
+        final List<FileTask> fileTasks = new ArrayList<>(inputPaths.size());
+        for (int i = 0; i < inputPaths.size(); i++) {
+            fileTasks.add(new FileTask(inputPaths.get(i), outputPaths.get(i), report));
+        }
+        long startTimeNs = System.nanoTime();
+        mPool.invoke(new RecursiveAction() {
+            @Override
+            protected void compute() {
+                ForkJoinTask.invokeAll(fileTasks);
+            }
+        });
+        report.mElapsedNs = System.nanoTime() - startTimeNs;
+        return report;
+    }
+
+    /**
+     * 关闭线程池，之后不能再调用 {@link #convert(List, List)}
+     */
+    public void release() {
+        mPool.shutdown();
+    }
+
+    /**
+     * 生成输出文件的头信息
+     * @param inHeadInfo 输入文件的头信息
+     * @return 输出文件的头信息
+     */
+    private WavFile.HeadInfo createOutputHeadInfo(WavFile.HeadInfo inHeadInfo) {
+        int formatTag = mOutputFormatTag != 0 ? mOutputFormatTag : inHeadInfo.getFormatTag();
+        int bytePerSample = mOutputFormatTag != 0 ? mOutputBytePerSample : inHeadInfo.getBytePerSample();
+        WavFile.HeadInfo outHeadInfo = WavFile.HeadInfo.build()
+                .setSampleRate(inHeadInfo.getSampleRate())
+                .setChannelCount(mOutputChannelCount > 0 ? mOutputChannelCount : inHeadInfo.getChannelCount())
+                .setFormatTag(formatTag);
+        if (!outHeadInfo.isCompressed()) {
+            outHeadInfo.setBytePerSample(bytePerSample);
+        }
+        return outHeadInfo;
+    }
+
+    /**
+     * 转换一个文件的任务
+     */
+    private class FileTask extends RecursiveAction {
+        private final String mInputPath;
+        private final String mOutputPath;
+        private final Report mReport;
+        /**
+         * 输出文件是否由该任务创建，转换失败时只删除该任务创建的输出文件
+         */
+        private boolean isOutputCreated;
+
+        FileTask(String inputPath, String outputPath, Report report) {
+            mInputPath = inputPath;
+            mOutputPath = outputPath;
+            mReport = report;
+        }
+
+        @Override
+        protected void compute() {
+            // 先检查路径并打开输入文件，这一步失败时还没有碰过输出文件，不能删除（可能就是输入文件）
+            WavFile inFile;
+            try {
+                if (new File(mInputPath).getCanonicalPath().equals(new File(mOutputPath).getCanonicalPath())) {
+                    throw new IllegalArgumentException("The output file must not be the input file!");
+                }
+                inFile = new WavFile(mInputPath);
+            } catch (IOException | RuntimeException e) {
+                mReport.mFailures.put(mInputPath, e);
+                return;
+            }
+            try {
+                WavFile.HeadInfo inHeadInfo = inFile.getHeadInfo();
+                long outputBytes;
+                try {
+                    WavFile.HeadInfo outHeadInfo = createOutputHeadInfo(inHeadInfo);
+                    if (inHeadInfo.isCompressed() || outHeadInfo.isCompressed()) {
+                        outputBytes = convertSequential(inFile, outHeadInfo);
+                    } else {
+                        outputBytes = convertChunked(inHeadInfo, outHeadInfo);
+                    }
+                } finally {
+                    inFile.close();
+                }
+                mReport.mInputBytes.addAndGet(inHeadInfo.getDataSize());
+                mReport.mOutputBytes.addAndGet(outputBytes);
+                mReport.mFileCount.incrementAndGet();
+            } catch (IOException | RuntimeException e) {
+                if (isOutputCreated) {
+                    new File(mOutputPath).delete();
+                }
+                mReport.mFailures.put(mInputPath, e instanceof ConvertException ? (Exception) e.getCause() : e);
+            }
+        }
+
+        /**
+         * 按块并行转换 PCM/浮点格式的文件：先写好长度已确定的文件头并预留数据空间，各块直接写到对应的偏移
+         * @return 输出文件的大小，单位：字节
+         */
+        private long convertChunked(WavFile.HeadInfo inHeadInfo, WavFile.HeadInfo outHeadInfo) throws IOException {
+            long frameCount = inHeadInfo.getDataSize() / inHeadInfo.getBlockAlign();
+            long outDataSize = frameCount * outHeadInfo.getBlockAlign();
+            ByteBuffer header = WavFile.createWavHeader(outHeadInfo, outDataSize, frameCount);
+            long outDataOffset = header.remaining();
+
+            RandomAccessFile inFile = new RandomAccessFile(mInputPath, "r");
+            RandomAccessFile outFile = null;
+            try {
+                FileChannel inChannel = inFile.getChannel();
+                float gain = 1.0f;
+                if (mNormalizePeak > 0) {
+                    float peak = new PeakTask(inChannel, inHeadInfo, outHeadInfo, 0, frameCount).invoke();
+                    gain = peak > 0 ? mNormalizePeak / peak : 1.0f;
+                }
+                isOutputCreated = !new File(mOutputPath).exists();
+                outFile = new RandomAccessFile(mOutputPath, "rw");
+                FileChannel outChannel = outFile.getChannel();
+                outFile.setLength(0);
+                outFile.setLength(outDataOffset + outDataSize);
+                while (header.hasRemaining()) {
+                    outChannel.write(header, header.position());
+                }
+                new ChunkTask(inChannel, inHeadInfo, outChannel, outHeadInfo, outDataOffset,
+                        gain, 0, frameCount).invoke();
+            } finally {
+                inFile.close();
+                if (outFile != null) {
+                    outFile.close();
+                }
+            }
+            return outDataOffset + outDataSize;
+        }
+
+        /**
+         * 通过 WavFile 顺序转换包含压缩格式的文件，输入输出的 PCM 一侧均为 16 bit
+         * @return 输出文件的大小，单位：字节
+         */
+        private long convertSequential(WavFile inFile, WavFile.HeadInfo outHeadInfo) throws IOException {
+            WavFile.HeadInfo inHeadInfo = inFile.getHeadInfo();
+            Format inFormat = Format.ofPcm(inHeadInfo);
+            Format outFormat = Format.ofPcm(outHeadInfo);
+            Scratch scratch = mScratch.get();
+            WavFile outFile = null;
+            try {
+                float gain = 1.0f;
+                if (mNormalizePeak > 0) {
+                    float peak = 0;
+                    int frames;
+                    while ((frames = readFrames(inFile, inFormat, scratch)) > 0) {
+                        peak = Math.max(peak, scratch.convert(inFormat, outFormat, frames, 1.0f, false));
+                    }
+                    gain = peak > 0 ? mNormalizePeak / peak : 1.0f;
+                    inFile.seekToFrame(0);
+                }
+                isOutputCreated = !new File(mOutputPath).exists();
+                outFile = new WavFile(mOutputPath, outHeadInfo);
+                int frames;
+                while ((frames = readFrames(inFile, inFormat, scratch)) > 0) {
+                    scratch.convert(inFormat, outFormat, frames, gain, true);
+                    outFile.write(scratch.mOutBytes, 0, frames * outFormat.getFrameSize());
+                }
+            } finally {
+                if (outFile != null) {
+                    outFile.close();
+                }
+            }
+            return new File(mOutputPath).length();
+        }
+
+        private int readFrames(WavFile inFile, Format inFormat, Scratch scratch) throws IOException {
+            int frameSize = inFormat.getFrameSize();
+            byte[] inBytes = scratch.ensureInBytes(CHUNK_FRAMES * frameSize);
+            int readLen = 0;
+            int len;
+            while (readLen < inBytes.length && (len = inFile.read(inBytes, readLen, inBytes.length - readLen)) > 0) {
+                readLen += len;
+            }
+            return readLen / frameSize;
+        }
+    }
+
+    /**
+     * 统计 [startFrame, endFrame) 范围内通道转换后的峰值，范围超过一个块时对半拆分并行统计
+     */
+    private class PeakTask extends RecursiveTask<Float> {
+        private final FileChannel mInChannel;
+        private final WavFile.HeadInfo mInHeadInfo;
+        private final WavFile.HeadInfo mOutHeadInfo;
+        private final long mStartFrame;
+        private final long mEndFrame;
+
+        PeakTask(FileChannel inChannel, WavFile.HeadInfo inHeadInfo, WavFile.HeadInfo outHeadInfo,
+                 long startFrame, long endFrame) {
+            mInChannel = inChannel;
+            mInHeadInfo = inHeadInfo;
+            mOutHeadInfo = outHeadInfo;
+            mStartFrame = startFrame;
+            mEndFrame = endFrame;
+        }
+
+        @Override
+        protected Float compute() {
+            if (mEndFrame - mStartFrame > CHUNK_FRAMES) {
+                long middleFrame = splitFrame(mStartFrame, mEndFrame);
+                PeakTask left = new PeakTask(mInChannel, mInHeadInfo, mOutHeadInfo, mStartFrame, middleFrame);
+                PeakTask right = new PeakTask(mInChannel, mInHeadInfo, mOutHeadInfo, middleFrame, mEndFrame);
+                left.fork();
+                return Math.max(right.compute(), left.join());
+            }
+            try {
+                Format inFormat = Format.of(mInHeadInfo);
+                Scratch scratch = mScratch.get();
+                int frames = (int) (mEndFrame - mStartFrame);
+                scratch.readAt(mInChannel, mInHeadInfo.getDataOffset() + mStartFrame * inFormat.getFrameSize(),
+                        frames * inFormat.getFrameSize());
+                return scratch.convert(inFormat, Format.of(mOutHeadInfo), frames, 1.0f, false);
+            } catch (IOException e) {
+                throw new ConvertException(e);
+            }
+        }
+    }
+
+    /**
+     * 转换 [startFrame, endFrame) 范围内的帧并写到输出文件的对应位置，范围超过一个块时对半拆分并行转换
+     */
+    private class ChunkTask extends RecursiveAction {
+        private final FileChannel mInChannel;
+        private final WavFile.HeadInfo mInHeadInfo;
+        private final FileChannel mOutChannel;
+        private final WavFile.HeadInfo mOutHeadInfo;
+        private final long mOutDataOffset;
+        private final float mGain;
+        private final long mStartFrame;
+        private final long mEndFrame;
+
+        ChunkTask(FileChannel inChannel, WavFile.HeadInfo inHeadInfo, FileChannel outChannel,
+                  WavFile.HeadInfo outHeadInfo, long outDataOffset, float gain, long startFrame, long endFrame) {
+            mInChannel = inChannel;
+            mInHeadInfo = inHeadInfo;
+            mOutChannel = outChannel;
+            mOutHeadInfo = outHeadInfo;
+            mOutDataOffset = outDataOffset;
+            mGain = gain;
+            mStartFrame = startFrame;
+            mEndFrame = endFrame;
+        }
+
+        @Override
+        protected void compute() {
+            if (mEndFrame - mStartFrame > CHUNK_FRAMES) {
+                long middleFrame = splitFrame(mStartFrame, mEndFrame);
+                ForkJoinTask.invokeAll(
+                        new ChunkTask(mInChannel, mInHeadInfo, mOutChannel, mOutHeadInfo, mOutDataOffset,
+                                mGain, mStartFrame, middleFrame),
+                        new ChunkTask(mInChannel, mInHeadInfo, mOutChannel, mOutHeadInfo, mOutDataOffset,
+                                mGain, middleFrame, mEndFrame));
+                return;
+            }
+            try {
+                Format inFormat = Format.of(mInHeadInfo);
+                Format outFormat = Format.of(mOutHeadInfo);
+                Scratch scratch = mScratch.get();
+                int frames = (int) (mEndFrame - mStartFrame);
+                scratch.readAt(mInChannel, mInHeadInfo.getDataOffset() + mStartFrame * inFormat.getFrameSize(),
+                        frames * inFormat.getFrameSize());
+                scratch.convert(inFormat, outFormat, frames, mGain, true);
+                ByteBuffer outBuffer = ByteBuffer.wrap(scratch.mOutBytes, 0, frames * outFormat.getFrameSize());
+                long position = mOutDataOffset + mStartFrame * outFormat.getFrameSize();
+                while (outBuffer.hasRemaining()) {
+                    position += mOutChannel.write(outBuffer, position);
+                }
+            } catch (IOException e) {
+                throw new ConvertException(e);
+            }
+        }
+    }
+
+    /**
+     * 计算拆分点，按块大小对齐，使每个叶子任务都处理完整的块
+     */
+    private static long splitFrame(long startFrame, long endFrame) {
+        long chunkCount = (endFrame - startFrame + CHUNK_FRAMES - 1) / CHUNK_FRAMES;
+        return startFrame + chunkCount / 2 * CHUNK_FRAMES;
+    }
+
+    /**
+     * 在 ForkJoin 子任务中传递 IOException
+     */
+    private static class ConvertException extends RuntimeException {
+        ConvertException(IOException cause) {
+            super(cause.getMessage(), cause);
+        }
+    }
+
+    /**
+     * 数据的 PCM 格式：编码格式、每个采样点的字节数、通道数
+     */
+    private static class Format {
+        final boolean isFloat;
+        final int bytePerSample;
+        final int channelCount;
+
+        Format(boolean isFloat, int bytePerSample, int channelCount) {
+            this.isFloat = isFloat;
+            this.bytePerSample = bytePerSample;
+            this.channelCount = channelCount;
+        }
+
+        static Format of(WavFile.HeadInfo headInfo) {
+            return new Format(headInfo.getFormatTag() == WavFile.FormatTag.IEEE_FLOAT,
+                    headInfo.getBytePerSample(), headInfo.getChannelCount());
+        }
+
+        /**
+         * 通过 WavFile 读写时的格式，压缩格式为 16 bit PCM
+         */
+        static Format ofPcm(WavFile.HeadInfo headInfo) {
+            return headInfo.isCompressed() ? new Format(false, 2, headInfo.getChannelCount()) : of(headInfo);
+        }
+
+        int getFrameSize() {
+            return bytePerSample * channelCount;
+        }
+    }
+
+    /**
+     * 每个转换线程独有的缓存，避免每个块都重新分配
+     */
+    private static class Scratch {
+        private byte[] mInBytes = new byte[0];
+        private float[] mInSamples = new float[0];
+        private float[] mOutSamples = new float[0];
+        private byte[] mOutBytes = new byte[0];
+
+        byte[] ensureInBytes(int len) {
+            if (mInBytes.length < len) {
+                mInBytes = new byte[len];
+            }
+            return mInBytes;
+        }
+
+        /**
+         * 从 position 处读取 len 字节到 mInBytes
+         */
+        void readAt(FileChannel channel, long position, int len) throws IOException {
+            ByteBuffer buffer = ByteBuffer.wrap(ensureInBytes(len), 0, len);
+            while (buffer.hasRemaining()) {
+                int readLen = channel.read(buffer, position + buffer.position());
+                if (readLen < 0) {
+                    throw new IOException("Unexpected end of file.");
+                }
+            }
+        }
+
+        /**
+         * 把 mInBytes 中的 frames 帧解码为浮点、转换通道数并乘以增益
+         * @param isEncode 是否编码到 mOutBytes，为 false 时只统计峰值
+         * @return 转换后（乘以增益之前）的峰值
+         */
+        float convert(Format inFormat, Format outFormat, int frames, float gain, boolean isEncode) {
+            int inChannels = inFormat.channelCount;
+            int outChannels = outFormat.channelCount;
+            int inSampleCount = frames * inChannels;
+            int outSampleCount = frames * outChannels;
+            if (mInSamples.length < inSampleCount) {
+                mInSamples = new float[inSampleCount];
+            }
+            if (mOutSamples.length < outSampleCount) {
+                mOutSamples = new float[outSampleCount];
+            }
+            float[] in = mInSamples;
+            float[] out = mOutSamples;
+            decode(mInBytes, inFormat, in, inSampleCount);
+
+            if (inChannels == outChannels) {
+                System.arraycopy(in, 0, out, 0, inSampleCount);
+            } else if (outChannels == 1) {
+                float scale = 1.0f / inChannels;
+                for (int i = 0; i < frames; i++) {
+                    float sum = 0;
+                    for (int ch = 0; ch < inChannels; ch++) {
+                        sum += in[i * inChannels + ch];
+                    }
+                    out[i] = sum * scale;
+                }
+            } else {
+                for (int i = 0; i < frames; i++) {
+                    for (int ch = 0; ch < outChannels; ch++) {
+                        out[i * outChannels + ch] = inChannels == 1 ? in[i]
+                                : (ch < inChannels ? in[i * inChannels + ch] : 0);
+                    }
+                }
+            }
+
+            float peak = 0;
+            for (int i = 0; i < outSampleCount; i++) {
+                peak = Math.max(peak, Math.abs(out[i]));
+            }
+            if (isEncode) {
+                if (gain != 1.0f) {
+                    for (int i = 0; i < outSampleCount; i++) {
+                        out[i] *= gain;
+                    }
+                }
+                int outLen = outSampleCount * outFormat.bytePerSample;
+                if (mOutBytes.length < outLen) {
+                    mOutBytes = new byte[outLen];
+                }
+                encode(out, outSampleCount, outFormat, mOutBytes);
+            }
+            return peak;
+        }
+
+        /**
+         * 把小端 PCM 数据解码为 [-1, 1] 的浮点数
+         */
+        private static void decode(byte[] src, Format format, float[] dst, int sampleCount) {
+            int pos = 0;
+            switch (format.bytePerSample) {
+                case 1:
+                    for (int i = 0; i < sampleCount; i++) {
+                        dst[i] = ((src[i] & 0xFF) - 128) / 128.0f;
+                    }
+                    break;
+                case 2:
+                    for (int i = 0; i < sampleCount; i++, pos += 2) {
+                        dst[i] = (short) ((src[pos] & 0xFF) | (src[pos + 1] << 8)) / 32768.0f;
+                    }
+                    break;
+                case 3:
+                    for (int i = 0; i < sampleCount; i++, pos += 3) {
+                        int value = (src[pos] & 0xFF) | ((src[pos + 1] & 0xFF) << 8) | (src[pos + 2] << 16);
+                        dst[i] = value / 8388608.0f;
+                    }
+                    break;
+                case 4:
+                    for (int i = 0; i < sampleCount; i++, pos += 4) {
+                        int value = (src[pos] & 0xFF) | ((src[pos + 1] & 0xFF) << 8)
+                                | ((src[pos + 2] & 0xFF) << 16) | (src[pos + 3] << 24);
+                        dst[i] = format.isFloat ? Float.intBitsToFloat(value) : value / 2147483648.0f;
+                    }
+                    break;
+                case 8:
+                    for (int i = 0; i < sampleCount; i++, pos += 8) {
+                        long value = 0;
+                        for (int b = 7; b >= 0; b--) {
+                            value = (value << 8) | (src[pos + b] & 0xFF);
+                        }
+                        dst[i] = (float) Double.longBitsToDouble(value);
+                    }
+                    break;
+                default:
+                    throw new IllegalArgumentException("Unsupported bytePerSample: " + format.bytePerSample);
+            }
+        }
+
+        /**
+         * 把浮点数编码为小端 PCM 数据，整型格式超出范围时截断
+         */
+        private static void encode(float[] src, int sampleCount, Format format, byte[] dst) {
+            int pos = 0;
+            switch (format.bytePerSample) {
+                case 1:
+                    for (int i = 0; i < sampleCount; i++) {
+                        dst[i] = (byte) (clamp(Math.round(src[i] * 128.0f), -128, 127) + 128);
+                    }
+                    break;
+                case 2:
+                    for (int i = 0; i < sampleCount; i++, pos += 2) {
+                        int value = clamp(Math.round(src[i] * 32768.0f), -32768, 32767);
+                        dst[pos] = (byte) value;
+                        dst[pos + 1] = (byte) (value >> 8);
+                    }
+                    break;
+                case 3:
+                    for (int i = 0; i < sampleCount; i++, pos += 3) {
+                        int value = clamp(Math.round(src[i] * 8388608.0f), -8388608, 8388607);
+                        dst[pos] = (byte) value;
+                        dst[pos + 1] = (byte) (value >> 8);
+                        dst[pos + 2] = (byte) (value >> 16);
+                    }
+                    break;
+                case 4:
+                    for (int i = 0; i < sampleCount; i++, pos += 4) {
+                        int value = format.isFloat ? Float.floatToRawIntBits(src[i])
+                                : (int) Math.max(Integer.MIN_VALUE,
+                                Math.min(Integer.MAX_VALUE, Math.round(src[i] * 2147483648.0)));
+                        dst[pos] = (byte) value;
+                        dst[pos + 1] = (byte) (value >> 8);
+                        dst[pos + 2] = (byte) (value >> 16);
+                        dst[pos + 3] = (byte) (value >> 24);
+                    }
+                    break;
+                case 8:
+                    for (int i = 0; i < sampleCount; i++, pos += 8) {
+                        long value = Double.doubleToRawLongBits(src[i]);
+                        for (int b = 0; b < 8; b++) {
+                            dst[pos + b] = (byte) (value >> (b * 8));
+                        }
+                    }
+                    break;
+                default:
+                    throw new IllegalArgumentException("Unsupported bytePerSample: " + format.bytePerSample);
+            }
+        }
+
+        private static int clamp(int value, int min, int max) {
+            return value < min ? min : (value > max ? max : value);
+        }
+    }
+
+    /**
+     * 批量转换的结果
+     */
+    public static class Report {
+        private final AtomicLong mFileCount = new AtomicLong();
+        private final AtomicLong mInputBytes = new AtomicLong();
+        private final AtomicLong mOutputBytes = new AtomicLong();
+        private final Map<String, Exception> mFailures = new ConcurrentHashMap<>();
+        private long mElapsedNs;
+
+        /**
+         * 获取转换成功的文件数
+         * @return 文件数
+         */
+        public long getFileCount() {
+            return mFileCount.get();
+        }
+
+        /**
+         * 获取转换成功的文件中音频数据的总量
+         * @return 输入数据量，单位：字节
+         */
+        public long getInputBytes() {
+            return mInputBytes.get();
+        }
+
+        /**
+         * 获取输出文件的总大小
+         * @return 输出数据量，单位：字节
+         */
+        public long getOutputBytes() {
+            return mOutputBytes.get();
+        }
+
+        /**
+         * 获取转换失败的文件及失败原因
+         * @return key 为输入文件路径
+         */
+        public Map<String, Exception> getFailures() {
+            return Collections.unmodifiableMap(mFailures);
+        }
+
+        /**
+         * 获取总耗时
+         * @return 耗时，单位：毫秒
+         */
+        public long getElapsedMs() {
+            return mElapsedNs / 1000000L;
+        }
+
+        /**
+         * 获取吞吐量，按输入的音频数据量计算
+         * @return 吞吐量，单位：MB/s
+         */
+        public double getThroughputMBps() {
+            if (mElapsedNs <= 0) {
+                return 0;
+            }
+            return mInputBytes.get() / (1024.0 * 1024.0) / (mElapsedNs / 1e9);
+        }
+
+        @Override
+        public String toString() {
+            return "Report{files=" + getFileCount() + ", failures=" + mFailures.size()
+                    + ", inputBytes=" + getInputBytes() + ", outputBytes=" + getOutputBytes()
+                    + ", elapsedMs=" + getElapsedMs()
+                    + ", throughput=" + String.format(java.util.Locale.US, "%.2f", getThroughputMBps()) + "MB/s}";
+        }
+    }
+}
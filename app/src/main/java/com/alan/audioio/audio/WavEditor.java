@@ -0,0 +1,245 @@
+/*
+ * Copyright (c) 2019-present AlanWang4523 <alanwang4523@gmail.com>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.alan.audioio.audio;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * wav 文件的拼接、裁剪、替换工具，不解码音频数据：
+ * 先校验所有输入文件的格式一致，再生成一个长度信息正确的文件头，
+ * 各段音频数据通过 {@link FileChannel#transferTo(long, long, java.nio.channels.WritableByteChannel)}
+ * 直接从输入文件拷贝到输出文件，大文件的编辑由内核完成拷贝，数据不经过 Java 堆
+ * 帧范围按 BlockAlign 换算为字节范围，因此不支持按块编码的 IMA-ADPCM 格式
+ *
+ * Author: AlanWang4523.
+ * Date: 2020/12/03 21:26.
+ * Mail: alanwang4523@gmail.com
+ */
+public class WavEditor {
+
+    private WavEditor() {
+    }
+
+    /**
+     * 拼接多个 wav 文件
+     * @param outPath 输出文件路径，不能是输入文件之一
+     * @param inputPaths 输入文件路径，格式必须一致
+     * @return 输出文件的总帧数
+     * @throws IOException 读写文件失败
+     */
+    public static long concat(String outPath, String... inputPaths) throws IOException {
+        List<Segment> segments = new ArrayList<>(inputPaths.length);
+        for (String inputPath : inputPaths) {
+            segments.add(new Segment(inputPath));
+        }
+        return write(outPath, segments);
+    }
+
+    /**
+     * 裁剪 wav 文件，只保留 [startFrame, endFrame) 范围内的数据
+     * @param inPath 输入文件路径
+     * @param outPath 输出文件路径，不能与输入文件相同
+     * @param startFrame 起始帧
+     * @param endFrame 结束帧（不包含），小于 0 表示到文件末尾
+     * @return 输出文件的总帧数
+     * @throws IOException 读写文件失败
+     */
+    public static long trim(String inPath, String outPath, long startFrame, long endFrame) throws IOException {
+        return write(outPath, Arrays.asList(new Segment(inPath, startFrame, endFrame)));
+    }
+
+    /**
+     * 用 insertPath 的全部数据替换 inPath 中 [startFrame, endFrame) 范围内的数据
+     * startFrame 等于 endFrame 时为插入，insertPath 为 null 时为删除
+     * @param inPath 输入文件路径
+     * @param startFrame 被替换范围的起始帧
+     * @param endFrame 被替换范围的结束帧（不包含）
+     * @param insertPath 插入的文件路径，可以为 null
+     * @param outPath 输出文件路径，不能是输入文件之一
+     * @return 输出文件的总帧数
+     * @throws IOException 读写文件失败
+     */
+    public static long splice(String inPath, long startFrame, long endFrame,
+                              String insertPath, String outPath) throws IOException {
+        if (startFrame < 0 || endFrame < startFrame) {
+            throw new IllegalArgumentException("The splice range is invalid!");
+        }
+        List<Segment> segments = new ArrayList<>(3);
+        segments.add(new Segment(inPath, 0, startFrame));
+        if (insertPath != null) {
+            segments.add(new Segment(insertPath));
+        }
+        segments.add(new Segment(inPath, endFrame, -1));
+        return write(outPath, segments);
+    }
+
+    /**
+     * 按顺序把各段数据写入一个新的 wav 文件，文件头以第一段的格式生成
+     * @param outPath 输出文件路径，不能是输入文件之一
+     * @param segments 各段数据
+     * @return 输出文件的总帧数
+     * @throws IOException 读写文件失败
+     */
+    public static long write(String outPath, List<Segment> segments) throws IOException {
+        if (segments == null || segments.isEmpty()) {
+            throw new IllegalArgumentException("The segments must not be empty!");
+        }
+        String outCanonicalPath = new File(outPath).getCanonicalPath();
+        WavFile.HeadInfo headInfo = null;
+        long totalBytes = 0;
+        for (Segment segment : segments) {
+            if (new File(segment.filePath).getCanonicalPath().equals(outCanonicalPath)) {
+                throw new IllegalArgumentException("The output file must not be one of the input files!");
+            }
+            WavFile.HeadInfo segmentHeadInfo = segment.resolve();
+            if (headInfo == null) {
+                headInfo = segmentHeadInfo;
+            } else if (!isSameFormat(headInfo, segmentHeadInfo)) {
+                throw new IllegalArgumentException("The format of " + segment.filePath
+                        + " does not match the first segment!");
+            }
+            totalBytes += segment.byteCount;
+        }
+        int blockAlign = headInfo.getBlockAlign();
+        ByteBuffer header = WavFile.createWavHeader(headInfo, totalBytes, totalBytes / blockAlign);
+
+        // 失败时只删除本次创建的输出文件，已存在的文件不能删除
+        boolean isOutputCreated = !new File(outPath).exists();
+        RandomAccessFile outFile = null;
+        boolean isSuccess = false;
+        try {
+            outFile = new RandomAccessFile(outPath, "rw");
+            outFile.setLength(0);
+            FileChannel outChannel = outFile.getChannel();
+            while (header.hasRemaining()) {
+                outChannel.write(header);
+            }
+            for (Segment segment : segments) {
+                transfer(segment, outChannel);
+            }
+            isSuccess = true;
+        } finally {
+            if (outFile != null) {
+                outFile.close();
+            }
+            if (!isSuccess && isOutputCreated) {
+                new File(outPath).delete();
+            }
+        }
+        return totalBytes / blockAlign;
+    }
+
+    /**
+     * 把一段数据从输入文件拷贝到输出文件的当前位置
+     * @param segment 数据段
+     * @param outChannel 输出文件
+     * @throws IOException IOException
+     */
+    private static void transfer(Segment segment, FileChannel outChannel) throws IOException {
+        RandomAccessFile inFile = new RandomAccessFile(segment.filePath, "r");
+        try {
+            FileChannel inChannel = inFile.getChannel();
+            long position = segment.byteOffset;
+            long remaining = segment.byteCount;
+            while (remaining > 0) {
+                long transferLen = inChannel.transferTo(position, remaining, outChannel);
+                if (transferLen <= 0) {
+                    throw new IOException("Unexpected end of file: " + segment.filePath);
+                }
+                position += transferLen;
+                remaining -= transferLen;
+            }
+        } finally {
+            inFile.close();
+        }
+    }
+
+    /**
+     * 判断两个文件的数据能否直接拼接：编码格式、采样率、通道数、采样点大小、BlockAlign 都相同
+     */
+    private static boolean isSameFormat(WavFile.HeadInfo a, WavFile.HeadInfo b) {
+        return a.getFormatTag() == b.getFormatTag()
+                && a.getSampleRate() == b.getSampleRate()
+                && a.getChannelCount() == b.getChannelCount()
+                && a.getBytePerSample() == b.getBytePerSample()
+                && a.getBlockAlign() == b.getBlockAlign()
+                && a.getValidBitsPerSample() == b.getValidBitsPerSample();
+    }
+
+    /**
+     * 输出文件中的一段数据：某个输入文件中 [startFrame, endFrame) 范围内的帧
+     */
+    public static class Segment {
+        private final String filePath;
+        private final long startFrame;
+        private final long endFrame;
+        private long byteOffset;
+        private long byteCount;
+
+        /**
+         * 输入文件的全部数据
+         * @param filePath 输入文件路径
+         */
+        public Segment(String filePath) {
+            this(filePath, 0, -1);
+        }
+
+        /**
+         * @param filePath 输入文件路径
+         * @param startFrame 起始帧，超过文件总帧数时该段为空
+         * @param endFrame 结束帧（不包含），小于 0 或超过文件总帧数时到文件末尾
+         */
+        public Segment(String filePath, long startFrame, long endFrame) {
+            if (filePath == null) {
+                throw new IllegalArgumentException("The file path must not be null!");
+            }
+            if (startFrame < 0 || (endFrame >= 0 && endFrame < startFrame)) {
+                throw new IllegalArgumentException("The frame range is invalid!");
+            }
+            this.filePath = filePath;
+            this.startFrame = startFrame;
+            this.endFrame = endFrame;
+        }
+
+        /**
+         * 解析输入文件的头信息，把帧范围换算为文件中的字节范围
+         * @return 输入文件的头信息
+         * @throws IOException 不是有效的 wav 文件
+         */
+        private WavFile.HeadInfo resolve() throws IOException {
+            WavFile wavFile = new WavFile(filePath);
+            WavFile.HeadInfo headInfo = wavFile.getHeadInfo();
+            wavFile.close();
+            if (headInfo.getSamplesPerBlock() != 1) {
+                throw new IllegalArgumentException("Editing block based wav files is not supported: " + filePath);
+            }
+            int blockAlign = headInfo.getBlockAlign();
+            long frameCount = headInfo.getDataSize() / blockAlign;
+            long start = Math.min(startFrame, frameCount);
+            long end = endFrame < 0 ? frameCount : Math.min(endFrame, frameCount);
+            byteOffset = headInfo.getDataOffset() + start * blockAlign;
+            byteCount = (end - start) * blockAlign;
+            return headInfo;
+        }
+    }
+}
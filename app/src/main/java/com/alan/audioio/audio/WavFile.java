@@ -15,103 +15,956 @@
  */
 package com.alan.audioio.audio;
 
+import androidx.annotation.IntDef;
+import com.alan.audioio.audio.codec.G711Codec;
+import com.alan.audioio.audio.codec.ImaAdpcmCodec;
+import com.alan.audioio.audio.codec.WavCodec;
+import com.alan.audioio.audio.common.Type;
 import java.io.IOException;
 import java.io.RandomAccessFile;
+import java.lang.annotation.Retention;
+import java.lang.annotation.RetentionPolicy;
 import java.nio.ByteBuffer;
 import java.nio.ByteOrder;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.Map;
 
 /**
- * 封装文件头尾 44 字节长度的 WavFile，支持对 WavFile 的读、写操作，
- * 以 {@link #WavFile(String)} 方式创建时，为[读]模式，可以通过 {@link #getHeadInfo()} 获取 wav 文件的头信息
+ * 封装 WavFile，支持对 WavFile 的读、写操作，写入时在标准文件头中预留 ds64 的空间，
+ * 数据超过 4GB 时自动切换为 RF64 格式，读取时同样支持 RF64，
+ * 以 {@link #WavFile(String)} 方式创建时，为[读]模式，可以通过 {@link #getHeadInfo()} 获取 wav 文件的头信息，
+ * 读模式下会解析文件中所有的 chunk，可通过 {@link HeadInfo#getChunkIndex()} 获取 chunk 索引
  * 以 {@link #WavFile(String, HeadInfo)} 方式创建时，为[写]模式
+ * 以 {@link #WavFile(String, boolean)} 方式创建时，可选择以内存映射（mmap）方式读取，
+ * 读取时直接从映射内存中批量拷贝，不再每次调用 RandomAccessFile.read 产生系统调用
+ * 写模式下可通过 {@link #setWriteBlockSize(int)} 开启合并写，通过 {@link #setFlushPolicy(int, long)} 设置落盘策略
+ * 支持 G.711（A-law、µ-law）和 IMA-ADPCM 压缩格式，读写接口中的数据始终为 16 bit PCM，编解码在内部完成
  *
  * Author: AlanWang4523.
  * Date: 2020/10/28 20:35.
  * Mail: alanwang4523@gmail.com
  */
 public class WavFile {
+    /**
+     * 写模式下生成的标准 PCM 文件头长度：RIFF(12) + JUNK/ds64(8 + 28) + fmt(8 + 16) + data 头(8)，
+     * 浮点格式还包含 cbSize 和 fact chunk，WAVE_FORMAT_EXTENSIBLE 格式的 fmt chunk 为 40 字节
+     */
+    private static final int WAV_HEADER_SIZE = 80;
+    private static final int DS64_CHUNK_SIZE = 28;
+    /**
+     * RIFF 32 位长度字段能表示的最大值，超过后切换为 RF64
+     */
+    private static final long MAX_RIFF_SIZE = 0xFFFFFFFFL;
+    /**
+     * RIFF 长度超过该值时切换为 RF64，默认为 {@link #MAX_RIFF_SIZE}，只在测试中调小，不用写 4GB 数据也能验证切换
+     */
+    static long sRF64Threshold = MAX_RIFF_SIZE;
+    /**
+     * 解析文件头时首次读取的长度，绝大多数文件的所有头部 chunk 都在这个范围内，只需要一次读取
+     */
+    private static final int HEADER_READ_SIZE = 4096;
+    private static final int CHUNK_ID_RIFF = chunkId("RIFF");
+    private static final int CHUNK_ID_RF64 = chunkId("RF64");
+    private static final int CHUNK_ID_DS64 = chunkId("ds64");
+    private static final int CHUNK_ID_JUNK = chunkId("JUNK");
+    private static final int CHUNK_ID_WAVE = chunkId("WAVE");
+    private static final int CHUNK_ID_FMT = chunkId("fmt ");
+    private static final int CHUNK_ID_DATA = chunkId("data");
+    private static final int CHUNK_ID_FACT = chunkId("fact");
+    /**
+     * WAVE_FORMAT_EXTENSIBLE 中 SubFormat GUID 除前 2 字节（格式编码）外的固定部分
+     */
+    private static final byte[] SUB_FORMAT_GUID_SUFFIX = {
+            0x00, 0x00, 0x00, 0x00, 0x10, 0x00, (byte) 0x80, 0x00,
+            0x00, (byte) 0xAA, 0x00, 0x38, (byte) 0x9B, 0x71};
+    /**
+     * mmap 读模式下每次映射的窗口大小，避免超大文件一次性映射占满虚拟地址空间
+     */
+    private static final int MAP_WINDOW_SIZE = 8 * 1024 * 1024;
+    private static final int PAGE_SIZE = 4096;
+    /**
+     * 压缩格式每次编解码的数据量，按编码后的大小计算，向下对齐到整块
+     */
+    private static final int CODEC_BUFFER_SIZE = 8 * 1024;
+
+    private final String mFilePath;
     private HeadInfo mHeadInfo;
     private RandomAccessFile mWavFile;
-    private int mAudioDataLenInBytes;
+    private long mAudioDataLenInBytes;
     private volatile boolean isWriteMode;
     private volatile boolean isClosed;
 
+    private boolean isMemoryMapped;
+    private MappedByteBuffer mMappedBuffer;
+    private long mMappedWindowStart;
+    private long mDataOffset;
+    private long mDataSize;
+    private long mReadPosition;
+
+    private ByteBuffer mHeaderBuffer;
+    private ByteBuffer mWriteBuffer;
+    private @FlushPolicy int mFlushPolicy = FlushPolicy.NEVER;
+    private long mFlushIntervalNs;
+    private long mLastSyncTimeNs;
+    private long mCheckpointIntervalNs;
+    private long mCheckpointIntervalBytes;
+    private long mLastCheckpointTimeNs;
+    private long mLastCheckpointDataLen;
+    private WaveformPeaks.Accumulator mPeakAccumulator;
+
+    /**
+     * 压缩格式的编解码器，PCM 和浮点格式为 null
+     */
+    private WavCodec mCodec;
+    private int mPcmFrameSize;
+    /**
+     * 写模式下为待编码的 PCM 数据，读模式下为解码后还未读取的 PCM 数据
+     */
+    private byte[] mCodecPcm;
+    private int mCodecPcmLen;
+    private int mCodecPcmPosition;
+    private byte[] mCodecData;
+    /**
+     * 写模式下为已编码的帧数，读模式下为 mCodecPcm 中第一帧在文件中的位置
+     */
+    private long mCodecFrames;
+    private long mCodecTotalFrames;
+
+    /**
+     * wav 文件头中的音频编码格式（FormatTag）
+     */
+    @Retention(RetentionPolicy.SOURCE)
+    @IntDef({FormatTag.PCM, FormatTag.IEEE_FLOAT, FormatTag.ALAW, FormatTag.MULAW,
+            FormatTag.IMA_ADPCM, FormatTag.EXTENSIBLE})
+    public @interface FormatTag {
+        /**
+         * 整型 PCM，支持 8 bit（无符号）、16 bit、24 bit（3 字节紧凑排列）、32 bit
+         */
+        int PCM = 0x0001;
+
+        /**
+         * IEEE 浮点 PCM，支持 32 bit、64 bit
+         */
+        int IEEE_FLOAT = 0x0003;
+
+        /**
+         * G.711 A-law，每个采样点 8 bit
+         */
+        int ALAW = 0x0006;
+
+        /**
+         * G.711 µ-law，每个采样点 8 bit
+         */
+        int MULAW = 0x0007;
+
+        /**
+         * IMA-ADPCM（DVI ADPCM），每个采样点 4 bit，按块编码
+         */
+        int IMA_ADPCM = 0x0011;
+
+        /**
+         * WAVE_FORMAT_EXTENSIBLE，实际格式由 SubFormat 决定，HeadInfo 中不会直接使用该值，
+         * 而是以 {@link HeadInfo#isExtensible()} 表示
+         */
+        int EXTENSIBLE = 0xFFFE;
+    }
+
+    /**
+     * 写模式下数据落盘（fsync）的策略
+     */
+    @Retention(RetentionPolicy.SOURCE)
+    @IntDef({FlushPolicy.NEVER, FlushPolicy.INTERVAL, FlushPolicy.ON_CLOSE})
+    public @interface FlushPolicy {
+        /**
+         * 从不主动 fsync，由系统决定何时落盘，开销最小
+         */
+        int NEVER = 0;
+
+        /**
+         * 每隔指定的时间 fsync 一次，关闭时也会 fsync
+         */
+        int INTERVAL = 1;
+
+        /**
+         * 只在关闭文件时 fsync 一次
+         */
+        int ON_CLOSE = 2;
+    }
+
+    /**
+     * 构建一个 WavFile，该文件已存在，以读模式打开
+     * @param filePath wav file 文件路径
+     * @throws IOException IOException
+     */
+    public WavFile(String filePath) throws IOException {
+        this(filePath, null);
+    }
+
+    /**
+     * 构建一个 WavFile，该文件已存在，以读模式打开
+     * @param filePath wav file 文件路径
+     * @param isMemoryMapped 是否以内存映射方式读取 data 块，映射按窗口分段进行，适合频繁读取的场景
+     * @throws IOException IOException
+     */
+    public WavFile(String filePath, boolean isMemoryMapped) throws IOException {
+        this(filePath, null);
+        // 压缩格式需要解码，不支持内存映射
+        if (isMemoryMapped && mCodec == null) {
+            this.isMemoryMapped = true;
+            mapWindow(0);
+        }
+    }
+
+    /**
+     * 根据 HeadInfo 创建一个 WavFile，以写模式打开
+     * @param filePath wav file 文件路径
+     * @param wavHeaderInfo wavHeaderInfo
+     * @throws IOException IOException
+     */
+    public WavFile(String filePath, HeadInfo wavHeaderInfo) throws IOException {
+        mFilePath = filePath;
+        mWavFile = new RandomAccessFile(filePath, "rw");
+        if (wavHeaderInfo != null) {
+            mHeadInfo = wavHeaderInfo;
+            byte[] wavHeader = generateWavHeader(wavHeaderInfo);
+            // 覆盖已存在的文件时先清空，避免新数据比旧文件短时末尾残留旧数据
+            mWavFile.setLength(0);
+            mWavFile.write(wavHeader);
+            mHeaderBuffer = ByteBuffer.wrap(wavHeader).order(ByteOrder.LITTLE_ENDIAN);
+            mDataOffset = wavHeader.length;
+            isWriteMode = true;
+            if (wavHeaderInfo.isCompressed()) {
+                initCodec();
+            }
+        } else {
+            mHeadInfo = getWavHeader(mWavFile, false);
+            mDataOffset = mHeadInfo.getDataOffset();
+            mDataSize = mHeadInfo.getDataSize();
+            isWriteMode = false;
+            if (mHeadInfo.isCompressed()) {
+                initCodec();
+                mCodecTotalFrames = getCodecTotalFrames();
+            }
+        }
+        mPcmFrameSize = mHeadInfo.getPcmFrameSize();
+        mWavFile.seek(mDataOffset);
+        mAudioDataLenInBytes = 0;
+        mReadPosition = 0;
+        isClosed = false;
+    }
+
+    /**
+     * 获取 wav 头信息
+     * @return HeadInfo
+     */
+    public HeadInfo getHeadInfo() {
+        return mHeadInfo;
+    }
+
+    /**
+     * 根据头信息创建压缩格式的编解码器及编解码缓存
+     * @throws IOException 块大小不合法
+     */
+    private void initCodec() throws IOException {
+        mCodec = createCodec(mHeadInfo);
+        int blockCount = Math.max(1, CODEC_BUFFER_SIZE / mCodec.getBlockAlign());
+        mCodecData = new byte[blockCount * mCodec.getBlockAlign()];
+        mCodecPcm = new byte[blockCount * mCodec.getFramesPerBlock() * mHeadInfo.getPcmFrameSize()];
+    }
+
+    /**
+     * 根据头信息创建压缩格式的编解码器
+     * @param headInfo 头信息，必须为压缩格式
+     * @return 编解码器
+     * @throws IOException 块大小不合法
+     */
+    static WavCodec createCodec(HeadInfo headInfo) throws IOException {
+        int channelCount = headInfo.getChannelCount();
+        try {
+            if (headInfo.getFormatTag() == FormatTag.IMA_ADPCM) {
+                return new ImaAdpcmCodec(channelCount, headInfo.getBlockAlign());
+            }
+            return new G711Codec(channelCount, headInfo.getFormatTag() == FormatTag.ALAW);
+        } catch (IllegalArgumentException e) {
+            throw new IOException("Invalid compressed wav format: " + e.getMessage());
+        }
+    }
+
+    /**
+     * 计算压缩格式文件的总帧数，由 data 长度计算，fact chunk 中记录了更准确的值时以 fact chunk 为准
+     * （IMA-ADPCM 最后一个块可能用静音补齐）
+     * @return 总帧数
+     * @throws IOException IOException
+     */
+    private long getCodecTotalFrames() throws IOException {
+        int blockAlign = mCodec.getBlockAlign();
+        int framesPerBlock = mCodec.getFramesPerBlock();
+        long frames = mDataSize / blockAlign * framesPerBlock;
+        int tailLen = (int) (mDataSize % blockAlign);
+        int headerSize = 4 * mHeadInfo.getChannelCount();
+        if (framesPerBlock > 1 && tailLen >= headerSize) {
+            frames += 1 + (tailLen - headerSize) / headerSize * 8;
+        }
+        ChunkInfo factChunk = mHeadInfo.getChunk("fact");
+        if (factChunk != null && factChunk.getSize() >= 4) {
+            ByteBuffer factBuffer = ByteBuffer.allocate(4).order(ByteOrder.LITTLE_ENDIAN);
+            mWavFile.getChannel().read(factBuffer, factChunk.getOffset());
+            long factFrames = factBuffer.getInt(0) & 0xFFFFFFFFL;
+            // RF64 文件的 fact 为 0xFFFFFFFF，录制时未正常关闭的文件为 0，此时以 data 长度为准
+            if (!factBuffer.hasRemaining() && factFrames > 0 && factFrames < MAX_RIFF_SIZE) {
+                frames = Math.min(frames, factFrames);
+            }
+        }
+        return frames;
+    }
+
+    /**
+     * 读取 PCM 数据
+     * @param data pcm 数据存放的位置
+     * @param off offset
+     * @param len 想要读取的长度，单位：字节
+     * @return 读取的长度，单位：字节
+     * @throws IOException IOException
+     */
+    public int read(byte[] data, int off, int len) throws IOException {
+        if (isWriteMode) {
+            throw new IOException("The current file is not read mode.");
+        }
+        if (isClosed) {
+            return 0;
+        }
+        if (mCodec != null) {
+            return readDecoded(data, off, len, null);
+        }
+        if (isMemoryMapped) {
+            ByteBuffer mappedBuffer = nextMappedRegion();
+            if (mappedBuffer == null) {
+                return -1;
+            }
+            int readLen = Math.min(len, mappedBuffer.remaining());
+            mappedBuffer.get(data, off, readLen);
+            mReadPosition += readLen;
+            return readLen;
+        }
+        long remaining = mDataSize - mReadPosition;
+        if (remaining <= 0) {
+            return -1;
+        }
+        int readLen = mWavFile.read(data, off, (int) Math.min(len, remaining));
+        if (readLen > 0) {
+            mReadPosition += readLen;
+        }
+        return readLen;
+    }
+
+    /**
+     * 读取 PCM 数据，从 byteBuffer 的 position 开始写入，最多写到 limit
+     * 普通模式下通过 FileChannel 直接读入，direct buffer 不需要经过中间的 byte 数组
+     * mmap 模式下为一次（跨窗口时为多次）批量 put
+     * @param byteBuffer pcm 数据存放的位置
+     * @return 读取的长度，单位：字节，读到文件末尾返回 -1
+     * @throws IOException IOException
+     */
+    public int read(ByteBuffer byteBuffer) throws IOException {
+        if (isWriteMode) {
+            throw new IOException("The current file is not read mode.");
+        }
+        if (isClosed) {
+            return 0;
+        }
+        if (mCodec != null) {
+            return readDecoded(null, 0, byteBuffer.remaining(), byteBuffer);
+        }
+        if (mReadPosition >= mDataSize) {
+            return -1;
+        }
+        if (!isMemoryMapped) {
+            return readFromChannel(byteBuffer);
+        }
+        int totalReadLen = 0;
+        while (byteBuffer.hasRemaining()) {
+            ByteBuffer mappedBuffer = nextMappedRegion();
+            if (mappedBuffer == null) {
+                break;
+            }
+            int readLen = Math.min(byteBuffer.remaining(), mappedBuffer.remaining());
+            if (readLen == mappedBuffer.remaining()) {
+                byteBuffer.put(mappedBuffer);
+            } else {
+                int oldLimit = mappedBuffer.limit();
+                mappedBuffer.limit(mappedBuffer.position() + readLen);
+                byteBuffer.put(mappedBuffer);
+                mappedBuffer.limit(oldLimit);
+            }
+            mReadPosition += readLen;
+            totalReadLen += readLen;
+        }
+        return totalReadLen;
+    }
+
+    /**
+     * 通过 FileChannel 读取数据，读取范围不超过 data chunk 的结尾，避免把 data 之后的 chunk 当做音频数据
+     * @param byteBuffer pcm 数据存放的位置
+     * @return 读取的长度，单位：字节
+     * @throws IOException IOException
+     */
+    private int readFromChannel(ByteBuffer byteBuffer) throws IOException {
+        long remaining = mDataSize - mReadPosition;
+        int oldLimit = byteBuffer.limit();
+        if (byteBuffer.remaining() > remaining) {
+            byteBuffer.limit(byteBuffer.position() + (int) remaining);
+        }
+        int readLen;
+        try {
+            readLen = mWavFile.getChannel().read(byteBuffer);
+        } finally {
+            byteBuffer.limit(oldLimit);
+        }
+        if (readLen > 0) {
+            mReadPosition += readLen;
+        }
+        return readLen;
+    }
+
+    /**
+     * 读取压缩格式解码后的 PCM 数据，解码缓存读完时再解码下一批块
+     * @param data pcm 数据存放的位置，为 null 时写入 byteBuffer
+     * @param off offset
+     * @param len 想要读取的长度，单位：字节
+     * @param byteBuffer pcm 数据存放的位置，data 为 null 时使用
+     * @return 读取的长度，单位：字节，读到文件末尾返回 -1
+     * @throws IOException IOException
+     */
+    private int readDecoded(byte[] data, int off, int len, ByteBuffer byteBuffer) throws IOException {
+        int totalReadLen = 0;
+        while (totalReadLen < len) {
+            if (mCodecPcmPosition >= mCodecPcmLen && !decodeNextBlocks()) {
+                break;
+            }
+            int readLen = Math.min(len - totalReadLen, mCodecPcmLen - mCodecPcmPosition);
+            if (data != null) {
+                System.arraycopy(mCodecPcm, mCodecPcmPosition, data, off + totalReadLen, readLen);
+            } else {
+                byteBuffer.put(mCodecPcm, mCodecPcmPosition, readLen);
+            }
+            mCodecPcmPosition += readLen;
+            totalReadLen += readLen;
+        }
+        return totalReadLen == 0 && len > 0 ? -1 : totalReadLen;
+    }
+
+    /**
+     * 从文件中读取下一批完整的块并解码到 mCodecPcm，超出总帧数的部分（补齐的静音）会被丢弃
+     * @return 是否解码到数据，已读到文件末尾时返回 false
+     * @throws IOException IOException
+     */
+    private boolean decodeNextBlocks() throws IOException {
+        mCodecFrames += mCodecPcmLen / mPcmFrameSize;
+        mCodecPcmLen = 0;
+        mCodecPcmPosition = 0;
+        long remaining = mDataSize - mReadPosition;
+        if (remaining <= 0 || mCodecFrames >= mCodecTotalFrames) {
+            return false;
+        }
+        int dataLen = (int) Math.min(mCodecData.length, remaining);
+        int readLen = 0;
+        while (readLen < dataLen) {
+            int len = mWavFile.read(mCodecData, readLen, dataLen - readLen);
+            if (len < 0) {
+                break;
+            }
+            readLen += len;
+        }
+        mReadPosition += readLen;
+        int frames = mCodec.decode(mCodecData, 0, readLen, mCodecPcm, 0);
+        frames = (int) Math.min(frames, mCodecTotalFrames - mCodecFrames);
+        mCodecPcmLen = frames * mPcmFrameSize;
+        return frames > 0;
+    }
+
+    /**
+     * 以只读切片的方式获取接下来的 PCM 数据，不发生任何拷贝，只能在 mmap 读模式下调用
+     * 返回的切片最长为 maxLen，跨越映射窗口时会比 maxLen 短，调用方需循环获取
+     * 注意：返回的切片在下一次读操作或 close 之后不应再访问
+     * @param maxLen 期望获取的最大长度，单位：字节
+     * @return 只读的 ByteBuffer 切片，读到文件末尾返回 null
+     * @throws IOException IOException
+     */
+    public ByteBuffer readSlice(int maxLen) throws IOException {
+        if (!isMemoryMapped) {
+            throw new IOException("The current file is not memory mapped read mode.");
+        }
+        if (isClosed || maxLen <= 0) {
+            return null;
+        }
+        ByteBuffer mappedBuffer = nextMappedRegion();
+        if (mappedBuffer == null) {
+            return null;
+        }
+        int sliceLen = Math.min(maxLen, mappedBuffer.remaining());
+        ByteBuffer slice = mappedBuffer.slice();
+        slice.limit(sliceLen);
+        mappedBuffer.position(mappedBuffer.position() + sliceLen);
+        mReadPosition += sliceLen;
+        return slice.asReadOnlyBuffer().order(ByteOrder.LITTLE_ENDIAN);
+    }
+
+    /**
+     * 获取音频的总帧数，一帧包含所有通道的一个采样点，读模式下为文件中的帧数，写模式下为已写入的帧数
+     * @return 总帧数
+     */
+    public long getFrameCount() {
+        if (mCodec != null) {
+            return isWriteMode ? mCodecFrames + mCodecPcmLen / mPcmFrameSize : mCodecTotalFrames;
+        }
+        long dataSize = isWriteMode ? mAudioDataLenInBytes : mDataSize;
+        return dataSize / mHeadInfo.getBlockAlign();
+    }
+
+    /**
+     * 获取音频时长
+     * @return 时长，单位：微秒
+     */
+    public long getDurationUs() {
+        if (mHeadInfo.getSampleRate() <= 0) {
+            return 0;
+        }
+        return getFrameCount() * 1000000L / mHeadInfo.getSampleRate();
+    }
+
+    /**
+     * 获取当前读取位置
+     * @return 当前读取位置所在的帧
+     */
+    public long getFramePosition() {
+        if (mCodec != null) {
+            return mCodecFrames + mCodecPcmPosition / mPcmFrameSize;
+        }
+        return mReadPosition / mHeadInfo.getBlockAlign();
+    }
+
+    /**
+     * 跳转到指定帧，之后的读操作从该帧开始，只能在读模式下调用
+     * 读取位置按 blockAlign 对齐，只改变位置，不读取任何数据；mmap 模式下目标位置在当前窗口内时不需要重新映射
+     * 压缩格式先定位到目标帧所在的块，再解码该块并跳过块内目标帧之前的部分
+     * @param frameIndex 目标帧，超出范围时限制在 [0, {@link #getFrameCount()}] 内
+     * @throws IOException IOException
+     */
+    public void seekToFrame(long frameIndex) throws IOException {
+        if (isWriteMode) {
+            throw new IOException("The current file is not read mode.");
+        }
+        if (isClosed) {
+            return;
+        }
+        long targetFrame = Math.max(0, Math.min(frameIndex, getFrameCount()));
+        if (mCodec != null) {
+            long blockIndex = targetFrame / mCodec.getFramesPerBlock();
+            mReadPosition = blockIndex * mCodec.getBlockAlign();
+            mWavFile.seek(mDataOffset + mReadPosition);
+            mCodecFrames = blockIndex * mCodec.getFramesPerBlock();
+            mCodecPcmLen = 0;
+            mCodecPcmPosition = 0;
+            int skipFrames = (int) (targetFrame - mCodecFrames);
+            if (skipFrames > 0 && decodeNextBlocks()) {
+                mCodecPcmPosition = Math.min(skipFrames * mPcmFrameSize, mCodecPcmLen);
+            }
+            return;
+        }
+        mReadPosition = targetFrame * mHeadInfo.getBlockAlign();
+        if (isMemoryMapped) {
+            if (mMappedBuffer != null && mReadPosition >= mMappedWindowStart
+                    && mReadPosition < mMappedWindowStart + mMappedBuffer.capacity()) {
+                mMappedBuffer.position((int) (mReadPosition - mMappedWindowStart));
+            } else {
+                mMappedBuffer = null;
+            }
+        } else {
+            mWavFile.seek(mDataOffset + mReadPosition);
+        }
+    }
+
+    /**
+     * 按帧读取 PCM 数据，从 byteBuffer 的 position 开始写入，只读取完整的帧，压缩格式按解码后的 16 bit PCM 计算帧大小
+     * @param byteBuffer pcm 数据存放的位置
+     * @param frames 想要读取的帧数，不超过 byteBuffer 剩余空间能容纳的帧数
+     * @return 实际读取的帧数，读到文件末尾返回 -1
+     * @throws IOException IOException
+     */
+    public int readFrames(ByteBuffer byteBuffer, int frames) throws IOException {
+        int frameSize = mPcmFrameSize;
+        int readFrames = Math.min(frames, byteBuffer.remaining() / frameSize);
+        if (readFrames <= 0) {
+            return 0;
+        }
+        int oldLimit = byteBuffer.limit();
+        byteBuffer.limit(byteBuffer.position() + readFrames * frameSize);
+        int totalReadLen = 0;
+        int readLen = 0;
+        try {
+            while (byteBuffer.hasRemaining() && (readLen = read(byteBuffer)) > 0) {
+                totalReadLen += readLen;
+            }
+        } finally {
+            byteBuffer.limit(oldLimit);
+        }
+        if (totalReadLen == 0 && readLen < 0) {
+            return -1;
+        }
+        return totalReadLen / frameSize;
+    }
+
+    /**
+     * 获取当前映射窗口中还未读取的部分，当前窗口读完时映射下一个窗口
+     * @return 当前窗口，已读完整个 data 块时返回 null
+     * @throws IOException IOException
+     */
+    private ByteBuffer nextMappedRegion() throws IOException {
+        if (mReadPosition >= mDataSize) {
+            return null;
+        }
+        if (mMappedBuffer == null || !mMappedBuffer.hasRemaining()) {
+            mapWindow(mReadPosition);
+        }
+        return mMappedBuffer;
+    }
+
+    /**
+     * 从 data 块内的 position 处映射一个窗口
+     * @param position data 块内的偏移，单位：字节
+     * @throws IOException IOException
+     */
+    private void mapWindow(long position) throws IOException {
+        long windowSize = Math.min(MAP_WINDOW_SIZE, mDataSize - position);
+        if (windowSize <= 0) {
+            mMappedBuffer = null;
+            return;
+        }
+        mMappedBuffer = mWavFile.getChannel().map(FileChannel.MapMode.READ_ONLY,
+                mDataOffset + position, windowSize);
+        mMappedBuffer.order(ByteOrder.LITTLE_ENDIAN);
+        mMappedWindowStart = position;
+    }
+
+    /**
+     * 写 PCM 数据，压缩格式时为 16 bit PCM，编码后再写入文件
+     * @param data 音频数据
+     * @param offset offset
+     * @param len 数据长度，单位：字节
+     */
+    public void write(byte[] data, int offset, int len) throws IOException {
+        if (!isWriteMode) {
+            throw new IOException("The current file is not write mode.");
+        }
+        if (isClosed || data == null || len <= 0) {
+            return;
+        }
+        if (mPeakAccumulator != null) {
+            mPeakAccumulator.accept(data, offset, len);
+        }
+        if (mCodec != null) {
+            writeEncoded(data, offset, len, null);
+            return;
+        }
+        writeData(data, offset, len);
+    }
+
+    /**
+     * 把数据写入文件或合并写缓存，并更新数据长度
+     * @param data 音频数据
+     * @param offset offset
+     * @param len 数据长度，单位：字节
+     * @throws IOException IOException
+     */
+    private void writeData(byte[] data, int offset, int len) throws IOException {
+        if (mWriteBuffer == null) {
+            mWavFile.write(data, offset, len);
+        } else {
+            int writeOffset = offset;
+            int remaining = len;
+            while (remaining > 0) {
+                int copyLen = Math.min(remaining, mWriteBuffer.remaining());
+                mWriteBuffer.put(data, writeOffset, copyLen);
+                writeOffset += copyLen;
+                remaining -= copyLen;
+                if (!mWriteBuffer.hasRemaining()) {
+                    flushWriteBuffer();
+                }
+            }
+        }
+        mAudioDataLenInBytes += len;
+        checkFlushPolicy();
+    }
+
+    /**
+     * 写 PCM 数据，写入 byteBuffer 中 position 到 limit 之间的数据，写完后 position 等于 limit
+     * 通过 FileChannel 直接写入，direct buffer 不需要经过中间的 byte 数组
+     * @param byteBuffer 音频数据
+     * @return 写入的长度，单位：字节
+     * @throws IOException IOException
+     */
+    public int write(ByteBuffer byteBuffer) throws IOException {
+        if (!isWriteMode) {
+            throw new IOException("The current file is not write mode.");
+        }
+        if (isClosed || byteBuffer == null || !byteBuffer.hasRemaining()) {
+            return 0;
+        }
+        int writeLen = byteBuffer.remaining();
+        if (mPeakAccumulator != null) {
+            mPeakAccumulator.accept(byteBuffer);
+        }
+        if (mCodec != null) {
+            writeEncoded(null, 0, writeLen, byteBuffer);
+            return writeLen;
+        }
+        if (mWriteBuffer == null
+                || (mWriteBuffer.position() == 0 && writeLen >= mWriteBuffer.capacity())) {
+            // 未开启合并写，或者数据本身已经是一个大块，直接写入
+            writeFully(byteBuffer);
+        } else {
+            int oldLimit = byteBuffer.limit();
+            while (byteBuffer.hasRemaining()) {
+                int copyLen = Math.min(byteBuffer.remaining(), mWriteBuffer.remaining());
+                byteBuffer.limit(byteBuffer.position() + copyLen);
+                mWriteBuffer.put(byteBuffer);
+                byteBuffer.limit(oldLimit);
+                if (!mWriteBuffer.hasRemaining()) {
+                    flushWriteBuffer();
+                }
+            }
+        }
+        mAudioDataLenInBytes += writeLen;
+        checkFlushPolicy();
+        return writeLen;
+    }
+
+    /**
+     * 把 PCM 数据拷贝到待编码缓存中，缓存满时编码并写入文件
+     * @param data 音频数据，为 null 时从 byteBuffer 中读取
+     * @param offset offset
+     * @param len 数据长度，单位：字节
+     * @param byteBuffer 音频数据，data 为 null 时使用
+     * @throws IOException IOException
+     */
+    private void writeEncoded(byte[] data, int offset, int len, ByteBuffer byteBuffer) throws IOException {
+        int remaining = len;
+        while (remaining > 0) {
+            int copyLen = Math.min(remaining, mCodecPcm.length - mCodecPcmLen);
+            if (data != null) {
+                System.arraycopy(data, offset + len - remaining, mCodecPcm, mCodecPcmLen, copyLen);
+            } else {
+                byteBuffer.get(mCodecPcm, mCodecPcmLen, copyLen);
+            }
+            mCodecPcmLen += copyLen;
+            remaining -= copyLen;
+            if (mCodecPcmLen == mCodecPcm.length) {
+                encodePendingPcm(false);
+            }
+        }
+    }
+
+    /**
+     * 编码待编码缓存中所有完整的块并写入文件，不足一个块的数据留在缓存中
+     * @param isFinal 是否为最后一次编码（关闭文件时），最后一个不完整的块用静音补齐，实际帧数记录在 fact chunk 中
+     * @throws IOException IOException
+     */
+    private void encodePendingPcm(boolean isFinal) throws IOException {
+        if (mCodec == null) {
+            return;
+        }
+        int framesPerBlock = mCodec.getFramesPerBlock();
+        int pcmBlockSize = framesPerBlock * mPcmFrameSize;
+        int blockCount = mCodecPcmLen / pcmBlockSize;
+        int frameCount = blockCount * framesPerBlock;
+        int consumedLen = blockCount * pcmBlockSize;
+        if (isFinal) {
+            int tailFrames = (mCodecPcmLen - consumedLen) / mPcmFrameSize;
+            if (tailFrames > 0) {
+                Arrays.fill(mCodecPcm, consumedLen + tailFrames * mPcmFrameSize, consumedLen + pcmBlockSize, (byte) 0);
+                blockCount++;
+                frameCount += tailFrames;
+            }
+            // 末尾不完整的帧直接丢弃
+            consumedLen = mCodecPcmLen;
+        }
+        if (blockCount == 0) {
+            return;
+        }
+        mCodec.encode(mCodecPcm, 0, mCodecData, 0, blockCount);
+        System.arraycopy(mCodecPcm, consumedLen, mCodecPcm, 0, mCodecPcmLen - consumedLen);
+        mCodecPcmLen -= consumedLen;
+        mCodecFrames += frameCount;
+        writeData(mCodecData, 0, blockCount * mCodec.getBlockAlign());
+    }
+
+    /**
+     * 开启合并写，小块的写入先拷贝到内存中，积累到 blockSize 后再一次写入文件，减少系统调用次数
+     * 只能在写模式下、写入数据之前调用
+     * @param blockSize 合并写的块大小，单位：字节，向上对齐到 4KB 页大小，如 64KB；小于等于 0 时关闭合并写
+     * @throws IOException IOException
+     */
+    public void setWriteBlockSize(int blockSize) throws IOException {
+        if (!isWriteMode) {
+            throw new IOException("The current file is not write mode.");
+        }
+        flushWriteBuffer();
+        if (blockSize <= 0) {
+            mWriteBuffer = null;
+            return;
+        }
+        int alignedBlockSize = (blockSize + PAGE_SIZE - 1) / PAGE_SIZE * PAGE_SIZE;
+        mWriteBuffer = ByteBuffer.allocateDirect(alignedBlockSize).order(ByteOrder.LITTLE_ENDIAN);
+    }
+
+    /**
+     * 开启波形峰值索引，写入数据的同时增量计算多级 min/max/RMS，关闭文件时保存到
+     * {@link WaveformPeaks#getSidecarPath(String)} 中，之后可以通过 {@link WaveformPeaks#load(String)} 加载
+     * 只能在写模式下、写入数据之前调用，支持 8/16/24/32 bit 整型和 32 bit 浮点 PCM 数据，压缩格式按编码前的 16 bit PCM 计算
+     * @param isEnabled 是否开启
+     * @throws IOException IOException
+     */
+    public void setPeakIndexEnabled(boolean isEnabled) throws IOException {
+        if (!isWriteMode) {
+            throw new IOException("The current file is not write mode.");
+        }
+        mPeakAccumulator = !isEnabled ? null : new WaveformPeaks.Accumulator(mHeadInfo.getSampleRate(),
+                mHeadInfo.getChannelCount(), mHeadInfo.getPcmBytePerSample(),
+                mHeadInfo.getFormatTag() == FormatTag.IEEE_FLOAT);
+    }
+
+    /**
+     * 设置落盘策略，fsync 的开销较大，根据对数据安全性的要求选择
+     * @param flushPolicy 落盘策略，参见 {@link FlushPolicy}
+     * @param intervalMs 策略为 {@link FlushPolicy#INTERVAL} 时 fsync 的间隔，单位：毫秒
+     */
+    public void setFlushPolicy(@FlushPolicy int flushPolicy, long intervalMs) {
+        if (flushPolicy == FlushPolicy.INTERVAL && intervalMs <= 0) {
+            throw new IllegalArgumentException("The flush interval must be greater than 0!");
+        }
+        mFlushPolicy = flushPolicy;
+        mFlushIntervalNs = intervalMs * 1000000L;
+        mLastSyncTimeNs = System.nanoTime();
+    }
+
+    /**
+     * 设置文件头检查点，录制过程中每隔一段时间或一定数据量就把当前的长度写入文件头，
+     * 检查点与合并写缓存的写入合并进行，只多一次文件头的小写入；进程崩溃时文件头中的长度最多落后一个检查点，
+     * 崩溃后也可通过 {@link #recover(String)} 按文件实际长度修复
+     * 只能在写模式下调用，两个参数都小于等于 0 时关闭检查点
+     * @param intervalMs 时间间隔，单位：毫秒，小于等于 0 表示不按时间检查
+     * @param intervalBytes 数据量间隔，单位：字节，小于等于 0 表示不按数据量检查
+     * @throws IOException IOException
+     */
+    public void setHeaderCheckpoint(long intervalMs, long intervalBytes) throws IOException {
+        if (!isWriteMode) {
+            throw new IOException("The current file is not write mode.");
+        }
+        mCheckpointIntervalNs = Math.max(0, intervalMs) * 1000000L;
+        mCheckpointIntervalBytes = Math.max(0, intervalBytes);
+        mLastCheckpointTimeNs = System.nanoTime();
+        mLastCheckpointDataLen = mAudioDataLenInBytes;
+    }
+
+    /**
+     * 把合并写缓存中的数据写入文件，并更新文件头中的长度信息，不做 fsync
+     * 压缩格式只编码完整的块，不足一个块的数据留到下次写入
+     * @throws IOException IOException
+     */
+    public void checkpoint() throws IOException {
+        if (isWriteMode && !isClosed) {
+            encodePendingPcm(false);
+            writeCheckpoint();
+        }
+    }
+
+    /**
+     * 把合并写缓存中的数据写入文件，不做 fsync
+     * @throws IOException IOException
+     */
+    public void flush() throws IOException {
+        if (isWriteMode && !isClosed) {
+            encodePendingPcm(false);
+            flushWriteBuffer();
+        }
+    }
+
     /**
-     * 构建一个 WavFile，该文件已存在，以读模式打开
-     * @param filePath wav file 文件路径
+     * 把合并写缓存中的数据写入文件，并 fsync 到存储设备
      * @throws IOException IOException
      */
-    public WavFile(String filePath) throws IOException {
-        this(filePath, null);
+    public void sync() throws IOException {
+        if (isWriteMode && !isClosed) {
+            encodePendingPcm(false);
+            syncData();
+        }
     }
 
     /**
-     * 根据 HeadInfo 创建一个 WavFile，以写模式打开
-     * @param filePath wav file 文件路径
-     * @param wavHeaderInfo wavHeaderInfo
+     * 写入合并写缓存并更新文件头，不处理待编码的数据，编码过程中触发检查点时使用
      * @throws IOException IOException
      */
-    public WavFile(String filePath, HeadInfo wavHeaderInfo) throws IOException {
-        mWavFile = new RandomAccessFile(filePath, "rw");
-        if (wavHeaderInfo != null) {
-            mHeadInfo = wavHeaderInfo;
-            byte[] wavHeader = generateWavHeader(
-                    wavHeaderInfo.getSampleRate(),
-                    wavHeaderInfo.getChannelCount(),
-                    wavHeaderInfo.getBytePerSample() * 8,
-                    0);
-            mWavFile.write(wavHeader);
-            isWriteMode = true;
-        } else {
-            mHeadInfo = getWavHeader(mWavFile);
-            isWriteMode = false;
-        }
-        mWavFile.seek(44);
-        mAudioDataLenInBytes = 0;
-        isClosed = false;
+    private void writeCheckpoint() throws IOException {
+        flushWriteBuffer();
+        updateWavHeaderSize(mAudioDataLenInBytes);
+        mLastCheckpointTimeNs = System.nanoTime();
+        mLastCheckpointDataLen = mAudioDataLenInBytes;
     }
 
     /**
-     * 获取 wav 头信息
-     * @return HeadInfo
+     * 写入合并写缓存并 fsync，不处理待编码的数据，编码过程中触发落盘时使用
+     * @throws IOException IOException
      */
-    public HeadInfo getHeadInfo() {
-        return mHeadInfo;
+    private void syncData() throws IOException {
+        flushWriteBuffer();
+        mWavFile.getChannel().force(false);
+        mLastSyncTimeNs = System.nanoTime();
     }
 
     /**
-     * 读取 PCM 数据
-     * @param data pcm 数据存放的位置
-     * @param off offset
-     * @param len 想要读取的长度，单位：字节
-     * @return 读取的长度，单位：字节
+     * 按检查点和落盘策略检查是否需要更新文件头、fsync，检查点先于 fsync，使同一次 fsync 也能保存文件头
      * @throws IOException IOException
      */
-    public int read(byte[] data, int off, int len) throws IOException {
-        if (isWriteMode) {
-            throw new IOException("The current file is not read mode.");
+    private void checkFlushPolicy() throws IOException {
+        if ((mCheckpointIntervalBytes > 0
+                && mAudioDataLenInBytes - mLastCheckpointDataLen >= mCheckpointIntervalBytes)
+                || (mCheckpointIntervalNs > 0
+                && System.nanoTime() - mLastCheckpointTimeNs >= mCheckpointIntervalNs)) {
+            writeCheckpoint();
         }
-        if (isClosed) {
-            return 0;
+        if (mFlushPolicy == FlushPolicy.INTERVAL
+                && System.nanoTime() - mLastSyncTimeNs >= mFlushIntervalNs) {
+            syncData();
         }
-        return mWavFile.read(data, off, len);
     }
 
     /**
-     * 写 PCM 数据
-     * @param data 音频数据
-     * @param offset offset
-     * @param len 数据长度，单位：字节
+     * 把合并写缓存中的数据写入文件
+     * @throws IOException IOException
      */
-    public void write(byte[] data, int offset, int len) throws IOException {
-        if (!isWriteMode) {
-            throw new IOException("The current file is not write mode.");
-        }
-        if (isClosed || data == null || len <= 0) {
+    private void flushWriteBuffer() throws IOException {
+        if (mWriteBuffer == null || mWriteBuffer.position() == 0) {
             return;
         }
-        mWavFile.write(data, offset, len);
-        mAudioDataLenInBytes += len;
+        mWriteBuffer.flip();
+        writeFully(mWriteBuffer);
+        mWriteBuffer.clear();
+    }
+
+    /**
+     * 通过 FileChannel 写入 byteBuffer 中剩余的全部数据
+     * @param byteBuffer 要写入的数据
+     * @throws IOException IOException
+     */
+    private void writeFully(ByteBuffer byteBuffer) throws IOException {
+        FileChannel fileChannel = mWavFile.getChannel();
+        while (byteBuffer.hasRemaining()) {
+            fileChannel.write(byteBuffer);
+        }
     }
 
     /**
@@ -124,185 +977,434 @@ public class WavFile {
         }
         isClosed = true;
 
-        // 如果是写入模式，则更新文件头中的数据长度信息
+        // 如果是写入模式，则更新文件头中的数据长度信息，超过 4GB 时自动切换为 RF64
         if (isWriteMode) {
-            int totalFileLenIncludeHeader = mAudioDataLenInBytes + 44;
-            //更新wav文件头04H— 08H的数据长度：该长度 = 文件总长 - 8
-            mWavFile.seek(4);
-            mWavFile.write(int2ByteArray(totalFileLenIncludeHeader - 8));
-
-            //更新wav文件头28H— 2CH,实际PCM采样数据长度
-            mWavFile.seek(40);
-            mWavFile.write(int2ByteArray(totalFileLenIncludeHeader - 44));
+            encodePendingPcm(true);
+            flushWriteBuffer();
+            updateWavHeaderSize(mAudioDataLenInBytes);
+            if (mFlushPolicy != FlushPolicy.NEVER) {
+                mWavFile.getChannel().force(true);
+            }
+            if (mPeakAccumulator != null) {
+                mPeakAccumulator.finish().save(mFilePath);
+                mPeakAccumulator = null;
+            }
         }
 
+        mMappedBuffer = null;
         mWavFile.close();
     }
 
     /**
-     * 生成 44 字节 WAV 文件头
-     * @param sampleRate 采样率，如 44100
-     * @param channels 通道数，如立体声为2
-     * @param bitsPerSample 采样精度，即每个采样所占数据位数，如 16，表示每个采样 16bit 数据，即 2 个字节
-     * @param audioDataLenInBytes 音频数据长度
-     * @return 44 字节 WAV 头信息
+     * 生成 WAV 文件头，在 "fmt " 之前预留一个 36 字节的 JUNK chunk，
+     * 数据超过 4GB 时将其原地改写为 RF64 的 "ds64" chunk（参见 EBU Tech 3306），不需要移动音频数据
+     * 整型 PCM 写 16 字节的 fmt chunk；浮点写 18 字节的 fmt chunk 和 fact chunk；
+     * WAVE_FORMAT_EXTENSIBLE（指定了 extensible 或者通道数大于 2 时）写 40 字节的 fmt chunk；
+     * G.711 写 18 字节的 fmt chunk，IMA-ADPCM 写 20 字节的 fmt chunk（包含每块的采样点数），都不使用 EXTENSIBLE 格式
+     * @param headInfo 头信息
+     * @return WAV 头信息，数据长度均为 0，在 close 时更新
      */
-    private byte[] generateWavHeader(int sampleRate, int channels, int bitsPerSample, int audioDataLenInBytes) {
-        if (bitsPerSample != 16 && bitsPerSample != 32) {
-            throw new IllegalArgumentException("The bitsPerSample is not 16 or 32!");
+    private static byte[] generateWavHeader(HeadInfo headInfo) {
+        int formatTag = headInfo.getFormatTag();
+        int channels = headInfo.getChannelCount();
+        int sampleRate = headInfo.getSampleRate();
+        boolean isCompressed = headInfo.isCompressed();
+        int bitsPerSample = headInfo.getBytePerSample() * 8;
+        if (formatTag == FormatTag.ALAW || formatTag == FormatTag.MULAW) {
+            bitsPerSample = 8;
+        } else if (formatTag == FormatTag.IMA_ADPCM) {
+            bitsPerSample = 4;
         }
-        if (audioDataLenInBytes < 0) {
-            throw new IllegalArgumentException("Audio data len could not be negative!");
+        if (formatTag == FormatTag.PCM && bitsPerSample != 8 && bitsPerSample != 16
+                && bitsPerSample != 24 && bitsPerSample != 32) {
+            throw new IllegalArgumentException("The bitsPerSample of pcm is not 8, 16, 24 or 32!");
         }
-        byte[] wavHeader = new byte[44];
-
-        // 这个长度不包括"RIFF"标志(4字节)和文件长度本身所占字节(4字节),即该长度等于整个 Wav文件长度(包含44字节头) - 8
-        // 也等于纯音频数据的长度 + 36
-        int ckTotalSize = 36 + audioDataLenInBytes;
-
-        // 生成文件头默认纯音频数据长度为 0
-        int audioDataLen = audioDataLenInBytes;
+        if (formatTag == FormatTag.IEEE_FLOAT && bitsPerSample != 32 && bitsPerSample != 64) {
+            throw new IllegalArgumentException("The bitsPerSample of float is not 32 or 64!");
+        }
+        if (formatTag != FormatTag.PCM && formatTag != FormatTag.IEEE_FLOAT && !isCompressed) {
+            throw new IllegalArgumentException("Unsupported format tag: " + formatTag);
+        }
+        if (channels <= 0) {
+            throw new IllegalArgumentException("The channel count must be greater than 0!");
+        }
+        boolean isExtensible = !isCompressed && (headInfo.isExtensible() || channels > 2);
+        boolean hasFactChunk = formatTag != FormatTag.PCM;
+        int fmtChunkSize = isExtensible ? 40 : (formatTag == FormatTag.PCM ? 16 : 18);
+        if (formatTag == FormatTag.IMA_ADPCM) {
+            fmtChunkSize = 20;
+        }
+        int headerSize = 12 + (8 + DS64_CHUNK_SIZE) + (8 + fmtChunkSize) + (hasFactChunk ? 12 : 0) + 8;
+        ByteBuffer wavHeader = ByteBuffer.allocate(headerSize).order(ByteOrder.LITTLE_ENDIAN);
 
+        int blockAlign = headInfo.getBlockAlign();
         // 音频数据传送速率, 单位是字节。其值为采样率×每次采样大小。播放软件利用此值可以估计缓冲区的大小。
         // bytePerSecond = sampleRate * (bitsPerSample / 8) * channels
-        int bytePerSecond = sampleRate * (bitsPerSample / 8) * channels;
+        int bytePerSecond = sampleRate * blockAlign;
+        if (formatTag == FormatTag.IMA_ADPCM) {
+            // 按块编码的格式：bytePerSecond = sampleRate * blockAlign / samplesPerBlock
+            bytePerSecond = (int) ((long) sampleRate * blockAlign / headInfo.getSamplesPerBlock());
+        }
 
         //ckid：4字节 RIFF 标志，大写
-        wavHeader[0]  = 'R';
-        wavHeader[1]  = 'I';
-        wavHeader[2]  = 'F';
-        wavHeader[3]  = 'F';
-
+        wavHeader.putInt(CHUNK_ID_RIFF);
         //cksize：4字节文件长度，这个长度不包括"RIFF"标志(4字节)和文件长度本身所占字节(4字节),即该长度等于整个文件长度 - 8
-        wavHeader[4]  = (byte)(ckTotalSize & 0xff);
-        wavHeader[5]  = (byte)((ckTotalSize >> 8) & 0xff);
-        wavHeader[6]  = (byte)((ckTotalSize >> 16) & 0xff);
-        wavHeader[7]  = (byte)((ckTotalSize >> 24) & 0xff);
-
+        wavHeader.putInt(headerSize - 8);
         //fcc type：4字节 "WAVE" 类型块标识, 大写
-        wavHeader[8]  = 'W';
-        wavHeader[9]  = 'A';
-        wavHeader[10] = 'V';
-        wavHeader[11] = 'E';
-
-        //ckid：4字节 表示"fmt" chunk的开始,此块中包括文件内部格式信息，小写, 最后一个字符是空格
-        wavHeader[12] = 'f';
-        wavHeader[13] = 'm';
-        wavHeader[14] = 't';
-        wavHeader[15] = ' ';
-
-        //cksize：4字节，文件内部格式信息数据的大小，过滤字节（一般为00000010H）
-        wavHeader[16] = 0x10;
-        wavHeader[17] = 0;
-        wavHeader[18] = 0;
-        wavHeader[19] = 0;
+        wavHeader.putInt(CHUNK_ID_WAVE);
 
-        //FormatTag：2字节，音频数据的编码方式，1：表示是PCM 编码
-        wavHeader[20] = 1;
-        wavHeader[21] = 0;
+        //ckid：4字节 "JUNK"，为 RF64 的 "ds64" chunk 占位，播放软件会忽略该 chunk
+        wavHeader.putInt(CHUNK_ID_JUNK);
+        //cksize：4字节，ds64 chunk 的大小：riffSize(8) + dataSize(8) + sampleCount(8) + tableLength(4)
+        wavHeader.putInt(DS64_CHUNK_SIZE);
+        wavHeader.position(wavHeader.position() + DS64_CHUNK_SIZE);
 
+        //ckid：4字节 表示"fmt" chunk的开始,此块中包括文件内部格式信息，小写, 最后一个字符是空格
+        wavHeader.putInt(CHUNK_ID_FMT);
+        //cksize：4字节，文件内部格式信息数据的大小，PCM 为 16，浮点和 G.711 为 18，IMA-ADPCM 为 20，WAVE_FORMAT_EXTENSIBLE 为 40
+        wavHeader.putInt(fmtChunkSize);
+        //FormatTag：2字节，音频数据的编码方式，1：PCM 编码，3：IEEE 浮点，0xFFFE：WAVE_FORMAT_EXTENSIBLE
+        wavHeader.putShort((short) (isExtensible ? FormatTag.EXTENSIBLE : formatTag));
         //Channels：2字节，声道数，单声道为1，双声道为2
-        wavHeader[22] = (byte) channels;
-        wavHeader[23] = 0;
-
+        wavHeader.putShort((short) channels);
         //SamplesPerSec：4字节，采样率，如44100
-        wavHeader[24] = (byte)(sampleRate & 0xff);
-        wavHeader[25] = (byte)((sampleRate >> 8) & 0xff);
-        wavHeader[26] = (byte)((sampleRate >> 16) & 0xff);
-        wavHeader[27] = (byte)((sampleRate >> 24) & 0xff);
-
+        wavHeader.putInt(sampleRate);
         //BytesPerSec：4字节，音频数据传送速率, 单位是字节。其值为采样率×每次采样大小。播放软件利用此值可以估计缓冲区的大小；
-        //bytePerSecond = sampleRate * (bitsPerSample / 8) * channels
-        wavHeader[28] = (byte)(bytePerSecond & 0xff);
-        wavHeader[29] = (byte)((bytePerSecond >> 8) & 0xff);
-        wavHeader[30] = (byte)((bytePerSecond >> 16) & 0xff);
-        wavHeader[31] = (byte)((bytePerSecond >> 24) & 0xff);
-
+        wavHeader.putInt(bytePerSecond);
         //BlockAlign：2字节，每次采样的大小 = 采样精度*声道数/8(单位是字节); 这也是字节对齐的最小单位, 譬如 16bit 立体声在这里的值是 4 字节。
         //播放软件需要一次处理多个该值大小的字节数据，以便将其值用于缓冲区的调整
-        wavHeader[32] = (byte)(bitsPerSample * channels / 8);
-        wavHeader[33] = 0;
-
+        wavHeader.putShort((short) blockAlign);
         //BitsPerSample：2字节，每个声道的采样精度; 譬如 16bit 在这里的值就是16。如果有多个声道，则每个声道的采样精度大小都一样的；
-        wavHeader[34] = (byte) bitsPerSample;
-        wavHeader[35] = 0;
+        wavHeader.putShort((short) bitsPerSample);
+        if (isExtensible) {
+            //cbSize：2字节，扩展信息的长度
+            wavHeader.putShort((short) 22);
+            //ValidBitsPerSample：2字节，每个采样点的有效位数
+            wavHeader.putShort((short) headInfo.getValidBitsPerSample());
+            //ChannelMask：4字节，各声道对应的扬声器位置
+            wavHeader.putInt(headInfo.getChannelMask());
+            //SubFormat：16字节 GUID，前 2 字节为实际的格式编码
+            wavHeader.putShort((short) formatTag);
+            wavHeader.put(SUB_FORMAT_GUID_SUFFIX);
+        } else if (formatTag == FormatTag.IMA_ADPCM) {
+            //cbSize：2字节，扩展信息的长度
+            wavHeader.putShort((short) 2);
+            //SamplesPerBlock：2字节，每个块中每个声道的采样点数
+            wavHeader.putShort((short) headInfo.getSamplesPerBlock());
+        } else if (fmtChunkSize == 18) {
+            //cbSize：2字节，非 PCM 格式必须有该字段，没有扩展信息时为 0
+            wavHeader.putShort((short) 0);
+        }
+
+        if (hasFactChunk) {
+            //ckid：4字节 "fact"，非 PCM 格式必须有该 chunk，记录每个声道的采样点数
+            wavHeader.putInt(CHUNK_ID_FACT);
+            wavHeader.putInt(4);
+            wavHeader.putInt(0);
+        }
 
         //ckid：4字节，数据标志符（data），表示 "data" chunk的开始。此块中包含音频数据，小写；
-        wavHeader[36] = 'd';
-        wavHeader[37] = 'a';
-        wavHeader[38] = 't';
-        wavHeader[39] = 'a';
+        wavHeader.putInt(CHUNK_ID_DATA);
+        //cksize：音频数据的长度，4字节，audioDataLen = fileLenIncludeHeader - headerSize
+        wavHeader.putInt(0);
+
+        return wavHeader.array();
+    }
+
+    /**
+     * 更新文件头中的长度信息，使用内存中缓存的文件头，只有一次写操作，且不改变文件的读写位置
+     * @param audioDataLenInBytes 音频数据长度，单位：字节
+     * @throws IOException IOException
+     */
+    private void updateWavHeaderSize(long audioDataLenInBytes) throws IOException {
+        long sampleCount = mCodec != null ? mCodecFrames : audioDataLenInBytes / mHeadInfo.getBlockAlign();
+        patchHeaderSize(mHeaderBuffer, audioDataLenInBytes, sampleCount);
+        ByteBuffer header = mHeaderBuffer.duplicate();
+        header.clear();
+        FileChannel fileChannel = mWavFile.getChannel();
+        long position = 0;
+        while (header.hasRemaining()) {
+            position += fileChannel.write(header, position);
+        }
+    }
 
-        //cksize：音频数据的长度，4字节，audioDataLen = ckSize - 36 = fileLenIncludeHeader - 44
-        wavHeader[40] = (byte)(audioDataLen & 0xff);
-        wavHeader[41] = (byte)((audioDataLen >> 8) & 0xff);
-        wavHeader[42] = (byte)((audioDataLen >> 16) & 0xff);
-        wavHeader[43] = (byte)((audioDataLen >> 24) & 0xff);
+    /**
+     * 生成长度信息已确定的文件头，供 {@link WavEditor} 等直接拼接 data 的工具使用
+     * @param headInfo 头信息
+     * @param audioDataLenInBytes 音频数据长度，单位：字节
+     * @param sampleCount 每个声道的采样点数
+     * @return 完整的文件头，之后紧接音频数据
+     * @throws IOException 数据超过 4GB 而文件头中没有为 ds64 预留空间
+     */
+    static ByteBuffer createWavHeader(HeadInfo headInfo, long audioDataLenInBytes, long sampleCount)
+            throws IOException {
+        ByteBuffer header = ByteBuffer.wrap(generateWavHeader(headInfo)).order(ByteOrder.LITTLE_ENDIAN);
+        patchHeaderSize(header, audioDataLenInBytes, sampleCount);
+        return header;
+    }
+
+    /**
+     * 在内存中修改文件头的长度信息，数据不超过 4GB 时写标准 RIFF 头，
+     * 超过时把文件头改写为 RF64，32 位长度字段填 0xFFFFFFFF，实际长度写入 ds64 chunk
+     * @param header 从文件开头到音频数据起始位置的全部内容，data chunk 必须是最后一个 chunk
+     * @param audioDataLenInBytes 音频数据长度，单位：字节
+     * @param sampleCount 每个声道的采样点数，写入 fact chunk 和 ds64 chunk
+     * @throws IOException 数据超过 4GB 而文件头中没有为 ds64 预留空间
+     */
+    private static void patchHeaderSize(ByteBuffer header, long audioDataLenInBytes, long sampleCount)
+            throws IOException {
+        int dataSizePosition = header.capacity() - 4;
+        long riffSize = audioDataLenInBytes + header.capacity() - 8;
+        if (riffSize <= sRF64Threshold) {
+            header.putInt(0, CHUNK_ID_RIFF);
+            header.putInt(4, (int) riffSize);
+            if (header.getInt(12) == CHUNK_ID_DS64) {
+                header.putInt(12, CHUNK_ID_JUNK);
+            }
+            header.putInt(dataSizePosition, (int) audioDataLenInBytes);
+            putFactSampleCount(header, (int) sampleCount);
+        } else {
+            if ((header.getInt(12) != CHUNK_ID_JUNK && header.getInt(12) != CHUNK_ID_DS64)
+                    || header.getInt(16) < DS64_CHUNK_SIZE) {
+                throw new IOException("The wav header has no space reserved for the 'ds64' chunk.");
+            }
+            header.putInt(0, CHUNK_ID_RF64);
+            header.putInt(4, -1);
+            header.putInt(12, CHUNK_ID_DS64);
+            header.putLong(20, riffSize);
+            header.putLong(28, audioDataLenInBytes);
+            header.putLong(36, sampleCount);
+            header.putInt(44, 0);
+            header.putInt(dataSizePosition, -1);
+            putFactSampleCount(header, -1);
+        }
+    }
+
+    /**
+     * 更新文件头中 fact chunk 记录的采样点数，没有 fact chunk 时不做任何处理
+     * @param header 从文件开头到音频数据起始位置的全部内容
+     * @param sampleCount 每个声道的采样点数
+     */
+    private static void putFactSampleCount(ByteBuffer header, int sampleCount) {
+        int chunkOffset = 12;
+        while (chunkOffset + 8 <= header.capacity()) {
+            int chunkSize = header.getInt(chunkOffset + 4);
+            if (header.getInt(chunkOffset) == CHUNK_ID_FACT) {
+                if (chunkSize >= 4 && chunkOffset + 12 <= header.capacity()) {
+                    header.putInt(chunkOffset + 8, sampleCount);
+                }
+                return;
+            }
+            if (chunkSize < 0) {
+                return;
+            }
+            chunkOffset += 8 + chunkSize + (chunkSize & 1);
+        }
+    }
+
+    /**
+     * 修复未正常关闭（如进程崩溃）的 wav 文件，根据文件实际长度重新计算 RIFF 和 data 的长度并写入文件头
+     * 要求 data 是文件中的最后一个 chunk，末尾不完整的帧（压缩格式为块）会被截掉，数据超过 4GB 时需要文件头中预留了 ds64 的空间
+     * @param filePath wav file 文件路径
+     * @return 修复后的音频数据长度，单位：字节
+     * @throws IOException 不是有效的 wav 文件或写文件失败
+     */
+    public static long recover(String filePath) throws IOException {
+        RandomAccessFile randomAccessFile = new RandomAccessFile(filePath, "rw");
+        try {
+            // 只需要 data 的起始位置，检查点之后追加的音频数据不能当作 chunk 遍历
+            HeadInfo headInfo = getWavHeader(randomAccessFile, true);
+            int dataOffset = (int) headInfo.getDataOffset();
+            int blockAlign = headInfo.getBlockAlign();
+            long audioDataLenInBytes = (randomAccessFile.length() - dataOffset) / blockAlign * blockAlign;
 
-        return wavHeader;
+            ByteBuffer header = ByteBuffer.allocate(dataOffset).order(ByteOrder.LITTLE_ENDIAN);
+            randomAccessFile.seek(0);
+            randomAccessFile.readFully(header.array());
+            patchHeaderSize(header, audioDataLenInBytes,
+                    audioDataLenInBytes / blockAlign * headInfo.getSamplesPerBlock());
+            randomAccessFile.seek(0);
+            randomAccessFile.write(header.array());
+            randomAccessFile.setLength(dataOffset + audioDataLenInBytes);
+            randomAccessFile.getChannel().force(true);
+            return audioDataLenInBytes;
+        } finally {
+            randomAccessFile.close();
+        }
     }
 
     /**
      * 从 wav 文件中获取头信息
-     * 注意：必须是 44 字节头的 wav 文件
+     * 单次遍历 RIFF 的所有 chunk，建立 chunk 索引（id -> 偏移/长度），支持包含 LIST、fact、bext、JUNK 等
+     * chunk 以及 WAVE_FORMAT_EXTENSIBLE 格式的文件，音频数据的起始位置以 data chunk 的实际位置为准
+     * data 之后遇到 chunk id 不是可打印字符或长度超出文件的 chunk 时结束遍历，
+     * 这通常是未正常关闭的录音在最后一个检查点之后追加的音频数据
      * @param randomAccessFile wav 文件
+     * @param isStopAtData 找到 data chunk 后是否立即结束遍历
      * @return HeadInfo
      * @throws IOException IOException
      */
-    private HeadInfo getWavHeader(RandomAccessFile randomAccessFile) throws IOException {
+    private static HeadInfo getWavHeader(RandomAccessFile randomAccessFile, boolean isStopAtData)
+            throws IOException {
+        long fileLength = randomAccessFile.length();
+        ByteBuffer headerBuffer = ByteBuffer.allocate((int) Math.min(HEADER_READ_SIZE, fileLength))
+                .order(ByteOrder.LITTLE_ENDIAN);
+        randomAccessFile.seek(0);
+        randomAccessFile.readFully(headerBuffer.array());
+        if (headerBuffer.limit() < 12 || headerBuffer.getInt(8) != CHUNK_ID_WAVE
+                || (headerBuffer.getInt(0) != CHUNK_ID_RIFF && headerBuffer.getInt(0) != CHUNK_ID_RF64)) {
+            throw new IOException("The file is not a RIFF/WAVE file.");
+        }
+        boolean isRF64 = headerBuffer.getInt(0) == CHUNK_ID_RF64;
+        long ds64DataSize = -1;
 
-        //读取channelCount，第22~23位
-        randomAccessFile.seek(22);
-        byte[] channelCountArray = new byte[2];
-        randomAccessFile.read(channelCountArray);
-        int channelCount = byteArray2Short(channelCountArray);
+        Map<String, ChunkInfo> chunkIndex = new LinkedHashMap<>();
+        byte[] chunkHeader = new byte[8];
+        ByteBuffer fmtBuffer = null;
+        long chunkOffset = 12;
+        while (chunkOffset + 8 <= fileLength) {
+            int chunkId;
+            long chunkSize;
+            if (chunkOffset + 8 <= headerBuffer.limit()) {
+                chunkId = headerBuffer.getInt((int) chunkOffset);
+                chunkSize = headerBuffer.getInt((int) chunkOffset + 4) & 0xFFFFFFFFL;
+            } else {
+                // chunk 头不在首次读取的范围内（如位于 data 之后的 LIST），单独读取 8 字节
+                randomAccessFile.seek(chunkOffset);
+                randomAccessFile.readFully(chunkHeader);
+                ByteBuffer chunkHeaderBuffer = ByteBuffer.wrap(chunkHeader).order(ByteOrder.LITTLE_ENDIAN);
+                chunkId = chunkHeaderBuffer.getInt(0);
+                chunkSize = chunkHeaderBuffer.getInt(4) & 0xFFFFFFFFL;
+            }
+            long payloadOffset = chunkOffset + 8;
+            if (chunkIndex.containsKey("data")
+                    && (!isPrintableChunkId(chunkId) || payloadOffset + chunkSize > fileLength)) {
+                break;
+            }
+            if (chunkId == CHUNK_ID_DATA && isRF64 && chunkSize == MAX_RIFF_SIZE && ds64DataSize >= 0) {
+                // RF64 文件的 data 长度记录在 ds64 chunk 中
+                chunkSize = ds64DataSize;
+            }
+            if (chunkId == CHUNK_ID_DATA && (chunkSize == 0 || payloadOffset + chunkSize > fileLength)) {
+                // 录制时未正常关闭的文件，data 长度为 0 或者超出文件实际长度，以文件实际长度为准
+                chunkSize = fileLength - payloadOffset;
+            }
+            ChunkInfo chunkInfo = new ChunkInfo(chunkId, payloadOffset, chunkSize);
+            if (!chunkIndex.containsKey(chunkInfo.getId())) {
+                chunkIndex.put(chunkInfo.getId(), chunkInfo);
+            }
+            if (chunkId == CHUNK_ID_FMT && fmtBuffer == null) {
+                fmtBuffer = readChunk(randomAccessFile, headerBuffer, chunkInfo, 16);
+            } else if (chunkId == CHUNK_ID_DS64 && isRF64) {
+                ds64DataSize = readChunk(randomAccessFile, headerBuffer, chunkInfo, 24).getLong(8);
+            } else if (chunkId == CHUNK_ID_DATA && isStopAtData) {
+                break;
+            }
+            // chunk 按 2 字节对齐，奇数长度的 chunk 后面有一个填充字节
+            chunkOffset = payloadOffset + chunkSize + (chunkSize & 1);
+        }
 
-        //读取sampleRate，第24~27位
-        randomAccessFile.seek(24);
-        byte[] sampleRateArray = new byte[4];
-        randomAccessFile.read(sampleRateArray);
-        int sampleRate = byteArray2Int(sampleRateArray);
+        if (fmtBuffer == null || !chunkIndex.containsKey("data")) {
+            throw new IOException("The wav file has no 'fmt ' or 'data' chunk.");
+        }
+        return parseFmtChunk(fmtBuffer).setChunkIndex(chunkIndex);
+    }
 
-        //读取BitsPerSample，第34~35位
-        randomAccessFile.seek(34);
-        byte[] bitsPerSampleArray = new byte[2];
-        randomAccessFile.read(bitsPerSampleArray);
-        int bytePerSample = byteArray2Short(bitsPerSampleArray) / 8;
+    /**
+     * 解析 fmt chunk 的内容，支持 WAVE_FORMAT_EXTENSIBLE 格式
+     * @param fmtBuffer fmt chunk 的内容，小端字节序，至少 16 字节
+     * @return 不包含 chunk 索引的 HeadInfo
+     */
+    static HeadInfo parseFmtChunk(ByteBuffer fmtBuffer) {
+        int formatTag = fmtBuffer.getShort(0) & 0xFFFF;
+        int channelCount = fmtBuffer.getShort(2) & 0xFFFF;
+        int sampleRate = fmtBuffer.getInt(4);
+        int blockAlign = fmtBuffer.getShort(12) & 0xFFFF;
+        int bitsPerSample = fmtBuffer.getShort(14) & 0xFFFF;
+        int validBitsPerSample = bitsPerSample;
+        int samplesPerBlock = 0;
+        int channelMask = 0;
+        boolean isExtensible = false;
+        if (formatTag == FormatTag.EXTENSIBLE && fmtBuffer.limit() >= 40) {
+            // WAVE_FORMAT_EXTENSIBLE：实际格式为 SubFormat GUID 的前 2 字节
+            isExtensible = true;
+            validBitsPerSample = fmtBuffer.getShort(18) & 0xFFFF;
+            channelMask = fmtBuffer.getInt(20);
+            formatTag = fmtBuffer.getShort(24) & 0xFFFF;
+        } else if (formatTag == FormatTag.IMA_ADPCM && fmtBuffer.limit() >= 20) {
+            samplesPerBlock = fmtBuffer.getShort(18) & 0xFFFF;
+        }
+        // 每个采样点占的字节数以容器大小为准，如 24 bit 有效位存放在 32 bit 容器中时为 4
+        int bytePerSample = (bitsPerSample + 7) / 8;
+        if ((formatTag == FormatTag.PCM || formatTag == FormatTag.IEEE_FLOAT)
+                && channelCount > 0 && blockAlign >= channelCount && blockAlign % channelCount == 0) {
+            bytePerSample = blockAlign / channelCount;
+        }
 
         return HeadInfo.build().
                 setSampleRate(sampleRate).
                 setChannelCount(channelCount).
-                setBytePerSample(bytePerSample);
+                setBytePerSample(bytePerSample).
+                setBlockAlign(blockAlign).
+                setSamplesPerBlock(samplesPerBlock).
+                setFormatTag(formatTag).
+                setExtensible(isExtensible).
+                setValidBitsPerSample(validBitsPerSample).
+                setChannelMask(channelMask);
     }
 
     /**
-     * 将 byte 数组转成short
-     * @param b byte 数组
-     * @return 返回 short 数值
+     * 读取 chunk 的内容，已在首次读取的范围内时直接从 headerBuffer 中截取
+     * @param randomAccessFile wav 文件
+     * @param headerBuffer 首次读取的文件头数据
+     * @param chunkInfo 要读取的 chunk
+     * @param minSize chunk 内容的最小长度，不足时抛出异常
+     * @return chunk 的内容，小端字节序
+     * @throws IOException IOException
      */
-    private static short byteArray2Short(byte[] b) {
-        return ByteBuffer.wrap(b).order(ByteOrder.LITTLE_ENDIAN).getShort();
+    private static ByteBuffer readChunk(RandomAccessFile randomAccessFile, ByteBuffer headerBuffer,
+                                        ChunkInfo chunkInfo, int minSize) throws IOException {
+        if (chunkInfo.getSize() < minSize) {
+            throw new IOException("The '" + chunkInfo.getId() + "' chunk is too short.");
+        }
+        int size = (int) chunkInfo.getSize();
+        int offset = (int) chunkInfo.getOffset();
+        if (chunkInfo.getOffset() + size <= headerBuffer.limit()) {
+            ByteBuffer chunkBuffer = headerBuffer.duplicate();
+            chunkBuffer.position(offset);
+            chunkBuffer.limit(offset + size);
+            return chunkBuffer.slice().order(ByteOrder.LITTLE_ENDIAN);
+        }
+        byte[] chunkData = new byte[size];
+        randomAccessFile.seek(chunkInfo.getOffset());
+        randomAccessFile.readFully(chunkData);
+        return ByteBuffer.wrap(chunkData).order(ByteOrder.LITTLE_ENDIAN);
     }
 
     /**
-     * 将整型转成 byte 数组
-     * @param data 要转换的数字
-     * @return byte 数组
+     * chunk id 的 4 个字节是否都是可打印的 ASCII 字符
+     * @param chunkId 小端序整型的 chunk id
+     * @return 是否是合法的 chunk id
      */
-    private static byte[] int2ByteArray(int data) {
-        return ByteBuffer.allocate(4).order(ByteOrder.LITTLE_ENDIAN).putInt(data).array();
+    private static boolean isPrintableChunkId(int chunkId) {
+        for (int i = 0; i < 4; i++) {
+            int c = (chunkId >>> (i * 8)) & 0xFF;
+            if (c < 0x20 || c > 0x7E) {
+                return false;
+            }
+        }
+        return true;
     }
 
     /**
-     * 将 byte 数组转成整型
-     * @param b byte 数组
-     * @return int 数值
+     * 将 4 字节 chunk id 转成小端序整型，便于与读取到的 chunk id 直接比较
+     * @param id chunk id，如 "RIFF"
+     * @return 整型的 chunk id
      */
-    private static int byteArray2Int(byte[] b) {
-        return ByteBuffer.wrap(b).order(ByteOrder.LITTLE_ENDIAN).getInt();
+    static int chunkId(String id) {
+        return (id.charAt(0)) | (id.charAt(1) << 8) | (id.charAt(2) << 16) | (id.charAt(3) << 24);
     }
 
-
     public static class HeadInfo {
         /**
          * 采样率
@@ -322,6 +1424,42 @@ public class WavFile {
          */
         private int bytePerSample = 2;
 
+        /**
+         * 音频编码格式，为 0 时根据 bytePerSample 推断：4 字节为浮点，其他为整型 PCM
+         */
+        private int formatTag;
+
+        /**
+         * 是否为 WAVE_FORMAT_EXTENSIBLE 格式
+         */
+        private boolean isExtensible;
+
+        /**
+         * 每个采样点的有效位数，为 0 时等于 bytePerSample * 8
+         */
+        private int validBitsPerSample;
+
+        /**
+         * 声道位置掩码，为 0 时根据通道数生成默认值
+         */
+        private int channelMask;
+
+        /**
+         * 每帧（所有通道各一个采样点）的大小，为 0 时由 bytePerSample * channelCount 计算
+         * 单位：字节
+         */
+        private int blockAlign;
+
+        /**
+         * IMA-ADPCM 每个块中每个声道的采样点数，为 0 时由 blockAlign 计算
+         */
+        private int samplesPerBlock;
+
+        /**
+         * chunk 索引，key 为 chunk id，只在读模式下有效
+         */
+        private Map<String, ChunkInfo> chunkIndex = Collections.emptyMap();
+
         /**
          * 构造 HeadInfo
          * @return HeadInfo 实例
@@ -385,5 +1523,276 @@ public class WavFile {
             this.bytePerSample = bytePerSample;
             return this;
         }
+
+        /**
+         * 获取音频编码格式，参见 {@link FormatTag}，WAVE_FORMAT_EXTENSIBLE 格式返回 SubFormat 中的实际格式
+         * 未设置时 4 字节的采样点为 {@link FormatTag#IEEE_FLOAT}，其他为 {@link FormatTag#PCM}
+         * @return 音频编码格式
+         */
+        public int getFormatTag() {
+            if (formatTag != 0) {
+                return formatTag;
+            }
+            return bytePerSample == 4 ? FormatTag.IEEE_FLOAT : FormatTag.PCM;
+        }
+
+        /**
+         * 设置音频编码格式，压缩格式（{@link FormatTag#ALAW}、{@link FormatTag#MULAW}、{@link FormatTag#IMA_ADPCM}）
+         * 读写的数据为 16 bit PCM，不需要设置 bytePerSample
+         * @param formatTag 音频编码格式，参见 {@link FormatTag}
+         * @return 设置参数后的 HeadInfo 实例
+         */
+        public HeadInfo setFormatTag(@FormatTag int formatTag) {
+            this.formatTag = formatTag;
+            return this;
+        }
+
+        /**
+         * 是否为压缩格式（G.711、IMA-ADPCM），压缩格式读写的数据为 16 bit PCM
+         * @return 是否为压缩格式
+         */
+        public boolean isCompressed() {
+            int tag = getFormatTag();
+            return tag == FormatTag.ALAW || tag == FormatTag.MULAW || tag == FormatTag.IMA_ADPCM;
+        }
+
+        /**
+         * 获取读写接口中每个采样点的大小，压缩格式为解码后的 2 字节，其他格式等于 {@link #getBytePerSample()}
+         * @return 每个采样点占的字节数
+         */
+        public int getPcmBytePerSample() {
+            return isCompressed() ? 2 : bytePerSample;
+        }
+
+        /**
+         * 获取读写接口中每帧的大小，压缩格式为 2 * channelCount，其他格式等于 {@link #getBlockAlign()}
+         * @return 每帧占的字节数
+         */
+        public int getPcmFrameSize() {
+            return isCompressed() ? Math.max(1, 2 * channelCount) : getBlockAlign();
+        }
+
+        /**
+         * 根据 {@link Type.AudioFormat} 设置编码格式和采样点大小，与 AudioIOBuilder 的格式保持一致
+         * @param audioFormat {@link Type.AudioFormat#PCM_I16} 或 {@link Type.AudioFormat#PCM_Float}
+         * @return 设置参数后的 HeadInfo 实例
+         */
+        public HeadInfo setAudioFormat(@Type.AudioFormat int audioFormat) {
+            if (audioFormat == Type.AudioFormat.PCM_Float) {
+                this.formatTag = FormatTag.IEEE_FLOAT;
+                this.bytePerSample = 4;
+            } else {
+                this.formatTag = FormatTag.PCM;
+                this.bytePerSample = 2;
+            }
+            return this;
+        }
+
+        /**
+         * 是否为 WAVE_FORMAT_EXTENSIBLE 格式
+         * @return 读模式下为文件中的格式；写模式下为是否以该格式写入，通道数大于 2 时总是以该格式写入
+         */
+        public boolean isExtensible() {
+            return isExtensible;
+        }
+
+        /**
+         * 设置是否以 WAVE_FORMAT_EXTENSIBLE 格式写入
+         * @param isExtensible 是否为 WAVE_FORMAT_EXTENSIBLE 格式
+         * @return 设置参数后的 HeadInfo 实例
+         */
+        public HeadInfo setExtensible(boolean isExtensible) {
+            this.isExtensible = isExtensible;
+            return this;
+        }
+
+        /**
+         * 获取每个采样点的有效位数，如 24 bit 数据存放在 4 字节容器中时为 24
+         * @return 有效位数
+         */
+        public int getValidBitsPerSample() {
+            return validBitsPerSample > 0 ? validBitsPerSample : bytePerSample * 8;
+        }
+
+        /**
+         * 设置每个采样点的有效位数，只在 WAVE_FORMAT_EXTENSIBLE 格式中写入
+         * @param validBitsPerSample 有效位数
+         * @return 设置参数后的 HeadInfo 实例
+         */
+        public HeadInfo setValidBitsPerSample(int validBitsPerSample) {
+            this.validBitsPerSample = validBitsPerSample;
+            return this;
+        }
+
+        /**
+         * 获取声道位置掩码，未设置时单声道为前中置，立体声为前左、前右，其他为前 channelCount 个位置
+         * @return 声道位置掩码
+         */
+        public int getChannelMask() {
+            if (channelMask != 0) {
+                return channelMask;
+            }
+            if (channelCount == 1) {
+                return 0x4;
+            }
+            return channelCount >= 32 ? -1 : (1 << channelCount) - 1;
+        }
+
+        /**
+         * 设置声道位置掩码，只在 WAVE_FORMAT_EXTENSIBLE 格式中写入
+         * @param channelMask 声道位置掩码
+         * @return 设置参数后的 HeadInfo 实例
+         */
+        public HeadInfo setChannelMask(int channelMask) {
+            this.channelMask = channelMask;
+            return this;
+        }
+
+        /**
+         * 获取每帧的大小，即文件头中的 BlockAlign，读写时按该值对齐，IMA-ADPCM 为每个块的大小
+         * @return 每帧占的字节数
+         */
+        public int getBlockAlign() {
+            if (blockAlign > 0) {
+                return blockAlign;
+            }
+            int tag = getFormatTag();
+            if (tag == FormatTag.IMA_ADPCM) {
+                return ImaAdpcmCodec.getDefaultBlockAlign(sampleRate, Math.max(1, channelCount));
+            }
+            if (tag == FormatTag.ALAW || tag == FormatTag.MULAW) {
+                return Math.max(1, channelCount);
+            }
+            return Math.max(1, bytePerSample * channelCount);
+        }
+
+        /**
+         * 设置每帧的大小，一般不需要设置，默认为 bytePerSample * channelCount；
+         * IMA-ADPCM 为每个块的大小，默认根据采样率取 256、512 或 1024 字节再乘以通道数
+         * @param blockAlign 每帧占的字节数
+         * @return 设置参数后的 HeadInfo 实例
+         */
+        public HeadInfo setBlockAlign(int blockAlign) {
+            this.blockAlign = blockAlign;
+            return this;
+        }
+
+        /**
+         * 获取每个块中每个声道的采样点数，IMA-ADPCM 由块大小计算，其他格式为 1
+         * @return 每个块的采样点数
+         */
+        public int getSamplesPerBlock() {
+            if (getFormatTag() != FormatTag.IMA_ADPCM) {
+                return 1;
+            }
+            if (samplesPerBlock > 0) {
+                return samplesPerBlock;
+            }
+            return ImaAdpcmCodec.getFramesPerBlock(Math.max(1, channelCount), getBlockAlign());
+        }
+
+        HeadInfo setSamplesPerBlock(int samplesPerBlock) {
+            this.samplesPerBlock = samplesPerBlock;
+            return this;
+        }
+
+        /**
+         * 获取 chunk 索引，key 为 chunk id（如 "fmt "、"data"、"LIST"），按在文件中出现的顺序排列
+         * 同一个 id 出现多次时只保留第一个
+         * @return 不可修改的 chunk 索引，写模式下为空
+         */
+        public Map<String, ChunkInfo> getChunkIndex() {
+            return chunkIndex;
+        }
+
+        /**
+         * 根据 chunk id 获取 chunk 信息
+         * @param chunkId chunk id，如 "LIST"
+         * @return chunk 信息，不存在时返回 null
+         */
+        public ChunkInfo getChunk(String chunkId) {
+            return chunkIndex.get(chunkId);
+        }
+
+        /**
+         * 获取音频数据在文件中的起始位置
+         * @return data chunk 内容的偏移，单位：字节
+         */
+        public long getDataOffset() {
+            ChunkInfo dataChunk = chunkIndex.get("data");
+            return dataChunk != null ? dataChunk.getOffset() : WAV_HEADER_SIZE;
+        }
+
+        /**
+         * 获取音频数据的长度
+         * @return data chunk 内容的长度，单位：字节
+         */
+        public long getDataSize() {
+            ChunkInfo dataChunk = chunkIndex.get("data");
+            return dataChunk != null ? dataChunk.getSize() : 0;
+        }
+
+        HeadInfo setChunkIndex(Map<String, ChunkInfo> chunkIndex) {
+            this.chunkIndex = Collections.unmodifiableMap(chunkIndex);
+            return this;
+        }
+    }
+
+    public static class ChunkInfo {
+        /**
+         * chunk id，4 个字符，如 "fmt "、"data"
+         */
+        private final String id;
+
+        /**
+         * chunk 内容（不包括 8 字节的 chunk 头）在文件中的偏移，单位：字节
+         */
+        private final long offset;
+
+        /**
+         * chunk 内容的长度，不包括 8 字节的 chunk 头和对齐的填充字节，单位：字节
+         */
+        private final long size;
+
+        ChunkInfo(int id, long offset, long size) {
+            this.id = new String(new char[] {
+                    (char) (id & 0xFF), (char) ((id >> 8) & 0xFF),
+                    (char) ((id >> 16) & 0xFF), (char) ((id >> 24) & 0xFF)});
+            this.offset = offset;
+            this.size = size;
+        }
+
+        /**
+         * 获取 chunk id
+         * @return chunk id，如 "fmt "
+         */
+        public String getId() {
+            return id;
+        }
+
+        /**
+         * 获取 chunk 内容在文件中的偏移
+         * @return 偏移，单位：字节
+         */
+        public long getOffset() {
+            return offset;
+        }
+
+        /**
+         * 获取 chunk 内容的长度
+         * @return 长度，单位：字节
+         */
+        public long getSize() {
+            return size;
+        }
+
+        @Override
+        public String toString() {
+            return "ChunkInfo{" +
+                    "id='" + id + '\'' +
+                    ", offset=" + offset +
+                    ", size=" + size +
+                    '}';
+        }
     }
 }
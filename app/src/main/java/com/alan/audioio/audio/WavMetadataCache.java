@@ -0,0 +1,313 @@
+/*
+ * Copyright (c) 2019-present AlanWang4523 <alanwang4523@gmail.com>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.alan.audioio.audio;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * wav 文件元数据缓存，用于快速扫描音频库：以 路径 + 文件大小 + 修改时间 为 key 缓存头信息、时长和 data 的位置，
+ * 文件没有变化时只需要一次 stat，不需要打开文件解析文件头
+ * 内存中按 LRU 淘汰，最多保存 maxEntries 个；通过 {@link #save()} 以紧凑的二进制格式保存到磁盘，
+ * 下次启动时通过 {@link #load()} 加载，重新扫描时只会解析新增或修改过的文件
+ *
+ * Author: AlanWang4523.
+ * Date: 2020/12/09 21:14.
+ * Mail: alanwang4523@gmail.com
+ */
+public class WavMetadataCache {
+    private static final int MAGIC = 0x43444D57; // "WMDC"
+    private static final int VERSION = 1;
+    private static final int CHUNK_ID_DATA = WavFile.chunkId("data");
+
+    private final String mStorePath;
+    private final LinkedHashMap<String, Metadata> mEntries;
+    private boolean isDirty;
+    private long mHitCount;
+    private long mMissCount;
+
+    /**
+     * @param storePath 磁盘缓存文件的路径
+     * @param maxEntries 最多缓存的文件数，超过时淘汰最久未访问的
+     */
+    public WavMetadataCache(String storePath, final int maxEntries) {
+        if (maxEntries <= 0) {
+            throw new IllegalArgumentException("The max entries must be greater than 0!");
+        }
+        mStorePath = storePath;
+        mEntries = new LinkedHashMap<String, Metadata>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<String, Metadata> eldest) {
+                return size() > maxEntries;
+            }
+        };
+    }
+
+    /**
+     * 获取 wav 文件的元数据，文件大小和修改时间与缓存一致时直接返回缓存，否则打开文件解析并更新缓存
+     * @param filePath wav 文件路径
+     * @return 元数据
+     * @throws IOException 文件不存在或不是有效的 wav 文件
+     */
+    public Metadata get(String filePath) throws IOException {
+        File file = new File(filePath);
+        long fileSize = file.length();
+        long lastModified = file.lastModified();
+        if (lastModified == 0) {
+            throw new IOException("The file does not exist: " + filePath);
+        }
+        synchronized (this) {
+            Metadata metadata = mEntries.get(filePath);
+            if (metadata != null && metadata.fileSize == fileSize && metadata.lastModified == lastModified) {
+                mHitCount++;
+                return metadata;
+            }
+            mMissCount++;
+        }
+
+        // 在锁外解析文件，多个线程可以同时扫描
+        WavFile wavFile = new WavFile(filePath);
+        Metadata metadata;
+        try {
+            metadata = new Metadata(filePath, fileSize, lastModified, wavFile.getHeadInfo(), wavFile.getFrameCount());
+        } finally {
+            wavFile.close();
+        }
+        synchronized (this) {
+            mEntries.put(filePath, metadata);
+            isDirty = true;
+        }
+        return metadata;
+    }
+
+    /**
+     * 移除某个文件的缓存
+     * @param filePath wav 文件路径
+     */
+    public synchronized void remove(String filePath) {
+        if (mEntries.remove(filePath) != null) {
+            isDirty = true;
+        }
+    }
+
+    /**
+     * 清空缓存，磁盘缓存在下一次 {@link #save()} 时清空
+     */
+    public synchronized void clear() {
+        mEntries.clear();
+        isDirty = true;
+    }
+
+    /**
+     * 获取缓存的文件数
+     * @return 文件数
+     */
+    public synchronized int size() {
+        return mEntries.size();
+    }
+
+    /**
+     * 获取命中缓存的次数
+     * @return 命中次数
+     */
+    public synchronized long getHitCount() {
+        return mHitCount;
+    }
+
+    /**
+     * 获取未命中缓存（需要打开文件解析）的次数
+     * @return 未命中次数
+     */
+    public synchronized long getMissCount() {
+        return mMissCount;
+    }
+
+    /**
+     * 从磁盘加载缓存，按 LRU 顺序插入，磁盘缓存不存在时不做任何处理
+     * @throws IOException 磁盘缓存格式错误或读取失败
+     */
+    public synchronized void load() throws IOException {
+        File storeFile = new File(mStorePath);
+        if (!storeFile.exists()) {
+            return;
+        }
+        DataInputStream inputStream = new DataInputStream(new BufferedInputStream(new FileInputStream(storeFile)));
+        try {
+            if (inputStream.readInt() != MAGIC || inputStream.readInt() != VERSION) {
+                throw new IOException("The metadata store format is invalid.");
+            }
+            int count = inputStream.readInt();
+            for (int i = 0; i < count; i++) {
+                Metadata metadata = Metadata.readFrom(inputStream);
+                mEntries.put(metadata.filePath, metadata);
+            }
+        } finally {
+            inputStream.close();
+        }
+        isDirty = false;
+    }
+
+    /**
+     * 把缓存保存到磁盘，先写入临时文件再重命名，保存过程中崩溃不会损坏已有的磁盘缓存，缓存没有变化时不做任何处理
+     * @throws IOException 写文件失败
+     */
+    public synchronized void save() throws IOException {
+        if (!isDirty) {
+            return;
+        }
+        File storeFile = new File(mStorePath);
+        File tempFile = new File(mStorePath + ".tmp");
+        DataOutputStream outputStream = new DataOutputStream(
+                new BufferedOutputStream(new FileOutputStream(tempFile)));
+        try {
+            outputStream.writeInt(MAGIC);
+            outputStream.writeInt(VERSION);
+            outputStream.writeInt(mEntries.size());
+            // 按访问顺序从旧到新写入，加载后 LRU 顺序保持不变
+            for (Metadata metadata : mEntries.values()) {
+                metadata.writeTo(outputStream);
+            }
+        } finally {
+            outputStream.close();
+        }
+        if (!tempFile.renameTo(storeFile)) {
+            storeFile.delete();
+            if (!tempFile.renameTo(storeFile)) {
+                throw new IOException("Rename metadata store failed: " + mStorePath);
+            }
+        }
+        isDirty = false;
+    }
+
+    /**
+     * 一个 wav 文件的元数据
+     */
+    public static class Metadata {
+        private final String filePath;
+        private final long fileSize;
+        private final long lastModified;
+        private final WavFile.HeadInfo headInfo;
+        private final long frameCount;
+
+        Metadata(String filePath, long fileSize, long lastModified, WavFile.HeadInfo headInfo, long frameCount) {
+            this.filePath = filePath;
+            this.fileSize = fileSize;
+            this.lastModified = lastModified;
+            this.headInfo = headInfo;
+            this.frameCount = frameCount;
+        }
+
+        /**
+         * 获取文件路径
+         * @return 文件路径
+         */
+        public String getFilePath() {
+            return filePath;
+        }
+
+        /**
+         * 获取头信息，chunk 索引中只包含 data chunk
+         * @return HeadInfo
+         */
+        public WavFile.HeadInfo getHeadInfo() {
+            return headInfo;
+        }
+
+        /**
+         * 获取音频的总帧数
+         * @return 总帧数
+         */
+        public long getFrameCount() {
+            return frameCount;
+        }
+
+        /**
+         * 获取音频时长
+         * @return 时长，单位：微秒
+         */
+        public long getDurationUs() {
+            if (headInfo.getSampleRate() <= 0) {
+                return 0;
+            }
+            return frameCount * 1000000L / headInfo.getSampleRate();
+        }
+
+        /**
+         * 获取音频数据在文件中的起始位置
+         * @return 偏移，单位：字节
+         */
+        public long getDataOffset() {
+            return headInfo.getDataOffset();
+        }
+
+        /**
+         * 获取音频数据的长度
+         * @return 长度，单位：字节
+         */
+        public long getDataSize() {
+            return headInfo.getDataSize();
+        }
+
+        private void writeTo(DataOutputStream outputStream) throws IOException {
+            outputStream.writeUTF(filePath);
+            outputStream.writeLong(fileSize);
+            outputStream.writeLong(lastModified);
+            outputStream.writeInt(headInfo.getSampleRate());
+            outputStream.writeShort(headInfo.getChannelCount());
+            outputStream.writeShort(headInfo.getBytePerSample());
+            outputStream.writeShort(headInfo.getBlockAlign());
+            outputStream.writeShort(headInfo.getFormatTag());
+            outputStream.writeBoolean(headInfo.isExtensible());
+            outputStream.writeShort(headInfo.getValidBitsPerSample());
+            outputStream.writeInt(headInfo.getChannelMask());
+            outputStream.writeShort(headInfo.getSamplesPerBlock());
+            outputStream.writeLong(headInfo.getDataOffset());
+            outputStream.writeLong(headInfo.getDataSize());
+            outputStream.writeLong(frameCount);
+        }
+
+        private static Metadata readFrom(DataInputStream inputStream) throws IOException {
+            String filePath = inputStream.readUTF();
+            long fileSize = inputStream.readLong();
+            long lastModified = inputStream.readLong();
+            WavFile.HeadInfo headInfo = WavFile.HeadInfo.build()
+                    .setSampleRate(inputStream.readInt())
+                    .setChannelCount(inputStream.readUnsignedShort())
+                    .setBytePerSample(inputStream.readUnsignedShort())
+                    .setBlockAlign(inputStream.readUnsignedShort())
+                    .setFormatTag(inputStream.readUnsignedShort())
+                    .setExtensible(inputStream.readBoolean())
+                    .setValidBitsPerSample(inputStream.readUnsignedShort())
+                    .setChannelMask(inputStream.readInt())
+                    .setSamplesPerBlock(inputStream.readUnsignedShort());
+            long dataOffset = inputStream.readLong();
+            long dataSize = inputStream.readLong();
+            long frameCount = inputStream.readLong();
+            headInfo.setChunkIndex(Collections.singletonMap("data",
+                    new WavFile.ChunkInfo(CHUNK_ID_DATA, dataOffset, dataSize)));
+            return new Metadata(filePath, fileSize, lastModified, headInfo, frameCount);
+        }
+    }
+}
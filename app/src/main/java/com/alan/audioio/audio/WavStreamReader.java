@@ -0,0 +1,482 @@
+/*
+ * Copyright (c) 2019-present AlanWang4523 <alanwang4523@gmail.com>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.alan.audioio.audio;
+
+import android.content.res.AssetManager;
+import com.alan.audioio.audio.codec.WavCodec;
+import com.alan.audioio.audio.common.APPContext;
+import com.alan.audioio.audio.common.AudioConstants;
+import com.alan.audioio.audio.common.IDataAvailableListener;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.ReadableByteChannel;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * 流式 wav 读取，数据源为不可 seek 的 InputStream 或 ReadableByteChannel，如 assets、管道、内存中的数据，
+ * 不需要先拷贝到磁盘上
+ * 文件头在第一次访问时才解析，按顺序读取到 data chunk 为止，data 之前的其他 chunk 直接跳过；
+ * 解析和读取过程只使用一个 8KB 的缓存，不产生临时文件
+ * 可以直接作为 {@link AudioPlayer} 的 {@link IDataAvailableListener}，每次回调填满一个 buffer，读到结尾后 limit 为 0
+ * 支持 PCM、浮点以及 G.711、IMA-ADPCM 压缩格式，压缩格式读取到的是解码后的 16 bit PCM
+ *
+ * Author: AlanWang4523.
+ * Date: 2020/12/07 20:53.
+ * Mail: alanwang4523@gmail.com
+ */
+public class WavStreamReader implements IDataAvailableListener {
+    private static final int BUFFER_SIZE = 8 * 1024;
+    private static final int CHUNK_ID_RIFF = WavFile.chunkId("RIFF");
+    private static final int CHUNK_ID_RF64 = WavFile.chunkId("RF64");
+    private static final int CHUNK_ID_WAVE = WavFile.chunkId("WAVE");
+    private static final int CHUNK_ID_DS64 = WavFile.chunkId("ds64");
+    private static final int CHUNK_ID_FMT = WavFile.chunkId("fmt ");
+    private static final int CHUNK_ID_FACT = WavFile.chunkId("fact");
+    private static final int CHUNK_ID_DATA = WavFile.chunkId("data");
+    private static final long UNKNOWN_SIZE = 0xFFFFFFFFL;
+
+    private final InputStream mInputStream;
+    private final ReadableByteChannel mChannel;
+    /**
+     * 从数据源读取数据的缓存，position 到 limit 之间为已读取但还未使用的数据
+     */
+    private final ByteBuffer mBuffer;
+    private ByteBuffer mArrayBuffer;
+    private WavFile.HeadInfo mHeadInfo;
+    private int mPcmFrameSize;
+    /**
+     * data chunk 中还未读取的长度，小于 0 表示长度未知（如边录边传的流），一直读到数据源结尾
+     */
+    private long mDataRemaining;
+    private long mReadPcmBytes;
+    private volatile boolean isClosed;
+    private volatile IOException mIOException;
+
+    private WavCodec mCodec;
+    private byte[] mCodecData;
+    private ByteBuffer mCodecDataBuffer;
+    private byte[] mCodecPcm;
+    private int mCodecPcmLen;
+    private int mCodecPcmPosition;
+    /**
+     * fact chunk 中记录的剩余帧数，用于去掉 IMA-ADPCM 最后一个块补齐的静音，小于 0 表示未知
+     */
+    private long mCodecFramesRemaining = -1;
+
+    /**
+     * 以 InputStream 为数据源创建 WavStreamReader，关闭时同时关闭 inputStream
+     * @param inputStream 数据源
+     */
+    public WavStreamReader(InputStream inputStream) {
+        this(inputStream, null);
+    }
+
+    /**
+     * 以 ReadableByteChannel 为数据源创建 WavStreamReader，关闭时同时关闭 channel
+     * @param channel 数据源
+     */
+    public WavStreamReader(ReadableByteChannel channel) {
+        this(null, channel);
+    }
+
+    private WavStreamReader(InputStream inputStream, ReadableByteChannel channel) {
+        if (inputStream == null && channel == null) {
+            throw new IllegalArgumentException("The source must not be null!");
+        }
+        mInputStream = inputStream;
+        mChannel = channel;
+        mBuffer = ByteBuffer.allocate(BUFFER_SIZE).order(ByteOrder.LITTLE_ENDIAN);
+        mBuffer.limit(0);
+    }
+
+    /**
+     * 根据路径打开 wav 文件，只打开数据源，不读取任何数据
+     * @param audioPath 音频路径，支持协议如下：
+     *        assets://prompt/start.wav
+     *        exfile:///sdcard/Alan/Audio/start.wav
+     *        /sdcard/Alan/Audio/start.wav
+     * @return WavStreamReader
+     * @throws IOException 打开失败
+     */
+    public static WavStreamReader open(String audioPath) throws IOException {
+        if (AudioConstants.isAssetsPath(audioPath)) {
+            String realPath = audioPath.replace(AudioConstants.HOST_ASSETS, "");
+            return new WavStreamReader(APPContext.getAssetManager().open(realPath, AssetManager.ACCESS_STREAMING));
+        }
+        String realPath = AudioConstants.isExFilePath(audioPath)
+                ? audioPath.replace(AudioConstants.HOST_EXFILE, "") : audioPath;
+        return new WavStreamReader(new FileInputStream(realPath).getChannel());
+    }
+
+    /**
+     * 获取 wav 头信息，第一次调用时解析文件头
+     * @return HeadInfo，chunk 索引中只包含 data 及之前的 chunk
+     * @throws IOException 数据源不是有效的 wav 数据
+     */
+    public WavFile.HeadInfo getHeadInfo() throws IOException {
+        if (mHeadInfo == null) {
+            parseHeader();
+        }
+        return mHeadInfo;
+    }
+
+    /**
+     * 读取 PCM 数据
+     * @param data pcm 数据存放的位置
+     * @param off offset
+     * @param len 想要读取的长度，单位：字节
+     * @return 读取的长度，单位：字节，读到结尾返回 -1
+     * @throws IOException IOException
+     */
+    public int read(byte[] data, int off, int len) throws IOException {
+        if (mArrayBuffer == null || mArrayBuffer.array() != data) {
+            mArrayBuffer = ByteBuffer.wrap(data);
+        }
+        mArrayBuffer.clear();
+        mArrayBuffer.position(off);
+        mArrayBuffer.limit(off + len);
+        return read(mArrayBuffer);
+    }
+
+    /**
+     * 读取 PCM 数据，从 byteBuffer 的 position 开始写入，最多写到 limit
+     * @param byteBuffer pcm 数据存放的位置
+     * @return 读取的长度，单位：字节，读到结尾返回 -1
+     * @throws IOException IOException
+     */
+    public int read(ByteBuffer byteBuffer) throws IOException {
+        if (isClosed) {
+            return 0;
+        }
+        getHeadInfo();
+        if (!byteBuffer.hasRemaining()) {
+            return 0;
+        }
+        int readLen = mCodec != null ? readDecoded(byteBuffer) : readData(byteBuffer);
+        if (readLen > 0) {
+            mReadPcmBytes += readLen;
+        }
+        return readLen;
+    }
+
+    /**
+     * 获取当前读取位置
+     * @return 已读取的帧数
+     */
+    public long getFramePosition() {
+        return mPcmFrameSize > 0 ? mReadPcmBytes / mPcmFrameSize : 0;
+    }
+
+    /**
+     * 作为播放端的数据源，把接下来的数据填满 byteBuffer，有效数据长度为 byteBuffer.limit()，只包含完整的帧
+     * 读到结尾或出错时 limit 为 0，出错后可通过 {@link #close()} 获取异常
+     * @param byteBuffer 播放数据存放的位置
+     */
+    @Override
+    public void onDataAvailable(ByteBuffer byteBuffer) {
+        byteBuffer.clear();
+        try {
+            getHeadInfo();
+            // 只读取完整的帧，避免不完整的帧被截掉
+            byteBuffer.limit(byteBuffer.capacity() - byteBuffer.capacity() % mPcmFrameSize);
+            while (byteBuffer.hasRemaining() && read(byteBuffer) > 0) {
+                // read until full
+            }
+            int len = byteBuffer.position();
+            byteBuffer.limit(len - len % mPcmFrameSize);
+        } catch (IOException e) {
+            if (mIOException == null) {
+                mIOException = e;
+            }
+            byteBuffer.limit(0);
+        }
+    }
+
+    /**
+     * 关闭数据源
+     * @throws IOException 关闭失败，或者 {@link #onDataAvailable(ByteBuffer)} 中发生的读取异常
+     */
+    public void close() throws IOException {
+        if (isClosed) {
+            return;
+        }
+        isClosed = true;
+        if (mInputStream != null) {
+            mInputStream.close();
+        } else {
+            mChannel.close();
+        }
+        if (mIOException != null) {
+            throw mIOException;
+        }
+    }
+
+    /**
+     * 按顺序解析 chunk 直到 data chunk，data 之前不认识的 chunk 直接跳过
+     * @throws IOException 数据源不是有效的 wav 数据
+     */
+    private void parseHeader() throws IOException {
+        if (!ensureBuffered(12) || mBuffer.getInt(mBuffer.position() + 8) != CHUNK_ID_WAVE
+                || (mBuffer.getInt(mBuffer.position()) != CHUNK_ID_RIFF
+                && mBuffer.getInt(mBuffer.position()) != CHUNK_ID_RF64)) {
+            throw new IOException("The stream is not a RIFF/WAVE stream.");
+        }
+        boolean isRF64 = mBuffer.getInt() == CHUNK_ID_RF64;
+        mBuffer.position(mBuffer.position() + 8);
+
+        Map<String, WavFile.ChunkInfo> chunkIndex = new LinkedHashMap<>();
+        ByteBuffer fmtBuffer = null;
+        long ds64DataSize = -1;
+        long factSampleCount = -1;
+        long chunkOffset = 12;
+        while (true) {
+            if (!ensureBuffered(8)) {
+                throw new IOException("The wav stream has no 'data' chunk.");
+            }
+            int chunkId = mBuffer.getInt();
+            long chunkSize = mBuffer.getInt() & 0xFFFFFFFFL;
+            long payloadOffset = chunkOffset + 8;
+            if (chunkId == CHUNK_ID_DATA) {
+                if (isRF64 && chunkSize == UNKNOWN_SIZE && ds64DataSize >= 0) {
+                    // RF64 文件的 data 长度记录在 ds64 chunk 中
+                    chunkSize = ds64DataSize;
+                } else if (chunkSize == 0 || chunkSize == UNKNOWN_SIZE) {
+                    // 边录边传或未正常关闭的数据，长度未知，一直读到数据源结尾
+                    chunkSize = -1;
+                }
+                WavFile.ChunkInfo chunkInfo = new WavFile.ChunkInfo(chunkId, payloadOffset, Math.max(0, chunkSize));
+                chunkIndex.put(chunkInfo.getId(), chunkInfo);
+                mDataRemaining = chunkSize;
+                break;
+            }
+            WavFile.ChunkInfo chunkInfo = new WavFile.ChunkInfo(chunkId, payloadOffset, chunkSize);
+            if (!chunkIndex.containsKey(chunkInfo.getId())) {
+                chunkIndex.put(chunkInfo.getId(), chunkInfo);
+            }
+            long skipLen = chunkSize + (chunkSize & 1);
+            if (chunkId == CHUNK_ID_FMT && fmtBuffer == null) {
+                if (chunkSize < 16 || chunkSize > BUFFER_SIZE) {
+                    throw new IOException("The 'fmt ' chunk size is invalid: " + chunkSize);
+                }
+                byte[] fmtData = new byte[(int) chunkSize];
+                readFully(fmtData);
+                fmtBuffer = ByteBuffer.wrap(fmtData).order(ByteOrder.LITTLE_ENDIAN);
+                skipLen -= chunkSize;
+            } else if ((chunkId == CHUNK_ID_DS64 && isRF64 && chunkSize >= 24)
+                    || (chunkId == CHUNK_ID_FACT && chunkSize >= 4)) {
+                int readLen = chunkId == CHUNK_ID_DS64 ? 16 : 4;
+                if (!ensureBuffered(readLen)) {
+                    throw new IOException("Unexpected end of stream.");
+                }
+                if (chunkId == CHUNK_ID_DS64) {
+                    ds64DataSize = mBuffer.getLong(mBuffer.position() + 8);
+                } else {
+                    factSampleCount = mBuffer.getInt(mBuffer.position()) & 0xFFFFFFFFL;
+                }
+            }
+            skip(skipLen);
+            chunkOffset = payloadOffset + chunkSize + (chunkSize & 1);
+        }
+        if (fmtBuffer == null) {
+            throw new IOException("The wav stream has no 'fmt ' chunk before the 'data' chunk.");
+        }
+
+        WavFile.HeadInfo headInfo = WavFile.parseFmtChunk(fmtBuffer).setChunkIndex(chunkIndex);
+        if (headInfo.isCompressed()) {
+            mCodec = WavFile.createCodec(headInfo);
+            int blockCount = Math.max(1, BUFFER_SIZE / mCodec.getBlockAlign());
+            mCodecData = new byte[blockCount * mCodec.getBlockAlign()];
+            mCodecDataBuffer = ByteBuffer.wrap(mCodecData);
+            mCodecPcm = new byte[blockCount * mCodec.getFramesPerBlock() * headInfo.getPcmFrameSize()];
+            if (factSampleCount > 0 && factSampleCount < UNKNOWN_SIZE) {
+                mCodecFramesRemaining = factSampleCount;
+            }
+        }
+        mPcmFrameSize = headInfo.getPcmFrameSize();
+        mHeadInfo = headInfo;
+    }
+
+    /**
+     * 读取 data chunk 中的数据，先使用缓存中剩余的数据，再直接从数据源读取，不超过 data chunk 的结尾
+     * @param byteBuffer 数据存放的位置
+     * @return 读取的长度，单位：字节，读到结尾返回 -1
+     * @throws IOException IOException
+     */
+    private int readData(ByteBuffer byteBuffer) throws IOException {
+        if (mDataRemaining == 0) {
+            return -1;
+        }
+        int oldLimit = byteBuffer.limit();
+        if (mDataRemaining > 0 && byteBuffer.remaining() > mDataRemaining) {
+            byteBuffer.limit(byteBuffer.position() + (int) mDataRemaining);
+        }
+        int readLen;
+        try {
+            if (mBuffer.hasRemaining()) {
+                readLen = Math.min(byteBuffer.remaining(), mBuffer.remaining());
+                int bufferLimit = mBuffer.limit();
+                mBuffer.limit(mBuffer.position() + readLen);
+                byteBuffer.put(mBuffer);
+                mBuffer.limit(bufferLimit);
+            } else {
+                readLen = readSource(byteBuffer);
+            }
+        } finally {
+            byteBuffer.limit(oldLimit);
+        }
+        if (readLen < 0) {
+            mDataRemaining = 0;
+            return -1;
+        }
+        if (mDataRemaining > 0) {
+            mDataRemaining -= readLen;
+        }
+        return readLen;
+    }
+
+    /**
+     * 读取压缩格式解码后的 PCM 数据，解码缓存读完时再读取并解码下一批块
+     * @param byteBuffer pcm 数据存放的位置
+     * @return 读取的长度，单位：字节，读到结尾返回 -1
+     * @throws IOException IOException
+     */
+    private int readDecoded(ByteBuffer byteBuffer) throws IOException {
+        if (mCodecPcmPosition >= mCodecPcmLen && !decodeNextBlocks()) {
+            return -1;
+        }
+        int readLen = Math.min(byteBuffer.remaining(), mCodecPcmLen - mCodecPcmPosition);
+        byteBuffer.put(mCodecPcm, mCodecPcmPosition, readLen);
+        mCodecPcmPosition += readLen;
+        return readLen;
+    }
+
+    /**
+     * 读取下一批块并解码到 mCodecPcm，fact chunk 中记录了帧数时丢弃超出的部分（补齐的静音）
+     * @return 是否解码到数据
+     * @throws IOException IOException
+     */
+    private boolean decodeNextBlocks() throws IOException {
+        mCodecPcmLen = 0;
+        mCodecPcmPosition = 0;
+        if (mCodecFramesRemaining == 0) {
+            return false;
+        }
+        mCodecDataBuffer.clear();
+        while (mCodecDataBuffer.hasRemaining() && readData(mCodecDataBuffer) > 0) {
+            // 尽量读取完整的块
+        }
+        int frames = mCodec.decode(mCodecData, 0, mCodecDataBuffer.position(), mCodecPcm, 0);
+        if (mCodecFramesRemaining > 0) {
+            frames = (int) Math.min(frames, mCodecFramesRemaining);
+            mCodecFramesRemaining -= frames;
+        }
+        mCodecPcmLen = frames * mPcmFrameSize;
+        return frames > 0;
+    }
+
+    /**
+     * 从数据源读取数据，InputStream 数据源写入非数组的 buffer 时经过 mBuffer 中转，此时 mBuffer 中没有未使用的数据
+     * @param byteBuffer 数据存放的位置
+     * @return 读取的长度，单位：字节，读到结尾返回 -1
+     * @throws IOException IOException
+     */
+    private int readSource(ByteBuffer byteBuffer) throws IOException {
+        if (mChannel != null) {
+            return mChannel.read(byteBuffer);
+        }
+        if (byteBuffer.hasArray()) {
+            int readLen = mInputStream.read(byteBuffer.array(),
+                    byteBuffer.arrayOffset() + byteBuffer.position(), byteBuffer.remaining());
+            if (readLen > 0) {
+                byteBuffer.position(byteBuffer.position() + readLen);
+            }
+            return readLen;
+        }
+        int readLen = mInputStream.read(mBuffer.array(), 0, Math.min(BUFFER_SIZE, byteBuffer.remaining()));
+        if (readLen > 0) {
+            mBuffer.clear();
+            mBuffer.limit(readLen);
+            byteBuffer.put(mBuffer);
+        }
+        return readLen;
+    }
+
+    /**
+     * 保证 mBuffer 中至少有 len 字节未使用的数据
+     * @param len 需要的长度，不超过 BUFFER_SIZE
+     * @return 数据源中的数据不足时返回 false
+     * @throws IOException IOException
+     */
+    private boolean ensureBuffered(int len) throws IOException {
+        if (mBuffer.remaining() >= len) {
+            return true;
+        }
+        mBuffer.compact();
+        try {
+            while (mBuffer.position() < len) {
+                int readLen = mChannel != null ? mChannel.read(mBuffer)
+                        : mInputStream.read(mBuffer.array(), mBuffer.position(), mBuffer.remaining());
+                if (readLen < 0) {
+                    return false;
+                }
+                if (mChannel == null) {
+                    mBuffer.position(mBuffer.position() + readLen);
+                }
+            }
+            return true;
+        } finally {
+            mBuffer.flip();
+        }
+    }
+
+    /**
+     * 读取 data.length 字节
+     * @param data 数据存放的位置
+     * @throws IOException 数据源中的数据不足
+     */
+    private void readFully(byte[] data) throws IOException {
+        int offset = 0;
+        while (offset < data.length) {
+            if (!ensureBuffered(1)) {
+                throw new IOException("Unexpected end of stream.");
+            }
+            int readLen = Math.min(data.length - offset, mBuffer.remaining());
+            mBuffer.get(data, offset, readLen);
+            offset += readLen;
+        }
+    }
+
+    /**
+     * 跳过 len 字节，不可 seek 的数据源只能读取后丢弃
+     * @param len 跳过的长度，单位：字节
+     * @throws IOException 数据源中的数据不足
+     */
+    private void skip(long len) throws IOException {
+        long remaining = len;
+        while (remaining > 0) {
+            if (!ensureBuffered(1)) {
+                throw new IOException("Unexpected end of stream.");
+            }
+            int skipLen = (int) Math.min(remaining, mBuffer.remaining());
+            mBuffer.position(mBuffer.position() + skipLen);
+            remaining -= skipLen;
+        }
+    }
+}
@@ -0,0 +1,469 @@
+/*
+ * Copyright (c) 2019-present AlanWang4523 <alanwang4523@gmail.com>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.alan.audioio.audio;
+
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.util.Arrays;
+
+/**
+ * 波形峰值索引，多级（每个桶 256、4096、65536 帧）的 min/max/RMS 金字塔，用于绘制长音频的波形
+ * 录音时由 WavFile 边写边计算（参见 {@link WavFile#setPeakIndexEnabled(boolean)}），关闭时保存为 wav 文件旁边的
+ * ".peaks" 文件；绘制时通过 {@link #load(String)} 加载，{@link #getPeaks} 按任意时间范围、任意缩放级别取峰值，
+ * 只访问与输出桶数同数量级的索引数据，不需要读取 PCM 数据
+ * 所有通道混在一起统计，min/max/RMS 以 16 bit 定点数保存，取出时归一化到 [-1, 1]
+ *
+ * Author: AlanWang4523.
+ * Date: 2020/11/28 15:08.
+ * Mail: alanwang4523@gmail.com
+ */
+public class WaveformPeaks {
+    public static final String SIDECAR_SUFFIX = ".peaks";
+    private static final int MAGIC = 0x4B414550; // "PEAK"
+    private static final int VERSION = 1;
+    private static final int HEADER_SIZE = 28;
+    /**
+     * 每一级中一个桶包含的帧数，相邻两级相差 16 倍，下一级由上一级合并得到
+     */
+    private static final int[] FRAMES_PER_BUCKET = {256, 4096, 65536};
+    private static final int LEVEL_RATIO = 16;
+
+    private final int mSampleRate;
+    private final int mChannelCount;
+    private final long mFrameCount;
+    private final Level[] mLevels;
+
+    private WaveformPeaks(int sampleRate, int channelCount, long frameCount, Level[] levels) {
+        mSampleRate = sampleRate;
+        mChannelCount = channelCount;
+        mFrameCount = frameCount;
+        mLevels = levels;
+    }
+
+    /**
+     * 获取 wav 文件对应的峰值索引文件路径
+     * @param wavFilePath wav 文件路径
+     * @return 峰值索引文件路径
+     */
+    public static String getSidecarPath(String wavFilePath) {
+        return wavFilePath + SIDECAR_SUFFIX;
+    }
+
+    /**
+     * 加载 wav 文件对应的峰值索引文件
+     * @param wavFilePath wav 文件路径
+     * @return WaveformPeaks
+     * @throws IOException 峰值索引文件不存在或格式错误
+     */
+    public static WaveformPeaks load(String wavFilePath) throws IOException {
+        RandomAccessFile randomAccessFile = new RandomAccessFile(getSidecarPath(wavFilePath), "r");
+        try {
+            FileChannel fileChannel = randomAccessFile.getChannel();
+            ByteBuffer buffer = ByteBuffer.allocate((int) fileChannel.size()).order(ByteOrder.LITTLE_ENDIAN);
+            while (buffer.hasRemaining() && fileChannel.read(buffer) > 0) {
+                // read fully
+            }
+            buffer.flip();
+            if (buffer.remaining() < HEADER_SIZE || buffer.getInt() != MAGIC || buffer.getInt() != VERSION) {
+                throw new IOException("The file is not a waveform peaks file.");
+            }
+            int sampleRate = buffer.getInt();
+            int channelCount = buffer.getInt();
+            long frameCount = buffer.getLong();
+            int levelCount = buffer.getInt();
+            Level[] levels = new Level[levelCount];
+            for (int i = 0; i < levelCount; i++) {
+                int framesPerBucket = buffer.getInt();
+                int bucketCount = buffer.getInt();
+                if (buffer.remaining() < bucketCount * 6) {
+                    throw new IOException("The waveform peaks file is truncated.");
+                }
+                Level level = new Level(framesPerBucket, bucketCount);
+                buffer.asShortBuffer().get(level.values, 0, bucketCount * 3);
+                buffer.position(buffer.position() + bucketCount * 6);
+                level.bucketCount = bucketCount;
+                levels[i] = level;
+            }
+            return new WaveformPeaks(sampleRate, channelCount, frameCount, levels);
+        } finally {
+            randomAccessFile.close();
+        }
+    }
+
+    /**
+     * 获取采样率
+     * @return 采样率
+     */
+    public int getSampleRate() {
+        return mSampleRate;
+    }
+
+    /**
+     * 获取通道数
+     * @return 通道数
+     */
+    public int getChannelCount() {
+        return mChannelCount;
+    }
+
+    /**
+     * 获取总帧数
+     * @return 总帧数
+     */
+    public long getFrameCount() {
+        return mFrameCount;
+    }
+
+    /**
+     * 按时间范围获取峰值，参见 {@link #getPeaks(long, long, int, float[], float[], float[])}
+     * @param startUs 起始时间，单位：微秒
+     * @param endUs 结束时间，单位：微秒
+     * @param bucketCount 输出的桶数，一般为绘制区域的像素宽度
+     * @param outMin 每个桶的最小值，长度不小于 bucketCount
+     * @param outMax 每个桶的最大值，长度不小于 bucketCount
+     * @param outRms 每个桶的 RMS，长度不小于 bucketCount，不需要时可以为 null
+     * @return 实际输出的桶数
+     */
+    public int getPeaksByTime(long startUs, long endUs, int bucketCount,
+                              float[] outMin, float[] outMax, float[] outRms) {
+        return getPeaks(startUs * mSampleRate / 1000000L, endUs * mSampleRate / 1000000L,
+                bucketCount, outMin, outMax, outRms);
+    }
+
+    /**
+     * 获取 [startFrame, endFrame) 范围内的峰值，平均分成 bucketCount 个桶输出，不分配内存
+     * 自动选择桶大小不超过输出桶大小的最粗一级索引，每个输出桶最多合并 16 个索引桶
+     * @param startFrame 起始帧
+     * @param endFrame 结束帧（不包含）
+     * @param bucketCount 输出的桶数，一般为绘制区域的像素宽度
+     * @param outMin 每个桶的最小值，长度不小于 bucketCount
+     * @param outMax 每个桶的最大值，长度不小于 bucketCount
+     * @param outRms 每个桶的 RMS，长度不小于 bucketCount，不需要时可以为 null
+     * @return 实际输出的桶数，范围超出音频长度的部分不输出
+     */
+    public int getPeaks(long startFrame, long endFrame, int bucketCount,
+                        float[] outMin, float[] outMax, float[] outRms) {
+        long start = Math.max(0, startFrame);
+        long end = Math.min(endFrame, mFrameCount);
+        if (end <= start || bucketCount <= 0 || mLevels.length == 0) {
+            return 0;
+        }
+        double framesPerOutBucket = (double) (endFrame - startFrame) / bucketCount;
+        Level level = mLevels[0];
+        for (Level candidate : mLevels) {
+            if (candidate.framesPerBucket <= framesPerOutBucket) {
+                level = candidate;
+            }
+        }
+
+        int outCount = 0;
+        for (int i = 0; i < bucketCount; i++) {
+            long bucketStart = startFrame + (long) (i * framesPerOutBucket);
+            long bucketEnd = startFrame + (long) ((i + 1) * framesPerOutBucket);
+            if (bucketStart >= end) {
+                break;
+            }
+            int from = (int) (Math.max(bucketStart, 0) / level.framesPerBucket);
+            int to = (int) ((Math.min(bucketEnd, end) + level.framesPerBucket - 1) / level.framesPerBucket);
+            to = Math.min(Math.max(to, from + 1), level.bucketCount);
+
+            int min = Short.MAX_VALUE;
+            int max = Short.MIN_VALUE;
+            double sumSquare = 0;
+            for (int j = from; j < to; j++) {
+                min = Math.min(min, level.values[j * 3]);
+                max = Math.max(max, level.values[j * 3 + 1]);
+                double rms = level.values[j * 3 + 2];
+                sumSquare += rms * rms;
+            }
+            if (from >= to) {
+                min = 0;
+                max = 0;
+            }
+            outMin[i] = min / 32768.0f;
+            outMax[i] = max / 32768.0f;
+            if (outRms != null) {
+                outRms[i] = from < to ? (float) (Math.sqrt(sumSquare / (to - from)) / 32768.0) : 0;
+            }
+            outCount++;
+        }
+        return outCount;
+    }
+
+    /**
+     * 保存为峰值索引文件
+     * @param wavFilePath wav 文件路径，峰值索引保存在 {@link #getSidecarPath(String)} 中
+     * @throws IOException IOException
+     */
+    void save(String wavFilePath) throws IOException {
+        int size = HEADER_SIZE;
+        for (Level level : mLevels) {
+            size += 8 + level.bucketCount * 6;
+        }
+        ByteBuffer buffer = ByteBuffer.allocate(size).order(ByteOrder.LITTLE_ENDIAN);
+        buffer.putInt(MAGIC);
+        buffer.putInt(VERSION);
+        buffer.putInt(mSampleRate);
+        buffer.putInt(mChannelCount);
+        buffer.putLong(mFrameCount);
+        buffer.putInt(mLevels.length);
+        for (Level level : mLevels) {
+            buffer.putInt(level.framesPerBucket);
+            buffer.putInt(level.bucketCount);
+            buffer.asShortBuffer().put(level.values, 0, level.bucketCount * 3);
+            buffer.position(buffer.position() + level.bucketCount * 6);
+        }
+        buffer.flip();
+
+        RandomAccessFile randomAccessFile = new RandomAccessFile(getSidecarPath(wavFilePath), "rw");
+        try {
+            randomAccessFile.setLength(0);
+            FileChannel fileChannel = randomAccessFile.getChannel();
+            while (buffer.hasRemaining()) {
+                fileChannel.write(buffer);
+            }
+        } finally {
+            randomAccessFile.close();
+        }
+    }
+
+    private static class Level {
+        final int framesPerBucket;
+        /**
+         * 每个桶依次保存 min、max、rms 三个值
+         */
+        short[] values;
+        int bucketCount;
+
+        Level(int framesPerBucket, int initialCapacity) {
+            this.framesPerBucket = framesPerBucket;
+            this.values = new short[Math.max(initialCapacity, 16) * 3];
+        }
+
+        void add(int min, int max, int rms) {
+            if ((bucketCount + 1) * 3 > values.length) {
+                values = Arrays.copyOf(values, values.length * 2);
+            }
+            values[bucketCount * 3] = (short) min;
+            values[bucketCount * 3 + 1] = (short) max;
+            values[bucketCount * 3 + 2] = (short) rms;
+            bucketCount++;
+        }
+    }
+
+    /**
+     * 峰值索引的增量计算器，由 WavFile 在写入 PCM 数据时调用
+     */
+    static class Accumulator {
+        private final int mSampleRate;
+        private final int mChannelCount;
+        private final int mBytePerSample;
+        private final boolean isFloat;
+        private final Level[] mLevels;
+        /**
+         * 每一级当前未写满的桶：min、max、平方和、已累积的帧数（第 0 级）或下级桶数（其他级）
+         */
+        private final int[] mBucketMin;
+        private final int[] mBucketMax;
+        private final double[] mBucketSumSquare;
+        private final long[] mBucketSampleCount;
+        private final int[] mBucketFill;
+        /**
+         * 跨越两次写入的不完整采样点
+         */
+        private final byte[] mPartialSample = new byte[8];
+        private int mPartialSampleLen;
+        private long mSampleCount;
+
+        Accumulator(int sampleRate, int channelCount, int bytePerSample, boolean isFloat) {
+            if (bytePerSample < 1 || bytePerSample > 4 && !(isFloat && bytePerSample == 8)) {
+                throw new IllegalArgumentException("Only 8/16/24/32 bit pcm and 32/64 bit float samples are supported!");
+            }
+            mSampleRate = sampleRate;
+            mChannelCount = Math.max(1, channelCount);
+            mBytePerSample = bytePerSample;
+            this.isFloat = isFloat;
+            int levelCount = FRAMES_PER_BUCKET.length;
+            mLevels = new Level[levelCount];
+            for (int i = 0; i < levelCount; i++) {
+                mLevels[i] = new Level(FRAMES_PER_BUCKET[i], 1024 >> (i * 2));
+            }
+            mBucketMin = new int[levelCount];
+            mBucketMax = new int[levelCount];
+            mBucketSumSquare = new double[levelCount];
+            mBucketSampleCount = new long[levelCount];
+            mBucketFill = new int[levelCount];
+            for (int i = 0; i < levelCount; i++) {
+                resetBucket(i);
+            }
+        }
+
+        /**
+         * 累积 byte 数组中的 PCM 数据
+         */
+        void accept(byte[] data, int offset, int len) {
+            int end = offset + len;
+            int pos = offset;
+            while (mPartialSampleLen > 0 && pos < end) {
+                mPartialSample[mPartialSampleLen++] = data[pos++];
+                if (mPartialSampleLen == mBytePerSample) {
+                    mPartialSampleLen = 0;
+                    addSample(decode(mPartialSample, 0));
+                }
+            }
+            for (; pos + mBytePerSample <= end; pos += mBytePerSample) {
+                addSample(decode(data, pos));
+            }
+            while (pos < end) {
+                mPartialSample[mPartialSampleLen++] = data[pos++];
+            }
+        }
+
+        /**
+         * 累积 byteBuffer 中 position 到 limit 之间的 PCM 数据，不改变 position
+         */
+        void accept(ByteBuffer data) {
+            int end = data.limit();
+            int pos = data.position();
+            while (mPartialSampleLen > 0 && pos < end) {
+                mPartialSample[mPartialSampleLen++] = data.get(pos++);
+                if (mPartialSampleLen == mBytePerSample) {
+                    mPartialSampleLen = 0;
+                    addSample(decode(mPartialSample, 0));
+                }
+            }
+            for (; pos + mBytePerSample <= end; pos += mBytePerSample) {
+                addSample(decode(data, pos));
+            }
+            while (pos < end) {
+                mPartialSample[mPartialSampleLen++] = data.get(pos++);
+            }
+        }
+
+        /**
+         * 结束计算，把未写满的桶也输出
+         * @return WaveformPeaks
+         */
+        WaveformPeaks finish() {
+            for (int i = 0; i < mLevels.length; i++) {
+                if (mBucketSampleCount[i] > 0) {
+                    emitBucket(i);
+                }
+            }
+            return new WaveformPeaks(mSampleRate, mChannelCount, mSampleCount / mChannelCount, mLevels);
+        }
+
+        /**
+         * 把一个采样点转换成 16 bit 的值，8 bit 为无符号数，24 bit 为 3 字节紧凑排列，均为小端序
+         */
+        private int decode(byte[] data, int pos) {
+            switch (mBytePerSample) {
+                case 1:
+                    return ((data[pos] & 0xFF) - 128) << 8;
+                case 2:
+                    return (short) ((data[pos] & 0xFF) | (data[pos + 1] << 8));
+                case 3:
+                    return (short) ((data[pos + 1] & 0xFF) | (data[pos + 2] << 8));
+                case 4:
+                    return toInt16((data[pos] & 0xFF) | ((data[pos + 1] & 0xFF) << 8)
+                            | ((data[pos + 2] & 0xFF) << 16) | (data[pos + 3] << 24));
+                default:
+                    long bits = 0;
+                    for (int i = 7; i >= 0; i--) {
+                        bits = (bits << 8) | (data[pos + i] & 0xFF);
+                    }
+                    return floatToInt16(Double.longBitsToDouble(bits));
+            }
+        }
+
+        private int decode(ByteBuffer data, int pos) {
+            switch (mBytePerSample) {
+                case 1:
+                    return ((data.get(pos) & 0xFF) - 128) << 8;
+                case 2:
+                    return (short) ((data.get(pos) & 0xFF) | (data.get(pos + 1) << 8));
+                case 3:
+                    return (short) ((data.get(pos + 1) & 0xFF) | (data.get(pos + 2) << 8));
+                case 4:
+                    return toInt16((data.get(pos) & 0xFF) | ((data.get(pos + 1) & 0xFF) << 8)
+                            | ((data.get(pos + 2) & 0xFF) << 16) | (data.get(pos + 3) << 24));
+                default:
+                    long bits = 0;
+                    for (int i = 7; i >= 0; i--) {
+                        bits = (bits << 8) | (data.get(pos + i) & 0xFF);
+                    }
+                    return floatToInt16(Double.longBitsToDouble(bits));
+            }
+        }
+
+        private int toInt16(int bits) {
+            if (isFloat) {
+                return floatToInt16(Float.intBitsToFloat(bits));
+            }
+            return bits >> 16;
+        }
+
+        private static int floatToInt16(double value) {
+            return (int) Math.max(-32768.0, Math.min(32767.0, value * 32767.0));
+        }
+
+        private void addSample(int value) {
+            if (value < mBucketMin[0]) {
+                mBucketMin[0] = value;
+            }
+            if (value > mBucketMax[0]) {
+                mBucketMax[0] = value;
+            }
+            mBucketSumSquare[0] += (double) value * value;
+            mBucketSampleCount[0]++;
+            mSampleCount++;
+            if (mBucketSampleCount[0] == (long) FRAMES_PER_BUCKET[0] * mChannelCount) {
+                emitBucket(0);
+            }
+        }
+
+        /**
+         * 输出第 levelIndex 级当前的桶，并合并到下一级
+         */
+        private void emitBucket(int levelIndex) {
+            int rms = (int) Math.min(32767, Math.sqrt(mBucketSumSquare[levelIndex] / mBucketSampleCount[levelIndex]));
+            mLevels[levelIndex].add(mBucketMin[levelIndex], mBucketMax[levelIndex], rms);
+            int nextLevel = levelIndex + 1;
+            if (nextLevel < mLevels.length) {
+                mBucketMin[nextLevel] = Math.min(mBucketMin[nextLevel], mBucketMin[levelIndex]);
+                mBucketMax[nextLevel] = Math.max(mBucketMax[nextLevel], mBucketMax[levelIndex]);
+                mBucketSumSquare[nextLevel] += mBucketSumSquare[levelIndex];
+                mBucketSampleCount[nextLevel] += mBucketSampleCount[levelIndex];
+                mBucketFill[nextLevel]++;
+            }
+            resetBucket(levelIndex);
+            if (nextLevel < mLevels.length && mBucketFill[nextLevel] == LEVEL_RATIO) {
+                emitBucket(nextLevel);
+            }
+        }
+
+        private void resetBucket(int levelIndex) {
+            mBucketMin[levelIndex] = Short.MAX_VALUE;
+            mBucketMax[levelIndex] = Short.MIN_VALUE;
+            mBucketSumSquare[levelIndex] = 0;
+            mBucketSampleCount[levelIndex] = 0;
+            mBucketFill[levelIndex] = 0;
+        }
+    }
+}
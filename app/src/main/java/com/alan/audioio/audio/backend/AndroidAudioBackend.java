@@ -0,0 +1,175 @@
+/*
+ * Copyright (c) 2019-present AlanWang4523 <alanwang4523@gmail.com>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.alan.audioio.audio.backend;
+
+import android.media.AudioFormat;
+import android.media.AudioManager;
+import android.media.AudioRecord;
+import android.media.AudioTrack;
+import android.media.MediaRecorder;
+import android.os.Build;
+import com.alan.audioio.audio.common.AudioIOBuilder;
+import com.alan.audioio.audio.common.Type;
+import com.alan.audioio.audio.exception.AudioException;
+import java.nio.ByteBuffer;
+
+/**
+ * 基于 AudioRecord、AudioTrack 的设备后端
+ *
+ * Author: AlanWang4523.
+ * Date: 2020/12/14 20:25.
+ * Mail: alanwang4523@gmail.com
+ */
+public class AndroidAudioBackend implements AudioDeviceBackend {
+
+    @Override
+    public AudioInputDevice openInput(AudioIOBuilder ioBuilder) throws AudioException {
+        int sampleRateInHz = ioBuilder.getSampleRate();
+        int channelConfig = ioBuilder.getChannelCount() == Type.ChannelCount.Stereo ?
+                AudioFormat.CHANNEL_IN_STEREO : AudioFormat.CHANNEL_IN_MONO;
+        int audioFormat = getEncoding(ioBuilder);
+
+        int minBufferSize = AudioRecord.getMinBufferSize(sampleRateInHz, channelConfig, audioFormat);
+        AudioRecord audioRecord = new AudioRecord(MediaRecorder.AudioSource.MIC,
+                sampleRateInHz, channelConfig, audioFormat, minBufferSize);
+        if (audioRecord.getState() != AudioRecord.STATE_INITIALIZED) {
+            audioRecord.release();
+            throw new AudioException("Create AudioRecord failed!", null);
+        }
+        return new AndroidInputDevice(audioRecord);
+    }
+
+    @Override
+    public AudioOutputDevice openOutput(AudioIOBuilder ioBuilder) throws AudioException {
+        int sampleRateInHz = ioBuilder.getSampleRate();
+        int channelConfig = ioBuilder.getChannelCount() == Type.ChannelCount.Stereo ?
+                AudioFormat.CHANNEL_OUT_STEREO : AudioFormat.CHANNEL_OUT_MONO;
+        int audioFormat = getEncoding(ioBuilder);
+
+        int minBufferSize = AudioTrack.getMinBufferSize(sampleRateInHz, channelConfig, audioFormat);
+        AudioTrack audioTrack = new AudioTrack(AudioManager.STREAM_MUSIC,
+                sampleRateInHz, channelConfig, audioFormat, minBufferSize, AudioTrack.MODE_STREAM);
+        if (audioTrack.getState() != AudioTrack.STATE_INITIALIZED) {
+            audioTrack.release();
+            throw new AudioException("Create AudioTrack failed!", null);
+        }
+        return new AndroidOutputDevice(audioTrack, ioBuilder.getBufferSize());
+    }
+
+    private static int getEncoding(AudioIOBuilder ioBuilder) throws AudioException {
+        if (ioBuilder.getFormat() == Type.AudioFormat.PCM_Float) {
+            if (Build.VERSION.SDK_INT < Build.VERSION_CODES.LOLLIPOP) {
+                throw new AudioException("The current os version is not support pcm float format!", null);
+            }
+            return AudioFormat.ENCODING_PCM_FLOAT;
+        }
+        return AudioFormat.ENCODING_PCM_16BIT; // 默认采样 short 型格式
+    }
+
+    private static class AndroidInputDevice implements AudioInputDevice {
+        private final AudioRecord mAudioRecord;
+
+        AndroidInputDevice(AudioRecord audioRecord) {
+            mAudioRecord = audioRecord;
+        }
+
+        @Override
+        public void start() {
+            mAudioRecord.startRecording();
+        }
+
+        @Override
+        public void stop() {
+            try {
+                mAudioRecord.stop();
+            } catch (IllegalStateException e) {
+                e.printStackTrace();
+            }
+        }
+
+        @Override
+        public int read(ByteBuffer byteBuffer, int len) {
+            return mAudioRecord.read(byteBuffer, len);
+        }
+
+        @Override
+        public void release() {
+            try {
+                mAudioRecord.release();
+            } catch (IllegalStateException e) {
+                e.printStackTrace();
+            }
+        }
+    }
+
+    private static class AndroidOutputDevice implements AudioOutputDevice {
+        private final AudioTrack mAudioTrack;
+        /**
+         * LOLLIPOP 以下 AudioTrack 只能写 byte 数组，direct buffer 没有 array()，需要先拷贝出来
+         */
+        private final byte[] mWriteBytes;
+
+        AndroidOutputDevice(AudioTrack audioTrack, int bufferSize) {
+            mAudioTrack = audioTrack;
+            mWriteBytes = Build.VERSION.SDK_INT < Build.VERSION_CODES.LOLLIPOP ? new byte[bufferSize] : null;
+        }
+
+        @Override
+        public void play() {
+            mAudioTrack.play();
+        }
+
+        @Override
+        public void pause() {
+            mAudioTrack.pause();
+        }
+
+        @Override
+        public void stop() {
+            try {
+                mAudioTrack.stop();
+            } catch (IllegalStateException e) {
+                e.printStackTrace();
+            }
+        }
+
+        @Override
+        public int write(ByteBuffer byteBuffer, int len) {
+            if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.LOLLIPOP) {
+                // 直接写入 direct buffer，不经过中间的 byte 数组
+                int position = byteBuffer.position();
+                byteBuffer.position(0);
+                int written = mAudioTrack.write(byteBuffer, len, AudioTrack.WRITE_BLOCKING);
+                byteBuffer.position(position);
+                return written;
+            }
+            int position = byteBuffer.position();
+            byteBuffer.position(0);
+            byteBuffer.get(mWriteBytes, 0, len);
+            byteBuffer.position(position);
+            return mAudioTrack.write(mWriteBytes, 0, len);
+        }
+
+        @Override
+        public void release() {
+            try {
+                mAudioTrack.release();
+            } catch (IllegalStateException e) {
+                e.printStackTrace();
+            }
+        }
+    }
+}
@@ -0,0 +1,47 @@
+/*
+ * Copyright (c) 2019-present AlanWang4523 <alanwang4523@gmail.com>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.alan.audioio.audio.backend;
+
+import com.alan.audioio.audio.common.AudioIOBuilder;
+import com.alan.audioio.audio.exception.AudioException;
+
+/**
+ * 音频设备后端，{@link com.alan.audioio.audio.AudioRecorder}、{@link com.alan.audioio.audio.AudioPlayer}
+ * 通过它打开录音、播放设备，默认为基于 AudioRecord、AudioTrack 的 {@link AndroidAudioBackend}；
+ * 在 JVM 上测试、压测整个 IO 栈时可以使用 {@link SimulatedAudioBackend}
+ *
+ * Author: AlanWang4523.
+ * Date: 2020/12/14 20:10.
+ * Mail: alanwang4523@gmail.com
+ */
+public interface AudioDeviceBackend {
+
+    /**
+     * 打开录音设备
+     * @param ioBuilder 采样率、声道数、数据格式、每次读取的 buffer 大小
+     * @return 录音设备
+     * @throws AudioException 不支持的参数或打开失败
+     */
+    AudioInputDevice openInput(AudioIOBuilder ioBuilder) throws AudioException;
+
+    /**
+     * 打开播放设备
+     * @param ioBuilder 采样率、声道数、数据格式、每次写入的 buffer 大小
+     * @return 播放设备
+     * @throws AudioException 不支持的参数或打开失败
+     */
+    AudioOutputDevice openOutput(AudioIOBuilder ioBuilder) throws AudioException;
+}
@@ -0,0 +1,52 @@
+/*
+ * Copyright (c) 2019-present AlanWang4523 <alanwang4523@gmail.com>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.alan.audioio.audio.backend;
+
+import java.nio.ByteBuffer;
+
+/**
+ * 录音设备，所有方法都在录音线程中调用
+ *
+ * Author: AlanWang4523.
+ * Date: 2020/12/14 20:14.
+ * Mail: alanwang4523@gmail.com
+ */
+public interface AudioInputDevice {
+
+    /**
+     * 开始录音
+     */
+    void start();
+
+    /**
+     * 停止录音，之后可以再次调用 start
+     */
+    void stop();
+
+    /**
+     * 阻塞读取录音数据，与 AudioRecord.read(ByteBuffer, int) 一样总是从 byteBuffer 的起始地址开始写，
+     * 不改变 byteBuffer 的 position 和 limit
+     * @param byteBuffer direct buffer
+     * @param len 需要读取的长度，单位：字节
+     * @return 实际读取的长度，小于 0 表示出错
+     */
+    int read(ByteBuffer byteBuffer, int len);
+
+    /**
+     * 释放设备
+     */
+    void release();
+}
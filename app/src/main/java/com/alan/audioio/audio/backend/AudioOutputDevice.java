@@ -0,0 +1,56 @@
+/*
+ * Copyright (c) 2019-present AlanWang4523 <alanwang4523@gmail.com>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.alan.audioio.audio.backend;
+
+import java.nio.ByteBuffer;
+
+/**
+ * 播放设备，所有方法都在播放线程中调用
+ *
+ * Author: AlanWang4523.
+ * Date: 2020/12/14 20:18.
+ * Mail: alanwang4523@gmail.com
+ */
+public interface AudioOutputDevice {
+
+    /**
+     * 开始或恢复播放
+     */
+    void play();
+
+    /**
+     * 暂停播放，已写入还未播放的数据保留
+     */
+    void pause();
+
+    /**
+     * 停止播放
+     */
+    void stop();
+
+    /**
+     * 阻塞写入播放数据，写入 byteBuffer 中 [0, len) 的数据，不改变 byteBuffer 的 position 和 limit
+     * @param byteBuffer direct buffer
+     * @param len 数据长度，单位：字节
+     * @return 实际写入的长度，小于 0 表示出错
+     */
+    int write(ByteBuffer byteBuffer, int len);
+
+    /**
+     * 释放设备
+     */
+    void release();
+}
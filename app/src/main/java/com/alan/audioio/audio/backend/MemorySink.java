@@ -0,0 +1,84 @@
+/*
+ * Copyright (c) 2019-present AlanWang4523 <alanwang4523@gmail.com>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.alan.audioio.audio.backend;
+
+import com.alan.audioio.audio.common.IDataAvailableListener;
+import java.nio.ByteBuffer;
+
+/**
+ * 内存中的音频数据去向，按采集端的语义读取 buffer，可以作为 {@link SimulatedAudioBackend} 的播放数据去向，
+ * 也可以直接作为 AudioRecorder 的 IDataAvailableListener
+ * 容量在构造时分配，写满后丢弃后续的数据，只统计长度
+ *
+ * Author: AlanWang4523.
+ * Date: 2020/12/14 22:20.
+ * Mail: alanwang4523@gmail.com
+ */
+public class MemorySink implements IDataAvailableListener {
+    private final byte[] mData;
+    private int mSize;
+    private long mTotalBytes;
+
+    /**
+     * 构造函数
+     * @param capacity 保存的最大数据量，单位：字节，0 表示只统计长度不保存数据
+     */
+    public MemorySink(int capacity) {
+        if (capacity < 0) {
+            throw new IllegalArgumentException("The capacity must not be negative!");
+        }
+        mData = new byte[capacity];
+    }
+
+    @Override
+    public synchronized void onDataAvailable(ByteBuffer byteBuffer) {
+        int len = byteBuffer.remaining();
+        int copyLen = Math.min(len, mData.length - mSize);
+        if (copyLen > 0) {
+            int position = byteBuffer.position();
+            byteBuffer.get(mData, mSize, copyLen);
+            byteBuffer.position(position);
+            mSize += copyLen;
+        }
+        mTotalBytes += len;
+    }
+
+    /**
+     * 获取保存的数据
+     * @return 数据的拷贝
+     */
+    public synchronized byte[] getData() {
+        byte[] data = new byte[mSize];
+        System.arraycopy(mData, 0, data, 0, mSize);
+        return data;
+    }
+
+    /**
+     * 获取收到的总数据量，包括写满后没有保存的部分
+     * @return 数据量，单位：字节
+     */
+    public synchronized long getTotalBytes() {
+        return mTotalBytes;
+    }
+
+    /**
+     * 清空数据
+     */
+    public synchronized void clear() {
+        mSize = 0;
+        mTotalBytes = 0;
+    }
+}
@@ -0,0 +1,81 @@
+/*
+ * Copyright (c) 2019-present AlanWang4523 <alanwang4523@gmail.com>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.alan.audioio.audio.backend;
+
+import com.alan.audioio.audio.common.IDataAvailableListener;
+import java.nio.ByteBuffer;
+
+/**
+ * 内存中的音频数据源，按播放端的语义填充 buffer，可以作为 {@link SimulatedAudioBackend} 的录音数据来源，
+ * 也可以直接作为 AudioPlayer 的 IDataAvailableListener
+ *
+ * Author: AlanWang4523.
+ * Date: 2020/12/14 22:05.
+ * Mail: alanwang4523@gmail.com
+ */
+public class MemorySource implements IDataAvailableListener {
+    private final ByteBuffer mData;
+    private final boolean isLoop;
+
+    /**
+     * 构造函数
+     * @param data 音频数据，不拷贝，使用 position 到 limit 之间的部分
+     * @param isLoop 是否循环，不循环时数据取完后返回 limit 为 0 的 buffer
+     */
+    public MemorySource(ByteBuffer data, boolean isLoop) {
+        if (data == null || !data.hasRemaining()) {
+            throw new IllegalArgumentException("The data must not be empty!");
+        }
+        mData = data.slice();
+        this.isLoop = isLoop;
+    }
+
+    /**
+     * 构造函数
+     * @param data 音频数据，不拷贝
+     * @param isLoop 是否循环
+     */
+    public MemorySource(byte[] data, boolean isLoop) {
+        this(ByteBuffer.wrap(data), isLoop);
+    }
+
+    /**
+     * 回到数据的开头
+     */
+    public synchronized void rewind() {
+        mData.clear();
+    }
+
+    @Override
+    public synchronized void onDataAvailable(ByteBuffer byteBuffer) {
+        int start = byteBuffer.position();
+        while (byteBuffer.hasRemaining()) {
+            if (!mData.hasRemaining()) {
+                if (!isLoop) {
+                    break;
+                }
+                mData.clear();
+            }
+            int len = Math.min(byteBuffer.remaining(), mData.remaining());
+            int oldLimit = mData.limit();
+            mData.limit(mData.position() + len);
+            byteBuffer.put(mData);
+            mData.limit(oldLimit);
+        }
+        byteBuffer.limit(byteBuffer.position());
+        byteBuffer.position(start);
+    }
+}
@@ -0,0 +1,393 @@
+/*
+ * Copyright (c) 2019-present AlanWang4523 <alanwang4523@gmail.com>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.alan.audioio.audio.backend;
+
+import androidx.annotation.IntDef;
+import com.alan.audioio.audio.common.AudioIOBuilder;
+import com.alan.audioio.audio.common.IDataAvailableListener;
+import com.alan.audioio.audio.common.Type;
+import com.alan.audioio.audio.exception.AudioException;
+import java.lang.annotation.Retention;
+import java.lang.annotation.RetentionPolicy;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 模拟的设备后端，不依赖 Android，可以在 JVM 上测试、压测 AudioRecorder、AudioPlayer 的线程、缓冲、Fade 等逻辑
+ * 设备按 AudioIOBuilder 的采样率以时钟驱动：录音设备在数据"采集"完成后才返回，播放设备在内部缓冲满时阻塞；
+ * 时钟可以是实时的或虚拟的（见 {@link ClockMode}），并可以注入随机抖动和周期性卡顿
+ * 录音数据来自 source，播放数据写入 sink，二者都是 {@link IDataAvailableListener}：
+ * source 按播放端的语义填充 buffer，如 {@link MemorySource}、{@link com.alan.audioio.audio.WavStreamReader}；
+ * sink 按采集端的语义读取 buffer，如 {@link MemorySink}、{@link com.alan.audioio.audio.AsyncWavWriter}
+ * 外层取数据不及时导致设备内部缓冲溢出（录音）或耗尽（播放）时分别计入 overrun、underrun
+ *
+ * Author: AlanWang4523.
+ * Date: 2020/12/14 21:30.
+ * Mail: alanwang4523@gmail.com
+ */
+public class SimulatedAudioBackend implements AudioDeviceBackend {
+    private static final int DEFAULT_DEVICE_BUFFER_MS = 40;
+
+    /**
+     * 时钟模式
+     */
+    @Retention(RetentionPolicy.SOURCE)
+    @IntDef({ClockMode.REAL_TIME, ClockMode.VIRTUAL})
+    public @interface ClockMode {
+        /**
+         * 实时：设备按真实时间的采样率读写，用于测量延迟、抖动、欠载
+         */
+        int REAL_TIME = 0;
+
+        /**
+         * 虚拟：设备不等待，只推进虚拟时间，用于测量整个 IO 栈的最大吞吐
+         */
+        int VIRTUAL = 1;
+    }
+
+    private @ClockMode int mClockMode = ClockMode.REAL_TIME;
+    private int mDeviceBufferMs = DEFAULT_DEVICE_BUFFER_MS;
+    private long mJitterNs = 0;
+    private int mStallInterval = 0;
+    private long mStallNs = 0;
+    private long mSeed = 0;
+    private IDataAvailableListener mSource;
+    private IDataAvailableListener mSink;
+
+    private volatile long mFramesRead;
+    private volatile long mFramesWritten;
+    private volatile long mOverrunCount;
+    private volatile long mUnderrunCount;
+    private volatile long mInputTimeNs;
+    private volatile long mOutputTimeNs;
+
+    /**
+     * 设置时钟模式，默认为实时
+     * @param clockMode 时钟模式
+     * @return SimulatedAudioBackend
+     */
+    public SimulatedAudioBackend setClockMode(@ClockMode int clockMode) {
+        mClockMode = clockMode;
+        return this;
+    }
+
+    /**
+     * 设置设备内部缓冲的时长，即录音时允许外层迟到、播放时能提前写入的时长，默认 40ms
+     * @param deviceBufferMs 时长，单位：毫秒
+     * @return SimulatedAudioBackend
+     */
+    public SimulatedAudioBackend setDeviceBufferMs(int deviceBufferMs) {
+        if (deviceBufferMs <= 0) {
+            throw new IllegalArgumentException("The device buffer must be greater than 0!");
+        }
+        mDeviceBufferMs = deviceBufferMs;
+        return this;
+    }
+
+    /**
+     * 设置每次读写后叠加的随机抖动
+     * @param maxJitterUs 最大抖动，在 [0, maxJitterUs] 内均匀分布，单位：微秒
+     * @param seed 随机数种子，相同的种子得到相同的抖动序列
+     * @return SimulatedAudioBackend
+     */
+    public SimulatedAudioBackend setJitter(long maxJitterUs, long seed) {
+        if (maxJitterUs < 0) {
+            throw new IllegalArgumentException("The jitter must not be negative!");
+        }
+        mJitterNs = TimeUnit.MICROSECONDS.toNanos(maxJitterUs);
+        mSeed = seed;
+        return this;
+    }
+
+    /**
+     * 设置周期性的卡顿，模拟驱动、系统调度的长时间阻塞
+     * @param interval 每 interval 次读写卡顿一次，0 表示不卡顿
+     * @param stallMs 每次卡顿的时长，单位：毫秒
+     * @return SimulatedAudioBackend
+     */
+    public SimulatedAudioBackend setStall(int interval, int stallMs) {
+        if (interval < 0 || stallMs < 0) {
+            throw new IllegalArgumentException("The stall interval and duration must not be negative!");
+        }
+        mStallInterval = interval;
+        mStallNs = TimeUnit.MILLISECONDS.toNanos(stallMs);
+        return this;
+    }
+
+    /**
+     * 设置录音数据的来源，默认为静音
+     * @param source 按播放端的语义填充 buffer，数据不足时剩余部分补静音
+     * @return SimulatedAudioBackend
+     */
+    public SimulatedAudioBackend setSource(IDataAvailableListener source) {
+        mSource = source;
+        return this;
+    }
+
+    /**
+     * 设置播放数据的去向，默认丢弃
+     * @param sink 按采集端的语义读取 buffer
+     * @return SimulatedAudioBackend
+     */
+    public SimulatedAudioBackend setSink(IDataAvailableListener sink) {
+        mSink = sink;
+        return this;
+    }
+
+    /**
+     * 获取录音设备已产生的帧数，不包括 overrun 丢弃的部分
+     * @return 帧数
+     */
+    public long getFramesRead() {
+        return mFramesRead;
+    }
+
+    /**
+     * 获取播放设备已接收的帧数
+     * @return 帧数
+     */
+    public long getFramesWritten() {
+        return mFramesWritten;
+    }
+
+    /**
+     * 获取录音设备内部缓冲溢出的次数
+     * @return 次数
+     */
+    public long getOverrunCount() {
+        return mOverrunCount;
+    }
+
+    /**
+     * 获取播放设备内部缓冲耗尽的次数
+     * @return 次数
+     */
+    public long getUnderrunCount() {
+        return mUnderrunCount;
+    }
+
+    /**
+     * 获取录音设备时钟的当前时间，虚拟模式下即已模拟的时长
+     * @return 时间，单位：纳秒
+     */
+    public long getInputTimeNs() {
+        return mInputTimeNs;
+    }
+
+    /**
+     * 获取播放设备时钟的当前时间，虚拟模式下即已模拟的时长
+     * @return 时间，单位：纳秒
+     */
+    public long getOutputTimeNs() {
+        return mOutputTimeNs;
+    }
+
+    @Override
+    public AudioInputDevice openInput(AudioIOBuilder ioBuilder) throws AudioException {
+        int frameSize = getFrameSize(ioBuilder);
+        return new SimulatedInputDevice(createClock(ioBuilder), frameSize,
+                getDeviceBufferFrames(ioBuilder, frameSize));
+    }
+
+    @Override
+    public AudioOutputDevice openOutput(AudioIOBuilder ioBuilder) throws AudioException {
+        int frameSize = getFrameSize(ioBuilder);
+        return new SimulatedOutputDevice(createClock(ioBuilder), frameSize,
+                getDeviceBufferFrames(ioBuilder, frameSize));
+    }
+
+    private SimulatedClock createClock(AudioIOBuilder ioBuilder) throws AudioException {
+        if (ioBuilder.getSampleRate() <= 0) {
+            throw new AudioException("The sample rate must be greater than 0!", null);
+        }
+        return new SimulatedClock(mClockMode == ClockMode.REAL_TIME, ioBuilder.getSampleRate(),
+                mJitterNs, mStallInterval, mStallNs, mSeed);
+    }
+
+    private static int getFrameSize(AudioIOBuilder ioBuilder) throws AudioException {
+        if (ioBuilder.getChannelCount() != Type.ChannelCount.Mono
+                && ioBuilder.getChannelCount() != Type.ChannelCount.Stereo) {
+            throw new AudioException("Unsupported channel count : " + ioBuilder.getChannelCount() + "!", null);
+        }
+        return ioBuilder.getChannelCount() * (ioBuilder.getFormat() == Type.AudioFormat.PCM_Float ? 4 : 2);
+    }
+
+    private int getDeviceBufferFrames(AudioIOBuilder ioBuilder, int frameSize) {
+        long frames = (long) ioBuilder.getSampleRate() * mDeviceBufferMs / 1000;
+        // 至少能容纳一次读写
+        return (int) Math.max(frames, ioBuilder.getBufferSize() / frameSize);
+    }
+
+    /**
+     * 缓存 buffer 的视图，buffer 不变时重复使用，读写过程中不分配内存
+     */
+    private static class ViewCache {
+        private ByteBuffer mSource;
+        private ByteBuffer mView;
+
+        ByteBuffer get(ByteBuffer byteBuffer, int len) {
+            if (byteBuffer != mSource) {
+                mView = byteBuffer.duplicate().order(ByteOrder.LITTLE_ENDIAN);
+                mSource = byteBuffer;
+            }
+            mView.clear();
+            mView.limit(len);
+            return mView;
+        }
+    }
+
+    private class SimulatedInputDevice implements AudioInputDevice {
+        private final SimulatedClock mClock;
+        private final int mFrameSize;
+        private final int mDeviceBufferFrames;
+        private final ViewCache mViewCache = new ViewCache();
+        /**
+         * 下一次读取的第一帧在设备时间轴上的位置
+         */
+        private long mPosition;
+
+        SimulatedInputDevice(SimulatedClock clock, int frameSize, int deviceBufferFrames) {
+            mClock = clock;
+            mFrameSize = frameSize;
+            mDeviceBufferFrames = deviceBufferFrames;
+        }
+
+        @Override
+        public void start() {
+            mClock.anchor(mPosition);
+        }
+
+        @Override
+        public void stop() {
+        }
+
+        @Override
+        public int read(ByteBuffer byteBuffer, int len) {
+            int frames = len / mFrameSize;
+            len = frames * mFrameSize;
+            // 外层迟到超过设备内部缓冲的时长时，最旧的数据已被覆盖
+            long captured = mClock.frameAt(mClock.now());
+            if (captured - mPosition > mDeviceBufferFrames) {
+                mOverrunCount++;
+                mPosition = captured - mDeviceBufferFrames;
+            }
+            mClock.waitUntil(mClock.timeOfFrame(mPosition + frames));
+
+            ByteBuffer view = mViewCache.get(byteBuffer, len);
+            int filled = 0;
+            if (mSource != null) {
+                mSource.onDataAvailable(view);
+                filled = Math.min(view.limit(), len);
+            }
+            for (int i = filled; i < len; i++) {
+                byteBuffer.put(i, (byte) 0);
+            }
+            mPosition += frames;
+            mFramesRead += frames;
+            mClock.disturb();
+            mInputTimeNs = mClock.now();
+            return len;
+        }
+
+        @Override
+        public void release() {
+        }
+    }
+
+    private class SimulatedOutputDevice implements AudioOutputDevice {
+        private final SimulatedClock mClock;
+        private final int mFrameSize;
+        private final int mDeviceBufferFrames;
+        private final ViewCache mViewCache = new ViewCache();
+        /**
+         * 已写入的帧数
+         */
+        private long mPosition;
+        /**
+         * 暂停时设备已播放到的位置
+         */
+        private long mPausedPosition;
+        private boolean isPlaying;
+        /**
+         * play 之后设备在收到第一次写入时才开始计时，与 AudioTrack 一样，启动延迟不算欠载
+         */
+        private boolean isAnchorPending;
+
+        SimulatedOutputDevice(SimulatedClock clock, int frameSize, int deviceBufferFrames) {
+            mClock = clock;
+            mFrameSize = frameSize;
+            mDeviceBufferFrames = deviceBufferFrames;
+        }
+
+        @Override
+        public void play() {
+            if (!isPlaying) {
+                isPlaying = true;
+                isAnchorPending = true;
+            }
+        }
+
+        @Override
+        public void pause() {
+            if (isPlaying && !isAnchorPending) {
+                mPausedPosition = Math.min(mClock.frameAt(mClock.now()), mPosition);
+            }
+            isPlaying = false;
+        }
+
+        @Override
+        public void stop() {
+            // 停止后丢弃还未播放的数据
+            mPausedPosition = mPosition;
+            isPlaying = false;
+        }
+
+        @Override
+        public int write(ByteBuffer byteBuffer, int len) {
+            int frames = len / mFrameSize;
+            len = frames * mFrameSize;
+            if (isPlaying && isAnchorPending) {
+                // 暂停期间没有消耗数据，从暂停时播放到的位置继续计时
+                mClock.anchor(Math.min(mPausedPosition, mPosition));
+                isAnchorPending = false;
+            }
+            if (isPlaying) {
+                long played = mClock.frameAt(mClock.now());
+                if (played > mPosition) {
+                    // 已写入的数据都播完了，设备输出了静音
+                    mUnderrunCount++;
+                    mClock.anchor(mPosition);
+                }
+                // 内部缓冲满时等待设备消耗出足够的空间
+                mClock.waitUntil(mClock.timeOfFrame(mPosition + frames - mDeviceBufferFrames));
+            }
+
+            if (mSink != null) {
+                mSink.onDataAvailable(mViewCache.get(byteBuffer, len));
+            }
+            mPosition += frames;
+            mFramesWritten += frames;
+            mClock.disturb();
+            mOutputTimeNs = mClock.now();
+            return len;
+        }
+
+        @Override
+        public void release() {
+        }
+    }
+}
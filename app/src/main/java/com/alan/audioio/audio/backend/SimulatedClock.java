@@ -0,0 +1,123 @@
+/*
+ * Copyright (c) 2019-present AlanWang4523 <alanwang4523@gmail.com>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.alan.audioio.audio.backend;
+
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * 模拟设备的时钟，按采样率把帧位置换算成时间
+ * 实时模式下等待真实的时间流逝，用于测量延迟、抖动；虚拟模式下只推进虚拟时间、不等待，用于测量吞吐
+ * 每次传输后按配置叠加随机抖动和周期性的卡顿
+ *
+ * Author: AlanWang4523.
+ * Date: 2020/12/14 21:02.
+ * Mail: alanwang4523@gmail.com
+ */
+final class SimulatedClock {
+    private final boolean isRealTime;
+    private final int mSampleRate;
+    private final long mJitterNs;
+    private final int mStallInterval;
+    private final long mStallNs;
+    private final Random mRandom;
+    private long mVirtualNs;
+    private long mAnchorNs;
+    private long mAnchorFrame;
+    private long mTransferCount;
+
+    SimulatedClock(boolean isRealTime, int sampleRate, long jitterNs,
+                   int stallInterval, long stallNs, long seed) {
+        this.isRealTime = isRealTime;
+        mSampleRate = sampleRate;
+        mJitterNs = jitterNs;
+        mStallInterval = stallInterval;
+        mStallNs = stallNs;
+        mRandom = new Random(seed);
+    }
+
+    /**
+     * 获取当前时间
+     * @return 实时模式下为 System.nanoTime()，虚拟模式下为虚拟时间
+     */
+    long now() {
+        return isRealTime ? System.nanoTime() : mVirtualNs;
+    }
+
+    /**
+     * 把 frame 对齐到当前时间，即设备在当前时间处理到第 frame 帧
+     * @param frame 帧位置
+     */
+    void anchor(long frame) {
+        mAnchorNs = now();
+        mAnchorFrame = frame;
+    }
+
+    /**
+     * 设备处理到第 frame 帧的时间
+     * @param frame 帧位置
+     * @return 时间，单位：纳秒
+     */
+    long timeOfFrame(long frame) {
+        return mAnchorNs + framesToNs(frame - mAnchorFrame);
+    }
+
+    /**
+     * 设备在 timeNs 时处理到的帧位置
+     * @param timeNs 时间，单位：纳秒
+     * @return 帧位置
+     */
+    long frameAt(long timeNs) {
+        return mAnchorFrame + (timeNs - mAnchorNs) * mSampleRate / TimeUnit.SECONDS.toNanos(1);
+    }
+
+    long framesToNs(long frames) {
+        return frames * TimeUnit.SECONDS.toNanos(1) / mSampleRate;
+    }
+
+    /**
+     * 等待到 timeNs，已经过了该时间时直接返回
+     * @param timeNs 时间，单位：纳秒
+     */
+    void waitUntil(long timeNs) {
+        if (!isRealTime) {
+            mVirtualNs = Math.max(mVirtualNs, timeNs);
+            return;
+        }
+        long remaining;
+        while ((remaining = timeNs - System.nanoTime()) > 0) {
+            LockSupport.parkNanos(this, remaining);
+        }
+    }
+
+    /**
+     * 一次传输后的扰动：随机抖动，以及每 stallInterval 次传输一次的卡顿
+     */
+    void disturb() {
+        mTransferCount++;
+        long delayNs = 0;
+        if (mJitterNs > 0) {
+            delayNs += (long) (mRandom.nextDouble() * mJitterNs);
+        }
+        if (mStallInterval > 0 && mTransferCount % mStallInterval == 0) {
+            delayNs += mStallNs;
+        }
+        if (delayNs > 0) {
+            waitUntil(now() + delayNs);
+        }
+    }
+}
@@ -0,0 +1,412 @@
+/*
+ * Copyright (c) 2019-present AlanWang4523 <alanwang4523@gmail.com>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.alan.audioio.audio.benchmark;
+
+import com.alan.audioio.audio.AudioPlayer;
+import com.alan.audioio.audio.backend.AndroidAudioBackend;
+import com.alan.audioio.audio.backend.AudioDeviceBackend;
+import com.alan.audioio.audio.backend.AudioOutputDevice;
+import com.alan.audioio.audio.common.AudioIOBuilder;
+import com.alan.audioio.audio.common.IDataAvailableListener;
+import com.alan.audioio.audio.common.IOStatus;
+import com.alan.audioio.audio.common.Type;
+import com.alan.audioio.audio.exception.AudioException;
+import com.alan.audioio.audio.processor.AudioFader;
+import com.alan.audioio.utils.ALog;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * {@link AudioPlayer} 控制延迟和播放线程抖动的测试，与原来基于 ReentrantLock、Condition 的控制实现对比，需要在真机上运行
+ * 播放静音，期间反复 pause、resume：统计控制方法的返回耗时、命令执行完成（Future 完成）的耗时，
+ * 以及播放线程相邻两次取数据回调的间隔的标准差和最大值，用于衡量控制操作对播放线程的干扰，暂停期间的间隔不计入
+ * 在工作线程中调用 {@link #run}
+ *
+ * Author: AlanWang4523.
+ * Date: 2020/12/13 22:18.
+ * Mail: alanwang4523@gmail.com
+ */
+public class ControlBenchmark {
+    private static final long TOGGLE_INTERVAL_MS = 50;
+
+    private ControlBenchmark() {
+    }
+
+    /**
+     * 使用 AudioTrack 执行测试，结果同时输出到日志
+     * @param sampleRate 采样率
+     * @param bufferSize 每次回调的 buffer 大小，单位：字节
+     * @param toggles pause、resume 的次数
+     * @return 依次为原来的加锁实现、ControlMailbox 实现的结果
+     * @throws AudioException 打开播放设备失败
+     */
+    public static List<Result> run(int sampleRate, int bufferSize, int toggles) throws AudioException {
+        return run(new AndroidAudioBackend(), sampleRate, bufferSize, toggles);
+    }
+
+    /**
+     * 执行测试，结果同时输出到日志
+     * @param deviceBackend 音频设备后端，在 JVM 上可以使用 SimulatedAudioBackend
+     * @param sampleRate 采样率
+     * @param bufferSize 每次回调的 buffer 大小，单位：字节
+     * @param toggles pause、resume 的次数
+     * @return 依次为原来的加锁实现、ControlMailbox 实现的结果
+     * @throws AudioException 打开播放设备失败
+     */
+    public static List<Result> run(AudioDeviceBackend deviceBackend, int sampleRate, int bufferSize,
+                                   int toggles) throws AudioException {
+        AudioIOBuilder ioBuilder = AudioIOBuilder.builder()
+                .setSampleRate(sampleRate)
+                .setChannelCount(Type.ChannelCount.Stereo)
+                .setFormat(Type.AudioFormat.PCM_I16)
+                .setBufferSize(bufferSize);
+        List<Result> results = new ArrayList<>(2);
+        results.add(measureLegacy(deviceBackend, ioBuilder, toggles));
+        results.add(measureMailbox(deviceBackend, ioBuilder, toggles));
+        for (Result result : results) {
+            ALog.d("ControlBenchmark::" + result);
+        }
+        return results;
+    }
+
+    private static Result measureLegacy(AudioDeviceBackend deviceBackend, AudioIOBuilder ioBuilder,
+                                        int toggles) throws AudioException {
+        IntervalRecorder intervalRecorder = new IntervalRecorder(ioBuilder, toggles);
+        LegacyLockPlayer legacyPlayer = new LegacyLockPlayer(deviceBackend, ioBuilder, intervalRecorder);
+
+        // 原来的控制方法阻塞到播放线程执行完成才返回，返回耗时即完成耗时
+        long[] callNs = new long[toggles * 2];
+        legacyPlayer.start();
+        for (int i = 0; i < toggles * 2; i++) {
+            sleep(TOGGLE_INTERVAL_MS);
+            intervalRecorder.skipNextInterval();
+            long startNs = System.nanoTime();
+            if (i % 2 == 0) {
+                legacyPlayer.pause();
+            } else {
+                legacyPlayer.resume();
+            }
+            callNs[i] = System.nanoTime() - startNs;
+        }
+        legacyPlayer.stop();
+        return intervalRecorder.newResult("legacy-lock", callNs, callNs);
+    }
+
+    private static Result measureMailbox(AudioDeviceBackend deviceBackend, AudioIOBuilder ioBuilder,
+                                         int toggles) throws AudioException {
+        IntervalRecorder intervalRecorder = new IntervalRecorder(ioBuilder, toggles);
+        AudioPlayer audioPlayer = new AudioPlayer();
+        audioPlayer.setDeviceBackend(deviceBackend);
+        audioPlayer.setDataAvailableListener(intervalRecorder);
+        audioPlayer.init(ioBuilder);
+
+        long[] callNs = new long[toggles * 2];
+        long[] completeNs = new long[toggles * 2];
+        await(audioPlayer.start());
+        for (int i = 0; i < toggles * 2; i++) {
+            sleep(TOGGLE_INTERVAL_MS);
+            intervalRecorder.skipNextInterval();
+            long startNs = System.nanoTime();
+            Future<Void> future = (i % 2 == 0) ? audioPlayer.pause() : audioPlayer.resume();
+            callNs[i] = System.nanoTime() - startNs;
+            await(future);
+            completeNs[i] = System.nanoTime() - startNs;
+        }
+        await(audioPlayer.stop());
+        audioPlayer.release();
+        return intervalRecorder.newResult("mailbox", callNs, completeNs);
+    }
+
+    private static void await(Future<Void> future) {
+        try {
+            future.get();
+        } catch (InterruptedException | ExecutionException e) {
+            e.printStackTrace();
+        }
+    }
+
+    private static void sleep(long ms) {
+        try {
+            Thread.sleep(ms);
+        } catch (InterruptedException e) {
+            e.printStackTrace();
+        }
+    }
+
+    private static double mean(long[] values, int count) {
+        double sum = 0;
+        for (int i = 0; i < count; i++) {
+            sum += values[i];
+        }
+        return count > 0 ? sum / count : 0;
+    }
+
+    private static long max(long[] values, int count) {
+        long max = 0;
+        for (int i = 0; i < count; i++) {
+            max = Math.max(max, values[i]);
+        }
+        return max;
+    }
+
+    private static double stdDev(long[] values, int count) {
+        double mean = mean(values, count);
+        double sum = 0;
+        for (int i = 0; i < count; i++) {
+            sum += (values[i] - mean) * (values[i] - mean);
+        }
+        return count > 0 ? Math.sqrt(sum / count) : 0;
+    }
+
+    /**
+     * 播放静音，记录播放线程相邻两次取数据回调的间隔
+     * 发出 pause、resume 前调用 {@link #skipNextInterval}，跨越暂停的间隔不计入
+     */
+    private static class IntervalRecorder implements IDataAvailableListener {
+        private final long[] mIntervals;
+        private int mIntervalCount;
+        private long mLastNs = 0;
+        private volatile boolean isSkipNext = false;
+
+        IntervalRecorder(AudioIOBuilder ioBuilder, int toggles) {
+            int bytePerFrame = ioBuilder.getChannelCount() * 2;
+            mIntervals = new long[(int) (toggles * 2 * TOGGLE_INTERVAL_MS * ioBuilder.getSampleRate()
+                    * bytePerFrame / 1000 / ioBuilder.getBufferSize()) + 1024];
+        }
+
+        void skipNextInterval() {
+            isSkipNext = true;
+        }
+
+        @Override
+        public void onDataAvailable(ByteBuffer byteBuffer) {
+            long now = System.nanoTime();
+            if (isSkipNext) {
+                isSkipNext = false;
+                mLastNs = 0;
+            }
+            if (mLastNs > 0 && mIntervalCount < mIntervals.length) {
+                mIntervals[mIntervalCount++] = now - mLastNs;
+            }
+            mLastNs = now;
+            while (byteBuffer.hasRemaining()) {
+                byteBuffer.put((byte) 0);
+            }
+            byteBuffer.flip();
+        }
+
+        /**
+         * 播放线程结束后调用
+         */
+        Result newResult(String name, long[] callNs, long[] completeNs) {
+            return new Result(name, mean(callNs, callNs.length), max(callNs, callNs.length),
+                    mean(completeNs, completeNs.length), max(completeNs, completeNs.length),
+                    stdDev(mIntervals, mIntervalCount), max(mIntervals, mIntervalCount));
+        }
+    }
+
+    /**
+     * AudioPlayer 原来的控制实现，作为对比的基准：播放线程每个 buffer 加锁两次检查状态，
+     * 控制方法加锁后在 Condition 上阻塞，直到播放线程执行完成
+     */
+    private static class LegacyLockPlayer {
+        private final AudioOutputDevice mOutputDevice;
+        private final IDataAvailableListener mDataAvailableListener;
+        private final ByteBuffer mDataBuffer;
+        private final AudioFader mFader;
+        private final ReentrantLock mLock = new ReentrantLock();
+        private final Condition mStatusCondition = mLock.newCondition();
+        private final Condition mPlayStateCondition = mLock.newCondition();
+        private volatile @IOStatus int mNewStatus = IOStatus.INITIATED;
+        private @IOStatus int mCurStatus = IOStatus.INITIATED;
+        private boolean mIsStatusChanged = false;
+        private Thread mWorkThread;
+
+        LegacyLockPlayer(AudioDeviceBackend deviceBackend, AudioIOBuilder ioBuilder,
+                         IDataAvailableListener dataAvailableListener) throws AudioException {
+            mOutputDevice = deviceBackend.openOutput(ioBuilder);
+            mDataAvailableListener = dataAvailableListener;
+            mDataBuffer = ByteBuffer.allocateDirect(ioBuilder.getBufferSize()).order(ByteOrder.LITTLE_ENDIAN);
+            mFader = new AudioFader(AudioFader.Curve.LINEAR, AudioFader.DEFAULT_DURATION_MS);
+            mFader.prepare(ioBuilder.getSampleRate(), ioBuilder.getChannelCount(),
+                    ioBuilder.getFormat(), ioBuilder.getBufferSize());
+        }
+
+        void start() {
+            mWorkThread = new Thread(new Runnable() {
+                @Override
+                public void run() {
+                    workLoop();
+                }
+            }, "ControlBenchmark-Legacy");
+            mLock.lock();
+            try {
+                mNewStatus = IOStatus.START;
+                mIsStatusChanged = true;
+                mWorkThread.start();
+                awaitStatusChanged();
+            } finally {
+                mLock.unlock();
+            }
+        }
+
+        void pause() {
+            mLock.lock();
+            try {
+                mNewStatus = IOStatus.PAUSE;
+                mIsStatusChanged = true;
+                awaitStatusChanged();
+            } finally {
+                mLock.unlock();
+            }
+            mOutputDevice.pause();
+        }
+
+        void resume() {
+            mLock.lock();
+            try {
+                mOutputDevice.play();
+                mNewStatus = IOStatus.RESUME;
+                mIsStatusChanged = true;
+                mPlayStateCondition.signal();
+                awaitStatusChanged();
+            } finally {
+                mLock.unlock();
+            }
+        }
+
+        void stop() {
+            mLock.lock();
+            try {
+                mNewStatus = IOStatus.STOP;
+                mIsStatusChanged = true;
+                mPlayStateCondition.signal();
+                awaitStatusChanged();
+            } finally {
+                mLock.unlock();
+            }
+            try {
+                mWorkThread.join(1000);
+            } catch (InterruptedException e) {
+                e.printStackTrace();
+            }
+        }
+
+        /**
+         * 持有 mLock 时调用，等待播放线程执行完状态切换
+         */
+        private void awaitStatusChanged() {
+            while (mIsStatusChanged) {
+                try {
+                    mStatusCondition.await(1000, TimeUnit.MILLISECONDS);
+                } catch (InterruptedException e) {
+                    // do nothing
+                }
+            }
+        }
+
+        private void workLoop() {
+            mFader.reset();
+            mOutputDevice.play();
+            while (true) {
+                mLock.lock();
+                if (mIsStatusChanged && mCurStatus != mNewStatus) {
+                    mCurStatus = mNewStatus;
+                    if (mCurStatus == IOStatus.PAUSE || mCurStatus == IOStatus.STOP) {
+                        mFader.startFadeOut();
+                    } else {
+                        mFader.startFadeIn();
+                    }
+                }
+                mLock.unlock();
+
+                mDataBuffer.clear();
+                mDataAvailableListener.onDataAvailable(mDataBuffer);
+                mDataBuffer.rewind();
+                mFader.process(mDataBuffer);
+                mDataBuffer.rewind();
+                mOutputDevice.write(mDataBuffer, mDataBuffer.limit());
+
+                if (mFader.isFading()) {
+                    continue;
+                }
+                mLock.lock();
+                try {
+                    if (mIsStatusChanged && mCurStatus == mNewStatus) {
+                        mIsStatusChanged = false;
+                        mStatusCondition.signal();
+                    }
+                    while (mCurStatus == IOStatus.PAUSE && !mIsStatusChanged) {
+                        try {
+                            mPlayStateCondition.await();
+                        } catch (InterruptedException e) {
+                            // do nothing
+                        }
+                    }
+                    if (mCurStatus == IOStatus.STOP && !mIsStatusChanged) {
+                        break;
+                    }
+                } finally {
+                    mLock.unlock();
+                }
+            }
+            mOutputDevice.stop();
+            mOutputDevice.release();
+        }
+    }
+
+    /**
+     * 一种实现的测试结果，单位均为纳秒
+     */
+    public static class Result {
+        public final String name;
+        public final double callMeanNs;
+        public final long callMaxNs;
+        public final double completeMeanNs;
+        public final long completeMaxNs;
+        public final double callbackJitterNs;
+        public final long callbackMaxIntervalNs;
+
+        Result(String name, double callMeanNs, long callMaxNs, double completeMeanNs, long completeMaxNs,
+               double callbackJitterNs, long callbackMaxIntervalNs) {
+            this.name = name;
+            this.callMeanNs = callMeanNs;
+            this.callMaxNs = callMaxNs;
+            this.completeMeanNs = completeMeanNs;
+            this.completeMaxNs = completeMaxNs;
+            this.callbackJitterNs = callbackJitterNs;
+            this.callbackMaxIntervalNs = callbackMaxIntervalNs;
+        }
+
+        @Override
+        public String toString() {
+            return "Result{name=" + name
+                    + ", call=" + String.format(java.util.Locale.US, "%.1f", callMeanNs / 1000) + "us"
+                    + "(max " + callMaxNs / 1000 + "us)"
+                    + ", complete=" + String.format(java.util.Locale.US, "%.2f", completeMeanNs / 1000000) + "ms"
+                    + "(max " + completeMaxNs / 1000000 + "ms)"
+                    + ", callbackJitter=" + String.format(java.util.Locale.US, "%.1f", callbackJitterNs / 1000) + "us"
+                    + ", callbackMaxInterval=" + callbackMaxIntervalNs / 1000000 + "ms}";
+        }
+    }
+}
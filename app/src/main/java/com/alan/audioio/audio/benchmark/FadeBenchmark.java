@@ -0,0 +1,166 @@
+/*
+ * Copyright (c) 2019-present AlanWang4523 <alanwang4523@gmail.com>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.alan.audioio.audio.benchmark;
+
+import com.alan.audioio.audio.common.Type;
+import com.alan.audioio.audio.processor.AudioFader;
+import com.alan.audioio.utils.ALog;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * {@link AudioFader} 与 AudioPlayer 原来逐样本 getShort/putShort 的 fade 循环的性能对比
+ * 每轮先把同样的源数据写入一个 direct buffer，再对整个 buffer 做一次淡出，统计每帧耗时
+ * 原来的循环只支持 int16，float 只测试 AudioFader
+ * 在工作线程中调用 {@link #run}
+ *
+ * Author: AlanWang4523.
+ * Date: 2020/12/13 11:40.
+ * Mail: alanwang4523@gmail.com
+ */
+public class FadeBenchmark {
+    private static final int WARM_UP_ROUNDS = 2000;
+
+    private FadeBenchmark() {
+    }
+
+    /**
+     * 执行测试，结果同时输出到日志
+     * @param channelCount 通道数
+     * @param blockFrames 每个 buffer 的帧数，一般为音频回调的大小，如 256
+     * @param rounds 测试的轮数
+     * @return 依次为原来的 int16 循环、AudioFader int16、AudioFader float 的结果
+     */
+    public static List<Result> run(int channelCount, int blockFrames, int rounds) {
+        List<Result> results = new ArrayList<>(3);
+        results.add(measureLegacy(channelCount, blockFrames, rounds));
+        results.add(measureFader(channelCount, blockFrames, rounds, Type.AudioFormat.PCM_I16));
+        results.add(measureFader(channelCount, blockFrames, rounds, Type.AudioFormat.PCM_Float));
+        for (Result result : results) {
+            ALog.d("FadeBenchmark::" + result);
+        }
+        return results;
+    }
+
+    private static Result measureLegacy(int channelCount, int blockFrames, int rounds) {
+        ByteBuffer source = createSource(channelCount, blockFrames, Type.AudioFormat.PCM_I16);
+        ByteBuffer buffer = ByteBuffer.allocateDirect(source.capacity()).order(ByteOrder.LITTLE_ENDIAN);
+        for (int round = 0; round < WARM_UP_ROUNDS; round++) {
+            fill(buffer, source);
+            legacyFadeOut(buffer, channelCount);
+        }
+        long startNs = System.nanoTime();
+        for (int round = 0; round < rounds; round++) {
+            fill(buffer, source);
+            legacyFadeOut(buffer, channelCount);
+        }
+        long elapsedNs = Math.max(1, System.nanoTime() - startNs);
+        return new Result("legacy-int16", (double) elapsedNs / ((long) rounds * blockFrames));
+    }
+
+    private static Result measureFader(int channelCount, int blockFrames, int rounds,
+                                       @Type.AudioFormat int audioFormat) {
+        ByteBuffer source = createSource(channelCount, blockFrames, audioFormat);
+        ByteBuffer buffer = ByteBuffer.allocateDirect(source.capacity()).order(ByteOrder.LITTLE_ENDIAN);
+        // 时长 1 秒、采样率为 blockFrames，淡出正好覆盖整个 buffer，与原来的循环一致
+        AudioFader fader = new AudioFader(AudioFader.Curve.LINEAR, 1000);
+        fader.prepare(blockFrames, channelCount, audioFormat, buffer.capacity());
+        for (int round = 0; round < WARM_UP_ROUNDS; round++) {
+            fadeOut(fader, buffer, source);
+        }
+        long startNs = System.nanoTime();
+        for (int round = 0; round < rounds; round++) {
+            fadeOut(fader, buffer, source);
+        }
+        long elapsedNs = Math.max(1, System.nanoTime() - startNs);
+        String name = audioFormat == Type.AudioFormat.PCM_Float ? "fader-float" : "fader-int16";
+        return new Result(name, (double) elapsedNs / ((long) rounds * blockFrames));
+    }
+
+    private static void fadeOut(AudioFader fader, ByteBuffer buffer, ByteBuffer source) {
+        fill(buffer, source);
+        fader.reset();
+        fader.startFadeOut();
+        fader.process(buffer);
+    }
+
+    private static ByteBuffer createSource(int channelCount, int blockFrames, @Type.AudioFormat int audioFormat) {
+        int sampleCount = channelCount * blockFrames;
+        boolean isFloat = audioFormat == Type.AudioFormat.PCM_Float;
+        ByteBuffer source = ByteBuffer.allocateDirect(sampleCount * (isFloat ? 4 : 2))
+                .order(ByteOrder.LITTLE_ENDIAN);
+        for (int i = 0; i < sampleCount; i++) {
+            double value = Math.sin(i * 0.05) * 0.5;
+            if (isFloat) {
+                source.putFloat((float) value);
+            } else {
+                source.putShort((short) (value * Short.MAX_VALUE));
+            }
+        }
+        source.clear();
+        return source;
+    }
+
+    private static void fill(ByteBuffer buffer, ByteBuffer source) {
+        buffer.clear();
+        source.clear();
+        buffer.put(source);
+        buffer.flip();
+    }
+
+    /**
+     * AudioPlayer 原来的 fade out 实现，作为对比的基准
+     */
+    private static void legacyFadeOut(ByteBuffer byteBuffer, int channelCount) {
+        int shortCount = byteBuffer.limit() / 2;
+        if (1 == channelCount) {
+            for (int i = 0; i < shortCount; i++) {
+                short data = (short) (byteBuffer.getShort(i * 2) * 1.0f * (shortCount - i) / shortCount);
+                byteBuffer.putShort(i * 2, data);
+            }
+        } else {
+            for (int i = 0; i < shortCount; i += 2) {
+                short data = (short) (byteBuffer.getShort(i * 2) * 1.0f * (shortCount - i) / shortCount);
+                byteBuffer.putShort(i * 2, data);
+
+                data = (short) (byteBuffer.getShort((i + 1) * 2) * 1.0f * (shortCount - i) / shortCount);
+                byteBuffer.putShort((i + 1) * 2, data);
+            }
+        }
+        byteBuffer.rewind();
+    }
+
+    /**
+     * 一种实现的测试结果
+     */
+    public static class Result {
+        public final String name;
+        public final double nsPerFrame;
+
+        Result(String name, double nsPerFrame) {
+            this.name = name;
+            this.nsPerFrame = nsPerFrame;
+        }
+
+        @Override
+        public String toString() {
+            return "Result{name=" + name
+                    + ", nsPerFrame=" + String.format(java.util.Locale.US, "%.2f", nsPerFrame) + "}";
+        }
+    }
+}
@@ -0,0 +1,193 @@
+/*
+ * Copyright (c) 2019-present AlanWang4523 <alanwang4523@gmail.com>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.alan.audioio.audio.benchmark;
+
+import com.alan.audioio.audio.AudioPlayer;
+import com.alan.audioio.audio.AudioRecorder;
+import com.alan.audioio.audio.backend.MemorySource;
+import com.alan.audioio.audio.backend.SimulatedAudioBackend;
+import com.alan.audioio.audio.common.AudioIOBuilder;
+import com.alan.audioio.audio.common.IDataAvailableListener;
+import com.alan.audioio.audio.common.Type;
+import com.alan.audioio.audio.exception.AudioException;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 基于 {@link SimulatedAudioBackend} 的整个 IO 栈（控制、处理链、Fade、环形缓冲、预读）的测试，
+ * 不依赖 Android，也不输出日志，可以在 Linux 构建机的 JVM 上运行
+ * 虚拟时钟下测量吞吐：每秒真实时间能处理的音频时长；实时时钟下测量回调间隔的抖动和设备的 overrun、underrun
+ *
+ * Author: AlanWang4523.
+ * Date: 2020/12/14 23:10.
+ * Mail: alanwang4523@gmail.com
+ */
+public class IOStackBenchmark {
+
+    private IOStackBenchmark() {
+    }
+
+    /**
+     * 执行测试，依次测试录音、播放
+     * @param clockMode 时钟模式
+     * @param sampleRate 采样率
+     * @param bufferSize 每次回调的 buffer 大小，单位：字节，数据为双声道 int16
+     * @param durationMs 每项测试的真实时长，单位：毫秒
+     * @param backend 模拟的设备后端，可以预先设置抖动、卡顿，测试中会替换 source 和 sink
+     * @return 录音、播放的结果
+     * @throws AudioException 初始化失败
+     */
+    public static List<Result> run(@SimulatedAudioBackend.ClockMode int clockMode, int sampleRate,
+                                   int bufferSize, int durationMs, SimulatedAudioBackend backend) throws AudioException {
+        backend.setClockMode(clockMode);
+        AudioIOBuilder ioBuilder = AudioIOBuilder.builder()
+                .setSampleRate(sampleRate)
+                .setChannelCount(Type.ChannelCount.Stereo)
+                .setFormat(Type.AudioFormat.PCM_I16)
+                .setBufferSize(bufferSize);
+        int expectedCallbacks = (int) ((long) sampleRate * 4 * durationMs / 1000 / bufferSize) + 1024;
+        List<Result> results = new ArrayList<>(2);
+
+        // 录音：source 为一段循环的静音，回调只记录时间
+        IntervalRecorder recordIntervals = new IntervalRecorder(expectedCallbacks);
+        backend.setSource(new MemorySource(new byte[bufferSize], true));
+        AudioRecorder audioRecorder = new AudioRecorder();
+        audioRecorder.setDeviceBackend(backend);
+        audioRecorder.setDataAvailableListener(recordIntervals);
+        audioRecorder.init(ioBuilder);
+        long framesBefore = backend.getFramesRead();
+        long overrunsBefore = backend.getOverrunCount();
+        long startNs = System.nanoTime();
+        await(audioRecorder.start());
+        sleep(durationMs);
+        await(audioRecorder.stop());
+        long elapsedNs = System.nanoTime() - startNs;
+        audioRecorder.release();
+        results.add(new Result("record", backend.getFramesRead() - framesBefore, sampleRate, elapsedNs,
+                recordIntervals.getStdDevNs(), backend.getOverrunCount() - overrunsBefore));
+
+        // 播放：回调填充静音并记录时间
+        final IntervalRecorder playIntervals = new IntervalRecorder(expectedCallbacks);
+        backend.setSink(null);
+        AudioPlayer audioPlayer = new AudioPlayer();
+        audioPlayer.setDeviceBackend(backend);
+        audioPlayer.setDataAvailableListener(new IDataAvailableListener() {
+            @Override
+            public void onDataAvailable(ByteBuffer byteBuffer) {
+                playIntervals.onDataAvailable(byteBuffer);
+                byteBuffer.position(byteBuffer.limit());
+                byteBuffer.flip();
+            }
+        });
+        audioPlayer.init(ioBuilder);
+        framesBefore = backend.getFramesWritten();
+        long underrunsBefore = backend.getUnderrunCount();
+        startNs = System.nanoTime();
+        await(audioPlayer.start());
+        sleep(durationMs);
+        await(audioPlayer.stop());
+        elapsedNs = System.nanoTime() - startNs;
+        audioPlayer.release();
+        results.add(new Result("play", backend.getFramesWritten() - framesBefore, sampleRate, elapsedNs,
+                playIntervals.getStdDevNs(), backend.getUnderrunCount() - underrunsBefore));
+        return results;
+    }
+
+    private static void await(Future<Void> future) {
+        try {
+            future.get();
+        } catch (InterruptedException | ExecutionException e) {
+            e.printStackTrace();
+        }
+    }
+
+    private static void sleep(long ms) {
+        try {
+            Thread.sleep(ms);
+        } catch (InterruptedException e) {
+            e.printStackTrace();
+        }
+    }
+
+    /**
+     * 记录相邻两次回调的间隔
+     */
+    private static class IntervalRecorder implements IDataAvailableListener {
+        private final long[] mIntervals;
+        private int mCount;
+        private long mLastNs;
+
+        IntervalRecorder(int capacity) {
+            mIntervals = new long[capacity];
+        }
+
+        @Override
+        public void onDataAvailable(ByteBuffer byteBuffer) {
+            long now = System.nanoTime();
+            if (mLastNs > 0 && mCount < mIntervals.length) {
+                mIntervals[mCount++] = now - mLastNs;
+            }
+            mLastNs = now;
+        }
+
+        double getStdDevNs() {
+            if (mCount == 0) {
+                return 0;
+            }
+            double mean = 0;
+            for (int i = 0; i < mCount; i++) {
+                mean += mIntervals[i];
+            }
+            mean /= mCount;
+            double sum = 0;
+            for (int i = 0; i < mCount; i++) {
+                sum += (mIntervals[i] - mean) * (mIntervals[i] - mean);
+            }
+            return Math.sqrt(sum / mCount);
+        }
+    }
+
+    /**
+     * 一项测试的结果
+     */
+    public static class Result {
+        public final String name;
+        public final long frames;
+        public final double realtimeFactor;
+        public final double callbackJitterUs;
+        public final long xrunCount;
+
+        Result(String name, long frames, int sampleRate, long elapsedNs, double callbackJitterNs, long xrunCount) {
+            this.name = name;
+            this.frames = frames;
+            this.realtimeFactor = (double) frames / sampleRate * TimeUnit.SECONDS.toNanos(1) / Math.max(1, elapsedNs);
+            this.callbackJitterUs = callbackJitterNs / 1000;
+            this.xrunCount = xrunCount;
+        }
+
+        @Override
+        public String toString() {
+            return "Result{name=" + name + ", frames=" + frames
+                    + ", realtime=" + String.format(java.util.Locale.US, "%.2f", realtimeFactor) + "x"
+                    + ", callbackJitter=" + String.format(java.util.Locale.US, "%.1f", callbackJitterUs) + "us"
+                    + ", xruns=" + xrunCount + "}";
+        }
+    }
+}
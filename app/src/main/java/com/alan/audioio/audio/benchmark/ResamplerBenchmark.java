@@ -0,0 +1,155 @@
+/*
+ * Copyright (c) 2019-present AlanWang4523 <alanwang4523@gmail.com>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.alan.audioio.audio.benchmark;
+
+import com.alan.audioio.audio.processor.Resampler;
+import com.alan.audioio.utils.ALog;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * {@link Resampler} 的性能和质量测试，用于按设备档次选择重采样质量
+ * 对每个质量等级：用 997Hz 正弦信号测量信噪比（THD+N），再以音频回调的块大小处理若干秒的数据，
+ * 统计每帧耗时和实时倍数（处理的音频时长 / 耗费的 CPU 时间）
+ * 在工作线程中调用 {@link #run}，耗时为 秒数 * 质量等级数 / 实时倍数
+ *
+ * Author: AlanWang4523.
+ * Date: 2020/12/12 10:26.
+ * Mail: alanwang4523@gmail.com
+ */
+public class ResamplerBenchmark {
+    private static final double TEST_FREQUENCY = 997.0;
+    private static final int WARM_UP_ROUNDS = 3;
+
+    private ResamplerBenchmark() {
+    }
+
+    /**
+     * 执行测试，结果同时输出到日志
+     * @param inputRate 输入采样率
+     * @param outputRate 输出采样率
+     * @param channelCount 通道数
+     * @param blockFrames 每次处理的帧数，一般为音频回调的大小，如 256
+     * @param seconds 每个质量等级处理的音频时长，单位：秒
+     * @return 每个质量等级的结果，按 LOW、MEDIUM、HIGH 排列
+     */
+    public static List<Result> run(int inputRate, int outputRate, int channelCount, int blockFrames, int seconds) {
+        List<Result> results = new ArrayList<>(3);
+        int[] qualities = {Resampler.Quality.LOW, Resampler.Quality.MEDIUM, Resampler.Quality.HIGH};
+        for (int quality : qualities) {
+            Result result = measure(inputRate, outputRate, channelCount, blockFrames, seconds, quality);
+            ALog.d("ResamplerBenchmark::" + result);
+            results.add(result);
+        }
+        return results;
+    }
+
+    private static Result measure(int inputRate, int outputRate, int channelCount, int blockFrames,
+                                  int seconds, @Resampler.Quality int quality) {
+        Resampler resampler = new Resampler(inputRate, outputRate, channelCount, quality);
+        float[] in = new float[blockFrames * channelCount];
+        float[] out = new float[resampler.getMaxOutputFrames(blockFrames) * channelCount];
+
+        // 信噪比：处理 1 秒正弦信号，跳过开头的滤波器延迟，拟合同频正弦后计算残差
+        float[] tone = new float[(outputRate + resampler.getMaxOutputFrames(blockFrames)) * channelCount];
+        int toneFrames = 0;
+        for (int frame = 0; frame < inputRate; frame += blockFrames) {
+            int frames = Math.min(blockFrames, inputRate - frame);
+            for (int i = 0; i < frames; i++) {
+                float value = (float) (0.5 * Math.sin(2 * Math.PI * TEST_FREQUENCY * (frame + i) / inputRate));
+                for (int ch = 0; ch < channelCount; ch++) {
+                    in[i * channelCount + ch] = value;
+                }
+            }
+            toneFrames += resampler.process(in, 0, frames, tone, toneFrames * channelCount);
+        }
+        double snrDb = measureSnr(tone, toneFrames, channelCount, outputRate, resampler.getFilterLength());
+
+        // 性能：以 blockFrames 为单位处理 seconds 秒的数据
+        for (int i = 0; i < in.length; i++) {
+            in[i] = (float) Math.sin(i * 0.05) * 0.5f;
+        }
+        for (int round = 0; round < WARM_UP_ROUNDS; round++) {
+            process(resampler, in, out, blockFrames, inputRate);
+        }
+        resampler.reset();
+        long totalFrames = (long) inputRate * seconds;
+        long startNs = System.nanoTime();
+        long outFrames = process(resampler, in, out, blockFrames, totalFrames);
+        long elapsedNs = Math.max(1, System.nanoTime() - startNs);
+        return new Result(quality, resampler.getFilterLength(), snrDb,
+                (double) elapsedNs / Math.max(1, outFrames), (double) totalFrames / inputRate * 1e9 / elapsedNs);
+    }
+
+    private static long process(Resampler resampler, float[] in, float[] out, int blockFrames, long totalFrames) {
+        long outFrames = 0;
+        for (long frame = 0; frame < totalFrames; frame += blockFrames) {
+            outFrames += resampler.process(in, 0, blockFrames, out, 0);
+        }
+        return outFrames;
+    }
+
+    private static double measureSnr(float[] data, int frames, int channelCount, int sampleRate, int skipFrames) {
+        int start = skipFrames + 1;
+        int end = frames - skipFrames - 1;
+        double sinSum = 0;
+        double cosSum = 0;
+        for (int i = start; i < end; i++) {
+            double phase = 2 * Math.PI * TEST_FREQUENCY * i / sampleRate;
+            sinSum += data[i * channelCount] * Math.sin(phase);
+            cosSum += data[i * channelCount] * Math.cos(phase);
+        }
+        double a = sinSum * 2 / (end - start);
+        double b = cosSum * 2 / (end - start);
+        double signal = 0;
+        double noise = 0;
+        for (int i = start; i < end; i++) {
+            double phase = 2 * Math.PI * TEST_FREQUENCY * i / sampleRate;
+            double reference = a * Math.sin(phase) + b * Math.cos(phase);
+            double diff = data[i * channelCount] - reference;
+            signal += reference * reference;
+            noise += diff * diff;
+        }
+        return noise <= 0 ? Double.POSITIVE_INFINITY : 10 * Math.log10(signal / noise);
+    }
+
+    /**
+     * 一个质量等级的测试结果
+     */
+    public static class Result {
+        public final int quality;
+        public final int filterLength;
+        public final double snrDb;
+        public final double nsPerFrame;
+        public final double realtimeFactor;
+
+        Result(int quality, int filterLength, double snrDb, double nsPerFrame, double realtimeFactor) {
+            this.quality = quality;
+            this.filterLength = filterLength;
+            this.snrDb = snrDb;
+            this.nsPerFrame = nsPerFrame;
+            this.realtimeFactor = realtimeFactor;
+        }
+
+        @Override
+        public String toString() {
+            return "Result{quality=" + quality + ", filterLength=" + filterLength
+                    + ", snr=" + String.format(java.util.Locale.US, "%.1f", snrDb) + "dB"
+                    + ", nsPerFrame=" + String.format(java.util.Locale.US, "%.1f", nsPerFrame)
+                    + ", realtime=" + String.format(java.util.Locale.US, "%.1f", realtimeFactor) + "x}";
+        }
+    }
+}
@@ -0,0 +1,191 @@
+/*
+ * Copyright (c) 2019-present AlanWang4523 <alanwang4523@gmail.com>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.alan.audioio.audio.codec;
+
+/**
+ * G.711 µ-law/A-law 编解码器（wav FormatTag 7/6），每个采样点 8 bit，压缩比 2:1
+ * 量化规则与 CCITT G.711 参考实现（Sun g711.c）一致，编码和解码都是一次查表：
+ * 编码表以 14 bit（µ-law）/ 13 bit（A-law）线性值为下标，解码表为 256 项
+ *
+ * Author: AlanWang4523.
+ * Date: 2020/12/01 20:36.
+ * Mail: alanwang4523@gmail.com
+ */
+public final class G711Codec implements WavCodec {
+    private static final int SIGN_BIT = 0x80;
+    private static final int QUANT_MASK = 0x0F;
+    private static final int SEG_SHIFT = 4;
+    private static final int SEG_MASK = 0x70;
+    private static final int ULAW_BIAS = 0x84;
+    private static final int ULAW_CLIP = 8159;
+    private static final int[] SEG_ULAW_END = {0x3F, 0x7F, 0xFF, 0x1FF, 0x3FF, 0x7FF, 0xFFF, 0x1FFF};
+    private static final int[] SEG_ALAW_END = {0x1F, 0x3F, 0x7F, 0xFF, 0x1FF, 0x3FF, 0x7FF, 0xFFF};
+
+    private static final byte[] ULAW_ENCODE_TABLE = new byte[1 << 14];
+    private static final byte[] ALAW_ENCODE_TABLE = new byte[1 << 13];
+    private static final short[] ULAW_DECODE_TABLE = new short[256];
+    private static final short[] ALAW_DECODE_TABLE = new short[256];
+
+    static {
+        for (int i = 0; i < ULAW_ENCODE_TABLE.length; i++) {
+            // 下标为 14 bit 有符号数的补码
+            ULAW_ENCODE_TABLE[i] = (byte) linearToULaw((short) (i << 2));
+        }
+        for (int i = 0; i < ALAW_ENCODE_TABLE.length; i++) {
+            ALAW_ENCODE_TABLE[i] = (byte) linearToALaw((short) (i << 3));
+        }
+        for (int i = 0; i < 256; i++) {
+            ULAW_DECODE_TABLE[i] = (short) uLawToLinear(i);
+            ALAW_DECODE_TABLE[i] = (short) aLawToLinear(i);
+        }
+    }
+
+    private final int mChannelCount;
+    private final boolean isALaw;
+
+    /**
+     * @param channelCount 通道数
+     * @param isALaw true 为 A-law，false 为 µ-law
+     */
+    public G711Codec(int channelCount, boolean isALaw) {
+        if (channelCount <= 0) {
+            throw new IllegalArgumentException("The channel count must be greater than 0!");
+        }
+        mChannelCount = channelCount;
+        this.isALaw = isALaw;
+    }
+
+    @Override
+    public int getBlockAlign() {
+        return mChannelCount;
+    }
+
+    @Override
+    public int getFramesPerBlock() {
+        return 1;
+    }
+
+    @Override
+    public void encode(byte[] pcm, int pcmOffset, byte[] out, int outOffset, int blockCount) {
+        int sampleCount = blockCount * mChannelCount;
+        int pos = pcmOffset;
+        if (isALaw) {
+            for (int i = 0; i < sampleCount; i++) {
+                int sample = (pcm[pos] & 0xFF) | (pcm[pos + 1] << 8);
+                out[outOffset + i] = ALAW_ENCODE_TABLE[(sample >> 3) & 0x1FFF];
+                pos += 2;
+            }
+        } else {
+            for (int i = 0; i < sampleCount; i++) {
+                int sample = (pcm[pos] & 0xFF) | (pcm[pos + 1] << 8);
+                out[outOffset + i] = ULAW_ENCODE_TABLE[(sample >> 2) & 0x3FFF];
+                pos += 2;
+            }
+        }
+    }
+
+    @Override
+    public int decode(byte[] in, int inOffset, int inLen, byte[] pcm, int pcmOffset) {
+        int frames = inLen / mChannelCount;
+        int sampleCount = frames * mChannelCount;
+        short[] table = isALaw ? ALAW_DECODE_TABLE : ULAW_DECODE_TABLE;
+        int pos = pcmOffset;
+        for (int i = 0; i < sampleCount; i++) {
+            short sample = table[in[inOffset + i] & 0xFF];
+            pcm[pos++] = (byte) sample;
+            pcm[pos++] = (byte) (sample >> 8);
+        }
+        return frames;
+    }
+
+    private static int searchSegment(int value, int[] segmentEnds) {
+        for (int i = 0; i < segmentEnds.length; i++) {
+            if (value <= segmentEnds[i]) {
+                return i;
+            }
+        }
+        return segmentEnds.length;
+    }
+
+    private static int linearToULaw(short pcm) {
+        int value = pcm >> 2;
+        int mask;
+        if (value < 0) {
+            value = -value;
+            mask = 0x7F;
+        } else {
+            mask = 0xFF;
+        }
+        if (value > ULAW_CLIP) {
+            value = ULAW_CLIP;
+        }
+        value += ULAW_BIAS >> 2;
+        int segment = searchSegment(value, SEG_ULAW_END);
+        if (segment >= 8) {
+            return 0x7F ^ mask;
+        }
+        int uLaw = (segment << 4) | ((value >> (segment + 1)) & 0xF);
+        return (uLaw ^ mask) & 0xFF;
+    }
+
+    private static int uLawToLinear(int uLaw) {
+        uLaw = ~uLaw;
+        int t = ((uLaw & QUANT_MASK) << 3) + ULAW_BIAS;
+        t <<= (uLaw & SEG_MASK) >> SEG_SHIFT;
+        return (uLaw & SIGN_BIT) != 0 ? ULAW_BIAS - t : t - ULAW_BIAS;
+    }
+
+    private static int linearToALaw(short pcm) {
+        int value = pcm >> 3;
+        int mask;
+        if (value >= 0) {
+            mask = 0xD5;
+        } else {
+            mask = 0x55;
+            value = -value - 1;
+        }
+        int segment = searchSegment(value, SEG_ALAW_END);
+        if (segment >= 8) {
+            return 0x7F ^ mask;
+        }
+        int aLaw = segment << SEG_SHIFT;
+        if (segment < 2) {
+            aLaw |= (value >> 1) & QUANT_MASK;
+        } else {
+            aLaw |= (value >> segment) & QUANT_MASK;
+        }
+        return (aLaw ^ mask) & 0xFF;
+    }
+
+    private static int aLawToLinear(int aLaw) {
+        aLaw ^= 0x55;
+        int t = (aLaw & QUANT_MASK) << 4;
+        int segment = (aLaw & SEG_MASK) >> SEG_SHIFT;
+        switch (segment) {
+            case 0:
+                t += 8;
+                break;
+            case 1:
+                t += 0x108;
+                break;
+            default:
+                t += 0x108;
+                t <<= segment - 1;
+                break;
+        }
+        return (aLaw & SIGN_BIT) != 0 ? t : -t;
+    }
+}
@@ -0,0 +1,207 @@
+/*
+ * Copyright (c) 2019-present AlanWang4523 <alanwang4523@gmail.com>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.alan.audioio.audio.codec;
+
+/**
+ * IMA-ADPCM 编解码器（wav FormatTag 0x11，即 Microsoft IMA ADPCM），每个采样点 4 bit，压缩比约 4:1
+ * 块结构：每个声道 4 字节块头（16 bit 初始采样点、8 bit 步长索引、1 字节保留），之后每个声道轮流 4 字节（8 个采样点，
+ * 低 4 位在前）；编码时每个块的初始采样点取该块第一个采样点的实际值，步长索引延续上一个块
+ * 编码器保存跨块的步长索引，因此一个实例只能用于一路连续的数据流
+ *
+ * Author: AlanWang4523.
+ * Date: 2020/12/01 21:25.
+ * Mail: alanwang4523@gmail.com
+ */
+public final class ImaAdpcmCodec implements WavCodec {
+    private static final int[] STEP_TABLE = {
+            7, 8, 9, 10, 11, 12, 13, 14, 16, 17,
+            19, 21, 23, 25, 28, 31, 34, 37, 41, 45,
+            50, 55, 60, 66, 73, 80, 88, 97, 107, 118,
+            130, 143, 157, 173, 190, 209, 230, 253, 279, 307,
+            337, 371, 408, 449, 494, 544, 598, 658, 724, 796,
+            876, 963, 1060, 1166, 1282, 1411, 1552, 1707, 1878, 2066,
+            2272, 2499, 2749, 3024, 3327, 3660, 4026, 4428, 4871, 5358,
+            5894, 6484, 7132, 7845, 8630, 9493, 10442, 11487, 12635, 13899,
+            15289, 16818, 18500, 20350, 22385, 24623, 27086, 29794, 32767};
+    private static final int[] INDEX_TABLE = {-1, -1, -1, -1, 2, 4, 6, 8, -1, -1, -1, -1, 2, 4, 6, 8};
+    private static final int MAX_STEP_INDEX = STEP_TABLE.length - 1;
+
+    private final int mChannelCount;
+    private final int mBlockAlign;
+    private final int mFramesPerBlock;
+    private final int[] mStepIndex;
+
+    /**
+     * @param channelCount 通道数
+     * @param blockAlign 块大小，单位：字节，必须是 4 * channelCount 的整数倍且大于 4 * channelCount
+     */
+    public ImaAdpcmCodec(int channelCount, int blockAlign) {
+        if (channelCount <= 0 || blockAlign <= 4 * channelCount || blockAlign % (4 * channelCount) != 0) {
+            throw new IllegalArgumentException("The block align of ima adpcm must be a multiple of 4 * channelCount!");
+        }
+        mChannelCount = channelCount;
+        mBlockAlign = blockAlign;
+        mFramesPerBlock = getFramesPerBlock(channelCount, blockAlign);
+        mStepIndex = new int[channelCount];
+    }
+
+    /**
+     * 计算每个块包含的帧数：块头中的 1 个采样点加上每字节 2 个采样点
+     * @param channelCount 通道数
+     * @param blockAlign 块大小，单位：字节
+     * @return 帧数
+     */
+    public static int getFramesPerBlock(int channelCount, int blockAlign) {
+        return (blockAlign - 4 * channelCount) * 2 / channelCount + 1;
+    }
+
+    /**
+     * 根据采样率获取常用的块大小：11025Hz 及以下为 256 字节，22050Hz 及以下为 512 字节，其他为 1024 字节，再乘以通道数
+     * @param sampleRate 采样率
+     * @param channelCount 通道数
+     * @return 块大小，单位：字节
+     */
+    public static int getDefaultBlockAlign(int sampleRate, int channelCount) {
+        int blockSize = sampleRate <= 11025 ? 256 : (sampleRate <= 22050 ? 512 : 1024);
+        return blockSize * channelCount;
+    }
+
+    @Override
+    public int getBlockAlign() {
+        return mBlockAlign;
+    }
+
+    @Override
+    public int getFramesPerBlock() {
+        return mFramesPerBlock;
+    }
+
+    @Override
+    public void encode(byte[] pcm, int pcmOffset, byte[] out, int outOffset, int blockCount) {
+        int channelCount = mChannelCount;
+        int frameSize = channelCount * 2;
+        for (int block = 0; block < blockCount; block++) {
+            int blockPcm = pcmOffset + block * mFramesPerBlock * frameSize;
+            int blockOut = outOffset + block * mBlockAlign;
+            for (int ch = 0; ch < channelCount; ch++) {
+                int samplePos = blockPcm + ch * 2;
+                int headerPos = blockOut + ch * 4;
+                int predictor = (pcm[samplePos] & 0xFF) | (pcm[samplePos + 1] << 8);
+                int stepIndex = mStepIndex[ch];
+                out[headerPos] = pcm[samplePos];
+                out[headerPos + 1] = pcm[samplePos + 1];
+                out[headerPos + 2] = (byte) stepIndex;
+                out[headerPos + 3] = 0;
+
+                // 每个声道的数据按 8 个采样点（4 字节）一组，与其他声道交替排列
+                for (int group = 0; group * 8 + 1 < mFramesPerBlock; group++) {
+                    int groupOut = blockOut + 4 * channelCount * (group + 1) + ch * 4;
+                    for (int i = 0; i < 8; i++) {
+                        int pos = samplePos + (1 + group * 8 + i) * frameSize;
+                        int sample = (pcm[pos] & 0xFF) | (pcm[pos + 1] << 8);
+
+                        int step = STEP_TABLE[stepIndex];
+                        int delta = sample - predictor;
+                        int nibble = 0;
+                        if (delta < 0) {
+                            nibble = 8;
+                            delta = -delta;
+                        }
+                        int diff = step >> 3;
+                        if (delta >= step) {
+                            nibble |= 4;
+                            delta -= step;
+                            diff += step;
+                        }
+                        step >>= 1;
+                        if (delta >= step) {
+                            nibble |= 2;
+                            delta -= step;
+                            diff += step;
+                        }
+                        step >>= 1;
+                        if (delta >= step) {
+                            nibble |= 1;
+                            diff += step;
+                        }
+                        // 按解码器的方式更新预测值，保证编解码两端同步
+                        predictor += (nibble & 8) != 0 ? -diff : diff;
+                        predictor = Math.max(-32768, Math.min(32767, predictor));
+                        stepIndex = Math.max(0, Math.min(MAX_STEP_INDEX, stepIndex + INDEX_TABLE[nibble]));
+
+                        int outPos = groupOut + (i >> 1);
+                        if ((i & 1) == 0) {
+                            out[outPos] = (byte) nibble;
+                        } else {
+                            out[outPos] |= (byte) (nibble << 4);
+                        }
+                    }
+                }
+                mStepIndex[ch] = stepIndex;
+            }
+        }
+    }
+
+    @Override
+    public int decode(byte[] in, int inOffset, int inLen, byte[] pcm, int pcmOffset) {
+        int channelCount = mChannelCount;
+        int frameSize = channelCount * 2;
+        int headerSize = 4 * channelCount;
+        int totalFrames = 0;
+        int end = inOffset + inLen;
+        for (int blockIn = inOffset; blockIn + headerSize <= end; blockIn += mBlockAlign) {
+            // 结尾不足一个块时只解码其中完整的组
+            int blockLen = Math.min(mBlockAlign, end - blockIn);
+            int groupCount = (blockLen - headerSize) / headerSize;
+            int blockPcm = pcmOffset + totalFrames * frameSize;
+            for (int ch = 0; ch < channelCount; ch++) {
+                int headerPos = blockIn + ch * 4;
+                int predictor = (short) ((in[headerPos] & 0xFF) | (in[headerPos + 1] << 8));
+                int stepIndex = Math.max(0, Math.min(MAX_STEP_INDEX, in[headerPos + 2] & 0xFF));
+                int samplePos = blockPcm + ch * 2;
+                pcm[samplePos] = (byte) predictor;
+                pcm[samplePos + 1] = (byte) (predictor >> 8);
+
+                for (int group = 0; group < groupCount; group++) {
+                    int groupIn = blockIn + headerSize * (group + 1) + ch * 4;
+                    for (int i = 0; i < 8; i++) {
+                        int nibble = (in[groupIn + (i >> 1)] >> ((i & 1) << 2)) & 0x0F;
+                        int step = STEP_TABLE[stepIndex];
+                        int diff = step >> 3;
+                        if ((nibble & 4) != 0) {
+                            diff += step;
+                        }
+                        if ((nibble & 2) != 0) {
+                            diff += step >> 1;
+                        }
+                        if ((nibble & 1) != 0) {
+                            diff += step >> 2;
+                        }
+                        predictor += (nibble & 8) != 0 ? -diff : diff;
+                        predictor = Math.max(-32768, Math.min(32767, predictor));
+                        stepIndex = Math.max(0, Math.min(MAX_STEP_INDEX, stepIndex + INDEX_TABLE[nibble]));
+
+                        int pos = samplePos + (1 + group * 8 + i) * frameSize;
+                        pcm[pos] = (byte) predictor;
+                        pcm[pos + 1] = (byte) (predictor >> 8);
+                    }
+                }
+            }
+            totalFrames += 1 + groupCount * 8;
+        }
+        return totalFrames;
+    }
+}
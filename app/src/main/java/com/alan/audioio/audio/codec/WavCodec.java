@@ -0,0 +1,60 @@
+/*
+ * Copyright (c) 2019-present AlanWang4523 <alanwang4523@gmail.com>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.alan.audioio.audio.codec;
+
+/**
+ * wav 文件中压缩格式的编解码器，PCM 一侧固定为交织的 16 bit 小端数据
+ * 数据以块为单位编解码：一个块包含 {@link #getFramesPerBlock()} 帧 PCM，编码后为 {@link #getBlockAlign()} 字节
+ * 实现类不在编解码过程中分配内存，可以直接在音频回调线程中使用
+ *
+ * Author: AlanWang4523.
+ * Date: 2020/12/01 20:10.
+ * Mail: alanwang4523@gmail.com
+ */
+public interface WavCodec {
+    /**
+     * 获取编码后每个块的大小，即 wav 文件头中的 BlockAlign
+     * @return 块大小，单位：字节
+     */
+    int getBlockAlign();
+
+    /**
+     * 获取每个块包含的帧数（每个声道的采样点数）
+     * @return 帧数
+     */
+    int getFramesPerBlock();
+
+    /**
+     * 编码 blockCount 个完整的块
+     * @param pcm 16 bit 交织 PCM 数据
+     * @param pcmOffset PCM 数据的起始位置
+     * @param out 编码后的数据存放的位置，长度至少为 blockCount * {@link #getBlockAlign()}
+     * @param outOffset 编码后数据的起始位置
+     * @param blockCount 块数
+     */
+    void encode(byte[] pcm, int pcmOffset, byte[] out, int outOffset, int blockCount);
+
+    /**
+     * 解码 inLen 字节的编码数据，结尾不足一个块的部分按照该格式的规则尽量解码
+     * @param in 编码数据
+     * @param inOffset 编码数据的起始位置
+     * @param inLen 编码数据的长度，单位：字节
+     * @param pcm 解码后的 16 bit 交织 PCM 数据存放的位置
+     * @param pcmOffset PCM 数据的起始位置
+     * @return 解码得到的帧数
+     */
+    int decode(byte[] in, int inOffset, int inLen, byte[] pcm, int pcmOffset);
+}
@@ -0,0 +1,249 @@
+/*
+ * Copyright (c) 2019-present AlanWang4523 <alanwang4523@gmail.com>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.alan.audioio.audio.flac;
+
+import java.io.EOFException;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+
+/**
+ * 按位读取的流式缓冲区，高位在前（FLAC 的位序），从 FileChannel 中按块读取数据
+ * 通过 {@link #mark()} 标记帧的起始位置后，缓冲区会保留从标记位置开始的全部数据，用于计算整帧的 CRC
+ *
+ * Author: AlanWang4523.
+ * Date: 2020/11/29 11:05.
+ * Mail: alanwang4523@gmail.com
+ */
+final class BitReader {
+    private static final int DEFAULT_BUFFER_SIZE = 64 * 1024;
+
+    private final FileChannel mChannel;
+    private byte[] mBuffer;
+    private ByteBuffer mByteBuffer;
+    /**
+     * mBuffer 中有效数据的长度
+     */
+    private int mLimit;
+    /**
+     * 下一个要装入 mCache 的字节在 mBuffer 中的位置
+     */
+    private int mPosition;
+    /**
+     * mBuffer[0] 在文件中的位置
+     */
+    private long mBufferStart;
+    private long mCache;
+    private int mCacheBits;
+    private int mMark = -1;
+
+    BitReader(FileChannel channel, long position) {
+        mChannel = channel;
+        mBuffer = new byte[DEFAULT_BUFFER_SIZE];
+        mByteBuffer = ByteBuffer.wrap(mBuffer);
+        mBufferStart = position;
+    }
+
+    /**
+     * 读取 bits 位无符号数，bits 为 32 时返回原始的 32 位
+     * @param bits 位数，0 ~ 32
+     */
+    int readBits(int bits) throws IOException {
+        if (bits == 0) {
+            return 0;
+        }
+        while (mCacheBits < bits) {
+            if (mPosition == mLimit && !fill()) {
+                throw new EOFException("Unexpected end of flac stream.");
+            }
+            mCache = (mCache << 8) | (mBuffer[mPosition++] & 0xFF);
+            mCacheBits += 8;
+        }
+        mCacheBits -= bits;
+        return (int) ((mCache >>> mCacheBits) & ((1L << bits) - 1));
+    }
+
+    /**
+     * 读取 bits 位有符号数（二进制补码）
+     */
+    int readSigned(int bits) throws IOException {
+        if (bits == 0) {
+            return 0;
+        }
+        int value = readBits(bits);
+        return bits == 32 ? value : (value << (32 - bits)) >> (32 - bits);
+    }
+
+    long readLong(int bits) throws IOException {
+        if (bits <= 32) {
+            return readBits(bits) & 0xFFFFFFFFL;
+        }
+        long high = readBits(bits - 32) & 0xFFFFFFFFL;
+        return (high << 32) | (readBits(32) & 0xFFFFFFFFL);
+    }
+
+    /**
+     * 读取一元编码：连续 0 的个数，并跳过结尾的 1
+     */
+    int readUnary() throws IOException {
+        int count = 0;
+        while (true) {
+            if (mCacheBits == 0) {
+                if (mPosition == mLimit && !fill()) {
+                    throw new EOFException("Unexpected end of flac stream.");
+                }
+                mCache = mBuffer[mPosition++] & 0xFF;
+                mCacheBits = 8;
+            }
+            long bits = mCache & ((1L << mCacheBits) - 1);
+            if (bits == 0) {
+                count += mCacheBits;
+                mCacheBits = 0;
+                continue;
+            }
+            int highestOne = 64 - Long.numberOfLeadingZeros(bits);
+            count += mCacheBits - highestOne;
+            mCacheBits = highestOne - 1;
+            return count;
+        }
+    }
+
+    /**
+     * 读取一个 Rice 编码的有符号数
+     */
+    int readRice(int riceParam) throws IOException {
+        int folded = (readUnary() << riceParam) | readBits(riceParam);
+        return (folded >>> 1) ^ -(folded & 1);
+    }
+
+    /**
+     * 读取 FLAC 帧头中 UTF-8 变长格式的数
+     */
+    long readUtf8() throws IOException {
+        int first = readBits(8);
+        if ((first & 0x80) == 0) {
+            return first;
+        }
+        int byteCount = Integer.numberOfLeadingZeros(~(first << 24));
+        if (byteCount < 2 || byteCount > 7) {
+            throw new IOException("Invalid utf-8 coded number in flac frame header.");
+        }
+        long value = first & (0x7F >> byteCount);
+        for (int i = 1; i < byteCount; i++) {
+            int next = readBits(8);
+            if ((next & 0xC0) != 0x80) {
+                throw new IOException("Invalid utf-8 coded number in flac frame header.");
+            }
+            value = (value << 6) | (next & 0x3F);
+        }
+        return value;
+    }
+
+    void alignToByte() {
+        mCacheBits -= mCacheBits & 7;
+    }
+
+    /**
+     * 是否还有数据可读，只在字节边界上调用
+     */
+    boolean hasRemaining() throws IOException {
+        return mCacheBits > 0 || mPosition < mLimit || fill();
+    }
+
+    /**
+     * 获取当前在文件中的位置，只在字节边界上调用
+     */
+    long getBytePosition() {
+        return mBufferStart + mPosition - (mCacheBits >> 3);
+    }
+
+    /**
+     * 标记当前位置（字节边界），之后读取的数据在 {@link #clearMark()} 之前不会被丢弃
+     */
+    void mark() {
+        mMark = mPosition - (mCacheBits >> 3);
+    }
+
+    void clearMark() {
+        mMark = -1;
+    }
+
+    /**
+     * 计算从标记位置到当前位置（字节边界）之间数据的 CRC-8
+     */
+    int crc8SinceMark() {
+        return FlacCrc.crc8(mBuffer, mMark, mPosition - (mCacheBits >> 3) - mMark);
+    }
+
+    /**
+     * 计算从标记位置到当前位置（字节边界）之间数据的 CRC-16
+     */
+    int crc16SinceMark() {
+        return FlacCrc.crc16(mBuffer, mMark, mPosition - (mCacheBits >> 3) - mMark);
+    }
+
+    /**
+     * 跳过 len 个字节，只在字节边界上调用
+     */
+    void skipBytes(long len) throws IOException {
+        seek(getBytePosition() + len);
+    }
+
+    /**
+     * 跳转到文件中的 position 位置，已缓存的数据中包含该位置时不需要重新读取
+     */
+    void seek(long position) throws IOException {
+        mCacheBits = 0;
+        mMark = -1;
+        if (position >= mBufferStart && position <= mBufferStart + mLimit) {
+            mPosition = (int) (position - mBufferStart);
+            return;
+        }
+        mBufferStart = position;
+        mPosition = 0;
+        mLimit = 0;
+    }
+
+    /**
+     * 读取更多数据到缓冲区，丢弃标记位置（没有标记时为当前位置）之前的数据，缓冲区满时扩容
+     * @return 是否读到了数据
+     */
+    private boolean fill() throws IOException {
+        int keepFrom = mMark >= 0 ? mMark : mPosition;
+        if (keepFrom > 0) {
+            System.arraycopy(mBuffer, keepFrom, mBuffer, 0, mLimit - keepFrom);
+            mLimit -= keepFrom;
+            mPosition -= keepFrom;
+            mBufferStart += keepFrom;
+            if (mMark >= 0) {
+                mMark = 0;
+            }
+        }
+        if (mLimit == mBuffer.length) {
+            byte[] newBuffer = new byte[mBuffer.length * 2];
+            System.arraycopy(mBuffer, 0, newBuffer, 0, mLimit);
+            mBuffer = newBuffer;
+            mByteBuffer = ByteBuffer.wrap(mBuffer);
+        }
+        mByteBuffer.limit(mBuffer.length).position(mLimit);
+        int readLen = mChannel.read(mByteBuffer, mBufferStart + mLimit);
+        if (readLen <= 0) {
+            return false;
+        }
+        mLimit += readLen;
+        return true;
+    }
+}
@@ -0,0 +1,154 @@
+/*
+ * Copyright (c) 2019-present AlanWang4523 <alanwang4523@gmail.com>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.alan.audioio.audio.flac;
+
+import java.util.Arrays;
+
+/**
+ * 按位写入的缓冲区，高位在前（FLAC 的位序），用于编码一个 FLAC 帧，容量不足时自动扩容
+ *
+ * Author: AlanWang4523.
+ * Date: 2020/11/29 10:20.
+ * Mail: alanwang4523@gmail.com
+ */
+final class BitWriter {
+    private byte[] mBuffer;
+    private int mBytePosition;
+    /**
+     * 还没有凑满一个字节的位，低 mCacheBits 位有效
+     */
+    private long mCache;
+    private int mCacheBits;
+
+    BitWriter(int initialCapacity) {
+        mBuffer = new byte[Math.max(16, initialCapacity)];
+    }
+
+    void reset() {
+        mBytePosition = 0;
+        mCache = 0;
+        mCacheBits = 0;
+    }
+
+    /**
+     * 写入 value 的低 bits 位
+     * @param value 要写入的值
+     * @param bits 位数，0 ~ 32
+     */
+    void writeBits(int value, int bits) {
+        if (bits == 0) {
+            return;
+        }
+        mCache = (mCache << bits) | (value & ((1L << bits) - 1));
+        mCacheBits += bits;
+        if (mCacheBits >= 8) {
+            ensureCapacity(5);
+            do {
+                mCacheBits -= 8;
+                mBuffer[mBytePosition++] = (byte) (mCache >>> mCacheBits);
+            } while (mCacheBits >= 8);
+        }
+    }
+
+    /**
+     * 写入有符号数的低 bits 位（二进制补码）
+     */
+    void writeSigned(int value, int bits) {
+        writeBits(value, bits);
+    }
+
+    /**
+     * 一元编码：value 个 0 后跟一个 1
+     */
+    void writeUnary(int value) {
+        while (value >= 32) {
+            writeBits(0, 32);
+            value -= 32;
+        }
+        writeBits(1, value + 1);
+    }
+
+    /**
+     * Rice 编码一个有符号数：先折叠为无符号数，高位部分一元编码，低 riceParam 位直接写入
+     */
+    void writeRice(int value, int riceParam) {
+        int folded = (value << 1) ^ (value >> 31);
+        int quotient = folded >>> riceParam;
+        if (quotient + 1 + riceParam <= 32) {
+            writeBits((1 << riceParam) | (folded & ((1 << riceParam) - 1)), quotient + 1 + riceParam);
+        } else {
+            writeUnary(quotient);
+            writeBits(folded, riceParam);
+        }
+    }
+
+    /**
+     * 以 FLAC 帧头中的 UTF-8 变长格式写入帧序号或采样点序号，最大 36 bit
+     */
+    void writeUtf8(long value) {
+        if (value < 0x80) {
+            writeBits((int) value, 8);
+            return;
+        }
+        int byteCount;
+        if (value < 0x800) {
+            byteCount = 2;
+        } else if (value < 0x10000) {
+            byteCount = 3;
+        } else if (value < 0x200000) {
+            byteCount = 4;
+        } else if (value < 0x4000000) {
+            byteCount = 5;
+        } else if (value < 0x80000000L) {
+            byteCount = 6;
+        } else {
+            byteCount = 7;
+        }
+        int shift = (byteCount - 1) * 6;
+        int prefix = (0xFF00 >> byteCount) & 0xFF;
+        writeBits(prefix | (int) (value >>> shift), 8);
+        while (shift > 0) {
+            shift -= 6;
+            writeBits(0x80 | (int) ((value >>> shift) & 0x3F), 8);
+        }
+    }
+
+    /**
+     * 补 0 到字节边界
+     */
+    void alignToByte() {
+        if (mCacheBits > 0) {
+            writeBits(0, 8 - mCacheBits);
+        }
+    }
+
+    /**
+     * 获取已写满的字节数，对齐到字节边界后即为全部数据的长度
+     */
+    int getBytePosition() {
+        return mBytePosition;
+    }
+
+    byte[] getBuffer() {
+        return mBuffer;
+    }
+
+    private void ensureCapacity(int extra) {
+        if (mBytePosition + extra > mBuffer.length) {
+            mBuffer = Arrays.copyOf(mBuffer, Math.max(mBuffer.length * 2, mBytePosition + extra));
+        }
+    }
+}
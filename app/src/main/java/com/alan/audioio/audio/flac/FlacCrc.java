@@ -0,0 +1,66 @@
+/*
+ * Copyright (c) 2019-present AlanWang4523 <alanwang4523@gmail.com>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.alan.audioio.audio.flac;
+
+/**
+ * FLAC 使用的 CRC 校验：帧头为 CRC-8（多项式 x^8 + x^2 + x^1 + x^0），整帧为 CRC-16（多项式 x^16 + x^15 + x^2 + x^0）
+ *
+ * Author: AlanWang4523.
+ * Date: 2020/11/29 10:12.
+ * Mail: alanwang4523@gmail.com
+ */
+final class FlacCrc {
+    private static final int[] CRC8_TABLE = new int[256];
+    private static final int[] CRC16_TABLE = new int[256];
+
+    static {
+        for (int i = 0; i < 256; i++) {
+            int crc8 = i;
+            int crc16 = i << 8;
+            for (int j = 0; j < 8; j++) {
+                crc8 = (crc8 & 0x80) != 0 ? (crc8 << 1) ^ 0x07 : crc8 << 1;
+                crc16 = (crc16 & 0x8000) != 0 ? (crc16 << 1) ^ 0x8005 : crc16 << 1;
+            }
+            CRC8_TABLE[i] = crc8 & 0xFF;
+            CRC16_TABLE[i] = crc16 & 0xFFFF;
+        }
+    }
+
+    private FlacCrc() {
+    }
+
+    /**
+     * 计算 data 中 [offset, offset + len) 的 CRC-8
+     */
+    static int crc8(byte[] data, int offset, int len) {
+        int crc = 0;
+        for (int i = offset, end = offset + len; i < end; i++) {
+            crc = CRC8_TABLE[crc ^ (data[i] & 0xFF)];
+        }
+        return crc;
+    }
+
+    /**
+     * 计算 data 中 [offset, offset + len) 的 CRC-16
+     */
+    static int crc16(byte[] data, int offset, int len) {
+        int crc = 0;
+        for (int i = offset, end = offset + len; i < end; i++) {
+            crc = ((crc << 8) & 0xFFFF) ^ CRC16_TABLE[(crc >>> 8) ^ (data[i] & 0xFF)];
+        }
+        return crc;
+    }
+}
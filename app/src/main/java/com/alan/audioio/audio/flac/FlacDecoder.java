@@ -0,0 +1,481 @@
+/*
+ * Copyright (c) 2019-present AlanWang4523 <alanwang4523@gmail.com>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.alan.audioio.audio.flac;
+
+import java.io.IOException;
+import java.nio.channels.FileChannel;
+
+/**
+ * FLAC 流式解码器，解析 STREAMINFO 和 SEEKTABLE，逐帧解码到各通道的 int 数组中
+ * 支持 FLAC 规范中的全部子帧类型、wasted bits、两种 Rice 编码方式（含转义分区）和全部立体声组合，
+ * 帧头 CRC-8 和整帧 CRC-16 校验失败时抛出 IOException
+ *
+ * Author: AlanWang4523.
+ * Date: 2020/11/29 19:46.
+ * Mail: alanwang4523@gmail.com
+ */
+final class FlacDecoder {
+    private static final int MAGIC = 0x664C6143; // "fLaC"
+    private static final int ID3_MAGIC = 0x494433; // "ID3"
+    private static final int BLOCK_TYPE_STREAM_INFO = 0;
+    private static final int BLOCK_TYPE_SEEK_TABLE = 3;
+    private static final int SEEK_POINT_SIZE = 18;
+    private static final long PLACEHOLDER_SEEK_POINT = -1L;
+
+    private final BitReader mReader;
+
+    private int mMaxBlockSize;
+    private int mSampleRate;
+    private int mChannelCount;
+    private int mBitsPerSample;
+    private long mTotalSamples;
+    private long[] mSeekPointSamples = new long[0];
+    private long[] mSeekPointOffsets = new long[0];
+    private long mFirstFrameOffset;
+
+    private final int[] mQlpCoefs = new int[32];
+    private int[][] mChannels;
+    private long mFrameStartSample;
+    private int mFrameBlockSize;
+
+    /**
+     * 创建解码器并读取元数据，之后即可逐帧解码
+     * @param channel 文件通道
+     * @throws IOException 不是 FLAC 文件或元数据不完整
+     */
+    FlacDecoder(FileChannel channel) throws IOException {
+        mReader = new BitReader(channel, 0);
+        readMetadata();
+        mChannels = new int[mChannelCount][Math.max(mMaxBlockSize, 16)];
+    }
+
+    int getSampleRate() {
+        return mSampleRate;
+    }
+
+    int getChannelCount() {
+        return mChannelCount;
+    }
+
+    int getBitsPerSample() {
+        return mBitsPerSample;
+    }
+
+    int getMaxBlockSize() {
+        return mMaxBlockSize;
+    }
+
+    /**
+     * 获取总帧数（每个声道的采样点数），STREAMINFO 中未记录时返回 0
+     */
+    long getTotalSamples() {
+        return mTotalSamples;
+    }
+
+    long getFirstFrameOffset() {
+        return mFirstFrameOffset;
+    }
+
+    /**
+     * 获取最近一次解码的各通道数据
+     */
+    int[][] getChannels() {
+        return mChannels;
+    }
+
+    /**
+     * 获取最近一次解码的帧中第一个采样点的序号
+     */
+    long getFrameStartSample() {
+        return mFrameStartSample;
+    }
+
+    int getFrameBlockSize() {
+        return mFrameBlockSize;
+    }
+
+    /**
+     * 定位到不晚于 targetSample 的最近一个 seek point 所在的帧，没有合适的 seek point 时回到第一帧
+     * @param targetSample 目标采样点序号
+     * @return 定位到的帧的第一个采样点序号
+     */
+    long seekToSeekPoint(long targetSample) throws IOException {
+        int index = findSeekPoint(targetSample);
+        mReader.seek(mFirstFrameOffset + (index >= 0 ? mSeekPointOffsets[index] : 0));
+        return index >= 0 ? mSeekPointSamples[index] : 0;
+    }
+
+    /**
+     * 获取不晚于 targetSample 的最近一个 seek point 的采样点序号，没有时返回 0
+     */
+    long getSeekPointSample(long targetSample) {
+        int index = findSeekPoint(targetSample);
+        return index >= 0 ? mSeekPointSamples[index] : 0;
+    }
+
+    /**
+     * 二分查找不晚于 targetSample 的最后一个 seek point，占位的 seek point 排在最后，视为无穷大
+     */
+    private int findSeekPoint(long targetSample) {
+        int low = 0;
+        int high = mSeekPointSamples.length - 1;
+        int result = -1;
+        while (low <= high) {
+            int mid = (low + high) >>> 1;
+            long pointSample = mSeekPointSamples[mid];
+            if (pointSample != PLACEHOLDER_SEEK_POINT && pointSample <= targetSample) {
+                result = mid;
+                low = mid + 1;
+            } else {
+                high = mid - 1;
+            }
+        }
+        return result;
+    }
+
+    /**
+     * 解码下一帧
+     * @return 帧中每个声道的采样点数，没有更多帧时返回 -1
+     * @throws IOException 数据损坏或格式不支持
+     */
+    int decodeFrame() throws IOException {
+        BitReader reader = mReader;
+        reader.alignToByte();
+        if (!reader.hasRemaining()) {
+            return -1;
+        }
+        long frameOffset = reader.getBytePosition();
+        reader.mark();
+        if (reader.readBits(15) != 0x7FFC) {
+            throw new IOException("Lost flac frame sync at " + frameOffset);
+        }
+        boolean isVariableBlockSize = reader.readBits(1) == 1;
+        int blockSizeCode = reader.readBits(4);
+        int sampleRateCode = reader.readBits(4);
+        int channelAssignment = reader.readBits(4);
+        int sampleSizeCode = reader.readBits(3);
+        reader.readBits(1);
+        long number = reader.readUtf8();
+
+        int blockSize;
+        if (blockSizeCode == 1) {
+            blockSize = 192;
+        } else if (blockSizeCode >= 2 && blockSizeCode <= 5) {
+            blockSize = 576 << (blockSizeCode - 2);
+        } else if (blockSizeCode == 6) {
+            blockSize = reader.readBits(8) + 1;
+        } else if (blockSizeCode == 7) {
+            blockSize = reader.readBits(16) + 1;
+        } else if (blockSizeCode >= 8) {
+            blockSize = 256 << (blockSizeCode - 8);
+        } else {
+            throw new IOException("Reserved flac block size at " + frameOffset);
+        }
+        if (sampleRateCode == 12) {
+            reader.readBits(8);
+        } else if (sampleRateCode == 13 || sampleRateCode == 14) {
+            reader.readBits(16);
+        } else if (sampleRateCode == 15) {
+            throw new IOException("Invalid flac sample rate at " + frameOffset);
+        }
+
+        int bitsPerSample;
+        switch (sampleSizeCode) {
+            case 0:
+                bitsPerSample = mBitsPerSample;
+                break;
+            case 1:
+                bitsPerSample = 8;
+                break;
+            case 2:
+                bitsPerSample = 12;
+                break;
+            case 4:
+                bitsPerSample = 16;
+                break;
+            case 5:
+                bitsPerSample = 20;
+                break;
+            case 6:
+                bitsPerSample = 24;
+                break;
+            case 7:
+                bitsPerSample = 32;
+                break;
+            default:
+                throw new IOException("Reserved flac sample size at " + frameOffset);
+        }
+        int headerCrc = reader.crc8SinceMark();
+        if (reader.readBits(8) != headerCrc) {
+            throw new IOException("Flac frame header crc mismatch at " + frameOffset);
+        }
+
+        int channelCount = channelAssignment < 8 ? channelAssignment + 1 : 2;
+        if (channelAssignment > 10) {
+            throw new IOException("Reserved flac channel assignment at " + frameOffset);
+        }
+        if (channelCount != mChannelCount) {
+            throw new IOException("Flac frame channel count mismatch at " + frameOffset);
+        }
+        if (mChannels[0].length < blockSize) {
+            mChannels = new int[mChannelCount][blockSize];
+        }
+        for (int ch = 0; ch < channelCount; ch++) {
+            boolean isSide = (channelAssignment == 8 || channelAssignment == 10) && ch == 1
+                    || channelAssignment == 9 && ch == 0;
+            decodeSubframe(mChannels[ch], blockSize, bitsPerSample + (isSide ? 1 : 0));
+        }
+        reader.alignToByte();
+        int frameCrc = reader.crc16SinceMark();
+        reader.clearMark();
+        if (reader.readBits(16) != frameCrc) {
+            throw new IOException("Flac frame crc mismatch at " + frameOffset);
+        }
+        decorrelate(channelAssignment, blockSize);
+
+        mFrameStartSample = isVariableBlockSize ? number : number * mMaxBlockSize;
+        mFrameBlockSize = blockSize;
+        return blockSize;
+    }
+
+    private void decorrelate(int channelAssignment, int blockSize) {
+        if (channelAssignment < 8) {
+            return;
+        }
+        int[] ch0 = mChannels[0];
+        int[] ch1 = mChannels[1];
+        switch (channelAssignment) {
+            case 8:
+                // 左/差：right = left - side
+                for (int i = 0; i < blockSize; i++) {
+                    ch1[i] = ch0[i] - ch1[i];
+                }
+                break;
+            case 9:
+                // 差/右：left = side + right
+                for (int i = 0; i < blockSize; i++) {
+                    ch0[i] += ch1[i];
+                }
+                break;
+            default:
+                // 中/差
+                for (int i = 0; i < blockSize; i++) {
+                    int side = ch1[i];
+                    int mid = (ch0[i] << 1) | (side & 1);
+                    ch0[i] = (mid + side) >> 1;
+                    ch1[i] = (mid - side) >> 1;
+                }
+                break;
+        }
+    }
+
+    private void decodeSubframe(int[] out, int blockSize, int bps) throws IOException {
+        BitReader reader = mReader;
+        if (reader.readBits(1) != 0) {
+            throw new IOException("Invalid flac subframe padding.");
+        }
+        int type = reader.readBits(6);
+        int wastedBits = 0;
+        if (reader.readBits(1) == 1) {
+            wastedBits = reader.readUnary() + 1;
+            bps -= wastedBits;
+        }
+        if (bps <= 0 || bps > 32) {
+            throw new IOException("Unsupported flac subframe bits per sample: " + bps);
+        }
+        if (type == 0) {
+            int value = reader.readSigned(bps);
+            for (int i = 0; i < blockSize; i++) {
+                out[i] = value;
+            }
+        } else if (type == 1) {
+            for (int i = 0; i < blockSize; i++) {
+                out[i] = reader.readSigned(bps);
+            }
+        } else if (type >= 8 && type <= 12) {
+            int order = type - 8;
+            if (order > blockSize) {
+                throw new IOException("Invalid flac fixed predictor order.");
+            }
+            for (int i = 0; i < order; i++) {
+                out[i] = reader.readSigned(bps);
+            }
+            decodeResidual(out, blockSize, order);
+            restoreFixed(out, blockSize, order);
+        } else if (type >= 32) {
+            int order = (type & 0x1F) + 1;
+            if (order > blockSize) {
+                throw new IOException("Invalid flac lpc order.");
+            }
+            for (int i = 0; i < order; i++) {
+                out[i] = reader.readSigned(bps);
+            }
+            int precision = reader.readBits(4) + 1;
+            if (precision == 16) {
+                throw new IOException("Invalid flac qlp coefficient precision.");
+            }
+            int shift = reader.readSigned(5);
+            if (shift < 0) {
+                throw new IOException("Negative flac qlp shift is not supported.");
+            }
+            int[] coefs = mQlpCoefs;
+            for (int i = 0; i < order; i++) {
+                coefs[i] = reader.readSigned(precision);
+            }
+            decodeResidual(out, blockSize, order);
+            restoreLpc(out, blockSize, coefs, order, shift);
+        } else {
+            throw new IOException("Reserved flac subframe type: " + type);
+        }
+        if (wastedBits > 0) {
+            for (int i = 0; i < blockSize; i++) {
+                out[i] <<= wastedBits;
+            }
+        }
+    }
+
+    private void decodeResidual(int[] out, int blockSize, int order) throws IOException {
+        BitReader reader = mReader;
+        int method = reader.readBits(2);
+        if (method > 1) {
+            throw new IOException("Reserved flac residual coding method.");
+        }
+        int paramBits = method == 0 ? 4 : 5;
+        int escapeParam = (1 << paramBits) - 1;
+        int partitionOrder = reader.readBits(4);
+        int partitionCount = 1 << partitionOrder;
+        int partitionSize = blockSize >> partitionOrder;
+        if ((partitionSize << partitionOrder) != blockSize || partitionSize < order) {
+            throw new IOException("Invalid flac residual partition order.");
+        }
+        int pos = order;
+        for (int p = 0; p < partitionCount; p++) {
+            int end = (p + 1) * partitionSize;
+            int riceParam = reader.readBits(paramBits);
+            if (riceParam == escapeParam) {
+                int rawBits = reader.readBits(5);
+                for (; pos < end; pos++) {
+                    out[pos] = reader.readSigned(rawBits);
+                }
+            } else {
+                for (; pos < end; pos++) {
+                    out[pos] = reader.readRice(riceParam);
+                }
+            }
+        }
+    }
+
+    private static void restoreFixed(int[] x, int blockSize, int order) {
+        switch (order) {
+            case 0:
+                break;
+            case 1:
+                for (int i = 1; i < blockSize; i++) {
+                    x[i] += x[i - 1];
+                }
+                break;
+            case 2:
+                for (int i = 2; i < blockSize; i++) {
+                    x[i] += 2 * x[i - 1] - x[i - 2];
+                }
+                break;
+            case 3:
+                for (int i = 3; i < blockSize; i++) {
+                    x[i] += 3 * x[i - 1] - 3 * x[i - 2] + x[i - 3];
+                }
+                break;
+            default:
+                for (int i = 4; i < blockSize; i++) {
+                    x[i] += 4 * x[i - 1] - 6 * x[i - 2] + 4 * x[i - 3] - x[i - 4];
+                }
+                break;
+        }
+    }
+
+    private static void restoreLpc(int[] x, int blockSize, int[] coefs, int order, int shift) {
+        for (int i = order; i < blockSize; i++) {
+            long sum = 0;
+            for (int j = 0; j < order; j++) {
+                sum += (long) coefs[j] * x[i - j - 1];
+            }
+            x[i] += (int) (sum >> shift);
+        }
+    }
+
+    private void readMetadata() throws IOException {
+        BitReader reader = mReader;
+        int magic = reader.readBits(32);
+        if ((magic >>> 8) == ID3_MAGIC) {
+            // 跳过 ID3v2 标签：版本(2) + 标志(1) + 4 字节 syncsafe 长度
+            reader.readBits(8);
+            int flags = reader.readBits(8);
+            int size = 0;
+            for (int i = 0; i < 4; i++) {
+                size = (size << 7) | (reader.readBits(8) & 0x7F);
+            }
+            reader.skipBytes(size + ((flags & 0x10) != 0 ? 10 : 0));
+            magic = reader.readBits(32);
+        }
+        if (magic != MAGIC) {
+            throw new IOException("Not a flac file.");
+        }
+        boolean hasStreamInfo = false;
+        boolean isLastBlock = false;
+        while (!isLastBlock) {
+            isLastBlock = reader.readBits(1) == 1;
+            int blockType = reader.readBits(7);
+            int blockLength = reader.readBits(24);
+            if (blockType == BLOCK_TYPE_STREAM_INFO) {
+                if (blockLength < 34) {
+                    throw new IOException("Invalid flac stream info.");
+                }
+                // 最小块大小
+                reader.readBits(16);
+                mMaxBlockSize = reader.readBits(16);
+                // 最小、最大帧大小
+                reader.readBits(24);
+                reader.readBits(24);
+                mSampleRate = reader.readBits(20);
+                mChannelCount = reader.readBits(3) + 1;
+                mBitsPerSample = reader.readBits(5) + 1;
+                mTotalSamples = reader.readLong(36);
+                // MD5
+                reader.skipBytes(16 + blockLength - 34);
+                hasStreamInfo = true;
+            } else if (blockType == BLOCK_TYPE_SEEK_TABLE) {
+                int pointCount = blockLength / SEEK_POINT_SIZE;
+                mSeekPointSamples = new long[pointCount];
+                mSeekPointOffsets = new long[pointCount];
+                for (int i = 0; i < pointCount; i++) {
+                    mSeekPointSamples[i] = reader.readLong(64);
+                    mSeekPointOffsets[i] = reader.readLong(64);
+                    reader.readBits(16);
+                }
+                reader.skipBytes(blockLength % SEEK_POINT_SIZE);
+            } else {
+                reader.skipBytes(blockLength);
+            }
+        }
+        if (!hasStreamInfo) {
+            throw new IOException("Missing flac stream info.");
+        }
+        if (mBitsPerSample > 24 || mMaxBlockSize < 16) {
+            throw new IOException("Unsupported flac stream: bitsPerSample = " + mBitsPerSample
+                    + ", maxBlockSize = " + mMaxBlockSize);
+        }
+        mFirstFrameOffset = reader.getBytePosition();
+    }
+}
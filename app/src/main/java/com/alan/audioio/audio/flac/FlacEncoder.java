@@ -0,0 +1,814 @@
+/*
+ * Copyright (c) 2019-present AlanWang4523 <alanwang4523@gmail.com>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.alan.audioio.audio.flac;
+
+/**
+ * FLAC 帧编码器，把一个块的交织 PCM 数据编码成一个完整的 FLAC 帧（帧头、子帧、CRC）
+ * 每个子帧在 CONSTANT、VERBATIM、FIXED（0 ~ 4 阶）、LPC（1 ~ maxLpcOrder 阶）中选择位数最少的一种，
+ * 残差使用分区 Rice 编码；立体声在独立、左/差、右/差、中/差四种声道组合中选择位数最少的一种
+ * 非线程安全，每个编码线程使用一个实例
+ *
+ * Author: AlanWang4523.
+ * Date: 2020/11/29 14:30.
+ * Mail: alanwang4523@gmail.com
+ */
+final class FlacEncoder {
+    private static final int SUBFRAME_CONSTANT = 0;
+    private static final int SUBFRAME_VERBATIM = 1;
+    private static final int SUBFRAME_FIXED = 2;
+    private static final int SUBFRAME_LPC = 3;
+
+    private static final int MAX_FIXED_ORDER = 4;
+    private static final int MAX_PARTITION_ORDER = 8;
+    private static final int MAX_QLP_COEFF_PRECISION = 15;
+    private static final int MAX_QLP_SHIFT = 15;
+    /**
+     * 残差绝对值超过该值时放弃该预测方式，保证折叠后的无符号数不溢出
+     */
+    private static final long MAX_RESIDUAL = 1 << 30;
+
+    private static final int CHANNEL_INDEPENDENT = 0;
+    private static final int CHANNEL_LEFT_SIDE = 8;
+    private static final int CHANNEL_RIGHT_SIDE = 9;
+    private static final int CHANNEL_MID_SIDE = 10;
+
+    private final int mSampleRate;
+    private final int mChannelCount;
+    private final int mBitsPerSample;
+    private final int mBytePerSample;
+    private final int mMaxLpcOrder;
+    private final BitWriter mBitWriter;
+
+    /**
+     * 各通道的采样点，立体声时额外保存中间声道和差值声道
+     */
+    private final int[][] mSamples;
+    private final int[] mMid;
+    private final int[] mSide;
+    private final int[] mShifted;
+    private final int[] mResidual;
+    private final Subframe[] mSubframes;
+
+    private double[] mWindow = new double[0];
+    private final double[] mWindowed;
+    private final double[] mAutoc;
+    private final double[][] mLpCoefs;
+    private final double[] mLpErrors;
+    private final int[] mQlpCoefs = new int[32];
+    private final long[] mPartitionSums = new long[1 << MAX_PARTITION_ORDER];
+    private final int[] mRiceParams = new int[1 << MAX_PARTITION_ORDER];
+    private final int[] mCandidateRiceParams = new int[1 << MAX_PARTITION_ORDER];
+    private final double[] mLpc;
+    private int mRicePartitionOrder;
+    private int mRiceMethod;
+
+    /**
+     * @param sampleRate 采样率
+     * @param channelCount 通道数，1 ~ 8
+     * @param bitsPerSample 采样精度，8、16、24
+     * @param maxBlockSize 每个块最多的帧数
+     * @param maxLpcOrder LPC 最大阶数，0 表示只使用 FIXED 预测
+     */
+    FlacEncoder(int sampleRate, int channelCount, int bitsPerSample, int maxBlockSize, int maxLpcOrder) {
+        mSampleRate = sampleRate;
+        mChannelCount = channelCount;
+        mBitsPerSample = bitsPerSample;
+        mBytePerSample = (bitsPerSample + 7) / 8;
+        mMaxLpcOrder = Math.min(32, maxLpcOrder);
+        mBitWriter = new BitWriter(maxBlockSize * channelCount * mBytePerSample + 64);
+        mSamples = new int[channelCount][maxBlockSize];
+        mMid = channelCount == 2 ? new int[maxBlockSize] : null;
+        mSide = channelCount == 2 ? new int[maxBlockSize] : null;
+        mShifted = new int[maxBlockSize];
+        mResidual = new int[maxBlockSize];
+        mSubframes = new Subframe[channelCount == 2 ? 4 : channelCount];
+        for (int i = 0; i < mSubframes.length; i++) {
+            mSubframes[i] = new Subframe();
+        }
+        mWindowed = new double[maxBlockSize];
+        mAutoc = new double[mMaxLpcOrder + 1];
+        mLpCoefs = new double[mMaxLpcOrder][mMaxLpcOrder];
+        mLpErrors = new double[mMaxLpcOrder];
+        mLpc = new double[mMaxLpcOrder];
+    }
+
+    /**
+     * 编码一个块
+     * @param pcm 交织的小端 PCM 数据，8 bit 为无符号数
+     * @param blockSize 块中的帧数
+     * @param frameNumber FLAC 帧序号
+     * @return 编码后的长度，数据通过 {@link #getBuffer()} 获取
+     */
+    int encode(byte[] pcm, int blockSize, long frameNumber) {
+        deinterleave(pcm, blockSize);
+
+        int channelAssignment = CHANNEL_INDEPENDENT;
+        if (mChannelCount == 2) {
+            int[] left = mSamples[0];
+            int[] right = mSamples[1];
+            for (int i = 0; i < blockSize; i++) {
+                mMid[i] = (left[i] + right[i]) >> 1;
+                mSide[i] = left[i] - right[i];
+            }
+            analyze(left, blockSize, mBitsPerSample, mSubframes[0]);
+            analyze(right, blockSize, mBitsPerSample, mSubframes[1]);
+            analyze(mMid, blockSize, mBitsPerSample, mSubframes[2]);
+            analyze(mSide, blockSize, mBitsPerSample + 1, mSubframes[3]);
+            long leftBits = mSubframes[0].bits;
+            long rightBits = mSubframes[1].bits;
+            long midBits = mSubframes[2].bits;
+            long sideBits = mSubframes[3].bits;
+            long minBits = leftBits + rightBits;
+            if (leftBits + sideBits < minBits) {
+                minBits = leftBits + sideBits;
+                channelAssignment = CHANNEL_LEFT_SIDE;
+            }
+            if (rightBits + sideBits < minBits) {
+                minBits = rightBits + sideBits;
+                channelAssignment = CHANNEL_RIGHT_SIDE;
+            }
+            if (midBits + sideBits < minBits) {
+                channelAssignment = CHANNEL_MID_SIDE;
+            }
+        } else {
+            for (int ch = 0; ch < mChannelCount; ch++) {
+                analyze(mSamples[ch], blockSize, mBitsPerSample, mSubframes[ch]);
+            }
+        }
+
+        BitWriter writer = mBitWriter;
+        writer.reset();
+        writeFrameHeader(writer, blockSize, frameNumber, channelAssignment);
+        switch (channelAssignment) {
+            case CHANNEL_LEFT_SIDE:
+                writeSubframe(writer, blockSize, mSubframes[0]);
+                writeSubframe(writer, blockSize, mSubframes[3]);
+                break;
+            case CHANNEL_RIGHT_SIDE:
+                writeSubframe(writer, blockSize, mSubframes[3]);
+                writeSubframe(writer, blockSize, mSubframes[1]);
+                break;
+            case CHANNEL_MID_SIDE:
+                writeSubframe(writer, blockSize, mSubframes[2]);
+                writeSubframe(writer, blockSize, mSubframes[3]);
+                break;
+            default:
+                for (int ch = 0; ch < mChannelCount; ch++) {
+                    writeSubframe(writer, blockSize, mSubframes[ch]);
+                }
+                break;
+        }
+        writer.alignToByte();
+        writer.writeBits(FlacCrc.crc16(writer.getBuffer(), 0, writer.getBytePosition()), 16);
+        return writer.getBytePosition();
+    }
+
+    byte[] getBuffer() {
+        return mBitWriter.getBuffer();
+    }
+
+    private void deinterleave(byte[] pcm, int blockSize) {
+        int channelCount = mChannelCount;
+        int pos = 0;
+        switch (mBytePerSample) {
+            case 1:
+                for (int i = 0; i < blockSize; i++) {
+                    for (int ch = 0; ch < channelCount; ch++) {
+                        mSamples[ch][i] = (pcm[pos++] & 0xFF) - 128;
+                    }
+                }
+                break;
+            case 2:
+                for (int i = 0; i < blockSize; i++) {
+                    for (int ch = 0; ch < channelCount; ch++) {
+                        mSamples[ch][i] = (short) ((pcm[pos] & 0xFF) | (pcm[pos + 1] << 8));
+                        pos += 2;
+                    }
+                }
+                break;
+            default:
+                for (int i = 0; i < blockSize; i++) {
+                    for (int ch = 0; ch < channelCount; ch++) {
+                        mSamples[ch][i] = (pcm[pos] & 0xFF) | ((pcm[pos + 1] & 0xFF) << 8) | (pcm[pos + 2] << 16);
+                        pos += 3;
+                    }
+                }
+                break;
+        }
+    }
+
+    private void writeFrameHeader(BitWriter writer, int blockSize, long frameNumber, int channelAssignment) {
+        // 同步码 11111111111110 + 保留位 0 + 固定块大小 0
+        writer.writeBits(0xFFF8, 16);
+        int blockSizeCode = getBlockSizeCode(blockSize);
+        int sampleRateCode = getSampleRateCode(mSampleRate);
+        writer.writeBits(blockSizeCode, 4);
+        writer.writeBits(sampleRateCode, 4);
+        writer.writeBits(channelAssignment == CHANNEL_INDEPENDENT ? mChannelCount - 1 : channelAssignment, 4);
+        writer.writeBits(getSampleSizeCode(mBitsPerSample), 3);
+        writer.writeBits(0, 1);
+        writer.writeUtf8(frameNumber);
+        if (blockSizeCode == 6) {
+            writer.writeBits(blockSize - 1, 8);
+        } else if (blockSizeCode == 7) {
+            writer.writeBits(blockSize - 1, 16);
+        }
+        if (sampleRateCode == 12) {
+            writer.writeBits(mSampleRate / 1000, 8);
+        } else if (sampleRateCode == 13) {
+            writer.writeBits(mSampleRate, 16);
+        } else if (sampleRateCode == 14) {
+            writer.writeBits(mSampleRate / 10, 16);
+        }
+        writer.writeBits(FlacCrc.crc8(writer.getBuffer(), 0, writer.getBytePosition()), 8);
+    }
+
+    /**
+     * 分析一个通道，选出位数最少的子帧类型，结果保存在 subframe 中
+     * @param samples 采样点
+     * @param blockSize 帧数
+     * @param bps 该通道的采样精度，差值声道比其他声道多 1 位
+     * @param subframe 分析结果
+     */
+    private void analyze(int[] samples, int blockSize, int bps, Subframe subframe) {
+        subframe.samples = samples;
+        subframe.bps = bps;
+        subframe.wastedBits = 0;
+
+        int first = samples[0];
+        int orBits = 0;
+        boolean isConstant = true;
+        for (int i = 0; i < blockSize; i++) {
+            orBits |= samples[i];
+            if (samples[i] != first) {
+                isConstant = false;
+            }
+        }
+        if (isConstant) {
+            subframe.type = SUBFRAME_CONSTANT;
+            subframe.bits = 8 + bps;
+            return;
+        }
+
+        // 所有采样点低位都为 0 时（如 16 bit 数据存为 24 bit），去掉这些位再编码
+        int wastedBits = Math.min(Integer.numberOfTrailingZeros(orBits), bps - 1);
+        int[] source = samples;
+        if (wastedBits > 0) {
+            for (int i = 0; i < blockSize; i++) {
+                mShifted[i] = samples[i] >> wastedBits;
+            }
+            source = mShifted;
+        }
+        subframe.wastedBits = wastedBits;
+        int subframeBps = bps - wastedBits;
+        long headerBits = 8 + wastedBits;
+
+        subframe.type = SUBFRAME_VERBATIM;
+        subframe.bits = headerBits + (long) blockSize * subframeBps;
+
+        if (blockSize > MAX_FIXED_ORDER) {
+            int order = getBestFixedOrder(source, blockSize);
+            computeFixedResidual(source, blockSize, order, mResidual);
+            long bits = headerBits + (long) order * subframeBps + computeRiceBits(mResidual, blockSize, order);
+            if (bits < subframe.bits) {
+                subframe.type = SUBFRAME_FIXED;
+                subframe.order = order;
+                subframe.bits = bits;
+                subframe.saveRiceParams(mRicePartitionOrder, mRiceMethod, mRiceParams);
+            }
+        }
+
+        int maxLpcOrder = Math.min(mMaxLpcOrder, blockSize / 2);
+        if (maxLpcOrder > 0) {
+            analyzeLpc(source, blockSize, subframeBps, maxLpcOrder, headerBits, subframe);
+        }
+    }
+
+    private void analyzeLpc(int[] source, int blockSize, int subframeBps, int maxOrder,
+                            long headerBits, Subframe subframe) {
+        double[] window = getWindow(blockSize);
+        double[] windowed = mWindowed;
+        for (int i = 0; i < blockSize; i++) {
+            windowed[i] = source[i] * window[i];
+        }
+        double[] autoc = mAutoc;
+        for (int lag = 0; lag <= maxOrder; lag++) {
+            double sum = 0;
+            for (int i = lag; i < blockSize; i++) {
+                sum += windowed[i] * windowed[i - lag];
+            }
+            autoc[lag] = sum;
+        }
+        if (autoc[0] == 0) {
+            return;
+        }
+        maxOrder = computeLpCoefficients(autoc, maxOrder);
+
+        // 根据预测误差估算每个阶数的位数，只对估算最好的阶数和最高阶数做完整的量化和编码
+        int bestOrder = 1;
+        double bestEstimate = Double.MAX_VALUE;
+        double errorScale = 0.5 / blockSize;
+        for (int order = 1; order <= maxOrder; order++) {
+            double error = mLpErrors[order - 1];
+            double bitsPerResidual = error > 0 ? 0.5 * Math.log(errorScale * error) / Math.log(2) : 0;
+            double estimate = (blockSize - order) * Math.max(0, bitsPerResidual)
+                    + order * (subframeBps + MAX_QLP_COEFF_PRECISION);
+            if (estimate < bestEstimate) {
+                bestEstimate = estimate;
+                bestOrder = order;
+            }
+        }
+        tryLpcOrder(source, blockSize, subframeBps, bestOrder, headerBits, subframe);
+        if (maxOrder != bestOrder) {
+            tryLpcOrder(source, blockSize, subframeBps, maxOrder, headerBits, subframe);
+        }
+    }
+
+    private void tryLpcOrder(int[] source, int blockSize, int subframeBps, int order,
+                             long headerBits, Subframe subframe) {
+        int precision = getQlpCoeffPrecision(subframeBps, blockSize);
+        int shift = quantizeCoefficients(mLpCoefs[order - 1], order, precision, mQlpCoefs);
+        if (shift < 0) {
+            return;
+        }
+        if (!computeLpcResidual(source, blockSize, mQlpCoefs, order, shift, mResidual)) {
+            return;
+        }
+        long bits = headerBits + (long) order * subframeBps + 4 + 5 + (long) order * precision
+                + computeRiceBits(mResidual, blockSize, order);
+        if (bits < subframe.bits) {
+            subframe.type = SUBFRAME_LPC;
+            subframe.order = order;
+            subframe.precision = precision;
+            subframe.shift = shift;
+            System.arraycopy(mQlpCoefs, 0, subframe.qlpCoefs, 0, order);
+            subframe.bits = bits;
+            subframe.saveRiceParams(mRicePartitionOrder, mRiceMethod, mRiceParams);
+        }
+    }
+
+    private void writeSubframe(BitWriter writer, int blockSize, Subframe subframe) {
+        int[] samples = subframe.samples;
+        int wastedBits = subframe.wastedBits;
+        writer.writeBits(0, 1);
+        switch (subframe.type) {
+            case SUBFRAME_CONSTANT:
+                writer.writeBits(0, 6);
+                writer.writeBits(0, 1);
+                writer.writeSigned(samples[0], subframe.bps);
+                return;
+            case SUBFRAME_VERBATIM:
+                writer.writeBits(1, 6);
+                break;
+            case SUBFRAME_FIXED:
+                writer.writeBits(8 + subframe.order, 6);
+                break;
+            default:
+                writer.writeBits(32 + subframe.order - 1, 6);
+                break;
+        }
+        int[] source = samples;
+        if (wastedBits > 0) {
+            writer.writeBits(1, 1);
+            writer.writeUnary(wastedBits - 1);
+            for (int i = 0; i < blockSize; i++) {
+                mShifted[i] = samples[i] >> wastedBits;
+            }
+            source = mShifted;
+        } else {
+            writer.writeBits(0, 1);
+        }
+        int subframeBps = subframe.bps - wastedBits;
+
+        if (subframe.type == SUBFRAME_VERBATIM) {
+            for (int i = 0; i < blockSize; i++) {
+                writer.writeSigned(source[i], subframeBps);
+            }
+            return;
+        }
+        int order = subframe.order;
+        for (int i = 0; i < order; i++) {
+            writer.writeSigned(source[i], subframeBps);
+        }
+        if (subframe.type == SUBFRAME_FIXED) {
+            computeFixedResidual(source, blockSize, order, mResidual);
+        } else {
+            writer.writeBits(subframe.precision - 1, 4);
+            writer.writeSigned(subframe.shift, 5);
+            for (int i = 0; i < order; i++) {
+                writer.writeSigned(subframe.qlpCoefs[i], subframe.precision);
+            }
+            computeLpcResidual(source, blockSize, subframe.qlpCoefs, order, subframe.shift, mResidual);
+        }
+        writeResidual(writer, blockSize, order, subframe);
+    }
+
+    private void writeResidual(BitWriter writer, int blockSize, int order, Subframe subframe) {
+        int partitionOrder = subframe.partitionOrder;
+        int paramBits = subframe.riceMethod == 0 ? 4 : 5;
+        writer.writeBits(subframe.riceMethod, 2);
+        writer.writeBits(partitionOrder, 4);
+        int partitionCount = 1 << partitionOrder;
+        int partitionSize = blockSize >> partitionOrder;
+        int[] residual = mResidual;
+        int pos = order;
+        for (int p = 0; p < partitionCount; p++) {
+            int riceParam = subframe.riceParams[p];
+            writer.writeBits(riceParam, paramBits);
+            int end = (p + 1) * partitionSize;
+            for (; pos < end; pos++) {
+                writer.writeRice(residual[pos], riceParam);
+            }
+        }
+    }
+
+    /**
+     * 根据 0 ~ 4 阶差分的绝对值之和选择 FIXED 预测的阶数
+     */
+    private static int getBestFixedOrder(int[] x, int blockSize) {
+        long sum0 = 0, sum1 = 0, sum2 = 0, sum3 = 0, sum4 = 0;
+        for (int i = MAX_FIXED_ORDER; i < blockSize; i++) {
+            long e0 = x[i];
+            long e1 = e0 - x[i - 1];
+            long e2 = e1 - (x[i - 1] - (long) x[i - 2]);
+            long e3 = e2 - (x[i - 1] - 2L * x[i - 2] + x[i - 3]);
+            long e4 = e3 - (x[i - 1] - 3L * x[i - 2] + 3L * x[i - 3] - x[i - 4]);
+            sum0 += Math.abs(e0);
+            sum1 += Math.abs(e1);
+            sum2 += Math.abs(e2);
+            sum3 += Math.abs(e3);
+            sum4 += Math.abs(e4);
+        }
+        int order = 0;
+        long min = sum0;
+        if (sum1 < min) {
+            min = sum1;
+            order = 1;
+        }
+        if (sum2 < min) {
+            min = sum2;
+            order = 2;
+        }
+        if (sum3 < min) {
+            min = sum3;
+            order = 3;
+        }
+        if (sum4 < min) {
+            order = 4;
+        }
+        return order;
+    }
+
+    private static void computeFixedResidual(int[] x, int blockSize, int order, int[] residual) {
+        switch (order) {
+            case 0:
+                System.arraycopy(x, 0, residual, 0, blockSize);
+                break;
+            case 1:
+                for (int i = 1; i < blockSize; i++) {
+                    residual[i] = x[i] - x[i - 1];
+                }
+                break;
+            case 2:
+                for (int i = 2; i < blockSize; i++) {
+                    residual[i] = x[i] - 2 * x[i - 1] + x[i - 2];
+                }
+                break;
+            case 3:
+                for (int i = 3; i < blockSize; i++) {
+                    residual[i] = x[i] - 3 * x[i - 1] + 3 * x[i - 2] - x[i - 3];
+                }
+                break;
+            default:
+                for (int i = 4; i < blockSize; i++) {
+                    residual[i] = x[i] - 4 * x[i - 1] + 6 * x[i - 2] - 4 * x[i - 3] + x[i - 4];
+                }
+                break;
+        }
+    }
+
+    /**
+     * 计算 LPC 残差
+     * @return 残差超出范围时返回 false，该阶数不可用
+     */
+    private static boolean computeLpcResidual(int[] x, int blockSize, int[] qlpCoefs, int order,
+                                              int shift, int[] residual) {
+        for (int i = order; i < blockSize; i++) {
+            long sum = 0;
+            for (int j = 0; j < order; j++) {
+                sum += (long) qlpCoefs[j] * x[i - j - 1];
+            }
+            long value = x[i] - (sum >> shift);
+            if (value >= MAX_RESIDUAL || value <= -MAX_RESIDUAL) {
+                return false;
+            }
+            residual[i] = (int) value;
+        }
+        return true;
+    }
+
+    /**
+     * 计算残差分区 Rice 编码的位数，从最高分区阶数开始逐级合并相邻分区，选出位数最少的分区阶数，
+     * 结果保存在 mRicePartitionOrder、mRiceMethod、mRiceParams 中
+     * @return 残差部分（包括编码方式、分区阶数、Rice 参数）的位数
+     */
+    private long computeRiceBits(int[] residual, int blockSize, int order) {
+        int maxPartitionOrder = 0;
+        while (maxPartitionOrder < MAX_PARTITION_ORDER
+                && (blockSize & ((2 << maxPartitionOrder) - 1)) == 0
+                && (blockSize >> (maxPartitionOrder + 1)) > order) {
+            maxPartitionOrder++;
+        }
+        int partitionCount = 1 << maxPartitionOrder;
+        int partitionSize = blockSize >> maxPartitionOrder;
+        long[] sums = mPartitionSums;
+        int pos = order;
+        for (int p = 0; p < partitionCount; p++) {
+            long sum = 0;
+            int end = (p + 1) * partitionSize;
+            for (; pos < end; pos++) {
+                int value = residual[pos];
+                sum += (value << 1) ^ (value >> 31);
+            }
+            sums[p] = sum;
+        }
+
+        long bestBits = Long.MAX_VALUE;
+        for (int partitionOrder = maxPartitionOrder; partitionOrder >= 0; partitionOrder--) {
+            partitionCount = 1 << partitionOrder;
+            partitionSize = blockSize >> partitionOrder;
+            long bits = 2 + 4;
+            int maxParam = 0;
+            for (int p = 0; p < partitionCount; p++) {
+                int count = p == 0 ? partitionSize - order : partitionSize;
+                long sum = sums[p];
+                int riceParam = getBestRiceParam(sum, count);
+                bits += getRiceBits(sum, count, riceParam);
+                maxParam = Math.max(maxParam, riceParam);
+                mCandidateRiceParams[p] = riceParam;
+            }
+            int method = maxParam > 14 ? 1 : 0;
+            bits += (long) partitionCount * (method == 0 ? 4 : 5);
+            if (bits < bestBits) {
+                bestBits = bits;
+                mRicePartitionOrder = partitionOrder;
+                mRiceMethod = method;
+                System.arraycopy(mCandidateRiceParams, 0, mRiceParams, 0, partitionCount);
+            }
+            // 合并相邻分区，得到低一级分区阶数的和
+            for (int p = 0; p < partitionCount / 2; p++) {
+                sums[p] = sums[2 * p] + sums[2 * p + 1];
+            }
+        }
+        return bestBits;
+    }
+
+    private static int getBestRiceParam(long sum, int count) {
+        if (count <= 0 || sum <= 0) {
+            return 0;
+        }
+        long mean = sum / count;
+        int estimate = mean > 0 ? 63 - Long.numberOfLeadingZeros(mean) : 0;
+        int best = Math.max(0, estimate - 1);
+        long bestBits = getRiceBits(sum, count, best);
+        for (int k = best + 1; k <= Math.min(30, estimate + 1); k++) {
+            long bits = getRiceBits(sum, count, k);
+            if (bits < bestBits) {
+                bestBits = bits;
+                best = k;
+            }
+        }
+        return best;
+    }
+
+    private static long getRiceBits(long sum, int count, int riceParam) {
+        return (long) count * (riceParam + 1) + (sum >> riceParam);
+    }
+
+    /**
+     * Levinson-Durbin 递推，由自相关系数计算 1 ~ maxOrder 阶的 LPC 系数和预测误差
+     * @return 实际可用的最高阶数，预测误差为 0 时提前结束
+     */
+    private int computeLpCoefficients(double[] autoc, int maxOrder) {
+        double[] lpc = mLpc;
+        double error = autoc[0];
+        for (int i = 0; i < maxOrder; i++) {
+            double r = -autoc[i + 1];
+            for (int j = 0; j < i; j++) {
+                r -= lpc[j] * autoc[i - j];
+            }
+            r /= error;
+            lpc[i] = r;
+            int j;
+            for (j = 0; j < (i >> 1); j++) {
+                double tmp = lpc[j];
+                lpc[j] += r * lpc[i - 1 - j];
+                lpc[i - 1 - j] += r * tmp;
+            }
+            if ((i & 1) != 0) {
+                lpc[j] += lpc[j] * r;
+            }
+            error *= (1.0 - r * r);
+            for (j = 0; j <= i; j++) {
+                mLpCoefs[i][j] = -lpc[j];
+            }
+            mLpErrors[i] = error;
+            if (error <= 0) {
+                return i + 1;
+            }
+        }
+        return maxOrder;
+    }
+
+    /**
+     * 量化 LPC 系数，使用误差反馈减小量化误差
+     * @return 量化系数的右移位数，不可量化时返回 -1
+     */
+    private static int quantizeCoefficients(double[] lpCoefs, int order, int precision, int[] qlpCoefs) {
+        double cmax = 0;
+        for (int i = 0; i < order; i++) {
+            cmax = Math.max(cmax, Math.abs(lpCoefs[i]));
+        }
+        if (cmax <= 0 || Double.isNaN(cmax) || Double.isInfinite(cmax)) {
+            return -1;
+        }
+        int qmax = (1 << (precision - 1)) - 1;
+        int qmin = -(1 << (precision - 1));
+        int shift = precision - 1 - Math.getExponent(cmax) - 1;
+        if (shift < 0) {
+            return -1;
+        }
+        shift = Math.min(shift, MAX_QLP_SHIFT);
+        double error = 0;
+        for (int i = 0; i < order; i++) {
+            error += lpCoefs[i] * (1 << shift);
+            long q = Math.round(error);
+            q = Math.max(qmin, Math.min(qmax, q));
+            error -= q;
+            qlpCoefs[i] = (int) q;
+        }
+        return shift;
+    }
+
+    private static int getQlpCoeffPrecision(int bps, int blockSize) {
+        if (bps < 16) {
+            return Math.max(5, 2 + bps / 2);
+        }
+        if (bps > 16) {
+            return MAX_QLP_COEFF_PRECISION;
+        }
+        if (blockSize <= 192) {
+            return 7;
+        } else if (blockSize <= 384) {
+            return 8;
+        } else if (blockSize <= 576) {
+            return 9;
+        } else if (blockSize <= 1152) {
+            return 10;
+        } else if (blockSize <= 2304) {
+            return 11;
+        } else if (blockSize <= 4608) {
+            return 12;
+        }
+        return 13;
+    }
+
+    /**
+     * 获取 Tukey(0.5) 窗，块大小不变时复用
+     */
+    private double[] getWindow(int blockSize) {
+        if (mWindow.length != blockSize) {
+            double[] window = new double[blockSize];
+            int taper = blockSize / 4;
+            for (int i = 0; i < blockSize; i++) {
+                window[i] = 1.0;
+            }
+            for (int i = 0; i < taper; i++) {
+                double value = 0.5 - 0.5 * Math.cos(Math.PI * i / taper);
+                window[i] = value;
+                window[blockSize - 1 - i] = value;
+            }
+            mWindow = window;
+        }
+        return mWindow;
+    }
+
+    private static int getBlockSizeCode(int blockSize) {
+        switch (blockSize) {
+            case 192:
+                return 1;
+            case 576:
+                return 2;
+            case 1152:
+                return 3;
+            case 2304:
+                return 4;
+            case 4608:
+                return 5;
+            case 256:
+                return 8;
+            case 512:
+                return 9;
+            case 1024:
+                return 10;
+            case 2048:
+                return 11;
+            case 4096:
+                return 12;
+            case 8192:
+                return 13;
+            case 16384:
+                return 14;
+            case 32768:
+                return 15;
+            default:
+                return blockSize <= 256 ? 6 : 7;
+        }
+    }
+
+    private static int getSampleRateCode(int sampleRate) {
+        switch (sampleRate) {
+            case 88200:
+                return 1;
+            case 176400:
+                return 2;
+            case 192000:
+                return 3;
+            case 8000:
+                return 4;
+            case 16000:
+                return 5;
+            case 22050:
+                return 6;
+            case 24000:
+                return 7;
+            case 32000:
+                return 8;
+            case 44100:
+                return 9;
+            case 48000:
+                return 10;
+            case 96000:
+                return 11;
+            default:
+                if (sampleRate % 1000 == 0 && sampleRate <= 255000) {
+                    return 12;
+                } else if (sampleRate <= 65535) {
+                    return 13;
+                } else if (sampleRate % 10 == 0 && sampleRate <= 655350) {
+                    return 14;
+                }
+                return 0;
+        }
+    }
+
+    private static int getSampleSizeCode(int bitsPerSample) {
+        switch (bitsPerSample) {
+            case 8:
+                return 1;
+            case 16:
+                return 4;
+            case 24:
+                return 6;
+            default:
+                return 0;
+        }
+    }
+
+    /**
+     * 一个子帧的分析结果
+     */
+    private static final class Subframe {
+        int[] samples;
+        int bps;
+        int wastedBits;
+        int type;
+        int order;
+        int precision;
+        int shift;
+        final int[] qlpCoefs = new int[32];
+        int partitionOrder;
+        int riceMethod;
+        final int[] riceParams = new int[1 << MAX_PARTITION_ORDER];
+        long bits;
+
+        void saveRiceParams(int partitionOrder, int riceMethod, int[] riceParams) {
+            this.partitionOrder = partitionOrder;
+            this.riceMethod = riceMethod;
+            System.arraycopy(riceParams, 0, this.riceParams, 0, 1 << partitionOrder);
+        }
+    }
+}
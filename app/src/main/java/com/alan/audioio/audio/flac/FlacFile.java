@@ -0,0 +1,672 @@
+/*
+ * Copyright (c) 2019-present AlanWang4523 <alanwang4523@gmail.com>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.alan.audioio.audio.flac;
+
+import com.alan.audioio.audio.WavFile;
+import com.alan.audioio.audio.common.IDataAvailableListener;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayDeque;
+import java.util.Arrays;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * FLAC 文件的读写，接口与 {@link WavFile} 保持一致（write/read/seekToFrame/close，参数使用 {@link WavFile.HeadInfo}），
+ * 可以直接作为 AudioRecorder 的 {@link IDataAvailableListener}，也可以在 AudioPlayer 的回调中作为数据源
+ * 写模式：PCM 数据按 {@link #DEFAULT_BLOCK_SIZE} 帧分块，在编码线程池中并行编码（FIXED/LPC 预测 + Rice 编码），
+ * 再按顺序写入文件，调用 write 的线程只做内存拷贝；文件头中预留 SEEKTABLE，close 时回填 STREAMINFO
+ * （总帧数、帧大小范围、MD5）和均匀分布的 seek point
+ * 读模式：流式逐帧解码，内存中只保存当前帧；seekToFrame 通过 SEEKTABLE 定位到最近的帧后再向后解码
+ * 只支持 8/16/24 bit 整型 PCM，与 wav 文件一样 8 bit 数据为无符号数
+ *
+ * Author: AlanWang4523.
+ * Date: 2020/11/30 09:18.
+ * Mail: alanwang4523@gmail.com
+ */
+public class FlacFile implements IDataAvailableListener {
+    private final static String TAG = FlacFile.class.getSimpleName();
+    /**
+     * 写模式下每个 FLAC 帧包含的帧数（每个声道的采样点数）
+     */
+    public static final int DEFAULT_BLOCK_SIZE = 4096;
+    private static final int DEFAULT_MAX_LPC_ORDER = 8;
+    private static final int MAX_ENCODE_THREAD_COUNT = 4;
+    /**
+     * 预留的 seek point 个数，close 时按总时长均匀分布，未用到的保留为占位点
+     */
+    private static final int SEEK_POINT_COUNT = 256;
+    private static final int SEEK_POINT_SIZE = 18;
+    private static final int STREAM_INFO_SIZE = 34;
+    private static final int STREAM_INFO_OFFSET = 8;
+    private static final int SEEK_TABLE_OFFSET = STREAM_INFO_OFFSET + STREAM_INFO_SIZE + 4;
+    private static final int HEADER_SIZE = SEEK_TABLE_OFFSET + SEEK_POINT_COUNT * SEEK_POINT_SIZE;
+    /**
+     * 编码线程的序号，用于生成不重复的线程名
+     */
+    private static final AtomicInteger sEncodeThreadIndex = new AtomicInteger();
+
+    private final WavFile.HeadInfo mHeadInfo;
+    private final RandomAccessFile mFile;
+    private final boolean isWriteMode;
+    private final int mBlockAlign;
+    private final int mBitsPerSample;
+    private boolean isClosed = false;
+
+    // 写模式
+    private ExecutorService mEncodeExecutor;
+    private ThreadLocal<FlacEncoder> mEncoders;
+    private FlacEncoder mInlineEncoder;
+    private final ArrayDeque<Future<EncodedBlock>> mPendingBlocks = new ArrayDeque<>();
+    private final ArrayDeque<byte[]> mFreeBlocks = new ArrayDeque<>();
+    private int mMaxPendingBlocks;
+    private byte[] mCurrentBlock;
+    private int mCurrentBlockLen;
+    private int mBlockBytes;
+    private long mNextBlockIndex;
+    private long mWrittenFrames;
+    private long mEncodedBytes;
+    private long[] mBlockOffsets = new long[1024];
+    private int mMinFrameSize = Integer.MAX_VALUE;
+    private int mMaxFrameSize;
+    private MessageDigest mMd5;
+    /**
+     * 写模式下发生的第一个异常，之后不再接受新的数据，close 时抛出
+     */
+    private volatile IOException mIOException;
+
+    // 读模式
+    private FlacDecoder mDecoder;
+    private byte[] mDecodedBlock = new byte[0];
+    private int mDecodedLen;
+    private int mDecodedPosition;
+    private long mDecodedStartFrame;
+    private boolean isEndOfStream;
+
+    /**
+     * 以读模式打开 FLAC 文件
+     * @param filePath 文件路径
+     * @throws IOException 文件不存在或不是支持的 FLAC 文件
+     */
+    public FlacFile(String filePath) throws IOException {
+        mFile = new RandomAccessFile(filePath, "r");
+        isWriteMode = false;
+        try {
+            mDecoder = new FlacDecoder(mFile.getChannel());
+        } catch (IOException e) {
+            mFile.close();
+            throw e;
+        }
+        int bytePerSample = (mDecoder.getBitsPerSample() + 7) / 8;
+        mBitsPerSample = mDecoder.getBitsPerSample();
+        mBlockAlign = bytePerSample * mDecoder.getChannelCount();
+        mHeadInfo = WavFile.HeadInfo.build()
+                .setSampleRate(mDecoder.getSampleRate())
+                .setChannelCount(mDecoder.getChannelCount())
+                .setBytePerSample(bytePerSample)
+                .setFormatTag(WavFile.FormatTag.PCM)
+                .setValidBitsPerSample(mBitsPerSample);
+    }
+
+    /**
+     * 以写模式创建 FLAC 文件，编码线程数为 CPU 核数 - 1（1 ~ 4 个）
+     * @param filePath 文件路径，已存在时覆盖
+     * @param headInfo 音频参数
+     * @throws IOException IOException
+     */
+    public FlacFile(String filePath, WavFile.HeadInfo headInfo) throws IOException {
+        this(filePath, headInfo, Math.max(1, Math.min(MAX_ENCODE_THREAD_COUNT,
+                Runtime.getRuntime().availableProcessors() - 1)));
+    }
+
+    /**
+     * 以写模式创建 FLAC 文件
+     * @param filePath 文件路径，已存在时覆盖
+     * @param headInfo 音频参数，只支持 8/16/24 bit 整型 PCM，1 ~ 8 个声道
+     * @param encodeThreadCount 编码线程数，为 0 时在调用 write 的线程中同步编码
+     * @throws IOException IOException
+     */
+    public FlacFile(String filePath, WavFile.HeadInfo headInfo, int encodeThreadCount) throws IOException {
+        final int bytePerSample = headInfo.getBytePerSample();
+        final int channelCount = headInfo.getChannelCount();
+        final int sampleRate = headInfo.getSampleRate();
+        if (headInfo.getFormatTag() != WavFile.FormatTag.PCM || bytePerSample < 1 || bytePerSample > 3) {
+            throw new IllegalArgumentException("Flac only supports 8, 16 and 24 bit pcm!");
+        }
+        if (channelCount < 1 || channelCount > 8) {
+            throw new IllegalArgumentException("The channel count of flac must be in [1, 8]!");
+        }
+        if (sampleRate <= 0 || sampleRate > 655350) {
+            throw new IllegalArgumentException("The sample rate of flac must be in (0, 655350]!");
+        }
+        if (headInfo.getBlockAlign() != bytePerSample * channelCount) {
+            throw new IllegalArgumentException("The block align must be bytePerSample * channelCount!");
+        }
+        if (encodeThreadCount < 0) {
+            throw new IllegalArgumentException("The encode thread count must not be negative!");
+        }
+        mHeadInfo = headInfo;
+        mBlockAlign = headInfo.getBlockAlign();
+        mBitsPerSample = bytePerSample * 8;
+        isWriteMode = true;
+        mFile = new RandomAccessFile(filePath, "rw");
+        mFile.setLength(0);
+        mFile.write(generateFlacHeader());
+
+        mBlockBytes = DEFAULT_BLOCK_SIZE * mBlockAlign;
+        mCurrentBlock = new byte[mBlockBytes];
+        try {
+            mMd5 = MessageDigest.getInstance("MD5");
+        } catch (NoSuchAlgorithmException e) {
+            // STREAMINFO 中的 MD5 全为 0 表示未知
+            mMd5 = null;
+        }
+        if (encodeThreadCount == 0) {
+            mInlineEncoder = new FlacEncoder(sampleRate, channelCount, bytePerSample * 8,
+                    DEFAULT_BLOCK_SIZE, DEFAULT_MAX_LPC_ORDER);
+        } else {
+            // 每个编码线程使用自己的编码器，线程池关闭后随线程一起回收
+            mEncoders = new ThreadLocal<FlacEncoder>() {
+                @Override
+                protected FlacEncoder initialValue() {
+                    return new FlacEncoder(sampleRate, channelCount, bytePerSample * 8,
+                            DEFAULT_BLOCK_SIZE, DEFAULT_MAX_LPC_ORDER);
+                }
+            };
+            mEncodeExecutor = Executors.newFixedThreadPool(encodeThreadCount, new ThreadFactory() {
+                @Override
+                public Thread newThread(Runnable runnable) {
+                    Thread thread = new Thread(runnable, TAG + "-" + sEncodeThreadIndex.incrementAndGet());
+                    thread.setDaemon(true);
+                    return thread;
+                }
+            });
+            mMaxPendingBlocks = encodeThreadCount * 2;
+        }
+    }
+
+    /**
+     * 获取音频参数
+     * @return HeadInfo
+     */
+    public WavFile.HeadInfo getHeadInfo() {
+        return mHeadInfo;
+    }
+
+    @Override
+    public void onDataAvailable(ByteBuffer byteBuffer) {
+        try {
+            write(byteBuffer);
+        } catch (IOException e) {
+            // 异常已记录在 mIOException 中，close 时抛出
+        }
+    }
+
+    /**
+     * 写 PCM 数据
+     * @param data 音频数据
+     * @param offset offset
+     * @param len 数据长度，单位：字节
+     * @throws IOException 写文件或编码过程中的异常，发生异常后再写入会抛出第一个异常
+     */
+    public void write(byte[] data, int offset, int len) throws IOException {
+        checkWritable();
+        if (isClosed || data == null || len <= 0) {
+            return;
+        }
+        while (len > 0) {
+            int copyLen = Math.min(len, mBlockBytes - mCurrentBlockLen);
+            System.arraycopy(data, offset, mCurrentBlock, mCurrentBlockLen, copyLen);
+            mCurrentBlockLen += copyLen;
+            offset += copyLen;
+            len -= copyLen;
+            if (mCurrentBlockLen == mBlockBytes) {
+                submitCurrentBlock();
+            }
+        }
+    }
+
+    /**
+     * 写 PCM 数据，写入 byteBuffer 中 position 到 limit 之间的数据，写完后 position 等于 limit
+     * @param byteBuffer 音频数据
+     * @return 写入的长度，单位：字节
+     * @throws IOException 写文件或编码过程中的异常，发生异常后再写入会抛出第一个异常
+     */
+    public int write(ByteBuffer byteBuffer) throws IOException {
+        checkWritable();
+        if (isClosed || byteBuffer == null || !byteBuffer.hasRemaining()) {
+            return 0;
+        }
+        int writeLen = byteBuffer.remaining();
+        while (byteBuffer.hasRemaining()) {
+            int copyLen = Math.min(byteBuffer.remaining(), mBlockBytes - mCurrentBlockLen);
+            byteBuffer.get(mCurrentBlock, mCurrentBlockLen, copyLen);
+            mCurrentBlockLen += copyLen;
+            if (mCurrentBlockLen == mBlockBytes) {
+                submitCurrentBlock();
+            }
+        }
+        return writeLen;
+    }
+
+    /**
+     * 检查是否可以写入，已经发生过异常时抛出第一个异常
+     * @throws IOException 不是写模式或之前的写入失败
+     */
+    private void checkWritable() throws IOException {
+        if (!isWriteMode) {
+            throw new IOException("The current file is not write mode.");
+        }
+        if (mIOException != null) {
+            throw mIOException;
+        }
+    }
+
+    /**
+     * 读取 PCM 数据
+     * @param data pcm 数据存放的位置
+     * @param off offset
+     * @param len 想要读取的长度，单位：字节
+     * @return 读取的长度，单位：字节，读到文件末尾返回 -1
+     * @throws IOException 读文件或解码过程中的异常
+     */
+    public int read(byte[] data, int off, int len) throws IOException {
+        if (isWriteMode) {
+            throw new IOException("The current file is not read mode.");
+        }
+        if (isClosed) {
+            return 0;
+        }
+        int totalReadLen = 0;
+        while (totalReadLen < len) {
+            if (mDecodedPosition == mDecodedLen && !decodeNextBlock()) {
+                break;
+            }
+            int readLen = Math.min(len - totalReadLen, mDecodedLen - mDecodedPosition);
+            System.arraycopy(mDecodedBlock, mDecodedPosition, data, off + totalReadLen, readLen);
+            mDecodedPosition += readLen;
+            totalReadLen += readLen;
+        }
+        return totalReadLen == 0 && len > 0 ? -1 : totalReadLen;
+    }
+
+    /**
+     * 读取 PCM 数据，从 byteBuffer 的 position 开始写入，最多写到 limit
+     * @param byteBuffer pcm 数据存放的位置
+     * @return 读取的长度，单位：字节，读到文件末尾返回 -1
+     * @throws IOException 读文件或解码过程中的异常
+     */
+    public int read(ByteBuffer byteBuffer) throws IOException {
+        if (isWriteMode) {
+            throw new IOException("The current file is not read mode.");
+        }
+        if (isClosed) {
+            return 0;
+        }
+        int totalReadLen = 0;
+        while (byteBuffer.hasRemaining()) {
+            if (mDecodedPosition == mDecodedLen && !decodeNextBlock()) {
+                break;
+            }
+            int readLen = Math.min(byteBuffer.remaining(), mDecodedLen - mDecodedPosition);
+            byteBuffer.put(mDecodedBlock, mDecodedPosition, readLen);
+            mDecodedPosition += readLen;
+            totalReadLen += readLen;
+        }
+        return totalReadLen == 0 && isEndOfStream ? -1 : totalReadLen;
+    }
+
+    /**
+     * 获取音频的总帧数，读模式下为 STREAMINFO 中记录的帧数（未记录时为 0），写模式下为已写入的帧数
+     * @return 总帧数
+     */
+    public long getFrameCount() {
+        if (isWriteMode) {
+            return mWrittenFrames + mCurrentBlockLen / mBlockAlign;
+        }
+        return mDecoder.getTotalSamples();
+    }
+
+    /**
+     * 获取音频时长
+     * @return 时长，单位：微秒
+     */
+    public long getDurationUs() {
+        if (mHeadInfo.getSampleRate() <= 0) {
+            return 0;
+        }
+        return getFrameCount() * 1000000L / mHeadInfo.getSampleRate();
+    }
+
+    /**
+     * 获取当前读取位置
+     * @return 当前读取位置所在的帧
+     */
+    public long getFramePosition() {
+        return mDecodedStartFrame + mDecodedPosition / mBlockAlign;
+    }
+
+    /**
+     * 跳转到指定帧，之后的读操作从该帧开始，只能在读模式下调用
+     * 目标帧在当前位置之后且不超过下一个 seek point 时直接向后解码，否则先定位到最近的 seek point
+     * @param frameIndex 目标帧
+     * @throws IOException 读文件或解码过程中的异常
+     */
+    public void seekToFrame(long frameIndex) throws IOException {
+        if (isWriteMode) {
+            throw new IOException("The current file is not read mode.");
+        }
+        if (isClosed) {
+            return;
+        }
+        long targetFrame = Math.max(0, frameIndex);
+        long currentFrame = getFramePosition();
+        if (targetFrame < mDecodedStartFrame
+                || mDecoder.getSeekPointSample(targetFrame) > currentFrame) {
+            mDecodedStartFrame = mDecoder.seekToSeekPoint(targetFrame);
+            mDecodedLen = 0;
+            mDecodedPosition = 0;
+            isEndOfStream = false;
+        }
+        while (mDecodedStartFrame + mDecodedLen / mBlockAlign <= targetFrame) {
+            if (!decodeNextBlock()) {
+                return;
+            }
+        }
+        mDecodedPosition = (int) (targetFrame - mDecodedStartFrame) * mBlockAlign;
+    }
+
+    /**
+     * 写模式下编码剩余的数据、等待所有编码任务完成并回填文件头；读模式下直接关闭文件
+     * @throws IOException 写文件或编码过程中发生的第一个异常
+     */
+    public void close() throws IOException {
+        if (isClosed) {
+            return;
+        }
+        if (!isWriteMode) {
+            isClosed = true;
+            mFile.close();
+            return;
+        }
+        try {
+            // 之前的写入已经失败时不再写出剩余的数据
+            if (mIOException == null) {
+                // 不足一帧的尾部数据丢弃
+                mCurrentBlockLen -= mCurrentBlockLen % mBlockAlign;
+                if (mCurrentBlockLen > 0) {
+                    submitCurrentBlock();
+                }
+                while (!mPendingBlocks.isEmpty()) {
+                    writeEncodedBlock(mPendingBlocks.poll());
+                }
+                updateFlacHeader();
+            }
+        } finally {
+            isClosed = true;
+            if (mEncodeExecutor != null) {
+                mEncodeExecutor.shutdownNow();
+            }
+            mFile.close();
+        }
+        if (mIOException != null) {
+            throw mIOException;
+        }
+    }
+
+    /**
+     * 把当前块交给编码线程池，并按顺序写出已经编码完成的块；
+     * 未完成的块超过上限时等待最早的块编码完成，避免编码跟不上时内存无限增长
+     */
+    private void submitCurrentBlock() throws IOException {
+        byte[] block = mCurrentBlock;
+        int frames = mCurrentBlockLen / mBlockAlign;
+        updateMd5(block, frames * mBlockAlign);
+        EncodeTask encodeTask = new EncodeTask(block, frames, mNextBlockIndex++);
+        mWrittenFrames += frames;
+
+        byte[] nextBlock = mFreeBlocks.poll();
+        mCurrentBlock = nextBlock != null ? nextBlock : new byte[mBlockBytes];
+        mCurrentBlockLen = 0;
+
+        try {
+            if (mEncodeExecutor == null) {
+                writeEncodedBlock(encodeTask.call());
+                return;
+            }
+            mPendingBlocks.add(mEncodeExecutor.submit(encodeTask));
+            while (!mPendingBlocks.isEmpty()
+                    && (mPendingBlocks.peek().isDone() || mPendingBlocks.size() > mMaxPendingBlocks)) {
+                writeEncodedBlock(mPendingBlocks.poll());
+            }
+        } catch (IOException e) {
+            // 失败的块已经丢失，之后的块不能再接着写出
+            if (mIOException == null) {
+                mIOException = e;
+            }
+            throw e;
+        }
+    }
+
+    private void writeEncodedBlock(Future<EncodedBlock> future) throws IOException {
+        EncodedBlock encodedBlock;
+        try {
+            encodedBlock = future.get();
+        } catch (ExecutionException e) {
+            Throwable cause = e.getCause();
+            throw cause instanceof IOException ? (IOException) cause : new IOException(cause);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IOException("Interrupted while waiting for flac encoding.");
+        }
+        writeEncodedBlock(encodedBlock);
+    }
+
+    private void writeEncodedBlock(EncodedBlock encodedBlock) throws IOException {
+        int blockIndex = (int) encodedBlock.blockIndex;
+        if (blockIndex >= mBlockOffsets.length) {
+            mBlockOffsets = Arrays.copyOf(mBlockOffsets, mBlockOffsets.length * 2);
+        }
+        mBlockOffsets[blockIndex] = mEncodedBytes;
+        byte[] data = encodedBlock.data;
+        mFile.write(data);
+        mEncodedBytes += data.length;
+        mMinFrameSize = Math.min(mMinFrameSize, data.length);
+        mMaxFrameSize = Math.max(mMaxFrameSize, data.length);
+        mFreeBlocks.add(encodedBlock.pcm);
+    }
+
+    /**
+     * FLAC 的 MD5 是对有符号小端采样点计算的，8 bit 的无符号数需要先转换
+     */
+    private void updateMd5(byte[] block, int len) {
+        if (mMd5 == null) {
+            return;
+        }
+        if (mBitsPerSample == 8) {
+            for (int i = 0; i < len; i++) {
+                block[i] ^= (byte) 0x80;
+            }
+            mMd5.update(block, 0, len);
+            for (int i = 0; i < len; i++) {
+                block[i] ^= (byte) 0x80;
+            }
+        } else {
+            mMd5.update(block, 0, len);
+        }
+    }
+
+    /**
+     * 解码下一个 FLAC 帧，并转换成交织的小端 PCM 数据
+     * @return 是否还有数据
+     */
+    private boolean decodeNextBlock() throws IOException {
+        if (isEndOfStream) {
+            return false;
+        }
+        long nextStartFrame = mDecodedStartFrame + mDecodedLen / mBlockAlign;
+        int blockSize = mDecoder.decodeFrame();
+        if (blockSize < 0) {
+            isEndOfStream = true;
+            mDecodedStartFrame = nextStartFrame;
+            mDecodedLen = 0;
+            mDecodedPosition = 0;
+            return false;
+        }
+        int len = blockSize * mBlockAlign;
+        if (mDecodedBlock.length < len) {
+            mDecodedBlock = new byte[len];
+        }
+        int[][] channels = mDecoder.getChannels();
+        int channelCount = channels.length;
+        int bytePerSample = mBlockAlign / channelCount;
+        // 12 bit、20 bit 等非整字节的数据左对齐到整字节
+        int shift = bytePerSample * 8 - mBitsPerSample;
+        byte[] out = mDecodedBlock;
+        int pos = 0;
+        for (int i = 0; i < blockSize; i++) {
+            for (int ch = 0; ch < channelCount; ch++) {
+                int value = channels[ch][i] << shift;
+                switch (bytePerSample) {
+                    case 1:
+                        out[pos++] = (byte) (value + 128);
+                        break;
+                    case 2:
+                        out[pos++] = (byte) value;
+                        out[pos++] = (byte) (value >> 8);
+                        break;
+                    default:
+                        out[pos++] = (byte) value;
+                        out[pos++] = (byte) (value >> 8);
+                        out[pos++] = (byte) (value >> 16);
+                        break;
+                }
+            }
+        }
+        mDecodedStartFrame = mDecoder.getFrameStartSample();
+        mDecodedLen = len;
+        mDecodedPosition = 0;
+        return true;
+    }
+
+    /**
+     * 生成文件头："fLaC" + STREAMINFO + SEEKTABLE（全部为占位点），STREAMINFO 在 close 时回填
+     */
+    private byte[] generateFlacHeader() {
+        ByteBuffer header = ByteBuffer.allocate(HEADER_SIZE);
+        header.put(new byte[]{'f', 'L', 'a', 'C'});
+        header.putInt(STREAM_INFO_SIZE);
+        header.put(generateStreamInfo(0, 0, 0, new byte[16]));
+        // 最后一个元数据块，类型 3：SEEKTABLE
+        header.putInt(0x83000000 | (SEEK_POINT_COUNT * SEEK_POINT_SIZE));
+        for (int i = 0; i < SEEK_POINT_COUNT; i++) {
+            header.putLong(-1L);
+            header.putLong(0);
+            header.putShort((short) 0);
+        }
+        return header.array();
+    }
+
+    private byte[] generateStreamInfo(long totalFrames, int minFrameSize, int maxFrameSize, byte[] md5) {
+        ByteBuffer streamInfo = ByteBuffer.allocate(STREAM_INFO_SIZE);
+        streamInfo.putShort((short) DEFAULT_BLOCK_SIZE);
+        streamInfo.putShort((short) DEFAULT_BLOCK_SIZE);
+        putUInt24(streamInfo, minFrameSize);
+        putUInt24(streamInfo, maxFrameSize);
+        streamInfo.putLong(((long) mHeadInfo.getSampleRate() << 44)
+                | ((long) (mHeadInfo.getChannelCount() - 1) << 41)
+                | ((long) (mBitsPerSample - 1) << 36)
+                | (totalFrames & 0xFFFFFFFFFL));
+        streamInfo.put(md5);
+        return streamInfo.array();
+    }
+
+    /**
+     * 回填 STREAMINFO 和 SEEKTABLE，seek point 按总时长均匀分布，每个 seek point 指向目标位置所在的帧
+     */
+    private void updateFlacHeader() throws IOException {
+        byte[] md5 = mMd5 != null ? mMd5.digest() : new byte[16];
+        long blockCount = mNextBlockIndex;
+        mFile.seek(STREAM_INFO_OFFSET);
+        mFile.write(generateStreamInfo(mWrittenFrames, blockCount > 0 ? mMinFrameSize : 0, mMaxFrameSize, md5));
+
+        ByteBuffer seekTable = ByteBuffer.allocate(SEEK_POINT_COUNT * SEEK_POINT_SIZE);
+        long lastBlockIndex = -1;
+        for (int i = 0; i < SEEK_POINT_COUNT && blockCount > 0; i++) {
+            long blockIndex = mWrittenFrames * i / SEEK_POINT_COUNT / DEFAULT_BLOCK_SIZE;
+            if (blockIndex == lastBlockIndex) {
+                continue;
+            }
+            lastBlockIndex = blockIndex;
+            long startFrame = blockIndex * DEFAULT_BLOCK_SIZE;
+            seekTable.putLong(startFrame);
+            seekTable.putLong(mBlockOffsets[(int) blockIndex]);
+            seekTable.putShort((short) Math.min(DEFAULT_BLOCK_SIZE, mWrittenFrames - startFrame));
+        }
+        while (seekTable.hasRemaining()) {
+            seekTable.putLong(-1L);
+            seekTable.putLong(0);
+            seekTable.putShort((short) 0);
+        }
+        mFile.seek(SEEK_TABLE_OFFSET);
+        mFile.write(seekTable.array());
+    }
+
+    private static void putUInt24(ByteBuffer buffer, int value) {
+        buffer.put((byte) (value >> 16));
+        buffer.put((byte) (value >> 8));
+        buffer.put((byte) value);
+    }
+
+    private class EncodeTask implements Callable<EncodedBlock> {
+        private final byte[] pcm;
+        private final int frames;
+        private final long blockIndex;
+
+        EncodeTask(byte[] pcm, int frames, long blockIndex) {
+            this.pcm = pcm;
+            this.frames = frames;
+            this.blockIndex = blockIndex;
+        }
+
+        @Override
+        public EncodedBlock call() {
+            FlacEncoder encoder = mInlineEncoder != null ? mInlineEncoder : mEncoders.get();
+            int len = encoder.encode(pcm, frames, blockIndex);
+            return new EncodedBlock(blockIndex, Arrays.copyOf(encoder.getBuffer(), len), pcm);
+        }
+    }
+
+    private static class EncodedBlock {
+        final long blockIndex;
+        final byte[] data;
+        final byte[] pcm;
+
+        EncodedBlock(long blockIndex, byte[] data, byte[] pcm) {
+            this.blockIndex = blockIndex;
+            this.data = data;
+            this.pcm = pcm;
+        }
+    }
+}
@@ -0,0 +1,328 @@
+/*
+ * Copyright (c) 2019-present AlanWang4523 <alanwang4523@gmail.com>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.alan.audioio.audio.processor;
+
+import androidx.annotation.IntDef;
+import com.alan.audioio.audio.common.Type;
+import java.lang.annotation.Retention;
+import java.lang.annotation.RetentionPolicy;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.FloatBuffer;
+import java.nio.ShortBuffer;
+import java.util.Arrays;
+
+/**
+ * 淡入淡出处理单元，支持 PCM_I16、PCM_Float 和任意声道数
+ * 增益曲线在 prepare 时按淡入淡出的时长预先计算成表，每帧只需查表和乘法；
+ * 淡入淡出可以跨越多次 process，淡入时沿表向上走、淡出时沿表向下走，中途反向不会产生增益跳变
+ * 淡出结束后输出静音，直到下一次淡入或 reset；不在淡入淡出中时数据原样通过
+ * 数据通过 ShortBuffer、FloatBuffer 视图批量读写，视图和缓存在 prepare 及第一次处理时创建，之后不再分配内存
+ *
+ * Author: AlanWang4523.
+ * Date: 2020/12/13 10:12.
+ * Mail: alanwang4523@gmail.com
+ */
+public class AudioFader implements AudioProcessor {
+    /**
+     * 默认的淡入淡出时长，单位：毫秒
+     */
+    public static final int DEFAULT_DURATION_MS = 20;
+
+    /**
+     * 增益曲线，x 为淡入的进度 [0, 1]
+     */
+    @Retention(RetentionPolicy.SOURCE)
+    @IntDef({Curve.LINEAR, Curve.EQUAL_POWER, Curve.S_CURVE})
+    public @interface Curve {
+        /**
+         * 线性：x
+         */
+        int LINEAR = 0;
+
+        /**
+         * 等功率：sin(x * PI / 2)，交叉淡化时总功率不变
+         */
+        int EQUAL_POWER = 1;
+
+        /**
+         * S 曲线：(1 - cos(x * PI)) / 2，起止处斜率为 0，听感最平滑
+         */
+        int S_CURVE = 2;
+    }
+
+    private final @Curve int mCurve;
+    private final int mDurationMs;
+    private int mChannelCount = 1;
+    private int mAudioFormat = Type.AudioFormat.PCM_I16;
+    /**
+     * 增益表，共 mRampFrames + 1 项，mRamp[0] = 0，mRamp[mRampFrames] = 1
+     */
+    private float[] mRamp = {0.0f, 1.0f};
+    private int mRampFrames = 1;
+    /**
+     * 当前增益在 mRamp 中的位置
+     */
+    private int mRampIndex;
+    /**
+     * 1：淡入中，-1：淡出中，0：不在淡入淡出中
+     */
+    private int mDirection;
+    private short[] mShortScratch;
+    private float[] mFloatScratch;
+    private ByteBuffer mViewSource;
+    private ShortBuffer mShortView;
+    private FloatBuffer mFloatView;
+
+    /**
+     * 构造函数
+     * @param curve 增益曲线
+     * @param durationMs 淡入淡出的时长，单位：毫秒
+     */
+    public AudioFader(@Curve int curve, int durationMs) {
+        if (curve != Curve.LINEAR && curve != Curve.EQUAL_POWER && curve != Curve.S_CURVE) {
+            throw new IllegalArgumentException("Unsupported fade curve : " + curve + "!");
+        }
+        if (durationMs <= 0) {
+            throw new IllegalArgumentException("The fade duration must be greater than 0!");
+        }
+        mCurve = curve;
+        mDurationMs = durationMs;
+        mRampIndex = mRampFrames;
+    }
+
+    /**
+     * 生成增益表
+     * @param curve 增益曲线
+     * @param rampFrames 淡入淡出的帧数
+     * @return 共 rampFrames + 1 项的增益表
+     */
+    public static float[] createRamp(@Curve int curve, int rampFrames) {
+        float[] ramp = new float[rampFrames + 1];
+        for (int i = 0; i <= rampFrames; i++) {
+            double x = (double) i / rampFrames;
+            double gain;
+            switch (curve) {
+                case Curve.EQUAL_POWER:
+                    gain = Math.sin(x * Math.PI / 2);
+                    break;
+                case Curve.S_CURVE:
+                    gain = (1 - Math.cos(x * Math.PI)) / 2;
+                    break;
+                case Curve.LINEAR:
+                default:
+                    gain = x;
+                    break;
+            }
+            ramp[i] = (float) gain;
+        }
+        ramp[0] = 0.0f;
+        ramp[rampFrames] = 1.0f;
+        return ramp;
+    }
+
+    @Override
+    public void prepare(int sampleRate, int channelCount, @Type.AudioFormat int audioFormat, int maxBufferSize) {
+        mChannelCount = Math.max(1, channelCount);
+        mAudioFormat = audioFormat;
+        mRampFrames = Math.max(1, (int) ((long) sampleRate * mDurationMs / 1000));
+        mRamp = createRamp(mCurve, mRampFrames);
+        int sampleCount = maxBufferSize / (audioFormat == Type.AudioFormat.PCM_Float ? 4 : 2);
+        if (audioFormat == Type.AudioFormat.PCM_Float) {
+            mFloatScratch = new float[sampleCount];
+            mShortScratch = null;
+        } else {
+            mShortScratch = new short[sampleCount];
+            mFloatScratch = null;
+        }
+        mViewSource = null;
+        mShortView = null;
+        mFloatView = null;
+        reset();
+    }
+
+    /**
+     * 开始淡入，从当前增益开始；如果当前不在淡入淡出中且增益为 1（如刚 reset 后），则从静音开始淡入
+     */
+    public void startFadeIn() {
+        if (mDirection == 0 && mRampIndex == mRampFrames) {
+            mRampIndex = 0;
+        }
+        mDirection = 1;
+    }
+
+    /**
+     * 开始淡出，从当前增益开始
+     */
+    public void startFadeOut() {
+        mDirection = -1;
+    }
+
+    /**
+     * 是否在淡入淡出中
+     * @return 淡入淡出还未结束时返回 true
+     */
+    public boolean isFading() {
+        return mDirection != 0;
+    }
+
+    /**
+     * 是否处于静音状态，即淡出已结束
+     * @return 静音时返回 true
+     */
+    public boolean isMuted() {
+        return mDirection == 0 && mRampIndex == 0;
+    }
+
+    /**
+     * 立即结束当前的淡入淡出，增益直接跳到目标值
+     */
+    public void finish() {
+        if (mDirection > 0) {
+            mRampIndex = mRampFrames;
+        } else if (mDirection < 0) {
+            mRampIndex = 0;
+        }
+        mDirection = 0;
+    }
+
+    /**
+     * 获取淡入淡出的帧数
+     * @return 帧数
+     */
+    public int getRampFrames() {
+        return mRampFrames;
+    }
+
+    @Override
+    public void process(ByteBuffer byteBuffer) {
+        if (mDirection == 0 && mRampIndex == mRampFrames) {
+            return;
+        }
+        int frameCount = byteBuffer.limit() / (mChannelCount * (mAudioFormat == Type.AudioFormat.PCM_Float ? 4 : 2));
+        if (frameCount <= 0) {
+            return;
+        }
+        updateViews(byteBuffer);
+        int frame = 0;
+        if (mDirection != 0) {
+            // 淡入淡出的部分：批量读出、按增益表逐帧相乘、批量写回
+            int rampLeft = mDirection > 0 ? mRampFrames - mRampIndex : mRampIndex;
+            int frames = Math.min(frameCount, rampLeft);
+            if (mAudioFormat == Type.AudioFormat.PCM_Float) {
+                applyRamp(mFloatView, frames);
+            } else {
+                applyRamp(mShortView, frames);
+            }
+            frame = frames;
+            if (frames == rampLeft) {
+                mDirection = 0;
+            }
+        }
+        if (frame < frameCount && mDirection == 0 && mRampIndex == 0) {
+            // 淡出结束后剩余的部分静音
+            int offset = frame * mChannelCount;
+            int sampleCount = (frameCount - frame) * mChannelCount;
+            if (mAudioFormat == Type.AudioFormat.PCM_Float) {
+                Arrays.fill(mFloatScratch, 0, sampleCount, 0.0f);
+                mFloatView.position(offset);
+                mFloatView.put(mFloatScratch, 0, sampleCount);
+            } else {
+                Arrays.fill(mShortScratch, 0, sampleCount, (short) 0);
+                mShortView.position(offset);
+                mShortView.put(mShortScratch, 0, sampleCount);
+            }
+        }
+    }
+
+    private void applyRamp(ShortBuffer view, int frames) {
+        int channelCount = mChannelCount;
+        short[] samples = mShortScratch;
+        float[] ramp = mRamp;
+        int index = mRampIndex;
+        int step = mDirection;
+        view.position(0);
+        view.get(samples, 0, frames * channelCount);
+        int i = 0;
+        for (int frame = 0; frame < frames; frame++) {
+            index += step;
+            float gain = ramp[index];
+            for (int c = 0; c < channelCount; c++, i++) {
+                samples[i] = (short) (samples[i] * gain);
+            }
+        }
+        view.position(0);
+        view.put(samples, 0, i);
+        mRampIndex = index;
+    }
+
+    private void applyRamp(FloatBuffer view, int frames) {
+        int channelCount = mChannelCount;
+        float[] samples = mFloatScratch;
+        float[] ramp = mRamp;
+        int index = mRampIndex;
+        int step = mDirection;
+        view.position(0);
+        view.get(samples, 0, frames * channelCount);
+        int i = 0;
+        for (int frame = 0; frame < frames; frame++) {
+            index += step;
+            float gain = ramp[index];
+            for (int c = 0; c < channelCount; c++, i++) {
+                samples[i] *= gain;
+            }
+        }
+        view.position(0);
+        view.put(samples, 0, i);
+        mRampIndex = index;
+    }
+
+    /**
+     * 视图覆盖 byteBuffer 的整个容量，byteBuffer 不变时重复使用，避免每次处理都创建视图
+     * @param byteBuffer 音频数据
+     */
+    private void updateViews(ByteBuffer byteBuffer) {
+        if (byteBuffer == mViewSource) {
+            return;
+        }
+        ByteBuffer source = byteBuffer.duplicate().order(ByteOrder.LITTLE_ENDIAN);
+        source.clear();
+        int sampleCount;
+        if (mAudioFormat == Type.AudioFormat.PCM_Float) {
+            mFloatView = source.asFloatBuffer();
+            sampleCount = mFloatView.capacity();
+            if (mFloatScratch == null || mFloatScratch.length < sampleCount) {
+                mFloatScratch = new float[sampleCount];
+            }
+        } else {
+            mShortView = source.asShortBuffer();
+            sampleCount = mShortView.capacity();
+            if (mShortScratch == null || mShortScratch.length < sampleCount) {
+                mShortScratch = new short[sampleCount];
+            }
+        }
+        mViewSource = byteBuffer;
+    }
+
+    /**
+     * 重置为不在淡入淡出中、增益为 1 的状态
+     */
+    @Override
+    public void reset() {
+        mDirection = 0;
+        mRampIndex = mRampFrames;
+    }
+}
@@ -0,0 +1,52 @@
+/*
+ * Copyright (c) 2019-present AlanWang4523 <alanwang4523@gmail.com>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.alan.audioio.audio.processor;
+
+import com.alan.audioio.audio.common.Type;
+import java.nio.ByteBuffer;
+
+/**
+ * 音频处理单元，挂在 {@link ProcessorChain} 上，
+ * 在设备读写与 {@link com.alan.audioio.audio.common.IDataAvailableListener} 之间对数据做原地处理
+ * process 在音频线程中调用，实现中不能分配内存、不能加锁等待，需要的缓存在 prepare 中分配好
+ *
+ * Author: AlanWang4523.
+ * Date: 2020/12/12 20:16.
+ * Mail: alanwang4523@gmail.com
+ */
+public interface AudioProcessor {
+
+    /**
+     * 准备处理，在加入已准备好的 ProcessorChain 或 ProcessorChain 准备时调用，不在音频线程中
+     * @param sampleRate 采样率
+     * @param channelCount 声道数
+     * @param audioFormat 数据格式
+     * @param maxBufferSize 每次 process 的最大数据长度，单位：字节
+     */
+    void prepare(int sampleRate, int channelCount, @Type.AudioFormat int audioFormat, int maxBufferSize);
+
+    /**
+     * 原地处理 byteBuffer 中 [0, limit) 的数据，处理后的数据长度必须与处理前一致
+     * 调用时 position 为 0，实现中可以修改 position，但不能修改 limit
+     * @param byteBuffer 音频数据，LITTLE_ENDIAN
+     */
+    void process(ByteBuffer byteBuffer);
+
+    /**
+     * 重置内部状态，如平滑系数、统计值等，在停止后重新开始时调用
+     */
+    void reset();
+}
@@ -0,0 +1,111 @@
+/*
+ * Copyright (c) 2019-present AlanWang4523 <alanwang4523@gmail.com>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.alan.audioio.audio.processor;
+
+import com.alan.audioio.audio.common.Type;
+import java.nio.ByteBuffer;
+
+/**
+ * 增益处理单元，可在运行中调整增益
+ * 增益变化时在一次 process 的数据内从当前增益线性过渡到目标增益，避免突变产生的爆音
+ * PCM_I16 格式超出范围时截断
+ *
+ * Author: AlanWang4523.
+ * Date: 2020/12/12 21:05.
+ * Mail: alanwang4523@gmail.com
+ */
+public class GainProcessor implements AudioProcessor {
+    private volatile float mTargetGain;
+    private float mCurrentGain;
+    private int mChannelCount = 1;
+    private int mAudioFormat = Type.AudioFormat.PCM_I16;
+
+    /**
+     * 构造函数
+     * @param gain 初始增益，1.0 为原始音量
+     */
+    public GainProcessor(float gain) {
+        setGain(gain);
+        mCurrentGain = gain;
+    }
+
+    /**
+     * 设置增益，可在任意线程中调用
+     * @param gain 增益，1.0 为原始音量
+     */
+    public void setGain(float gain) {
+        if (gain < 0 || Float.isNaN(gain)) {
+            throw new IllegalArgumentException("The gain must not be negative!");
+        }
+        mTargetGain = gain;
+    }
+
+    /**
+     * 获取目标增益
+     * @return 增益
+     */
+    public float getGain() {
+        return mTargetGain;
+    }
+
+    @Override
+    public void prepare(int sampleRate, int channelCount, @Type.AudioFormat int audioFormat, int maxBufferSize) {
+        mChannelCount = Math.max(1, channelCount);
+        mAudioFormat = audioFormat;
+    }
+
+    @Override
+    public void process(ByteBuffer byteBuffer) {
+        float startGain = mCurrentGain;
+        float endGain = mTargetGain;
+        if (startGain == 1.0f && endGain == 1.0f) {
+            return;
+        }
+        int limit = byteBuffer.limit();
+        int bytePerSample = mAudioFormat == Type.AudioFormat.PCM_Float ? 4 : 2;
+        int frameSize = bytePerSample * mChannelCount;
+        int frameCount = limit / frameSize;
+        if (frameCount <= 0) {
+            return;
+        }
+        float step = (endGain - startGain) / frameCount;
+        float gain = startGain;
+        int offset = 0;
+        for (int i = 0; i < frameCount; i++) {
+            gain += step;
+            for (int c = 0; c < mChannelCount; c++) {
+                if (bytePerSample == 4) {
+                    byteBuffer.putFloat(offset, byteBuffer.getFloat(offset) * gain);
+                } else {
+                    int value = (int) (byteBuffer.getShort(offset) * gain);
+                    if (value > Short.MAX_VALUE) {
+                        value = Short.MAX_VALUE;
+                    } else if (value < Short.MIN_VALUE) {
+                        value = Short.MIN_VALUE;
+                    }
+                    byteBuffer.putShort(offset, (short) value);
+                }
+                offset += bytePerSample;
+            }
+        }
+        mCurrentGain = endGain;
+    }
+
+    @Override
+    public void reset() {
+        mCurrentGain = mTargetGain;
+    }
+}
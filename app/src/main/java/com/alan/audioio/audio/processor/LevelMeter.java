@@ -0,0 +1,102 @@
+/*
+ * Copyright (c) 2019-present AlanWang4523 <alanwang4523@gmail.com>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.alan.audioio.audio.processor;
+
+import com.alan.audioio.audio.common.Type;
+import java.nio.ByteBuffer;
+
+/**
+ * 电平表处理单元，不修改数据，只统计每次 process 数据的峰值和均方根值
+ * 统计结果归一化到 [0, 1]，可在 UI 线程中读取用于显示音量
+ *
+ * Author: AlanWang4523.
+ * Date: 2020/12/12 21:24.
+ * Mail: alanwang4523@gmail.com
+ */
+public class LevelMeter implements AudioProcessor {
+    private int mAudioFormat = Type.AudioFormat.PCM_I16;
+    private volatile float mPeak;
+    private volatile float mRms;
+
+    /**
+     * 获取最近一次处理数据的峰值
+     * @return 峰值，[0, 1]
+     */
+    public float getPeak() {
+        return mPeak;
+    }
+
+    /**
+     * 获取最近一次处理数据的均方根值
+     * @return 均方根值，[0, 1]
+     */
+    public float getRms() {
+        return mRms;
+    }
+
+    /**
+     * 获取最近一次处理数据的均方根值，单位：dBFS
+     * @return 均方根值，静音时为 Float.NEGATIVE_INFINITY
+     */
+    public float getRmsDb() {
+        float rms = mRms;
+        return rms > 0 ? (float) (20 * Math.log10(rms)) : Float.NEGATIVE_INFINITY;
+    }
+
+    @Override
+    public void prepare(int sampleRate, int channelCount, @Type.AudioFormat int audioFormat, int maxBufferSize) {
+        mAudioFormat = audioFormat;
+    }
+
+    @Override
+    public void process(ByteBuffer byteBuffer) {
+        int limit = byteBuffer.limit();
+        float peak = 0;
+        double sum = 0;
+        int sampleCount;
+        if (mAudioFormat == Type.AudioFormat.PCM_Float) {
+            sampleCount = limit / 4;
+            for (int offset = 0; offset < sampleCount * 4; offset += 4) {
+                float value = byteBuffer.getFloat(offset);
+                float abs = Math.abs(value);
+                if (abs > peak) {
+                    peak = abs;
+                }
+                sum += value * value;
+            }
+        } else {
+            sampleCount = limit / 2;
+            for (int offset = 0; offset < sampleCount * 2; offset += 2) {
+                float value = byteBuffer.getShort(offset) / 32768.0f;
+                float abs = Math.abs(value);
+                if (abs > peak) {
+                    peak = abs;
+                }
+                sum += value * value;
+            }
+        }
+        if (sampleCount > 0) {
+            mPeak = Math.min(peak, 1.0f);
+            mRms = (float) Math.sqrt(sum / sampleCount);
+        }
+    }
+
+    @Override
+    public void reset() {
+        mPeak = 0;
+        mRms = 0;
+    }
+}
@@ -0,0 +1,163 @@
+/*
+ * Copyright (c) 2019-present AlanWang4523 <alanwang4523@gmail.com>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.alan.audioio.audio.processor;
+
+import com.alan.audioio.audio.common.Type;
+import java.nio.ByteBuffer;
+import java.util.concurrent.atomic.AtomicReference;
+
+/**
+ * 音频处理链，按加入的顺序依次调用各个 {@link AudioProcessor} 原地处理数据
+ * 处理单元保存在 copy-on-write 的数组中：增删时在调用线程复制一份新数组并通过 CAS 替换，
+ * 音频线程每次 process 只读取一次当前数组，不加锁、不分配内存，运行中增删处理单元不会阻塞音频线程
+ * 被移除的处理单元可能还在音频线程正在处理的这一次中被调用，调用者若要释放其资源需在下一次回调之后
+ *
+ * Author: AlanWang4523.
+ * Date: 2020/12/12 20:31.
+ * Mail: alanwang4523@gmail.com
+ */
+public class ProcessorChain {
+    private static final AudioProcessor[] EMPTY = new AudioProcessor[0];
+
+    private final AtomicReference<AudioProcessor[]> mProcessors =
+            new AtomicReference<>(EMPTY);
+    private final Object mPrepareLock = new Object();
+    private volatile boolean isPrepared = false;
+    private int mSampleRate;
+    private int mChannelCount;
+    private int mAudioFormat;
+    private int mMaxBufferSize;
+
+    /**
+     * 准备处理链，由 AudioRecorder、AudioPlayer 在初始化时调用，已加入的处理单元都会被准备
+     * 之后加入的处理单元在 add 时按同样的参数准备
+     * @param sampleRate 采样率
+     * @param channelCount 声道数
+     * @param audioFormat 数据格式
+     * @param maxBufferSize 每次 process 的最大数据长度，单位：字节
+     */
+    public void prepare(int sampleRate, int channelCount,
+                        @Type.AudioFormat int audioFormat, int maxBufferSize) {
+        synchronized (mPrepareLock) {
+            mSampleRate = sampleRate;
+            mChannelCount = channelCount;
+            mAudioFormat = audioFormat;
+            mMaxBufferSize = maxBufferSize;
+            isPrepared = true;
+            for (AudioProcessor processor : mProcessors.get()) {
+                processor.prepare(sampleRate, channelCount, audioFormat, maxBufferSize);
+            }
+        }
+    }
+
+    /**
+     * 在处理链末尾加入一个处理单元，可在运行中调用
+     * @param processor AudioProcessor
+     */
+    public void add(AudioProcessor processor) {
+        if (processor == null) {
+            throw new IllegalArgumentException("The processor must not be null!");
+        }
+        synchronized (mPrepareLock) {
+            // 先准备好再发布，音频线程拿到的处理单元总是可用的
+            // 发布也在锁内完成，并发的 prepare 要么在准备之前更新参数，要么在发布之后遍历到它
+            if (isPrepared) {
+                processor.prepare(mSampleRate, mChannelCount, mAudioFormat, mMaxBufferSize);
+            }
+            AudioProcessor[] oldArray;
+            AudioProcessor[] newArray;
+            do {
+                oldArray = mProcessors.get();
+                newArray = new AudioProcessor[oldArray.length + 1];
+                System.arraycopy(oldArray, 0, newArray, 0, oldArray.length);
+                newArray[oldArray.length] = processor;
+            } while (!mProcessors.compareAndSet(oldArray, newArray));
+        }
+    }
+
+    /**
+     * 移除一个处理单元，可在运行中调用
+     * @param processor AudioProcessor
+     * @return 处理单元在链中并被移除时返回 true
+     */
+    public boolean remove(AudioProcessor processor) {
+        AudioProcessor[] oldArray;
+        AudioProcessor[] newArray;
+        do {
+            oldArray = mProcessors.get();
+            int index = indexOf(oldArray, processor);
+            if (index < 0) {
+                return false;
+            }
+            newArray = oldArray.length == 1 ? EMPTY : new AudioProcessor[oldArray.length - 1];
+            System.arraycopy(oldArray, 0, newArray, 0, index);
+            System.arraycopy(oldArray, index + 1, newArray, index, oldArray.length - index - 1);
+        } while (!mProcessors.compareAndSet(oldArray, newArray));
+        return true;
+    }
+
+    /**
+     * 移除所有处理单元
+     */
+    public void clear() {
+        mProcessors.set(EMPTY);
+    }
+
+    /**
+     * 获取处理单元的个数
+     * @return 处理单元的个数
+     */
+    public int size() {
+        return mProcessors.get().length;
+    }
+
+    /**
+     * 重置所有处理单元的状态
+     */
+    public void reset() {
+        for (AudioProcessor processor : mProcessors.get()) {
+            processor.reset();
+        }
+    }
+
+    /**
+     * 依次调用各个处理单元原地处理 byteBuffer 中 [0, limit) 的数据，在音频线程中调用
+     * 处理结束后 position 为 0，limit 不变
+     * @param byteBuffer 音频数据
+     */
+    public void process(ByteBuffer byteBuffer) {
+        AudioProcessor[] processors = mProcessors.get();
+        if (processors.length == 0 || byteBuffer.limit() <= 0) {
+            return;
+        }
+        int limit = byteBuffer.limit();
+        for (AudioProcessor processor : processors) {
+            byteBuffer.position(0);
+            processor.process(byteBuffer);
+            byteBuffer.limit(limit);
+        }
+        byteBuffer.position(0);
+    }
+
+    private static int indexOf(AudioProcessor[] processors, AudioProcessor processor) {
+        for (int i = 0; i < processors.length; i++) {
+            if (processors[i] == processor) {
+                return i;
+            }
+        }
+        return -1;
+    }
+}
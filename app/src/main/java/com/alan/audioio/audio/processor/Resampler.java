@@ -0,0 +1,462 @@
+/*
+ * Copyright (c) 2019-present AlanWang4523 <alanwang4523@gmail.com>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.alan.audioio.audio.processor;
+
+import androidx.annotation.IntDef;
+import com.alan.audioio.audio.common.Type;
+import java.lang.annotation.Retention;
+import java.lang.annotation.RetentionPolicy;
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+
+/**
+ * 流式多相（polyphase）重采样器，支持任意采样率之间的转换，如 44.1kHz <-> 48kHz
+ * 转换比例约分为 L/M（输出/输入），使用 Kaiser 窗 sinc 低通滤波器，降采样时按比例降低截止频率防止混叠；
+ * L 不超过 {@link #MAX_EXACT_PHASES} 时每个相位都有精确的系数，否则在相邻相位之间线性插值
+ * 输入时间按 整数 + 分子/L 的形式累加，没有浮点误差的积累
+ * 所有缓存在构造时分配，处理过程中不分配内存，可以直接在音频线程中使用
+ * 数据为交织格式，支持 float、short 数组以及小端的 int16/float ByteBuffer
+ *
+ * Author: AlanWang4523.
+ * Date: 2020/12/11 20:37.
+ * Mail: alanwang4523@gmail.com
+ */
+public class Resampler {
+    /**
+     * 转换比例的分子 L 不超过该值时使用精确相位的滤波器组
+     */
+    public static final int MAX_EXACT_PHASES = 1024;
+    /**
+     * 每次处理的最大输入帧数，输入更长时分多次处理
+     */
+    private static final int BLOCK_FRAMES = 1024;
+
+    /**
+     * 重采样质量，质量越高滤波器越长，过渡带越窄，阻带衰减越大，CPU 开销也越大
+     */
+    @Retention(RetentionPolicy.SOURCE)
+    @IntDef({Quality.LOW, Quality.MEDIUM, Quality.HIGH})
+    public @interface Quality {
+        /**
+         * 16 阶，适合语音、低端设备
+         */
+        int LOW = 0;
+
+        /**
+         * 32 阶，适合一般的音乐播放
+         */
+        int MEDIUM = 1;
+
+        /**
+         * 64 阶，适合离线转换、高质量录音
+         */
+        int HIGH = 2;
+    }
+
+    private static final int[] TAPS = {16, 32, 64};
+    private static final int[] INTERPOLATED_PHASES = {64, 128, 256};
+    private static final double[] KAISER_BETA = {6.0, 8.0, 10.0};
+    private static final double[] ROLLOFF = {0.85, 0.91, 0.95};
+
+    private final int mInputRate;
+    private final int mOutputRate;
+    private final int mChannelCount;
+    private final int mUpFactor;
+    private final int mDownFactor;
+    private final boolean isPassThrough;
+
+    private final int mNumTaps;
+    private final int mNumPhases;
+    private final boolean isExactPhase;
+    /**
+     * 滤波器组，共 mNumPhases + 1 个相位，每个相位 mNumTaps 个系数，最后一个相位用于插值
+     */
+    private final float[] mFilters;
+    private final float[] mCoefs;
+    /**
+     * 交织的输入缓存，保存还需要参与计算的历史数据和新的输入
+     */
+    private final float[] mBuffer;
+    private int mBufferFrames;
+    /**
+     * 下一个输出对应的输入位置：mBuffer 中的第 mPosition 帧 + mFraction / L
+     */
+    private int mPosition;
+    private int mFraction;
+    private final float[] mZeros;
+    private long mInputFrames;
+    private long mOutputFrames;
+
+    /**
+     * @param inputRate 输入采样率
+     * @param outputRate 输出采样率
+     * @param channelCount 通道数
+     * @param quality 重采样质量，参见 {@link Quality}
+     */
+    public Resampler(int inputRate, int outputRate, int channelCount, @Quality int quality) {
+        if (inputRate <= 0 || outputRate <= 0) {
+            throw new IllegalArgumentException("The sample rate must be greater than 0!");
+        }
+        if (channelCount <= 0) {
+            throw new IllegalArgumentException("The channel count must be greater than 0!");
+        }
+        if (quality < Quality.LOW || quality > Quality.HIGH) {
+            throw new IllegalArgumentException("Unsupported quality: " + quality);
+        }
+        int gcd = gcd(inputRate, outputRate);
+        mInputRate = inputRate;
+        mOutputRate = outputRate;
+        mChannelCount = channelCount;
+        mUpFactor = outputRate / gcd;
+        mDownFactor = inputRate / gcd;
+        isPassThrough = inputRate == outputRate;
+
+        // 降采样时截止频率按比例降低，滤波器相应加长，保持相同的过渡带形状
+        double cutoff = Math.min(1.0, (double) outputRate / inputRate) * ROLLOFF[quality];
+        int numTaps = TAPS[quality];
+        if (cutoff < ROLLOFF[quality]) {
+            numTaps = (int) Math.ceil(numTaps * ROLLOFF[quality] / cutoff / 2) * 2;
+        }
+        mNumTaps = isPassThrough ? 0 : numTaps;
+        isExactPhase = mUpFactor <= MAX_EXACT_PHASES;
+        mNumPhases = isExactPhase ? mUpFactor : INTERPOLATED_PHASES[quality];
+        mFilters = isPassThrough ? new float[0] : createFilters(mNumPhases, mNumTaps, cutoff, KAISER_BETA[quality]);
+        mCoefs = new float[mNumTaps];
+        mBuffer = new float[(mNumTaps + BLOCK_FRAMES) * channelCount];
+        mZeros = new float[Math.max(1, mNumTaps) * channelCount];
+        reset();
+    }
+
+    /**
+     * 清空内部状态，之后的输入作为一个新的流处理
+     */
+    public void reset() {
+        // 预先填入 mNumTaps / 2 - 1 帧静音，使第一个输出与第一个输入对齐
+        int prefillFrames = Math.max(0, mNumTaps / 2 - 1);
+        Arrays.fill(mBuffer, 0, prefillFrames * mChannelCount, 0);
+        mBufferFrames = prefillFrames;
+        mPosition = prefillFrames;
+        mFraction = 0;
+        mInputFrames = 0;
+        mOutputFrames = 0;
+    }
+
+    public int getInputRate() {
+        return mInputRate;
+    }
+
+    public int getOutputRate() {
+        return mOutputRate;
+    }
+
+    public int getChannelCount() {
+        return mChannelCount;
+    }
+
+    /**
+     * 获取每个相位的滤波器长度，输出相对输入的延迟约为一半，采样率相同时为 0
+     * @return 滤波器长度，单位：帧
+     */
+    public int getFilterLength() {
+        return mNumTaps;
+    }
+
+    /**
+     * 获取处理 inputFrames 帧输入最多会输出的帧数，输出缓存至少要能容纳这么多帧
+     * @param inputFrames 输入帧数
+     * @return 最大输出帧数
+     */
+    public int getMaxOutputFrames(int inputFrames) {
+        return (int) ((long) inputFrames * mUpFactor / mDownFactor) + 2;
+    }
+
+    /**
+     * 获取产生 outputFrames 帧输出大约需要的输入帧数
+     * @param outputFrames 输出帧数
+     * @return 输入帧数
+     */
+    public int getInputFramesFor(int outputFrames) {
+        return (int) (((long) outputFrames * mDownFactor + mUpFactor - 1) / mUpFactor);
+    }
+
+    /**
+     * 重采样 float 数据
+     * @param in 输入数据，交织格式
+     * @param inOffset 输入的起始位置，单位：采样点
+     * @param inFrames 输入帧数
+     * @param out 输出数据存放的位置，至少能容纳 {@link #getMaxOutputFrames(int)} 帧
+     * @param outOffset 输出的起始位置，单位：采样点
+     * @return 输出帧数
+     */
+    public int process(float[] in, int inOffset, int inFrames, float[] out, int outOffset) {
+        return process(in, null, null, inOffset, inFrames, out, null, null, outOffset, 0);
+    }
+
+    /**
+     * 重采样 short 数据
+     * @param in 输入数据，交织格式
+     * @param inOffset 输入的起始位置，单位：采样点
+     * @param inFrames 输入帧数
+     * @param out 输出数据存放的位置，至少能容纳 {@link #getMaxOutputFrames(int)} 帧
+     * @param outOffset 输出的起始位置，单位：采样点
+     * @return 输出帧数
+     */
+    public int process(short[] in, int inOffset, int inFrames, short[] out, int outOffset) {
+        return process(null, in, null, inOffset, inFrames, null, out, null, outOffset, 0);
+    }
+
+    /**
+     * 重采样小端 ByteBuffer 中的数据，读取 in 中 [0, limit) 的数据，从 out 的 position 开始写入，
+     * 不改变 in 的 position，写完后 out 的 position 移到写入数据的末尾
+     * @param in 输入数据
+     * @param out 输出数据存放的位置，剩余空间至少能容纳 {@link #getMaxOutputFrames(int)} 帧
+     * @param audioFormat {@link Type.AudioFormat#PCM_I16} 或 {@link Type.AudioFormat#PCM_Float}
+     * @return 输出帧数
+     */
+    public int process(ByteBuffer in, ByteBuffer out, @Type.AudioFormat int audioFormat) {
+        int bytePerSample = audioFormat == Type.AudioFormat.PCM_Float ? 4 : 2;
+        int inFrames = in.limit() / (bytePerSample * mChannelCount);
+        int outFrames = process(null, null, in, 0, inFrames, null, null, out,
+                out.position() / bytePerSample, audioFormat);
+        out.position(out.position() + outFrames * mChannelCount * bytePerSample);
+        return outFrames;
+    }
+
+    /**
+     * 输入结束时调用，用静音补齐滤波器需要的后续输入，输出剩余的数据，之后自动 {@link #reset()}
+     * @param out 输出数据存放的位置，至少能容纳 getMaxOutputFrames({@link #getFilterLength()}) 帧
+     * @param outOffset 输出的起始位置，单位：采样点
+     * @return 输出帧数
+     */
+    public int flush(float[] out, int outOffset) {
+        long expectedFrames = (mInputFrames * mUpFactor + mDownFactor - 1) / mDownFactor;
+        int remainingFrames = (int) (expectedFrames - mOutputFrames);
+        int outFrames = 0;
+        if (!isPassThrough && remainingFrames > 0) {
+            long inputFrames = mInputFrames;
+            outFrames = process(mZeros, null, null, 0, mNumTaps, out, null, null, outOffset, 0);
+            outFrames = Math.min(outFrames, remainingFrames);
+            mInputFrames = inputFrames;
+        }
+        reset();
+        return outFrames;
+    }
+
+    /**
+     * 分块把输入拷贝到 mBuffer 中，每块拷贝完后输出所有能计算的帧，再丢弃不再需要的历史数据
+     */
+    private int process(float[] inF, short[] inS, ByteBuffer inB, int inOffset, int inFrames,
+                        float[] outF, short[] outS, ByteBuffer outB, int outOffset, int audioFormat) {
+        int channelCount = mChannelCount;
+        mInputFrames += inFrames;
+        if (isPassThrough) {
+            copySamples(inF, inS, inB, inOffset, outF, outS, outB, outOffset, inFrames * channelCount, audioFormat);
+            mOutputFrames += inFrames;
+            return inFrames;
+        }
+        int totalOutFrames = 0;
+        int inFrame = 0;
+        while (inFrame < inFrames) {
+            int copyFrames = Math.min(inFrames - inFrame, mBuffer.length / channelCount - mBufferFrames);
+            readInput(inF, inS, inB, inOffset + inFrame * channelCount, copyFrames * channelCount,
+                    mBufferFrames * channelCount, audioFormat);
+            mBufferFrames += copyFrames;
+            inFrame += copyFrames;
+            int outFrames = filter(outF, outS, outB, outOffset + totalOutFrames * channelCount, audioFormat);
+            totalOutFrames += outFrames;
+
+            // 丢弃下一个输出不再需要的历史数据
+            int discardFrames = mPosition - (mNumTaps / 2 - 1);
+            if (discardFrames > 0) {
+                System.arraycopy(mBuffer, discardFrames * channelCount, mBuffer, 0,
+                        (mBufferFrames - discardFrames) * channelCount);
+                mBufferFrames -= discardFrames;
+                mPosition -= discardFrames;
+            }
+        }
+        mOutputFrames += totalOutFrames;
+        return totalOutFrames;
+    }
+
+    /**
+     * 计算 mBuffer 中现有数据能计算的所有输出帧
+     */
+    private int filter(float[] outF, short[] outS, ByteBuffer outB, int outOffset, int audioFormat) {
+        int channelCount = mChannelCount;
+        int numTaps = mNumTaps;
+        int halfTaps = numTaps / 2;
+        int upFactor = mUpFactor;
+        int stepInt = mDownFactor / upFactor;
+        int stepFrac = mDownFactor % upFactor;
+        float[] buffer = mBuffer;
+        float[] filters = mFilters;
+        float[] coefs = mCoefs;
+        int outFrames = 0;
+        int outIndex = outOffset;
+        while (mPosition + halfTaps < mBufferFrames) {
+            int coefOffset;
+            float[] taps;
+            if (isExactPhase) {
+                taps = filters;
+                coefOffset = mFraction * numTaps;
+            } else {
+                // 在相邻的两个相位之间线性插值
+                long phasePos = (long) mFraction * mNumPhases;
+                int phase = (int) (phasePos / upFactor);
+                float alpha = (float) (phasePos % upFactor) / upFactor;
+                int offset0 = phase * numTaps;
+                int offset1 = offset0 + numTaps;
+                for (int k = 0; k < numTaps; k++) {
+                    float h0 = filters[offset0 + k];
+                    coefs[k] = h0 + alpha * (filters[offset1 + k] - h0);
+                }
+                taps = coefs;
+                coefOffset = 0;
+            }
+            int base = (mPosition - halfTaps + 1) * channelCount;
+            for (int ch = 0; ch < channelCount; ch++) {
+                float sum = 0;
+                int index = base + ch;
+                for (int k = 0; k < numTaps; k++, index += channelCount) {
+                    sum += buffer[index] * taps[coefOffset + k];
+                }
+                writeSample(outF, outS, outB, outIndex + ch, sum, audioFormat);
+            }
+            outIndex += channelCount;
+            outFrames++;
+
+            mPosition += stepInt;
+            mFraction += stepFrac;
+            if (mFraction >= upFactor) {
+                mFraction -= upFactor;
+                mPosition++;
+            }
+        }
+        return outFrames;
+    }
+
+    private void readInput(float[] inF, short[] inS, ByteBuffer inB, int inOffset, int sampleCount,
+                           int bufferOffset, int audioFormat) {
+        float[] buffer = mBuffer;
+        if (inF != null) {
+            System.arraycopy(inF, inOffset, buffer, bufferOffset, sampleCount);
+        } else if (inS != null) {
+            for (int i = 0; i < sampleCount; i++) {
+                buffer[bufferOffset + i] = inS[inOffset + i] * (1.0f / 32768);
+            }
+        } else if (audioFormat == Type.AudioFormat.PCM_Float) {
+            for (int i = 0; i < sampleCount; i++) {
+                buffer[bufferOffset + i] = inB.getFloat((inOffset + i) * 4);
+            }
+        } else {
+            for (int i = 0; i < sampleCount; i++) {
+                buffer[bufferOffset + i] = inB.getShort((inOffset + i) * 2) * (1.0f / 32768);
+            }
+        }
+    }
+
+    private static void writeSample(float[] outF, short[] outS, ByteBuffer outB, int index,
+                                    float value, int audioFormat) {
+        if (outF != null) {
+            outF[index] = value;
+        } else if (outB != null && audioFormat == Type.AudioFormat.PCM_Float) {
+            outB.putFloat(index * 4, value);
+        } else {
+            int sample = Math.round(value * 32768);
+            short clamped = (short) (sample > 32767 ? 32767 : (sample < -32768 ? -32768 : sample));
+            if (outS != null) {
+                outS[index] = clamped;
+            } else {
+                outB.putShort(index * 2, clamped);
+            }
+        }
+    }
+
+    /**
+     * 输入输出采样率相同时直接拷贝
+     */
+    private static void copySamples(float[] inF, short[] inS, ByteBuffer inB, int inOffset,
+                                    float[] outF, short[] outS, ByteBuffer outB, int outOffset,
+                                    int sampleCount, int audioFormat) {
+        if (inF != null) {
+            System.arraycopy(inF, inOffset, outF, outOffset, sampleCount);
+        } else if (inS != null) {
+            System.arraycopy(inS, inOffset, outS, outOffset, sampleCount);
+        } else {
+            int bytePerSample = audioFormat == Type.AudioFormat.PCM_Float ? 4 : 2;
+            ByteBuffer src = inB.duplicate();
+            src.position(inOffset * bytePerSample);
+            src.limit((inOffset + sampleCount) * bytePerSample);
+            ByteBuffer dst = outB.duplicate();
+            dst.position(outOffset * bytePerSample);
+            dst.put(src);
+        }
+    }
+
+    /**
+     * 生成多相滤波器组：第 p 个相位的第 k 个系数对应输入时间 t = k - (numTaps / 2 - 1) - p / numPhases 处的
+     * 窗 sinc 值，每个相位的系数归一化为直流增益 1
+     */
+    private static float[] createFilters(int numPhases, int numTaps, double cutoff, double beta) {
+        float[] filters = new float[(numPhases + 1) * numTaps];
+        double halfLength = numTaps / 2.0;
+        double i0Beta = besselI0(beta);
+        for (int phase = 0; phase <= numPhases; phase++) {
+            double sum = 0;
+            int offset = phase * numTaps;
+            for (int k = 0; k < numTaps; k++) {
+                double t = k - (numTaps / 2 - 1) - (double) phase / numPhases;
+                double x = cutoff * t;
+                double sinc = Math.abs(x) < 1e-9 ? 1.0 : Math.sin(Math.PI * x) / (Math.PI * x);
+                double ratio = t / halfLength;
+                double window = Math.abs(ratio) >= 1 ? 0 : besselI0(beta * Math.sqrt(1 - ratio * ratio)) / i0Beta;
+                double h = cutoff * sinc * window;
+                filters[offset + k] = (float) h;
+                sum += h;
+            }
+            for (int k = 0; k < numTaps; k++) {
+                filters[offset + k] = (float) (filters[offset + k] / sum);
+            }
+        }
+        return filters;
+    }
+
+    /**
+     * 第一类零阶修正贝塞尔函数，级数展开
+     */
+    private static double besselI0(double x) {
+        double sum = 1;
+        double term = 1;
+        double halfX = x / 2;
+        for (int k = 1; k < 50; k++) {
+            term *= (halfX / k) * (halfX / k);
+            sum += term;
+            if (term < sum * 1e-12) {
+                break;
+            }
+        }
+        return sum;
+    }
+
+    private static int gcd(int a, int b) {
+        while (b != 0) {
+            int t = a % b;
+            a = b;
+            b = t;
+        }
+        return a;
+    }
+}
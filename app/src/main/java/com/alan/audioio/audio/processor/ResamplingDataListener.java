@@ -0,0 +1,156 @@
+/*
+ * Copyright (c) 2019-present AlanWang4523 <alanwang4523@gmail.com>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.alan.audioio.audio.processor;
+
+import com.alan.audioio.audio.common.IDataAvailableListener;
+import com.alan.audioio.audio.common.Type;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+
+/**
+ * 把 {@link Resampler} 接入录音、播放的数据回调：
+ * 录音时（{@link #forRecord}）把采集到的数据重采样后交给下游，如以设备采样率采集、以目标采样率写 wav 文件；
+ * 播放时（{@link #forPlayback}）从上游按源采样率取数据，重采样后填满播放缓存，如以设备采样率播放任意采样率的 wav 文件
+ * 中间缓存在第一次回调时按回调缓存的大小分配，之后不再分配内存
+ *
+ * Author: AlanWang4523.
+ * Date: 2020/12/11 21:52.
+ * Mail: alanwang4523@gmail.com
+ */
+public class ResamplingDataListener implements IDataAvailableListener {
+    private final Resampler mResampler;
+    private final IDataAvailableListener mListener;
+    private final boolean isPlayback;
+    private final int mAudioFormat;
+    private final int mFrameSize;
+    /**
+     * 录音时为重采样后交给下游的数据；播放时为重采样后还未播放的数据
+     */
+    private ByteBuffer mOutBuffer;
+    /**
+     * 播放时从上游取数据的缓存
+     */
+    private ByteBuffer mUpstreamBuffer;
+    private boolean isEndOfStream;
+
+    private ResamplingDataListener(Resampler resampler, IDataAvailableListener listener,
+                                   boolean isPlayback, @Type.AudioFormat int audioFormat) {
+        if (resampler == null || listener == null) {
+            throw new IllegalArgumentException("The resampler and listener must not be null!");
+        }
+        mResampler = resampler;
+        mListener = listener;
+        this.isPlayback = isPlayback;
+        mAudioFormat = audioFormat;
+        mFrameSize = (audioFormat == Type.AudioFormat.PCM_Float ? 4 : 2) * resampler.getChannelCount();
+    }
+
+    /**
+     * 录音路径：把 {@link com.alan.audioio.audio.AudioRecorder} 采集的数据重采样后交给 downstream
+     * @param resampler 输入采样率为采集的采样率，输出采样率为 downstream 需要的采样率
+     * @param downstream 下游，如 {@link com.alan.audioio.audio.AsyncWavWriter}、{@link com.alan.audioio.audio.RotatingWavSink}
+     * @param audioFormat 数据格式
+     * @return 设置给 AudioRecorder 的 IDataAvailableListener
+     */
+    public static ResamplingDataListener forRecord(Resampler resampler, IDataAvailableListener downstream,
+                                                   @Type.AudioFormat int audioFormat) {
+        return new ResamplingDataListener(resampler, downstream, false, audioFormat);
+    }
+
+    /**
+     * 播放路径：从 upstream 取数据，重采样后交给 {@link com.alan.audioio.audio.AudioPlayer} 播放
+     * @param resampler 输入采样率为 upstream 数据的采样率，输出采样率为播放的采样率
+     * @param upstream 上游，如 {@link com.alan.audioio.audio.WavStreamReader}
+     * @param audioFormat 数据格式
+     * @return 设置给 AudioPlayer 的 IDataAvailableListener
+     */
+    public static ResamplingDataListener forPlayback(Resampler resampler, IDataAvailableListener upstream,
+                                                     @Type.AudioFormat int audioFormat) {
+        return new ResamplingDataListener(resampler, upstream, true, audioFormat);
+    }
+
+    @Override
+    public void onDataAvailable(ByteBuffer byteBuffer) {
+        if (isPlayback) {
+            fillPlaybackBuffer(byteBuffer);
+        } else {
+            resampleRecordBuffer(byteBuffer);
+        }
+    }
+
+    /**
+     * 重采样采集到的数据（[0, limit)）并交给下游
+     */
+    private void resampleRecordBuffer(ByteBuffer byteBuffer) {
+        int inFrames = byteBuffer.limit() / mFrameSize;
+        int outBytes = mResampler.getMaxOutputFrames(inFrames) * mFrameSize;
+        if (mOutBuffer == null || mOutBuffer.capacity() < outBytes) {
+            mOutBuffer = ByteBuffer.allocateDirect(outBytes).order(ByteOrder.LITTLE_ENDIAN);
+        }
+        mOutBuffer.clear();
+        mResampler.process(byteBuffer, mOutBuffer, mAudioFormat);
+        mOutBuffer.flip();
+        mListener.onDataAvailable(mOutBuffer);
+    }
+
+    /**
+     * 从上游取数据并重采样，直到能填满播放缓存或上游没有更多数据
+     */
+    private void fillPlaybackBuffer(ByteBuffer byteBuffer) {
+        byteBuffer.clear();
+        int needBytes = byteBuffer.capacity() / mFrameSize * mFrameSize;
+        if (mUpstreamBuffer == null) {
+            int upstreamFrames = Math.max(1, mResampler.getInputFramesFor(needBytes / mFrameSize));
+            mUpstreamBuffer = ByteBuffer.allocateDirect(upstreamFrames * mFrameSize).order(ByteOrder.LITTLE_ENDIAN);
+            mOutBuffer = ByteBuffer.allocateDirect(needBytes + mResampler.getMaxOutputFrames(
+                    Math.max(upstreamFrames, mResampler.getFilterLength())) * mFrameSize)
+                    .order(ByteOrder.LITTLE_ENDIAN);
+            mOutBuffer.flip();
+        }
+        // mOutBuffer 处于读状态，position 到 limit 之间为还未播放的数据
+        while (mOutBuffer.remaining() < needBytes && !isEndOfStream) {
+            mOutBuffer.compact();
+            mUpstreamBuffer.clear();
+            mListener.onDataAvailable(mUpstreamBuffer);
+            if (mUpstreamBuffer.limit() <= 0) {
+                isEndOfStream = true;
+                mOutBuffer.flip();
+                break;
+            }
+            mResampler.process(mUpstreamBuffer, mOutBuffer, mAudioFormat);
+            mOutBuffer.flip();
+        }
+        int copyLen = Math.min(needBytes, mOutBuffer.remaining());
+        int oldLimit = mOutBuffer.limit();
+        mOutBuffer.limit(mOutBuffer.position() + copyLen);
+        byteBuffer.put(mOutBuffer);
+        mOutBuffer.limit(oldLimit);
+        byteBuffer.limit(copyLen);
+        byteBuffer.rewind();
+    }
+
+    /**
+     * 清空重采样器和缓存中的数据，如播放跳转之后调用
+     */
+    public void reset() {
+        mResampler.reset();
+        if (mOutBuffer != null) {
+            mOutBuffer.clear();
+            mOutBuffer.flip();
+        }
+        isEndOfStream = false;
+    }
+}
@@ -0,0 +1,294 @@
+/*
+ * Copyright (c) 2019-present AlanWang4523 <alanwang4523@gmail.com>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.alan.audioio.audio;
+
+import com.alan.audioio.audio.backend.AudioDeviceBackend;
+import com.alan.audioio.audio.backend.AudioInputDevice;
+import com.alan.audioio.audio.backend.AudioOutputDevice;
+import com.alan.audioio.audio.backend.MemorySink;
+import com.alan.audioio.audio.backend.MemorySource;
+import com.alan.audioio.audio.backend.SimulatedAudioBackend;
+import com.alan.audioio.audio.common.AudioIOBuilder;
+import com.alan.audioio.audio.common.IDataAvailableListener;
+import com.alan.audioio.audio.exception.AudioException;
+import com.alan.audioio.audio.processor.AudioFader;
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+import java.util.concurrent.TimeUnit;
+import org.junit.After;
+import org.junit.Test;
+
+import static com.alan.audioio.audio.AudioRecorderTest.BUFFER_SIZE;
+import static com.alan.audioio.audio.AudioRecorderTest.RAMP_PERIOD;
+import static com.alan.audioio.audio.AudioRecorderTest.TIMEOUT_MS;
+import static com.alan.audioio.audio.AudioRecorderTest.newBuilder;
+import static com.alan.audioio.audio.AudioRecorderTest.newRamp;
+import static com.alan.audioio.audio.AudioRecorderTest.waitFor;
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * 通过 SimulatedAudioBackend 在 JVM 上测试 AudioPlayer
+ *
+ * Author: AlanWang4523.
+ * Date: 2020/12/20 16:18.
+ * Mail: alanwang4523@gmail.com
+ */
+public class AudioPlayerTest {
+    private AudioPlayer mAudioPlayer;
+
+    @After
+    public void tearDown() {
+        if (mAudioPlayer != null) {
+            mAudioPlayer.release();
+        }
+    }
+
+    /**
+     * 除开头 1ms 的淡入外，写入设备的数据与源数据完全一致
+     */
+    @Test
+    public void play_virtualClock_bytesEqualSource() throws Exception {
+        byte[] source = newRamp(RAMP_PERIOD);
+        MemorySink sink = new MemorySink(source.length);
+        SimulatedAudioBackend backend = new SimulatedAudioBackend()
+                .setClockMode(SimulatedAudioBackend.ClockMode.VIRTUAL)
+                .setSink(sink);
+        mAudioPlayer = newPlayer(backend, new MemorySource(source, false), 0);
+
+        mAudioPlayer.start().get(TIMEOUT_MS, TimeUnit.MILLISECONDS);
+        waitFor(sink, source.length);
+        mAudioPlayer.stop().get(TIMEOUT_MS, TimeUnit.MILLISECONDS);
+
+        byte[] data = sink.getData();
+        assertEquals(source.length, data.length);
+        assertArrayEquals(Arrays.copyOfRange(source, BUFFER_SIZE, source.length),
+                Arrays.copyOfRange(data, BUFFER_SIZE, data.length));
+    }
+
+    @Test
+    public void pause_holdsDevicePosition() throws Exception {
+        MemorySink sink = new MemorySink(0);
+        SimulatedAudioBackend backend = new SimulatedAudioBackend().setSink(sink);
+        mAudioPlayer = newPlayer(backend, new MemorySource(newRamp(RAMP_PERIOD), true), 0);
+
+        mAudioPlayer.start().get(TIMEOUT_MS, TimeUnit.MILLISECONDS);
+        waitFor(sink, BUFFER_SIZE * 5);
+        mAudioPlayer.pause().get(TIMEOUT_MS, TimeUnit.MILLISECONDS);
+        long framesWritten = backend.getFramesWritten();
+        Thread.sleep(100);
+        assertEquals(framesWritten, backend.getFramesWritten());
+
+        mAudioPlayer.resume().get(TIMEOUT_MS, TimeUnit.MILLISECONDS);
+        waitFor(sink, framesWritten * 2 + BUFFER_SIZE * 5);
+        mAudioPlayer.stop().get(TIMEOUT_MS, TimeUnit.MILLISECONDS);
+        assertEquals(0, backend.getUnderrunCount());
+    }
+
+    @Test
+    public void stop_whilePaused_completesWithoutTouchingDevice() throws Exception {
+        checkStopWhilePaused(0);
+    }
+
+    @Test
+    public void stop_whilePausedWithPrefetch_completesWithoutTouchingDevice() throws Exception {
+        checkStopWhilePaused(40);
+    }
+
+    /**
+     * 暂停后已经静音，停止时不能再淡出：不能再向外层取数据，也不能写入已暂停的设备，
+     * 真实的 AudioTrack 在暂停且缓冲区满时阻塞写入会一直阻塞
+     */
+    private void checkStopWhilePaused(int prefetchMs) throws Exception {
+        MemorySink sink = new MemorySink(0);
+        RecordingBackend backend = new RecordingBackend(new SimulatedAudioBackend().setSink(sink));
+        CountingSource source = new CountingSource(new MemorySource(newRamp(RAMP_PERIOD), true));
+        mAudioPlayer = newPlayer(backend, source, prefetchMs);
+
+        mAudioPlayer.start().get(TIMEOUT_MS, TimeUnit.MILLISECONDS);
+        waitFor(sink, BUFFER_SIZE * 2);
+        mAudioPlayer.pause().get(TIMEOUT_MS, TimeUnit.MILLISECONDS);
+        int sourceCount = source.getCount();
+        mAudioPlayer.stop().get(TIMEOUT_MS, TimeUnit.MILLISECONDS);
+
+        String events = backend.getEvents();
+        assertTrue(events, events.endsWith("pause,stop,release,"));
+        if (prefetchMs == 0) {
+            assertEquals(sourceCount, source.getCount());
+        }
+    }
+
+    /**
+     * 预读期间外层取数据卡顿超过预读时长，播放线程取不到数据，计为欠载
+     */
+    @Test
+    public void prefetch_stalledSource_countsUnderruns() throws Exception {
+        MemorySink sink = new MemorySink(0);
+        SimulatedAudioBackend backend = new SimulatedAudioBackend().setSink(sink);
+        StallingSource source = new StallingSource(new MemorySource(newRamp(RAMP_PERIOD), true), 20, 150);
+        mAudioPlayer = newPlayer(backend, source, 40);
+
+        mAudioPlayer.start().get(TIMEOUT_MS, TimeUnit.MILLISECONDS);
+        waitFor(sink, BUFFER_SIZE * 40);
+        mAudioPlayer.stop().get(TIMEOUT_MS, TimeUnit.MILLISECONDS);
+
+        assertTrue(mAudioPlayer.getUnderrunCount() > 0);
+        assertTrue(mAudioPlayer.getRingHighWaterMark() > 0);
+    }
+
+    /**
+     * 外层已经没有数据时播放线程取不到数据，不计为欠载
+     */
+    @Test
+    public void prefetch_exhaustedSource_isNotUnderrun() throws Exception {
+        byte[] source = newRamp(RAMP_PERIOD / 3);
+        MemorySink sink = new MemorySink(0);
+        SimulatedAudioBackend backend = new SimulatedAudioBackend().setSink(sink);
+        mAudioPlayer = newPlayer(backend, new MemorySource(source, false), 40);
+
+        mAudioPlayer.start().get(TIMEOUT_MS, TimeUnit.MILLISECONDS);
+        waitFor(sink, source.length);
+        // 只检查数据取完之后，开始时预读线程还没准备好数据可能计入欠载
+        long underrunCount = mAudioPlayer.getUnderrunCount();
+        Thread.sleep(100);
+        mAudioPlayer.stop().get(TIMEOUT_MS, TimeUnit.MILLISECONDS);
+
+        assertEquals(source.length, sink.getTotalBytes());
+        assertEquals(underrunCount, mAudioPlayer.getUnderrunCount());
+    }
+
+    private static AudioPlayer newPlayer(AudioDeviceBackend backend, IDataAvailableListener source,
+                                         int prefetchMs) throws Exception {
+        AudioPlayer audioPlayer = new AudioPlayer();
+        audioPlayer.setDeviceBackend(backend);
+        audioPlayer.setDataAvailableListener(source);
+        audioPlayer.setFadeParams(AudioFader.Curve.LINEAR, 1);
+        audioPlayer.setPrefetch(prefetchMs);
+        audioPlayer.init(newBuilder());
+        return audioPlayer;
+    }
+
+    /**
+     * 记录输出设备上的调用顺序
+     */
+    private static class RecordingBackend implements AudioDeviceBackend {
+        private final AudioDeviceBackend mBackend;
+        private final StringBuffer mEvents = new StringBuffer();
+
+        RecordingBackend(AudioDeviceBackend backend) {
+            mBackend = backend;
+        }
+
+        String getEvents() {
+            return mEvents.toString();
+        }
+
+        @Override
+        public AudioInputDevice openInput(AudioIOBuilder ioBuilder) throws AudioException {
+            return mBackend.openInput(ioBuilder);
+        }
+
+        @Override
+        public AudioOutputDevice openOutput(AudioIOBuilder ioBuilder) throws AudioException {
+            final AudioOutputDevice outputDevice = mBackend.openOutput(ioBuilder);
+            return new AudioOutputDevice() {
+                @Override
+                public void play() {
+                    mEvents.append("play,");
+                    outputDevice.play();
+                }
+
+                @Override
+                public void pause() {
+                    mEvents.append("pause,");
+                    outputDevice.pause();
+                }
+
+                @Override
+                public void stop() {
+                    mEvents.append("stop,");
+                    outputDevice.stop();
+                }
+
+                @Override
+                public int write(ByteBuffer byteBuffer, int len) {
+                    // 连续的写入只记录一次
+                    if (mEvents.length() < 6 || !"write,".equals(mEvents.substring(mEvents.length() - 6))) {
+                        mEvents.append("write,");
+                    }
+                    return outputDevice.write(byteBuffer, len);
+                }
+
+                @Override
+                public void release() {
+                    mEvents.append("release,");
+                    outputDevice.release();
+                }
+            };
+        }
+    }
+
+    /**
+     * 统计外层被取数据的次数
+     */
+    private static class CountingSource implements IDataAvailableListener {
+        private final IDataAvailableListener mSource;
+        private volatile int mCount;
+
+        CountingSource(IDataAvailableListener source) {
+            mSource = source;
+        }
+
+        int getCount() {
+            return mCount;
+        }
+
+        @Override
+        public void onDataAvailable(ByteBuffer byteBuffer) {
+            mCount++;
+            mSource.onDataAvailable(byteBuffer);
+        }
+    }
+
+    /**
+     * 在第 stallAt 次取数据时卡顿一次，模拟读文件时存储卡顿
+     */
+    private static class StallingSource implements IDataAvailableListener {
+        private final IDataAvailableListener mSource;
+        private final int mStallAt;
+        private final long mStallMs;
+        private int mCount;
+
+        StallingSource(IDataAvailableListener source, int stallAt, long stallMs) {
+            mSource = source;
+            mStallAt = stallAt;
+            mStallMs = stallMs;
+        }
+
+        @Override
+        public void onDataAvailable(ByteBuffer byteBuffer) {
+            if (++mCount == mStallAt) {
+                try {
+                    Thread.sleep(mStallMs);
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+            }
+            mSource.onDataAvailable(byteBuffer);
+        }
+    }
+}
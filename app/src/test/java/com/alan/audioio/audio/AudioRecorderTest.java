@@ -0,0 +1,261 @@
+/*
+ * Copyright (c) 2019-present AlanWang4523 <alanwang4523@gmail.com>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.alan.audioio.audio;
+
+import com.alan.audioio.audio.backend.MemorySink;
+import com.alan.audioio.audio.backend.MemorySource;
+import com.alan.audioio.audio.backend.SimulatedAudioBackend;
+import com.alan.audioio.audio.common.AudioIOBuilder;
+import com.alan.audioio.audio.common.IDataAvailableListener;
+import com.alan.audioio.audio.common.Type;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.util.concurrent.TimeUnit;
+import org.junit.After;
+import org.junit.Test;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * 通过 SimulatedAudioBackend 在 JVM 上测试 AudioRecorder
+ *
+ * Author: AlanWang4523.
+ * Date: 2020/12/20 15:40.
+ * Mail: alanwang4523@gmail.com
+ */
+public class AudioRecorderTest {
+    static final int SAMPLE_RATE = 48000;
+    /**
+     * 单声道 16 bit，10ms
+     */
+    static final int BUFFER_SIZE = 960;
+    /**
+     * 斜坡信号的周期，单位：采样点
+     */
+    static final int RAMP_PERIOD = 30000;
+    static final long TIMEOUT_MS = 2000;
+
+    private AudioRecorder mAudioRecorder;
+
+    @After
+    public void tearDown() {
+        if (mAudioRecorder != null) {
+            mAudioRecorder.release();
+        }
+    }
+
+    @Test
+    public void record_virtualClock_bytesEqualSource() throws Exception {
+        byte[] source = newRamp(RAMP_PERIOD);
+        SimulatedAudioBackend backend = new SimulatedAudioBackend()
+                .setClockMode(SimulatedAudioBackend.ClockMode.VIRTUAL)
+                .setSource(new MemorySource(source, false));
+        MemorySink sink = new MemorySink(source.length);
+        mAudioRecorder = newRecorder(backend, sink);
+
+        mAudioRecorder.start().get(TIMEOUT_MS, TimeUnit.MILLISECONDS);
+        waitFor(sink, source.length);
+        mAudioRecorder.stop().get(TIMEOUT_MS, TimeUnit.MILLISECONDS);
+
+        assertArrayEquals(source, sink.getData());
+        assertEquals(0, backend.getOverrunCount());
+    }
+
+    @Test
+    public void pause_holdsDevicePosition() throws Exception {
+        SimulatedAudioBackend backend = new SimulatedAudioBackend()
+                .setSource(new MemorySource(newRamp(RAMP_PERIOD), true));
+        MemorySink sink = new MemorySink(0);
+        mAudioRecorder = newRecorder(backend, sink);
+
+        mAudioRecorder.start().get(TIMEOUT_MS, TimeUnit.MILLISECONDS);
+        waitFor(sink, BUFFER_SIZE * 5);
+        mAudioRecorder.pause().get(TIMEOUT_MS, TimeUnit.MILLISECONDS);
+        long framesRead = backend.getFramesRead();
+        long totalBytes = sink.getTotalBytes();
+        Thread.sleep(100);
+        assertEquals(framesRead, backend.getFramesRead());
+        assertEquals(totalBytes, sink.getTotalBytes());
+
+        // 暂停时调用 start 等同于 resume
+        mAudioRecorder.start().get(TIMEOUT_MS, TimeUnit.MILLISECONDS);
+        waitFor(sink, totalBytes + BUFFER_SIZE * 5);
+        mAudioRecorder.stop().get(TIMEOUT_MS, TimeUnit.MILLISECONDS);
+    }
+
+    @Test
+    public void stop_whilePaused_completes() throws Exception {
+        SimulatedAudioBackend backend = new SimulatedAudioBackend();
+        MemorySink sink = new MemorySink(0);
+        mAudioRecorder = newRecorder(backend, sink);
+
+        mAudioRecorder.start().get(TIMEOUT_MS, TimeUnit.MILLISECONDS);
+        waitFor(sink, BUFFER_SIZE * 2);
+        mAudioRecorder.pause().get(TIMEOUT_MS, TimeUnit.MILLISECONDS);
+        long totalBytes = sink.getTotalBytes();
+        mAudioRecorder.stop().get(TIMEOUT_MS, TimeUnit.MILLISECONDS);
+        assertEquals(totalBytes, sink.getTotalBytes());
+    }
+
+    @Test
+    public void ringCapture_dropOldest_deliversWholeBuffers() throws Exception {
+        checkRingCapture(AudioIOStream.OverflowPolicy.DROP_OLDEST);
+    }
+
+    @Test
+    public void ringCapture_dropNewest_deliversWholeBuffers() throws Exception {
+        checkRingCapture(AudioIOStream.OverflowPolicy.DROP_NEWEST);
+    }
+
+    @Test
+    public void ringCapture_block_deliversContinuousStream() throws Exception {
+        checkRingCapture(AudioIOStream.OverflowPolicy.BLOCK);
+    }
+
+    /**
+     * 虚拟时钟下录音线程远快于缓慢的回调线程，环形缓冲区持续溢出，
+     * 每个回调的 buffer 都必须是源数据中连续的一段，BLOCK 策略下 buffer 之间也必须连续
+     */
+    private void checkRingCapture(@AudioIOStream.OverflowPolicy int overflowPolicy) throws Exception {
+        SimulatedAudioBackend backend = new SimulatedAudioBackend()
+                .setClockMode(SimulatedAudioBackend.ClockMode.VIRTUAL)
+                .setSource(new MemorySource(newRamp(RAMP_PERIOD), true));
+        RampChecker checker = new RampChecker(true);
+        mAudioRecorder = new AudioRecorder();
+        mAudioRecorder.setDeviceBackend(backend);
+        mAudioRecorder.setRingCapture(4, overflowPolicy);
+        mAudioRecorder.setDataAvailableListener(checker);
+        mAudioRecorder.init(newBuilder());
+
+        mAudioRecorder.start().get(TIMEOUT_MS, TimeUnit.MILLISECONDS);
+        checker.waitForBuffers(50);
+        mAudioRecorder.stop().get(TIMEOUT_MS, TimeUnit.MILLISECONDS);
+        mAudioRecorder.release();
+
+        assertEquals(0, checker.getTornCount());
+        assertTrue(mAudioRecorder.getRingHighWaterMark() <= 4);
+        if (overflowPolicy == AudioIOStream.OverflowPolicy.BLOCK) {
+            assertEquals(0, checker.getGapCount());
+            assertEquals(0, mAudioRecorder.getOverrunCount());
+            assertTrue(mAudioRecorder.getBlockedCount() > 0);
+        } else {
+            assertTrue(checker.getGapCount() > 0);
+            assertTrue(mAudioRecorder.getOverrunCount() > 0);
+        }
+    }
+
+    private static AudioRecorder newRecorder(SimulatedAudioBackend backend,
+                                             IDataAvailableListener listener) throws Exception {
+        AudioRecorder audioRecorder = new AudioRecorder();
+        audioRecorder.setDeviceBackend(backend);
+        audioRecorder.setDataAvailableListener(listener);
+        audioRecorder.init(newBuilder());
+        return audioRecorder;
+    }
+
+    static AudioIOBuilder newBuilder() {
+        return AudioIOBuilder.builder()
+                .setSampleRate(SAMPLE_RATE)
+                .setChannelCount(Type.ChannelCount.Mono)
+                .setFormat(Type.AudioFormat.PCM_I16)
+                .setBufferSize(BUFFER_SIZE);
+    }
+
+    /**
+     * 生成 16 bit 斜坡信号，第 i 个采样点的值为 i % RAMP_PERIOD，循环播放时整个数据流都是连续的斜坡
+     * @param samples 采样点数
+     * @return 小端的 PCM 数据
+     */
+    static byte[] newRamp(int samples) {
+        ByteBuffer buffer = ByteBuffer.allocate(samples * 2).order(ByteOrder.LITTLE_ENDIAN);
+        for (int i = 0; i < samples; i++) {
+            buffer.putShort((short) (i % RAMP_PERIOD));
+        }
+        return buffer.array();
+    }
+
+    static void waitFor(MemorySink sink, long totalBytes) throws InterruptedException {
+        long deadline = System.currentTimeMillis() + TIMEOUT_MS;
+        while (sink.getTotalBytes() < totalBytes) {
+            assertTrue("Timeout waiting for " + totalBytes + " bytes", System.currentTimeMillis() < deadline);
+            Thread.sleep(1);
+        }
+    }
+
+    /**
+     * 检查回调的每个 buffer 是否是斜坡信号中连续的一段
+     */
+    static class RampChecker implements IDataAvailableListener {
+        private final boolean isSlow;
+        private int mNextValue = -1;
+        private volatile int mBufferCount;
+        private volatile int mTornCount;
+        private volatile int mGapCount;
+
+        /**
+         * @param isSlow 每次回调耗时 1ms，远慢于虚拟时钟下的设备
+         */
+        RampChecker(boolean isSlow) {
+            this.isSlow = isSlow;
+        }
+
+        @Override
+        public void onDataAvailable(ByteBuffer byteBuffer) {
+            ByteBuffer samples = byteBuffer.duplicate().order(ByteOrder.LITTLE_ENDIAN);
+            int count = samples.remaining() / 2;
+            if (count == 0) {
+                return;
+            }
+            int first = samples.getShort(samples.position());
+            for (int i = 1; i < count; i++) {
+                if (samples.getShort(samples.position() + i * 2) != (first + i) % RAMP_PERIOD) {
+                    mTornCount++;
+                    break;
+                }
+            }
+            if (mNextValue >= 0 && first != mNextValue) {
+                mGapCount++;
+            }
+            mNextValue = (first + count) % RAMP_PERIOD;
+            mBufferCount++;
+            if (isSlow) {
+                try {
+                    Thread.sleep(1);
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+            }
+        }
+
+        void waitForBuffers(int bufferCount) throws InterruptedException {
+            long deadline = System.currentTimeMillis() + TIMEOUT_MS;
+            while (mBufferCount < bufferCount) {
+                assertTrue("Timeout waiting for " + bufferCount + " buffers", System.currentTimeMillis() < deadline);
+                Thread.sleep(1);
+            }
+        }
+
+        int getTornCount() {
+            return mTornCount;
+        }
+
+        int getGapCount() {
+            return mGapCount;
+        }
+    }
+}
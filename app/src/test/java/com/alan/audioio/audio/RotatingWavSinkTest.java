@@ -0,0 +1,160 @@
+/*
+ * Copyright (c) 2019-present AlanWang4523 <alanwang4523@gmail.com>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.alan.audioio.audio;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+/**
+ * Author: AlanWang4523.
+ * Date: 2020/12/20 10:12.
+ * Mail: alanwang4523@gmail.com
+ */
+public class RotatingWavSinkTest {
+    private static final int SEGMENT_BYTES = 1024;
+    private static final int BUFFER_BYTES = 256;
+
+    @Rule
+    public TemporaryFolder mTempFolder = new TemporaryFolder();
+
+    /**
+     * 下一个分段迟迟没有准备好时当前分段会超过最大长度，准备好之后的写入不能出错，也不能丢数据
+     */
+    @Test
+    public void write_nextSegmentLate_rotatesWithoutLosingData() throws Exception {
+        File dir = mTempFolder.newFolder();
+        final CountDownLatch releaseExecutor = new CountDownLatch(1);
+        final List<RotatingWavSink.SegmentInfo> segments =
+                Collections.synchronizedList(new ArrayList<RotatingWavSink.SegmentInfo>());
+        RotatingWavSink sink = new RotatingWavSink(newHeadInfo(), dir.getAbsolutePath(), "seg", 0, SEGMENT_BYTES);
+        sink.setOnSegmentListener(new RotatingWavSink.OnSegmentListener() {
+            @Override
+            public void onSegmentFinished(RotatingWavSink.SegmentInfo segmentInfo) {
+                segments.add(segmentInfo);
+                // 阻塞后台线程，之后提交的下一个分段的创建会被推迟
+                try {
+                    releaseExecutor.await(5, TimeUnit.SECONDS);
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+            }
+        });
+
+        byte[] source = newSource(SEGMENT_BYTES * 12);
+        int offset = 0;
+        // 写满第一个分段后切换，此时再下一个分段的创建被阻塞，第二个分段会持续增长
+        for (; offset < SEGMENT_BYTES * 6; offset += BUFFER_BYTES) {
+            sink.write(ByteBuffer.wrap(source, offset, BUFFER_BYTES));
+        }
+        releaseExecutor.countDown();
+        Thread.sleep(100);
+        for (; offset < source.length; offset += BUFFER_BYTES) {
+            sink.write(ByteBuffer.wrap(source, offset, BUFFER_BYTES));
+        }
+        sink.close();
+
+        assertEquals(source.length / 2, sink.getTotalFrames());
+        assertArrayEquals(source, readSegments(dir, segments));
+        long expectedStartFrame = 0;
+        for (RotatingWavSink.SegmentInfo segmentInfo : segments) {
+            assertEquals(expectedStartFrame, segmentInfo.getStartFrame());
+            expectedStartFrame += segmentInfo.getFrameCount();
+        }
+    }
+
+    /**
+     * 下一个分段创建失败时不再切分，数据继续写入当前分段，异常只在 close 时抛出一次
+     */
+    @Test
+    public void write_nextSegmentOpenFails_keepsWritingCurrentSegment() throws Exception {
+        File dir = mTempFolder.newFolder();
+        // 与下一个分段同名的目录使其无法创建
+        assertTrue(new File(dir, "seg_00001.wav").mkdir());
+        RotatingWavSink sink = new RotatingWavSink(newHeadInfo(), dir.getAbsolutePath(), "seg", 0, SEGMENT_BYTES);
+
+        byte[] source = newSource(SEGMENT_BYTES * 4);
+        for (int offset = 0; offset < source.length; offset += BUFFER_BYTES) {
+            sink.write(ByteBuffer.wrap(source, offset, BUFFER_BYTES));
+        }
+        try {
+            sink.close();
+            fail("The open failure of the next segment should be reported by close.");
+        } catch (IOException expected) {
+            // expected
+        }
+        assertEquals(source.length / 2, sink.getTotalFrames());
+        assertArrayEquals(source, readWav(new File(dir, "seg_00000.wav")));
+    }
+
+    private static WavFile.HeadInfo newHeadInfo() {
+        return WavFile.HeadInfo.build().setSampleRate(8000).setChannelCount(1).setBytePerSample(2);
+    }
+
+    private static byte[] newSource(int len) {
+        byte[] source = new byte[len];
+        for (int i = 0; i < len; i++) {
+            source[i] = (byte) (i * 31 + i / 256);
+        }
+        return source;
+    }
+
+    private static byte[] readSegments(File dir, List<RotatingWavSink.SegmentInfo> segments) throws IOException {
+        ByteArrayOutputStream outputStream = new ByteArrayOutputStream();
+        for (int i = 0; i < segments.size(); i++) {
+            RotatingWavSink.SegmentInfo segmentInfo = segments.get(i);
+            assertEquals(i, segmentInfo.getIndex());
+            byte[] data = readWav(new File(segmentInfo.getFilePath()));
+            assertEquals(segmentInfo.getFrameCount() * 2, data.length);
+            outputStream.write(data);
+        }
+        assertEquals(segments.size(), dir.list().length);
+        return outputStream.toByteArray();
+    }
+
+    static byte[] readWav(File file) throws IOException {
+        WavFile wavFile = new WavFile(file.getAbsolutePath());
+        try {
+            byte[] data = new byte[(int) wavFile.getFrameCount() * wavFile.getHeadInfo().getPcmFrameSize()];
+            int offset = 0;
+            while (offset < data.length) {
+                int readLen = wavFile.read(data, offset, data.length - offset);
+                if (readLen <= 0) {
+                    break;
+                }
+                offset += readLen;
+            }
+            assertEquals(data.length, offset);
+            return data;
+        } finally {
+            wavFile.close();
+        }
+    }
+}
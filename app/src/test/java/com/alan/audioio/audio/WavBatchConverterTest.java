@@ -0,0 +1,178 @@
+/*
+ * Copyright (c) 2019-present AlanWang4523 <alanwang4523@gmail.com>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.alan.audioio.audio;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.file.Files;
+import java.util.Collections;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+/**
+ * Author: AlanWang4523.
+ * Date: 2020/12/20 11:05.
+ * Mail: alanwang4523@gmail.com
+ */
+public class WavBatchConverterTest {
+    private static final int FRAME_COUNT = 200 * 1024;
+
+    @Rule
+    public TemporaryFolder mTempFolder = new TemporaryFolder();
+    private WavBatchConverter mConverter;
+
+    @Before
+    public void setUp() {
+        mConverter = new WavBatchConverter(2);
+    }
+
+    @After
+    public void tearDown() {
+        mConverter.release();
+    }
+
+    /**
+     * 输出路径与输入路径相同时转换失败，且不能删除输入文件
+     */
+    @Test
+    public void convert_outputIsInput_keepsInput() throws Exception {
+        File dir = mTempFolder.newFolder();
+        File inFile = new File(dir, "in.wav");
+        writeStereoWav(inFile);
+        byte[] inBytes = Files.readAllBytes(inFile.toPath());
+        String samePath = new File(dir, "../" + dir.getName() + "/in.wav").getPath();
+
+        WavBatchConverter.Report report = mConverter.setOutputChannelCount(1)
+                .convert(Collections.singletonList(inFile.getPath()), Collections.singletonList(samePath));
+
+        assertEquals(0, report.getFileCount());
+        assertTrue(report.getFailures().get(inFile.getPath()) instanceof IllegalArgumentException);
+        assertArrayEquals(inBytes, Files.readAllBytes(inFile.toPath()));
+    }
+
+    /**
+     * 输入文件打开失败时不能删除已存在的输出文件
+     */
+    @Test
+    public void convert_missingInput_keepsExistingOutput() throws Exception {
+        File dir = mTempFolder.newFolder();
+        String missingPath = new File(dir, "missing.wav").getPath();
+        File outFile = new File(dir, "out.wav");
+        byte[] outBytes = {1, 2, 3, 4};
+        FileOutputStream outputStream = new FileOutputStream(outFile);
+        try {
+            outputStream.write(outBytes);
+        } finally {
+            outputStream.close();
+        }
+
+        WavBatchConverter.Report report = mConverter
+                .convert(Collections.singletonList(missingPath), Collections.singletonList(outFile.getPath()));
+
+        assertEquals(0, report.getFileCount());
+        assertTrue(report.getFailures().get(missingPath) instanceof IOException);
+        assertArrayEquals(outBytes, Files.readAllBytes(outFile.toPath()));
+    }
+
+    /**
+     * 多块并行转换为单声道，每个输出采样点为左右通道的平均值
+     */
+    @Test
+    public void convert_stereoToMono_averagesChannels() throws Exception {
+        File dir = mTempFolder.newFolder();
+        File inFile = new File(dir, "in.wav");
+        File outFile = new File(dir, "out.wav");
+        writeStereoWav(inFile);
+
+        WavBatchConverter.Report report = mConverter.setOutputChannelCount(1)
+                .convert(Collections.singletonList(inFile.getPath()), Collections.singletonList(outFile.getPath()));
+
+        assertTrue(report.getFailures().isEmpty());
+        assertEquals(1, report.getFileCount());
+        assertEquals(outFile.length(), report.getOutputBytes());
+        WavFile wavFile = new WavFile(outFile.getPath());
+        try {
+            assertEquals(1, wavFile.getHeadInfo().getChannelCount());
+            assertEquals(FRAME_COUNT, wavFile.getFrameCount());
+        } finally {
+            wavFile.close();
+        }
+        ByteBuffer samples = ByteBuffer.wrap(RotatingWavSinkTest.readWav(outFile)).order(ByteOrder.LITTLE_ENDIAN);
+        for (int i = 0; i < FRAME_COUNT; i++) {
+            int expected = (leftSample(i) + rightSample(i)) / 2;
+            assertEquals("frame " + i, expected, samples.getShort(i * 2), 1);
+        }
+    }
+
+    /**
+     * 编码格式与采样点大小不匹配时立即失败，而不是在转换每个文件时才失败
+     */
+    @Test
+    public void setOutputFormat_incompatibleBytePerSample_throws() {
+        checkInvalidOutputFormat(WavFile.FormatTag.IEEE_FLOAT, 2);
+        checkInvalidOutputFormat(WavFile.FormatTag.PCM, 5);
+        checkInvalidOutputFormat(WavFile.FormatTag.PCM, 0);
+        checkInvalidOutputFormat(WavFile.FormatTag.EXTENSIBLE, 2);
+
+        mConverter.setOutputFormat(WavFile.FormatTag.PCM, 3)
+                .setOutputFormat(WavFile.FormatTag.IEEE_FLOAT, 8)
+                .setOutputFormat(WavFile.FormatTag.MULAW, 0)
+                .setOutputFormat(0, 0);
+    }
+
+    private void checkInvalidOutputFormat(int formatTag, int bytePerSample) {
+        try {
+            mConverter.setOutputFormat(formatTag, bytePerSample);
+            fail("formatTag " + formatTag + " with bytePerSample " + bytePerSample + " should be rejected.");
+        } catch (IllegalArgumentException expected) {
+            // expected
+        }
+    }
+
+    private static short leftSample(int frame) {
+        return (short) ((frame * 7) % 20000 - 10000);
+    }
+
+    private static short rightSample(int frame) {
+        return (short) ((frame * 13) % 16000 - 8000);
+    }
+
+    private static void writeStereoWav(File file) throws IOException {
+        WavFile wavFile = new WavFile(file.getPath(),
+                WavFile.HeadInfo.build().setSampleRate(44100).setChannelCount(2).setBytePerSample(2));
+        try {
+            ByteBuffer buffer = ByteBuffer.allocate(FRAME_COUNT * 4).order(ByteOrder.LITTLE_ENDIAN);
+            for (int i = 0; i < FRAME_COUNT; i++) {
+                buffer.putShort(leftSample(i)).putShort(rightSample(i));
+            }
+            buffer.flip();
+            wavFile.write(buffer);
+        } finally {
+            wavFile.close();
+        }
+    }
+}
@@ -0,0 +1,106 @@
+/*
+ * Copyright (c) 2019-present AlanWang4523 <alanwang4523@gmail.com>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.alan.audioio.audio;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.util.Arrays;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import static com.alan.audioio.audio.WavFileTest.newHeadInfo;
+import static com.alan.audioio.audio.WavFileTest.newPcm;
+import static com.alan.audioio.audio.WavFileTest.writeWav;
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+/**
+ * Author: AlanWang4523.
+ * Date: 2020/12/21 17:12.
+ * Mail: alanwang4523@gmail.com
+ */
+public class WavEditorTest {
+    @Rule
+    public TemporaryFolder mTempFolder = new TemporaryFolder();
+
+    @Test
+    public void splice_replacesRange() throws Exception {
+        File inFile = mTempFolder.newFile("in.wav");
+        File insertFile = mTempFolder.newFile("insert.wav");
+        File outFile = new File(mTempFolder.getRoot(), "out.wav");
+        byte[] pcm = newPcm(1000 * 4);
+        byte[] insertPcm = newPcm(300 * 4);
+        writeWav(inFile, newHeadInfo(2, 2), pcm);
+        writeWav(insertFile, newHeadInfo(2, 2), insertPcm);
+
+        long frames = WavEditor.splice(inFile.getPath(), 100, 200, insertFile.getPath(), outFile.getPath());
+
+        assertEquals(1000 - 100 + 300, frames);
+        byte[] expected = new byte[(int) frames * 4];
+        System.arraycopy(pcm, 0, expected, 0, 100 * 4);
+        System.arraycopy(insertPcm, 0, expected, 100 * 4, insertPcm.length);
+        System.arraycopy(pcm, 200 * 4, expected, 400 * 4, 800 * 4);
+        assertArrayEquals(expected, RotatingWavSinkTest.readWav(outFile));
+    }
+
+    /**
+     * 输出路径与输入路径相同（写法不同）时失败，且不能修改输入文件
+     */
+    @Test
+    public void trim_outputIsInput_keepsInput() throws Exception {
+        File dir = mTempFolder.newFolder();
+        File inFile = new File(dir, "in.wav");
+        writeWav(inFile, newHeadInfo(1, 2), newPcm(1000 * 2));
+        byte[] inBytes = Files.readAllBytes(inFile.toPath());
+        String samePath = new File(dir, "../" + dir.getName() + "/in.wav").getPath();
+
+        try {
+            WavEditor.trim(inFile.getPath(), samePath, 0, 500);
+            fail("Trimming a file onto itself should fail.");
+        } catch (IllegalArgumentException expected) {
+            // expected
+        }
+        assertArrayEquals(inBytes, Files.readAllBytes(inFile.toPath()));
+    }
+
+    /**
+     * 输出文件打开失败时不能删除已存在的同名文件（这里是一个目录）
+     */
+    @Test
+    public void concat_outputOpenFails_keepsExistingOutput() throws Exception {
+        File inFile = mTempFolder.newFile("in.wav");
+        writeWav(inFile, newHeadInfo(1, 2), newPcm(1000 * 2));
+        File outDir = mTempFolder.newFolder("out.wav");
+
+        try {
+            WavEditor.concat(outDir.getPath(), inFile.getPath(), inFile.getPath());
+            fail("Writing to a directory should fail.");
+        } catch (IOException expected) {
+            // expected
+        }
+        assertTrue(outDir.isDirectory());
+        assertEquals(Arrays.asList("in.wav", "out.wav"), Arrays.asList(sorted(mTempFolder.getRoot().list())));
+    }
+
+    private static String[] sorted(String[] names) {
+        Arrays.sort(names);
+        return names;
+    }
+}
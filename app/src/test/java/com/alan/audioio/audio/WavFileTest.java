@@ -0,0 +1,355 @@
+/*
+ * Copyright (c) 2019-present AlanWang4523 <alanwang4523@gmail.com>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.alan.audioio.audio;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.util.ArrayList;
+import java.util.Arrays;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+/**
+ * Author: AlanWang4523.
+ * Date: 2020/12/21 10:20.
+ * Mail: alanwang4523@gmail.com
+ */
+public class WavFileTest {
+    @Rule
+    public TemporaryFolder mTempFolder = new TemporaryFolder();
+
+    /**
+     * fmt 之前有奇数长度的 chunk（带填充字节），data 前后都有 LIST，chunk 索引按文件中的顺序记录偏移和长度
+     */
+    @Test
+    public void open_extraChunks_indexesEveryChunk() throws Exception {
+        byte[] pcm = newPcm(100 * 4);
+        ByteBuffer fmt = ByteBuffer.allocate(16).order(ByteOrder.LITTLE_ENDIAN);
+        fmt.putShort((short) WavFile.FormatTag.PCM).putShort((short) 2).putInt(44100)
+                .putInt(44100 * 4).putShort((short) 4).putShort((short) 16);
+        File file = mTempFolder.newFile("chunks.wav");
+        writeRiff(file, chunk("bext", new byte[5]), chunk("fmt ", fmt.array()), chunk("LIST", new byte[12]),
+                chunk("data", pcm), chunk("LIST", new byte[6]), chunk("id3 ", new byte[3]));
+
+        WavFile wavFile = new WavFile(file.getPath());
+        try {
+            WavFile.HeadInfo headInfo = wavFile.getHeadInfo();
+            assertEquals(Arrays.asList("bext", "fmt ", "LIST", "data", "id3 "),
+                    new ArrayList<>(headInfo.getChunkIndex().keySet()));
+            // RIFF(12) + bext(8 + 5 + 1) + fmt(8 + 16) + LIST(8 + 12) + data 头(8)
+            assertEquals(12 + 14 + 24 + 20 + 8, headInfo.getDataOffset());
+            assertEquals(pcm.length, headInfo.getDataSize());
+            assertEquals(12 + 14 + 8, headInfo.getChunk("fmt ").getOffset());
+            assertEquals(5, headInfo.getChunk("bext").getSize());
+            assertEquals(headInfo.getDataOffset() + pcm.length + 14 + 8, headInfo.getChunk("id3 ").getOffset());
+            assertEquals(2, headInfo.getChannelCount());
+            assertEquals(100, wavFile.getFrameCount());
+        } finally {
+            wavFile.close();
+        }
+        assertArrayEquals(pcm, RotatingWavSinkTest.readWav(file));
+    }
+
+    /**
+     * 缺少 data chunk 或者不是 RIFF/WAVE 文件时打开失败
+     */
+    @Test
+    public void open_missingDataChunk_throws() throws Exception {
+        File file = mTempFolder.newFile("nodata.wav");
+        ByteBuffer fmt = ByteBuffer.allocate(16).order(ByteOrder.LITTLE_ENDIAN);
+        fmt.putShort((short) WavFile.FormatTag.PCM).putShort((short) 1).putInt(8000)
+                .putInt(8000 * 2).putShort((short) 2).putShort((short) 16);
+        writeRiff(file, chunk("fmt ", fmt.array()), chunk("LIST", new byte[4]));
+        try {
+            new WavFile(file.getPath()).close();
+            fail("A wav file without 'data' should not open.");
+        } catch (IOException expected) {
+            // expected
+        }
+    }
+
+    /**
+     * 调小 RF64 的切换阈值，数据超过阈值时文件头原地改写为 RF64，data 长度从 ds64 中读取
+     */
+    @Test
+    public void write_pastRF64Threshold_switchesToRF64() throws Exception {
+        File smallFile = mTempFolder.newFile("small.wav");
+        File largeFile = mTempFolder.newFile("large.wav");
+        byte[] smallPcm = newPcm(32 * 1024);
+        byte[] largePcm = newPcm(256 * 1024);
+        long threshold = WavFile.sRF64Threshold;
+        WavFile.sRF64Threshold = 64 * 1024;
+        try {
+            writeWav(smallFile, newHeadInfo(2, 2), smallPcm);
+            writeWav(largeFile, newHeadInfo(2, 2), largePcm);
+        } finally {
+            WavFile.sRF64Threshold = threshold;
+        }
+
+        assertEquals("RIFF", readChunkId(smallFile, 0));
+        assertEquals("JUNK", readChunkId(smallFile, 12));
+        assertArrayEquals(smallPcm, RotatingWavSinkTest.readWav(smallFile));
+
+        assertEquals("RF64", readChunkId(largeFile, 0));
+        WavFile wavFile = new WavFile(largeFile.getPath());
+        try {
+            WavFile.HeadInfo headInfo = wavFile.getHeadInfo();
+            assertTrue(headInfo.getChunkIndex().containsKey("ds64"));
+            assertEquals(largePcm.length, headInfo.getDataSize());
+            assertEquals(largePcm.length / 4, wavFile.getFrameCount());
+        } finally {
+            wavFile.close();
+        }
+        assertArrayEquals(largePcm, RotatingWavSinkTest.readWav(largeFile));
+    }
+
+    @Test
+    public void write_pcm8_readsBack() throws Exception {
+        checkRoundTrip(newHeadInfo(1, 1), WavFile.FormatTag.PCM, false);
+    }
+
+    @Test
+    public void write_pcm24_readsBack() throws Exception {
+        checkRoundTrip(newHeadInfo(2, 3), WavFile.FormatTag.PCM, false);
+    }
+
+    @Test
+    public void write_pcm32_readsBack() throws Exception {
+        checkRoundTrip(newHeadInfo(2, 4).setFormatTag(WavFile.FormatTag.PCM), WavFile.FormatTag.PCM, false);
+    }
+
+    @Test
+    public void write_float32_readsBack() throws Exception {
+        checkRoundTrip(newHeadInfo(2, 4), WavFile.FormatTag.IEEE_FLOAT, false);
+    }
+
+    @Test
+    public void write_float64_readsBack() throws Exception {
+        checkRoundTrip(newHeadInfo(1, 8).setFormatTag(WavFile.FormatTag.IEEE_FLOAT),
+                WavFile.FormatTag.IEEE_FLOAT, false);
+    }
+
+    /**
+     * 24 bit 有效位存放在 4 字节容器中，以 WAVE_FORMAT_EXTENSIBLE 格式写入
+     */
+    @Test
+    public void write_extensible24In32_readsBack() throws Exception {
+        WavFile.HeadInfo headInfo = checkRoundTrip(newHeadInfo(2, 4).setFormatTag(WavFile.FormatTag.PCM)
+                .setExtensible(true).setValidBitsPerSample(24), WavFile.FormatTag.PCM, true);
+        assertEquals(24, headInfo.getValidBitsPerSample());
+        assertEquals(0x3, headInfo.getChannelMask());
+    }
+
+    /**
+     * 通道数大于 2 时总是以 WAVE_FORMAT_EXTENSIBLE 格式写入
+     */
+    @Test
+    public void write_sixChannels_isExtensible() throws Exception {
+        WavFile.HeadInfo headInfo = checkRoundTrip(newHeadInfo(6, 2).setChannelMask(0x3F),
+                WavFile.FormatTag.PCM, true);
+        assertEquals(0x3F, headInfo.getChannelMask());
+    }
+
+    /**
+     * 写入后读回，数据逐字节一致，头信息与写入时一致
+     * @return 读回的头信息
+     */
+    private WavFile.HeadInfo checkRoundTrip(WavFile.HeadInfo headInfo, int formatTag, boolean isExtensible)
+            throws IOException {
+        File file = mTempFolder.newFile();
+        int frameCount = 1000;
+        byte[] pcm = newPcm(frameCount * headInfo.getBlockAlign());
+        writeWav(file, headInfo, pcm);
+
+        WavFile wavFile = new WavFile(file.getPath());
+        WavFile.HeadInfo readHeadInfo = wavFile.getHeadInfo();
+        try {
+            assertEquals(formatTag, readHeadInfo.getFormatTag());
+            assertEquals(isExtensible, readHeadInfo.isExtensible());
+            assertEquals(headInfo.getChannelCount(), readHeadInfo.getChannelCount());
+            assertEquals(headInfo.getSampleRate(), readHeadInfo.getSampleRate());
+            assertEquals(headInfo.getBytePerSample(), readHeadInfo.getBytePerSample());
+            assertEquals(frameCount, wavFile.getFrameCount());
+        } finally {
+            wavFile.close();
+        }
+        assertArrayEquals(pcm, RotatingWavSinkTest.readWav(file));
+        return readHeadInfo;
+    }
+
+    @Test
+    public void write_muLaw_decodesWithinQuantizationError() throws Exception {
+        checkCodecRoundTrip(WavFile.FormatTag.MULAW, 1, 0);
+    }
+
+    @Test
+    public void write_aLaw_decodesWithinQuantizationError() throws Exception {
+        checkCodecRoundTrip(WavFile.FormatTag.ALAW, 2, 0);
+    }
+
+    /**
+     * 最后一个块不满，帧数以 fact chunk 为准
+     */
+    @Test
+    public void write_imaAdpcm_decodesAboveMinSnr() throws Exception {
+        checkCodecRoundTrip(WavFile.FormatTag.IMA_ADPCM, 2, 40);
+    }
+
+    /**
+     * 以压缩格式写入 16 bit 正弦波后读回，帧数一致
+     * @param minSnrDb 大于 0 时检查信噪比，否则按 G.711 的量化误差检查每个采样点
+     */
+    private void checkCodecRoundTrip(int formatTag, int channelCount, double minSnrDb) throws IOException {
+        File file = mTempFolder.newFile();
+        int frameCount = 10000;
+        ByteBuffer source = ByteBuffer.allocate(frameCount * channelCount * 2).order(ByteOrder.LITTLE_ENDIAN);
+        for (int i = 0; i < frameCount; i++) {
+            for (int ch = 0; ch < channelCount; ch++) {
+                source.putShort((short) (20000 * Math.sin(i * (0.02 + ch * 0.01))));
+            }
+        }
+        writeWav(file, newHeadInfo(channelCount, 2).setFormatTag(formatTag), source.array());
+
+        WavFile wavFile = new WavFile(file.getPath());
+        try {
+            assertEquals(formatTag, wavFile.getHeadInfo().getFormatTag());
+            assertEquals(frameCount, wavFile.getFrameCount());
+        } finally {
+            wavFile.close();
+        }
+        ByteBuffer decoded = ByteBuffer.wrap(RotatingWavSinkTest.readWav(file)).order(ByteOrder.LITTLE_ENDIAN);
+        double signalPower = 0;
+        double noisePower = 0;
+        for (int i = 0; i < frameCount * channelCount; i++) {
+            int expected = source.getShort(i * 2);
+            int error = decoded.getShort(i * 2) - expected;
+            signalPower += (double) expected * expected;
+            noisePower += (double) error * error;
+            if (minSnrDb <= 0) {
+                // G.711 每段的量化步长约为该段幅度的 1/16
+                assertTrue("sample " + i + " error " + error, Math.abs(error) <= Math.abs(expected) / 16 + 32);
+            }
+        }
+        double snrDb = 10 * Math.log10(signalPower / Math.max(1, noisePower));
+        assertTrue("snr " + snrDb + "dB", snrDb >= minSnrDb);
+    }
+
+    /**
+     * 检查点之后崩溃的录音，末尾追加的静音不能当作 chunk 逐个遍历，修复后的长度以文件实际长度为准
+     */
+    @Test
+    public void recover_dataAppendedAfterCheckpoint_extendsToFileEnd() throws Exception {
+        File file = mTempFolder.newFile("crash.wav");
+        int checkpointFrames = 1000;
+        int appendedFrames = 8 * 1024 * 1024;
+        WavFile wavFile = new WavFile(file.getPath(), newHeadInfo(1, 2));
+        wavFile.write(new byte[checkpointFrames * 2], 0, checkpointFrames * 2);
+        wavFile.checkpoint();
+        wavFile.write(new byte[appendedFrames * 2], 0, appendedFrames * 2);
+        // 不关闭文件，模拟进程崩溃，文件头中只有检查点时的长度
+        wavFile.flush();
+
+        long startNs = System.nanoTime();
+        WavFile crashedFile = new WavFile(file.getPath());
+        try {
+            assertEquals(checkpointFrames, crashedFile.getFrameCount());
+            assertEquals(Arrays.asList("JUNK", "fmt ", "data"),
+                    new ArrayList<>(crashedFile.getHeadInfo().getChunkIndex().keySet()));
+        } finally {
+            crashedFile.close();
+        }
+        long recoveredBytes = WavFile.recover(file.getPath());
+        long elapsedMs = (System.nanoTime() - startNs) / 1000000;
+
+        assertEquals((checkpointFrames + appendedFrames) * 2L, recoveredBytes);
+        assertTrue("Took " + elapsedMs + "ms", elapsedMs < 1000);
+        WavFile recoveredFile = new WavFile(file.getPath());
+        try {
+            assertEquals(checkpointFrames + appendedFrames, recoveredFile.getFrameCount());
+        } finally {
+            recoveredFile.close();
+        }
+    }
+
+    static WavFile.HeadInfo newHeadInfo(int channelCount, int bytePerSample) {
+        return WavFile.HeadInfo.build().setSampleRate(44100).setChannelCount(channelCount)
+                .setBytePerSample(bytePerSample);
+    }
+
+    static byte[] newPcm(int len) {
+        byte[] pcm = new byte[len];
+        for (int i = 0; i < len; i++) {
+            pcm[i] = (byte) (i * 37 + i / 251);
+        }
+        return pcm;
+    }
+
+    static void writeWav(File file, WavFile.HeadInfo headInfo, byte[] pcm) throws IOException {
+        WavFile wavFile = new WavFile(file.getPath(), headInfo);
+        try {
+            wavFile.write(pcm, 0, pcm.length);
+        } finally {
+            wavFile.close();
+        }
+    }
+
+    private static String readChunkId(File file, long offset) throws IOException {
+        byte[] chunkId = new byte[4];
+        RandomAccessFile randomAccessFile = new RandomAccessFile(file, "r");
+        try {
+            randomAccessFile.seek(offset);
+            randomAccessFile.readFully(chunkId);
+        } finally {
+            randomAccessFile.close();
+        }
+        return new String(chunkId, "US-ASCII");
+    }
+
+    private static byte[] chunk(String id, byte[] payload) {
+        ByteBuffer chunk = ByteBuffer.allocate(8 + payload.length + (payload.length & 1))
+                .order(ByteOrder.LITTLE_ENDIAN);
+        chunk.putInt(WavFile.chunkId(id)).putInt(payload.length).put(payload);
+        return chunk.array();
+    }
+
+    private static void writeRiff(File file, byte[]... chunks) throws IOException {
+        int riffSize = 4;
+        for (byte[] chunk : chunks) {
+            riffSize += chunk.length;
+        }
+        ByteBuffer header = ByteBuffer.allocate(12).order(ByteOrder.LITTLE_ENDIAN);
+        header.putInt(WavFile.chunkId("RIFF")).putInt(riffSize).putInt(WavFile.chunkId("WAVE"));
+        FileOutputStream outputStream = new FileOutputStream(file);
+        try {
+            outputStream.write(header.array());
+            for (byte[] chunk : chunks) {
+                outputStream.write(chunk);
+            }
+        } finally {
+            outputStream.close();
+        }
+    }
+}
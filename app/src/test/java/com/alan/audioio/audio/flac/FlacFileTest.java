@@ -0,0 +1,253 @@
+/*
+ * Copyright (c) 2019-present AlanWang4523 <alanwang4523@gmail.com>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.alan.audioio.audio.flac;
+
+import com.alan.audioio.audio.WavFile;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.lang.reflect.Field;
+import java.nio.ByteBuffer;
+import java.security.MessageDigest;
+import java.util.Random;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+/**
+ * Author: AlanWang4523.
+ * Date: 2020/12/21 14:36.
+ * Mail: alanwang4523@gmail.com
+ */
+public class FlacFileTest {
+    /**
+     * 不是 DEFAULT_BLOCK_SIZE 的整数倍，最后一帧不满
+     */
+    private static final int FRAME_COUNT = FlacFile.DEFAULT_BLOCK_SIZE * 5 + 1234;
+
+    @Rule
+    public TemporaryFolder mTempFolder = new TemporaryFolder();
+
+    @Test
+    public void write_pcm16StereoOnEncodePool_decodesLossless() throws Exception {
+        checkRoundTrip(2, 2, 2);
+    }
+
+    @Test
+    public void write_pcm24Mono_decodesLossless() throws Exception {
+        checkRoundTrip(1, 3, 0);
+    }
+
+    @Test
+    public void write_pcm8Stereo_decodesLossless() throws Exception {
+        checkRoundTrip(2, 1, 0);
+    }
+
+    /**
+     * 第一帧末尾的 CRC-16 损坏时解码失败，不能输出错误的数据
+     */
+    @Test
+    public void read_corruptedFrameCrc_throws() throws Exception {
+        File file = mTempFolder.newFile("crc.flac");
+        writeFlac(file, newHeadInfo(2, 2), newPcm(2, 2), 0);
+        long[] layout = readLayout(file);
+        long secondFrameOffset = layout[0] + layout[1];
+        RandomAccessFile randomAccessFile = new RandomAccessFile(file, "rw");
+        try {
+            randomAccessFile.seek(secondFrameOffset - 1);
+            int crcByte = randomAccessFile.read();
+            randomAccessFile.seek(secondFrameOffset - 1);
+            randomAccessFile.write(crcByte ^ 0x01);
+        } finally {
+            randomAccessFile.close();
+        }
+
+        FlacFile flacFile = new FlacFile(file.getPath());
+        try {
+            flacFile.read(new byte[4096], 0, 4096);
+            fail("A flac frame with a bad crc should not decode.");
+        } catch (IOException expected) {
+            assertTrue(expected.getMessage(), expected.getMessage().contains("crc"));
+        } finally {
+            flacFile.close();
+        }
+    }
+
+    /**
+     * 写文件失败后不再接受新的数据：之后的 write 抛出第一个异常，回调中的写入被忽略，close 时抛出同一个异常
+     */
+    @Test
+    public void write_afterFailure_rejectsData() throws Exception {
+        File file = mTempFolder.newFile("fail.flac");
+        WavFile.HeadInfo headInfo = newHeadInfo(1, 2);
+        byte[] block = new byte[FlacFile.DEFAULT_BLOCK_SIZE * 2];
+        FlacFile flacFile = new FlacFile(file.getPath(), headInfo, 0);
+        flacFile.write(block, 0, block.length);
+        // 关闭底层文件，模拟存储故障
+        Field fileField = FlacFile.class.getDeclaredField("mFile");
+        fileField.setAccessible(true);
+        ((RandomAccessFile) fileField.get(flacFile)).close();
+
+        IOException firstException = null;
+        try {
+            flacFile.write(block, 0, block.length);
+            fail("Writing to a closed file should fail.");
+        } catch (IOException expected) {
+            firstException = expected;
+        }
+        try {
+            flacFile.write(new byte[2], 0, 2);
+            fail("A write after a failure should be rejected.");
+        } catch (IOException expected) {
+            assertSame(firstException, expected);
+        }
+        flacFile.onDataAvailable(ByteBuffer.wrap(block));
+        assertEquals(FlacFile.DEFAULT_BLOCK_SIZE * 2, flacFile.getFrameCount());
+        try {
+            flacFile.close();
+            fail("The failure should be reported by close.");
+        } catch (IOException expected) {
+            assertSame(firstException, expected);
+        }
+    }
+
+    /**
+     * 写入后解码，数据逐字节一致，STREAMINFO 中的总帧数和 MD5 与原始数据一致
+     */
+    private void checkRoundTrip(int channelCount, int bytePerSample, int encodeThreadCount) throws Exception {
+        File file = mTempFolder.newFile();
+        byte[] pcm = newPcm(channelCount, bytePerSample);
+        writeFlac(file, newHeadInfo(channelCount, bytePerSample), pcm, encodeThreadCount);
+
+        FlacFile flacFile = new FlacFile(file.getPath());
+        ByteArrayOutputStream decoded = new ByteArrayOutputStream();
+        try {
+            assertEquals(FRAME_COUNT, flacFile.getFrameCount());
+            assertEquals(channelCount, flacFile.getHeadInfo().getChannelCount());
+            assertEquals(bytePerSample, flacFile.getHeadInfo().getBytePerSample());
+            byte[] buffer = new byte[3000];
+            int readLen;
+            while ((readLen = flacFile.read(buffer, 0, buffer.length)) > 0) {
+                decoded.write(buffer, 0, readLen);
+            }
+        } finally {
+            flacFile.close();
+        }
+        assertArrayEquals(pcm, decoded.toByteArray());
+
+        // FLAC 的 MD5 是对有符号的小端采样点计算的，8 bit 的无符号数需要先转换
+        byte[] signedPcm = pcm.clone();
+        if (bytePerSample == 1) {
+            for (int i = 0; i < signedPcm.length; i++) {
+                signedPcm[i] ^= (byte) 0x80;
+            }
+        }
+        byte[] expectedMd5 = MessageDigest.getInstance("MD5").digest(signedPcm);
+        assertArrayEquals(expectedMd5, readStreamInfoMd5(file));
+    }
+
+    private static WavFile.HeadInfo newHeadInfo(int channelCount, int bytePerSample) {
+        return WavFile.HeadInfo.build().setSampleRate(44100).setChannelCount(channelCount)
+                .setBytePerSample(bytePerSample).setFormatTag(WavFile.FormatTag.PCM);
+    }
+
+    /**
+     * 正弦波叠加噪声，左右声道不同，使编码器用到预测和 Rice 编码
+     */
+    private static byte[] newPcm(int channelCount, int bytePerSample) {
+        Random random = new Random(bytePerSample * 10 + channelCount);
+        int maxValue = (1 << (bytePerSample * 8 - 1)) - 1;
+        byte[] pcm = new byte[FRAME_COUNT * channelCount * bytePerSample];
+        int pos = 0;
+        for (int i = 0; i < FRAME_COUNT; i++) {
+            for (int ch = 0; ch < channelCount; ch++) {
+                double value = 0.6 * Math.sin(i * (0.01 + ch * 0.007)) + 0.05 * (random.nextDouble() - 0.5);
+                int sample = (int) (value * maxValue);
+                if (bytePerSample == 1) {
+                    pcm[pos++] = (byte) (sample + 128);
+                    continue;
+                }
+                for (int b = 0; b < bytePerSample; b++) {
+                    pcm[pos++] = (byte) (sample >> (b * 8));
+                }
+            }
+        }
+        return pcm;
+    }
+
+    private static void writeFlac(File file, WavFile.HeadInfo headInfo, byte[] pcm,
+                                  int encodeThreadCount) throws IOException {
+        FlacFile flacFile = new FlacFile(file.getPath(), headInfo, encodeThreadCount);
+        try {
+            // 不按块对齐写入
+            for (int offset = 0; offset < pcm.length; offset += 1000) {
+                flacFile.write(pcm, offset, Math.min(1000, pcm.length - offset));
+            }
+        } finally {
+            flacFile.close();
+        }
+    }
+
+    private static byte[] readStreamInfoMd5(File file) throws IOException {
+        byte[] md5 = new byte[16];
+        RandomAccessFile randomAccessFile = new RandomAccessFile(file, "r");
+        try {
+            // "fLaC"(4) + 元数据块头(4) + STREAMINFO 中 MD5 之前的 18 字节
+            randomAccessFile.seek(4 + 4 + 18);
+            randomAccessFile.readFully(md5);
+        } finally {
+            randomAccessFile.close();
+        }
+        return md5;
+    }
+
+    /**
+     * 遍历元数据块
+     * @return 第一帧在文件中的偏移，以及 SEEKTABLE 中第二个 seek point 相对第一帧的偏移
+     */
+    private static long[] readLayout(File file) throws IOException {
+        RandomAccessFile randomAccessFile = new RandomAccessFile(file, "r");
+        try {
+            long offset = 4;
+            long secondFrameOffset = -1;
+            boolean isLastBlock = false;
+            while (!isLastBlock) {
+                randomAccessFile.seek(offset);
+                int blockHeader = randomAccessFile.readInt();
+                isLastBlock = (blockHeader >>> 31) == 1;
+                int blockType = (blockHeader >>> 24) & 0x7F;
+                int blockLength = blockHeader & 0xFFFFFF;
+                if (blockType == 3) {
+                    // 每个 seek point 18 字节：起始帧(8) + 偏移(8) + 帧数(2)
+                    randomAccessFile.seek(offset + 4 + 18 + 8);
+                    secondFrameOffset = randomAccessFile.readLong();
+                }
+                offset += 4 + blockLength;
+            }
+            assertTrue(secondFrameOffset > 0);
+            return new long[]{offset, secondFrameOffset};
+        } finally {
+            randomAccessFile.close();
+        }
+    }
+}
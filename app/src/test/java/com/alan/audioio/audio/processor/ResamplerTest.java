@@ -0,0 +1,125 @@
+/*
+ * Copyright (c) 2019-present AlanWang4523 <alanwang4523@gmail.com>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.alan.audioio.audio.processor;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Author: AlanWang4523.
+ * Date: 2020/12/21 16:05.
+ * Mail: alanwang4523@gmail.com
+ */
+public class ResamplerTest {
+    private static final double AMPLITUDE = 0.5;
+
+    @Test
+    public void process_44100To48000_outputsExpectedFrameCount() {
+        checkFrameCount(44100, 48000, 2);
+    }
+
+    @Test
+    public void process_48000To44100_outputsExpectedFrameCount() {
+        checkFrameCount(48000, 44100, 1);
+    }
+
+    @Test
+    public void process_sameRate_outputsExpectedFrameCount() {
+        checkFrameCount(16000, 16000, 2);
+    }
+
+    @Test
+    public void process_44100To48000_keepsSineAmplitudeAndPhase() {
+        checkSine(44100, 48000, 1000);
+    }
+
+    @Test
+    public void process_48000To16000_keepsSineAmplitudeAndPhase() {
+        checkSine(48000, 16000, 1000);
+    }
+
+    /**
+     * 降采样时高于新的奈奎斯特频率的信号要被滤除，不能混叠到低频
+     */
+    @Test
+    public void process_96000To48000_filtersAboveNyquist() {
+        float[] out = resample(96000, 48000, 30000, 96000);
+        double peak = 0;
+        for (int i = out.length / 4; i < out.length * 3 / 4; i++) {
+            peak = Math.max(peak, Math.abs(out[i]));
+        }
+        assertTrue("peak " + peak, peak < AMPLITUDE * 0.001);
+    }
+
+    /**
+     * 按不规则的块大小输入，加上 flush 的输出，总帧数为 ceil(输入帧数 * 输出采样率 / 输入采样率)
+     */
+    private static void checkFrameCount(int inputRate, int outputRate, int channelCount) {
+        Resampler resampler = new Resampler(inputRate, outputRate, channelCount, Resampler.Quality.MEDIUM);
+        int[] blockFrames = {1, 7, 256, 1000, 4096, 3};
+        float[] in = new float[4096 * channelCount];
+        float[] out = new float[resampler.getMaxOutputFrames(4096 + resampler.getFilterLength()) * channelCount];
+        long inputFrames = 0;
+        long outputFrames = 0;
+        for (int i = 0; i < 60; i++) {
+            int frames = blockFrames[i % blockFrames.length];
+            outputFrames += resampler.process(in, 0, frames, out, 0);
+            inputFrames += frames;
+        }
+        outputFrames += resampler.flush(out, 0);
+        assertEquals((inputFrames * outputRate + inputRate - 1) / inputRate, outputFrames);
+    }
+
+    /**
+     * 重采样后的正弦波与按输出采样率直接生成的正弦波一致：幅度不变，第一个输出与第一个输入对齐
+     */
+    private static void checkSine(int inputRate, int outputRate, double frequency) {
+        float[] out = resample(inputRate, outputRate, frequency, inputRate);
+        double peak = 0;
+        double maxError = 0;
+        // 跳过开头和末尾滤波器的过渡部分
+        for (int i = out.length / 10; i < out.length * 9 / 10; i++) {
+            double expected = AMPLITUDE * Math.sin(2 * Math.PI * frequency * i / outputRate);
+            peak = Math.max(peak, Math.abs(out[i]));
+            maxError = Math.max(maxError, Math.abs(out[i] - expected));
+        }
+        assertEquals(AMPLITUDE, peak, AMPLITUDE * 0.01);
+        assertTrue("max error " + maxError, maxError < AMPLITUDE * 0.001);
+    }
+
+    /**
+     * 单声道正弦波，按 500 帧一块输入并 flush
+     * @return 全部输出
+     */
+    private static float[] resample(int inputRate, int outputRate, double frequency, int inputFrames) {
+        Resampler resampler = new Resampler(inputRate, outputRate, 1, Resampler.Quality.HIGH);
+        float[] in = new float[inputFrames];
+        for (int i = 0; i < inputFrames; i++) {
+            in[i] = (float) (AMPLITUDE * Math.sin(2 * Math.PI * frequency * i / inputRate));
+        }
+        float[] out = new float[resampler.getMaxOutputFrames(inputFrames + resampler.getFilterLength())];
+        int outFrames = 0;
+        for (int offset = 0; offset < inputFrames; offset += 500) {
+            outFrames += resampler.process(in, offset, Math.min(500, inputFrames - offset), out, outFrames);
+        }
+        outFrames += resampler.flush(out, outFrames);
+        float[] result = new float[outFrames];
+        System.arraycopy(out, 0, result, 0, outFrames);
+        return result;
+    }
+}